@@ -0,0 +1,343 @@
+package org.payn.stream;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs an ensemble of stream simulations concurrently in one JVM
+ * on a bounded pool of threads, so the members share the cost of
+ * JVM startup, class loading, and compilation.
+ *
+ * Each member creates its own simulator in its own working directory
+ * under the ensemble directory, so the members share no model state
+ * and write their builds, snapshots, build caches, and reports to
+ * separate directories.  Members that build in parallel create their
+ * own thread pools, so the threads of the members should be limited
+ * when the ensemble uses all processors.  Members built from variants
+ * of the same configuration can share one {@link StreamTopology}
+ * through their meta inputs.
+ *
+ * @author robpayn
+ *
+ */
+public class EnsembleRunner {
+
+   /**
+    * A member of the ensemble
+    *
+    * @author robpayn
+    *
+    */
+   public static abstract class Member {
+
+      /**
+       * Name of the member, also the name of its working directory
+       */
+      private String name;
+
+      /**
+       * Construct a new member with the provided name
+       *
+       * @param name
+       *       name of the member
+       */
+      public Member(String name)
+      {
+         this.name = name;
+      }
+
+      /**
+       * Get the name of the member
+       *
+       * @return
+       *       name
+       */
+      public String getName()
+      {
+         return name;
+      }
+
+      /**
+       * Create the simulator of the member, with its input processors
+       * added.  Called on the thread that runs the member.
+       *
+       * @param workingDir
+       *       working directory of the member, which exists
+       * @return
+       *       simulator ready to execute
+       * @throws Exception
+       *       if error in creating the simulator
+       */
+      protected abstract SimulatorStream createSimulator(File workingDir) throws Exception;
+
+   }
+
+   /**
+    * Result of running a member of the ensemble
+    *
+    * @author robpayn
+    *
+    */
+   public static class Result {
+
+      /**
+       * Name of the member
+       */
+      private String name;
+
+      /**
+       * Working directory of the member
+       */
+      private File workingDir;
+
+      /**
+       * Error that stopped the member, null if it finished
+       */
+      private Exception error;
+
+      /**
+       * Run time in milliseconds
+       */
+      private long elapsedMillis;
+
+      /**
+       * Construct a new result
+       *
+       * @param name
+       *       name of the member
+       * @param workingDir
+       *       working directory of the member
+       * @param error
+       *       error that stopped the member, null if it finished
+       * @param elapsedMillis
+       *       run time in milliseconds
+       */
+      private Result(String name, File workingDir, Exception error, long elapsedMillis)
+      {
+         this.name = name;
+         this.workingDir = workingDir;
+         this.error = error;
+         this.elapsedMillis = elapsedMillis;
+      }
+
+      /**
+       * Get the name of the member
+       *
+       * @return
+       *       name
+       */
+      public String getName()
+      {
+         return name;
+      }
+
+      /**
+       * Get the working directory of the member
+       *
+       * @return
+       *       working directory
+       */
+      public File getWorkingDir()
+      {
+         return workingDir;
+      }
+
+      /**
+       * Did the member finish without an error?
+       *
+       * @return
+       *       true if the member finished, false otherwise
+       */
+      public boolean isSuccess()
+      {
+         return error == null;
+      }
+
+      /**
+       * Get the error that stopped the member
+       *
+       * @return
+       *       error, null if the member finished
+       */
+      public Exception getError()
+      {
+         return error;
+      }
+
+      /**
+       * Get the run time of the member
+       *
+       * @return
+       *       run time in milliseconds
+       */
+      public long getElapsedMillis()
+      {
+         return elapsedMillis;
+      }
+
+   }
+
+   /**
+    * Directory with the working directories of the members
+    */
+   private File ensembleDir;
+
+   /**
+    * Number of members run at the same time
+    */
+   private int threads;
+
+   /**
+    * Members of the ensemble by name, in the order they were added
+    */
+   private LinkedHashMap<String, Member> members;
+
+   /**
+    * Construct a new ensemble in the provided directory
+    *
+    * @param ensembleDir
+    *       directory with the working directories of the members
+    * @param threads
+    *       number of members run at the same time
+    */
+   public EnsembleRunner(File ensembleDir, int threads)
+   {
+      this.ensembleDir = ensembleDir;
+      this.threads = Math.max(1, threads);
+      this.members = new LinkedHashMap<String, Member>();
+   }
+
+   /**
+    * Add a member to the ensemble
+    *
+    * @param member
+    *       member to add
+    * @throws Exception
+    *       if a member with the same name was already added
+    */
+   public void addMember(Member member) throws Exception
+   {
+      if (members.containsKey(member.getName()))
+      {
+         throw new Exception(String.format(
+               "Ensemble already has a member named %s",
+               member.getName()
+               ));
+      }
+      members.put(member.getName(), member);
+   }
+
+   /**
+    * Get the number of members
+    *
+    * @return
+    *       number of members
+    */
+   public int getNumMembers()
+   {
+      return members.size();
+   }
+
+   /**
+    * Run all members of the ensemble.  A member that fails does not
+    * stop the other members, its error is returned in its result.
+    *
+    * @return
+    *       results of the members, in the order they were added
+    * @throws Exception
+    *       if the ensemble is interrupted
+    */
+   public ArrayList<Result> run() throws Exception
+   {
+      System.out.println(String.format(
+            "Running %d ensemble members on %d threads...",
+            members.size(),
+            threads
+            ));
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try
+      {
+         ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>();
+         for (final Member member: members.values())
+         {
+            futures.add(executor.submit(new Callable<Result>() {
+               @Override
+               public Result call()
+               {
+                  return runMember(member);
+               }
+            }));
+         }
+         ArrayList<Result> results = new ArrayList<Result>();
+         int failed = 0;
+         for (Future<Result> future: futures)
+         {
+            Result result = future.get();
+            if (!result.isSuccess())
+            {
+               failed++;
+            }
+            results.add(result);
+         }
+         System.out.println(String.format(
+               "Ensemble finished, %d of %d members failed",
+               failed,
+               results.size()
+               ));
+         return results;
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Run a member in its own working directory
+    *
+    * @param member
+    *       member to run
+    * @return
+    *       result of the member
+    */
+   private Result runMember(Member member)
+   {
+      File workingDir = new File(ensembleDir, member.getName());
+      long start = System.currentTimeMillis();
+      try
+      {
+         if (!workingDir.isDirectory() && !workingDir.mkdirs())
+         {
+            throw new Exception(String.format(
+                  "Unable to create the working directory %s",
+                  workingDir.getPath()
+                  ));
+         }
+         SimulatorStream simulator = member.createSimulator(workingDir);
+         simulator.execute();
+         long elapsed = System.currentTimeMillis() - start;
+         System.out.println(String.format(
+               "Ensemble member %s finished in %.1f s",
+               member.getName(),
+               elapsed / 1000.0
+               ));
+         return new Result(member.getName(), workingDir, null, elapsed);
+      }
+      catch (Exception e)
+      {
+         System.out.println(String.format(
+               "Ensemble member %s failed: %s",
+               member.getName(),
+               e.getMessage()
+               ));
+         return new Result(member.getName(), workingDir, e,
+               System.currentTimeMillis() - start);
+      }
+   }
+
+}
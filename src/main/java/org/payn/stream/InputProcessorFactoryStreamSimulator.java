@@ -39,6 +39,15 @@ public abstract class InputProcessorFactoryStreamSimulator extends InputProcesso
    public abstract void addMetabolismBuilderInputProcessor(File workingDir, String configPath)
          throws Exception;
 
+   /**
+    * Add a stream builder input processor for a configuration
+    * held in memory
+    * 
+    * @param metaInput
+    *       meta input with the stream configuration
+    */
+   public abstract void addMetabolismBuilderInputProcessor(MetaInputMemoryStream metaInput);
+
    /**
     * Add a stream builder input processor
     * 
@@ -49,4 +58,13 @@ public abstract class InputProcessorFactoryStreamSimulator extends InputProcesso
    public abstract void addHyperUptakeBuilderInputProcessor(File workingDir, String configPath)
          throws Exception;
 
+   /**
+    * Add a stream builder input processor for a configuration
+    * held in memory
+    * 
+    * @param metaInput
+    *       meta input with the stream configuration
+    */
+   public abstract void addHyperUptakeBuilderInputProcessor(MetaInputMemoryStream metaInput);
+
 }
@@ -1,14 +1,22 @@
 package org.payn.stream;
 
 import java.io.File;
+import java.util.HashSet;
 
-import org.payn.chsm.io.xmltools.ElementBehavior;
 import org.payn.chsm.resources.Behavior;
 import org.payn.chsm.resources.Resource;
 import org.payn.chsm.resources.time.BehaviorTime;
 import org.payn.chsm.resources.time.ResourceTime;
-import org.payn.neoch.io.xmltools.DocumentHolonMatrix;
 import org.payn.simulation.InputProcessorAbstract;
+import org.payn.simulation.metainputs.MetaInput;
+import org.payn.stream.io.BuildCache;
+import org.payn.stream.io.HolonMatrixTarget;
+import org.payn.stream.io.HolonMatrixTarget.BehaviorTarget;
+import org.payn.stream.io.HolonMatrixTargetDefinition;
+import org.payn.stream.io.HolonMatrixTargetStAX;
+import org.payn.stream.io.HolonMatrixTargetXML;
+import org.payn.stream.io.MatrixDefinition;
+import org.payn.stream.io.MatrixDefinitionView;
 
 /**
  * Abstract implementation of an input processor that creates a
@@ -21,13 +29,14 @@ import org.payn.simulation.InputProcessorAbstract;
  * @param <ST> 
  *      simulator type
  */
-public abstract class InputProcessorXMLNEOCHBuilder<MIT extends MetaInputXMLNEOCH, ST extends SimulatorNEOCH> 
+public abstract class InputProcessorXMLNEOCHBuilder<MIT extends MetaInput & MetaInputNEOCH, 
+      ST extends SimulatorNEOCH> 
       extends InputProcessorAbstract<MIT, ST> {
 
    /**
-    * Holon XML document
+    * Target for the holons created by the builder
     */
-   protected DocumentHolonMatrix documentHolon;
+   protected HolonMatrixTarget matrixTarget;
 
    /**
     * Construct a new instance with the given meta input and simulator
@@ -38,51 +47,343 @@ public abstract class InputProcessorXMLNEOCHBuilder<MIT extends MetaInputXMLNEOC
    public InputProcessorXMLNEOCHBuilder(MIT metaInput, ST sim) 
    {
       super(metaInput, sim);
+      sim.setBuilderInput(metaInput);
    }
 
    @Override
    public void execute() throws Exception 
    {
+      File snapshotFile = metaInput.getSnapshotFile();
       if (!metaInput.isActive())
       {
          System.out.println("Builder is inactive, attempting to run existing model...");
+         useExistingModel(snapshotFile);
       }
       else
       {
-         System.out.println("Building the NEOCH files...");
-
          File holonFile = metaInput.getHolonFile();
-         documentHolon = new DocumentHolonMatrix(holonFile.getName());
-         
-         Resource resourceTime = new ResourceTime();
-         resourceTime.initialize("time");
-         Behavior behaviorTime = resourceTime.getBehavior(
-               ResourceTime.BEHAVIOR_TIME
-               );
-         ElementBehavior elementTime =
-               documentHolon.getRootHolonElement().createBehaviorElement(behaviorTime);
-         elementTime.createInitValueElement(
-               BehaviorTime.ITERATION_INTERVAL,
-               metaInput.getAttributeTimeInterval().toString(), 
-               null
-               );
-         elementTime.createInitValueElement(
-               BehaviorTime.LAST_ITERATION,
-               metaInput.getAttributeLastIteration().toString(), 
-               null
-               );
-         
-         configureResources();
-         
-         configureModel();
-         
-         // Write the model input files
-         holonFile.getParentFile().mkdirs();
-         documentHolon.write(holonFile.getParentFile());
+         boolean isInMemory = isInMemory();
+         File buildOutput = getBuildOutput(holonFile, snapshotFile, isInMemory);
+         BuildCache cache = createBuildCache(holonFile, buildOutput);
+         if (cache != null && cache.isCurrent(buildOutput))
+         {
+            System.out.println("Builder configuration is unchanged, running existing model...");
+            useExistingModel(snapshotFile);
+         }
+         else if (cache != null && metaInput.isIncremental() && buildOutput == snapshotFile
+               && cache.isStructureCurrent(buildOutput) 
+               && patch(holonFile, snapshotFile))
+         {
+            cache.store();
+         }
+         else
+         {
+            if (cache != null)
+            {
+               cache.invalidate();
+            }
+            build(holonFile, snapshotFile, isInMemory);
+            if (cache != null)
+            {
+               cache.store();
+            }
+         }
       }
       simulator.initializeModel();
    }
 
+   /**
+    * Build the model files
+    * 
+    * @param holonFile
+    *       location of the holon file
+    * @param snapshotFile
+    *       location of the binary snapshot, null if no snapshot is written
+    * @param isInMemory
+    *       true if the matrix is built in memory
+    * @throws Exception
+    *       if error in building the model
+    */
+   private void build(File holonFile, File snapshotFile, boolean isInMemory) 
+         throws Exception
+   {
+      if (isInMemory)
+      {
+         System.out.println("Building the NEOCH matrix in memory...");
+         MatrixDefinition definition = new MatrixDefinition(holonFile.getName());
+         matrixTarget = new HolonMatrixTargetDefinition(definition);
+         buildMatrix();
+         simulator.setMatrixDefinition(shareDefinition(definition));
+         if (snapshotFile != null)
+         {
+            System.out.println("Writing the matrix snapshot...");
+            definition.writeSnapshot(snapshotFile);
+         }
+         if (metaInput.isExportXML())
+         {
+            System.out.println("Exporting the NEOCH files...");
+            HolonMatrixTargetXML targetXML = createTargetXML(holonFile);
+            try
+            {
+               definition.replay(targetXML);
+               targetXML.write(holonFile);
+            }
+            finally
+            {
+               targetXML.discard();
+            }
+         }
+      }
+      else
+      {
+         System.out.println("Building the NEOCH files...");
+         HolonMatrixTargetXML targetXML = createTargetXML(holonFile);
+         matrixTarget = targetXML;
+         try
+         {
+            buildMatrix();
+            targetXML.write(holonFile);
+         }
+         finally
+         {
+            targetXML.discard();
+         }
+         if (snapshotFile != null && snapshotFile.exists())
+         {
+            // Remove the snapshot of a previous build so it is not loaded
+            snapshotFile.delete();
+         }
+      }
+   }
+
+   /**
+    * Share the definition of a matrix built in memory with other
+    * models of the same structure
+    * 
+    * @param definition
+    *       matrix definition
+    * @return
+    *       definition to build the matrix from, the provided
+    *       definition if it is not shared
+    */
+   protected MatrixDefinitionView shareDefinition(MatrixDefinition definition)
+   {
+      return definition;
+   }
+
+   /**
+    * Patch the root and default behavior values in the snapshot
+    * of a previous build
+    * 
+    * @param holonFile
+    *       location of the holon file
+    * @param snapshotFile
+    *       location of the binary snapshot
+    * @return
+    *       true if the snapshot was patched, false if the matrix 
+    *       must be rebuilt
+    * @throws Exception
+    *       if error in patching the snapshot
+    */
+   private boolean patch(File holonFile, File snapshotFile) throws Exception
+   {
+      System.out.println("Only patchable parameters changed, patching the matrix snapshot...");
+      MatrixDefinition globals = new MatrixDefinition(holonFile.getName());
+      matrixTarget = new HolonMatrixTargetDefinition(globals);
+      buildGlobals();
+      MatrixDefinition definition = MatrixDefinition.readSnapshot(snapshotFile);
+      int changed = definition.patchGlobals(globals);
+      if (changed == MatrixDefinition.NONE)
+      {
+         System.out.println("Global behaviors of the matrix changed, rebuilding the matrix...");
+         return false;
+      }
+      System.out.println(String.format("Patched %d initial values", changed));
+      definition.writeSnapshot(snapshotFile);
+      simulator.setMatrixDefinition(definition);
+      return true;
+   }
+
+   /**
+    * Run the model built previously, from the snapshot if one exists
+    * or from the holon XML files otherwise
+    * 
+    * @param snapshotFile
+    *       location of the binary snapshot, null if no snapshot is configured
+    */
+   private void useExistingModel(File snapshotFile)
+   {
+      if (snapshotFile != null && snapshotFile.exists())
+      {
+         simulator.setSnapshotFile(snapshotFile, metaInput.isMapSnapshot());
+      }
+   }
+
+   /**
+    * Get the file that the build leaves on disk for later runs
+    * 
+    * @param holonFile
+    *       location of the holon file
+    * @param snapshotFile
+    *       location of the binary snapshot, null if no snapshot is configured
+    * @param isInMemory
+    *       true if the matrix is built in memory
+    * @return
+    *       snapshot or holon file, null if the model is only built in memory
+    */
+   private File getBuildOutput(File holonFile, File snapshotFile, boolean isInMemory)
+   {
+      if (!isInMemory || metaInput.isExportXML())
+      {
+         return holonFile;
+      }
+      else
+      {
+         return snapshotFile;
+      }
+   }
+
+   /**
+    * Create the build cache for the model, keyed by the builder class
+    * and the builder configuration with the input files it references
+    * 
+    * @param holonFile
+    *       location of the holon file
+    * @param buildOutput
+    *       file the build leaves on disk, null if none
+    * @return
+    *       build cache, null if the cache is disabled or the build 
+    *       leaves no model on disk
+    * @throws Exception
+    *       if error in reading the configuration
+    */
+   private BuildCache createBuildCache(File holonFile, File buildOutput) throws Exception
+   {
+      if (!metaInput.isBuildCache() || buildOutput == null)
+      {
+         return null;
+      }
+      BuildCache cache = new BuildCache(
+            holonFile.getAbsoluteFile().getParentFile(), 
+            getPatchableAttributes()
+            );
+      cache.addString(getClass().getName());
+      cache.addString(Integer.toString(MatrixDefinition.SNAPSHOT_VERSION));
+      metaInput.addToBuildCache(cache);
+      return cache;
+   }
+
+   /**
+    * Determine if the matrix should be built in memory rather
+    * than through the holon XML files.  Matrices with a binary
+    * snapshot are built in memory.
+    * 
+    * @return
+    *       true if the matrix is built in memory, false otherwise
+    */
+   protected boolean isInMemory() throws Exception
+   {
+      return metaInput.isInMemory() || metaInput.getSnapshotFile() != null;
+   }
+
+   /**
+    * Create the target for writing the holon XML files
+    * 
+    * @param holonFile
+    *       location of the holon file
+    * @return
+    *       XML target
+    * @throws Exception
+    *       if error in creating the target
+    */
+   private HolonMatrixTargetXML createTargetXML(File holonFile) throws Exception
+   {
+      if (metaInput.isStreamXML())
+      {
+         return new HolonMatrixTargetStAX(holonFile);
+      }
+      else
+      {
+         return new HolonMatrixTargetXML(holonFile);
+      }
+   }
+
+   /**
+    * Build the matrix in the matrix target
+    * 
+    * @throws Exception
+    *       if error in building the matrix
+    */
+   private void buildMatrix() throws Exception
+   {
+      configureTime();
+      configureResources();
+      configureModel();
+      matrixTarget.commit();
+   }
+
+   /**
+    * Build only the behaviors of the root holon and the default
+    * behavior values in the matrix target
+    * 
+    * @throws Exception
+    *       if error in building the behaviors
+    */
+   private void buildGlobals() throws Exception
+   {
+      configureTime();
+      configureResources();
+      configureGlobals();
+      matrixTarget.commit();
+   }
+
+   /**
+    * Configure the time behavior of the root holon
+    * 
+    * @throws Exception
+    *       if error in creating the time behavior
+    */
+   private void configureTime() throws Exception
+   {
+      Resource resourceTime = new ResourceTime();
+      resourceTime.initialize("time");
+      Behavior behaviorTime = resourceTime.getBehavior(
+            ResourceTime.BEHAVIOR_TIME
+            );
+      BehaviorTarget elementTime =
+            matrixTarget.getRootHolon().createBehavior(behaviorTime);
+      elementTime.createInitValue(
+            BehaviorTime.ITERATION_INTERVAL,
+            getTimeInterval().toString()
+            );
+      elementTime.createInitValue(
+            BehaviorTime.LAST_ITERATION,
+            getLastIteration().toString()
+            );
+   }
+
+   /**
+    * Get the time interval of the model
+    * 
+    * @return
+    *       time interval
+    */
+   protected Double getTimeInterval()
+   {
+      return metaInput.getAttributeTimeInterval();
+   }
+
+   /**
+    * Get the last iteration of the model
+    * 
+    * @return
+    *       last iteration
+    */
+   protected Long getLastIteration()
+   {
+      return metaInput.getAttributeLastIteration();
+   }
+
    /**
     * Configure the model
     * 
@@ -90,6 +391,33 @@ public abstract class InputProcessorXMLNEOCHBuilder<MIT extends MetaInputXMLNEOC
     *       if error in model configuration
     */
    protected abstract void configureModel() throws Exception;
+
+   /**
+    * Configure only the behaviors of the root holon and the default
+    * behavior values, exactly as they are configured by configureModel(),
+    * which should call this method to configure them.  The globals are
+    * built alone to patch the snapshot of a previous build when only
+    * the patchable attributes change.
+    * 
+    * @throws Exception
+    *       if error in configuration
+    */
+   protected abstract void configureGlobals() throws Exception;
+
+   /**
+    * Get the meta input attributes that only affect the initial values
+    * configured by configureGlobals(), so that a model can be patched
+    * when only these attributes change.  Each attribute is named by its
+    * element and attribute names, separated by a slash.
+    * 
+    * @return
+    *       set of attribute names, empty if the builder does not
+    *       support incremental patching
+    */
+   protected HashSet<String> getPatchableAttributes()
+   {
+      return new HashSet<String>();
+   }
    
    /**
     * Configure the resources used in the model
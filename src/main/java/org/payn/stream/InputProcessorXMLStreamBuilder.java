@@ -1,10 +1,24 @@
 package org.payn.stream;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
-import org.payn.chsm.io.xmltools.ElementHolon;
-import org.payn.neoch.io.xmltools.ElementBoundary;
+import org.payn.simulation.metainputs.MetaInput;
+import org.payn.stream.io.HolonMatrixTarget;
+import org.payn.stream.io.HolonMatrixTargetDefinition;
+import org.payn.stream.io.MatrixDefinition;
+import org.payn.stream.io.MatrixDefinitionOverlay;
+import org.payn.stream.io.MatrixDefinitionView;
+import org.payn.stream.io.StreamGeometry;
+import org.payn.stream.io.StreamNetwork;
+import org.payn.stream.io.StreamNameTable;
+import org.payn.stream.io.HolonMatrixTarget.BoundaryTarget;
+import org.payn.stream.io.HolonMatrixTarget.HolonTarget;
 
 /**
  * Abstract input processor for building NEOCH models from meta input
@@ -13,9 +27,212 @@ import org.payn.neoch.io.xmltools.ElementBoundary;
  *
  * @param <MIT>
  */
-public abstract class InputProcessorXMLStreamBuilder<MIT extends MetaInputXMLStream>
+public abstract class InputProcessorXMLStreamBuilder<MIT extends MetaInput & MetaInputStream>
    extends InputProcessorXMLNEOCHBuilder<MIT, SimulatorStream> {
 
+   /**
+    * Minimum number of cells in a parallel segment
+    */
+   private static final int MIN_SEGMENT_CELLS = 1024;
+
+   /**
+    * Number of segments per thread in a parallel build, for load balance
+    */
+   private static final int SEGMENTS_PER_THREAD = 4;
+
+   /**
+    * Approximate number of water state values in a holon
+    */
+   private static final int WATER_VALUES = 12;
+
+   /**
+    * Approximate number of state values for each solute in a holon
+    */
+   private static final int SOLUTE_VALUES = 6;
+
+   /**
+    * Index of the first holon of a segment definition to append,
+    * after the root holon and the halo cell
+    */
+   private static final int SEGMENT_FIRST_HOLON = 2;
+
+   /**
+    * Task that builds a range of cells in parallel segments
+    * 
+    * @author robpayn
+    *
+    */
+   private class SegmentTask extends RecursiveTask<ArrayList<MatrixDefinition>> {
+
+      /**
+       * Serial version
+       */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Name of the root holon
+       */
+      private String rootName;
+
+      /**
+       * Number of the first cell in the range
+       */
+      private int firstCell;
+
+      /**
+       * Number of the last cell in the range
+       */
+      private int lastCell;
+
+      /**
+       * Maximum number of cells in a segment
+       */
+      private int segmentCells;
+
+      /**
+       * Construct a new task for the provided range of cells
+       * 
+       * @param rootName
+       *       name of the root holon
+       * @param firstCell
+       *       number of the first cell in the range
+       * @param lastCell
+       *       number of the last cell in the range
+       * @param segmentCells
+       *       maximum number of cells in a segment
+       */
+      public SegmentTask(String rootName, int firstCell, int lastCell, int segmentCells)
+      {
+         this.rootName = rootName;
+         this.firstCell = firstCell;
+         this.lastCell = lastCell;
+         this.segmentCells = segmentCells;
+      }
+
+      @Override
+      protected ArrayList<MatrixDefinition> compute()
+      {
+         if (lastCell - firstCell < segmentCells)
+         {
+            ArrayList<MatrixDefinition> segments = new ArrayList<MatrixDefinition>();
+            segments.add(buildSegment());
+            return segments;
+         }
+         int middleCell = (firstCell + lastCell) / 2;
+         SegmentTask downstream = new SegmentTask(rootName, middleCell + 1, lastCell, segmentCells);
+         downstream.fork();
+         ArrayList<MatrixDefinition> segments = 
+               new SegmentTask(rootName, firstCell, middleCell, segmentCells).compute();
+         segments.addAll(downstream.join());
+         return segments;
+      }
+
+      /**
+       * Build the segment in its own matrix definition
+       * 
+       * @return
+       *       segment definition
+       */
+      private MatrixDefinition buildSegment()
+      {
+         MatrixDefinition segment = new MatrixDefinition(rootName);
+         HolonMatrixTargetDefinition target = new HolonMatrixTargetDefinition(segment);
+         try
+         {
+            // Halo cell standing in for the last cell of the upstream segment,
+            // resolved by name when the segment is appended
+            HolonTarget elementCellHalo = target.createCell(nameTable.getCellName(firstCell - 1));
+            configureCells(target, elementCellHalo, firstCell, lastCell);
+         }
+         catch (Exception e)
+         {
+            throw new SegmentException(e);
+         }
+         return segment;
+      }
+
+   }
+
+   /**
+    * Task that builds the cells of a reach in a stream network
+    * 
+    * @author robpayn
+    *
+    */
+   private class ReachTask extends RecursiveTask<MatrixDefinition> {
+
+      /**
+       * Serial version
+       */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Name of the root holon
+       */
+      private String rootName;
+
+      /**
+       * Index of the reach
+       */
+      private int reach;
+
+      /**
+       * Construct a new task for the provided reach
+       * 
+       * @param rootName
+       *       name of the root holon
+       * @param reach
+       *       index of the reach
+       */
+      public ReachTask(String rootName, int reach)
+      {
+         this.rootName = rootName;
+         this.reach = reach;
+      }
+
+      @Override
+      protected MatrixDefinition compute()
+      {
+         MatrixDefinition segment = new MatrixDefinition(rootName);
+         try
+         {
+            configureReachCells(new HolonMatrixTargetDefinition(segment), reach);
+         }
+         catch (Exception e)
+         {
+            throw new SegmentException(e);
+         }
+         return segment;
+      }
+
+   }
+
+   /**
+    * Unchecked wrapper for an exception thrown while building a segment
+    * 
+    * @author robpayn
+    *
+    */
+   private static class SegmentException extends RuntimeException {
+
+      /**
+       * Serial version
+       */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Construct a new instance wrapping the provided exception
+       * 
+       * @param cause
+       *       exception thrown while building a segment
+       */
+      public SegmentException(Throwable cause)
+      {
+         super(cause);
+      }
+
+   }
+
    /**
     * Number of cells
     */
@@ -86,6 +303,45 @@ public abstract class InputProcessorXMLStreamBuilder<MIT extends MetaInputXMLStr
     */
    protected String boundaryNameRoot;
 
+   /**
+    * Table of cell and boundary names
+    */
+   protected StreamNameTable nameTable;
+
+   /**
+    * Compiled configuration of the stream
+    */
+   protected StreamConfig config;
+
+   /**
+    * Topology of the stream, shared with other models if provided
+    * by the meta input
+    */
+   protected StreamTopology topology;
+
+   /**
+    * Network of reaches, null if the stream is a single reach
+    */
+   protected StreamNetwork network;
+
+   /**
+    * Initial flow leaving each cell of a stream network, accumulated
+    * downstream from the initial flow at each headwater, null if the
+    * stream is a single reach
+    */
+   private double[] cellFlow;
+
+   /**
+    * Flag for building the matrix in memory, decided once in the
+    * preflight of each build
+    */
+   private boolean isInMemory;
+
+   /**
+    * Geometry of the cells, null if all cells have the same geometry
+    */
+   protected StreamGeometry geometry;
+
    /**
     * Initial conditions flag
     */
@@ -118,117 +374,671 @@ public abstract class InputProcessorXMLStreamBuilder<MIT extends MetaInputXMLStr
    }
 
    @Override
-   public void configureModel() throws Exception 
+   public void execute() throws Exception 
    {
-      System.out.println("Building the stream matrix...");
+      if (metaInput.isActive())
+      {
+         config = metaInput.getConfig();
+         preflight();
+      }
+      super.execute();
+   }
 
-      isInitialConditions = metaInput.isInitialConditions();
+   /**
+    * Check the configuration and the size of the model before
+    * anything is built
+    * 
+    * @throws Exception
+    *       if the configuration has errors or the model does not fit
+    */
+   private void preflight() throws Exception
+   {
+      File holonDir = metaInput.getHolonFile().getAbsoluteFile().getParentFile();
+      StreamPreflight preflight = new StreamPreflight(metaInput.getInputDir(), holonDir);
+      validateConfig(preflight);
+      preflight.checkErrors();
 
-      // Stream structure
-      numCells = metaInput.getAttributeNumCells();
-      if (numCells != null)
+      topology = resolveTopology();
+      config = StreamTimeStep.select(config, topology, isDynamicWave());
+      preflight.setModelSize(
+            topology.getNumCells(), 
+            topology.getNumBoundaries(), 
+            getValuesPerHolon()
+            );
+      isInMemory = super.isInMemory();
+      if (isInMemory && config.isInitialConditions())
       {
-         numCellsDigits = new Integer(1 + (int)Math.log10(numCells));
+         System.out.println(
+               "Initial condition tables require the NEOCH files, building the files instead..."
+               );
+         isInMemory = false;
       }
-      cellNameRoot = metaInput.getAttributeCellName();
-      boundaryNameRoot = metaInput.getAttributeBoundaryName();
+      preflight.checkResources(
+            holonDir, 
+            !isInMemory || metaInput.isExportXML(), 
+            isInMemory && metaInput.getSnapshotFile() != null
+            );
+   }
 
-      // Geometry
-      streamLength = metaInput.getAttributeStreamLength();
-      if (streamLength != null && numCells != null)
+   /**
+    * Get the topology of the stream, shared through the meta input
+    * or created from the configuration
+    * 
+    * @return
+    *       topology
+    * @throws Exception
+    *       if a shared topology does not match the configuration,
+    *       or if error in reading a geometry table
+    */
+   private StreamTopology resolveTopology() throws Exception
+   {
+      StreamTopology shared = metaInput.getTopology();
+      if (shared == null)
       {
-         cellLength = streamLength / numCells;
+         return StreamTopology.create(config);
       }
-      elevationDatum = metaInput.getAttributeElevationDatum();
-      bedSlope = metaInput.getAttributeBedSlope();
-      activeDepth = metaInput.getAttributeActiveDepth();
-      averageWidth = metaInput.getAttributeAverageWidth();
-      
-      // Flow
-      initialDepth = metaInput.getAttributeInitialDepth();
-      initialFlow = metaInput.getAttributeInitialFlow();
-      dispersionCoeff = metaInput.getAttributeDispersionCoefficient();
-      wieleInt = metaInput.getAttributeWieleInt();
-      wieleSlope = metaInput.getAttributeWieleSlope();
-      
-      configureStreamLoop();
-      
-      String cellName;
-      String boundaryName;
-      ElementHolon elementCell;
-      ElementBoundary elementBoundary;
-      ElementBoundary elementBoundaryAdj;
+      if (!shared.isCompatible(config))
+      {
+         throw new Exception(
+               "The shared stream topology does not match the names, number of cells, "
+               + "or geometry tables of the stream configuration"
+               );
+      }
+      return shared;
+   }
+
+   /**
+    * Check that the configuration has the attributes and forcing
+    * files required by the builder.  Builders add the requirements
+    * of their own behaviors.
+    * 
+    * @param preflight
+    *       collects the problems found
+    */
+   protected void validateConfig(StreamPreflight preflight)
+   {
+      if (config.getNetworkFile() != null)
+      {
+         preflight.requireFile(config.getNetworkFile(), "network path");
+      }
+      else if (config.getSegmentsFile() != null)
+      {
+         preflight.requireFile(config.getSegmentsFile(), "segments path");
+      }
+      else
+      {
+         preflight.require(config.getStreamLength(), "channelgeometry length");
+         preflight.require(config.getAverageWidth(), "activechannel averageWidth");
+         preflight.require(config.getBedSlope(), "elevation bedSlope");
+      }
+      preflight.require(config.getElevationDatum(), "elevation datum");
+      preflight.require(config.getActiveDepth(), "activechannel depth");
+      if (config.isInitialConditions())
+      {
+         preflight.requireFile(config.getInitialConditionPathCell(), "cellPath");
+         preflight.requireFile(config.getInitialConditionPathBound(), "boundPath");
+      }
+   }
+
+   /**
+    * Determine if the builder moves water with the dynamic wave,
+    * which limits the stable time step along with the solutes
+    * 
+    * @return
+    *       true if water is moved with the dynamic wave,
+    *       false otherwise
+    */
+   protected boolean isDynamicWave()
+   {
+      return false;
+   }
+
+   /**
+    * Get the approximate number of state values in each holon,
+    * used to estimate the size of the model
+    * 
+    * @return
+    *       number of values
+    */
+   protected int getValuesPerHolon()
+   {
+      int values = WATER_VALUES;
+      for (StreamConfig.Solute solute: config.getSolutes())
+      {
+         if (solute.isActive())
+         {
+            values += SOLUTE_VALUES;
+         }
+      }
+      return values;
+   }
+
+   @Override
+   protected Double getTimeInterval()
+   {
+      return config.getTimeInterval();
+   }
+
+   @Override
+   protected Long getLastIteration()
+   {
+      return config.getLastIteration();
+   }
+
+   @Override
+   protected boolean isInMemory() throws Exception
+   {
+      return isInMemory;
+   }
+
+   @Override
+   protected MatrixDefinitionView shareDefinition(MatrixDefinition definition)
+   {
+      if (topology == null || topology != metaInput.getTopology())
+      {
+         return definition;
+      }
+      MatrixDefinitionView shared = topology.shareDefinition(definition);
+      if (shared instanceof MatrixDefinitionOverlay)
+      {
+         System.out.println(String.format(
+               "Sharing the matrix structure of the stream topology, with %d "
+               + "initial values of this model",
+               ((MatrixDefinitionOverlay)shared).getReplacedCount()
+               ));
+      }
+      return shared;
+   }
+
+   @Override
+   public void configureModel() throws Exception 
+   {
+      System.out.println("Building the stream matrix...");
+
+      configureGlobals();
+      if (network == null)
+      {
+         configureReach();
+      }
+      else
+      {
+         configureNetwork();
+      }
+   }
+
+   /**
+    * Create the cells and boundaries of a stream with a single reach
+    * 
+    * @throws Exception
+    *       if error in configuring the holons
+    */
+   private void configureReach() throws Exception
+   {
+      HolonTarget elementCell;
+      BoundaryTarget elementBoundary;
 
       // Create the first cell
-      cellName = String.format(
-            "%s%0" + numCellsDigits.toString() + "d", 
-            cellNameRoot,
-            1
-            );
-      elementCell = documentHolon.createCellElement(cellName);
+      elementCell = matrixTarget.createCell(nameTable.getCellName(1));
       configureStreamCell(elementCell, 1);
 
       // Create upstream boundary
-      boundaryName = String.format(
-            "%sext_%0" + numCellsDigits.toString() + "d", 
-            boundaryNameRoot,
-            1
-            );
-      elementBoundary = documentHolon.createBoundaryElement(
-            boundaryName, cellName);
+      elementBoundary = matrixTarget.createBoundary(
+            nameTable.getUpstreamBoundaryName(1), elementCell);
       configureUpstreamBoundary(elementBoundary, 1);
+      matrixTarget.commit();
 
       // Cycle through cells
-      for (int i = 2; i <= numCells; i++)
+      if (isParallel())
+      {
+         elementCell = configureCellsParallel();
+      }
+      else
       {
+         elementCell = configureCells(matrixTarget, elementCell, 2, numCells.intValue());
+      }
+      
+      // Create downstream boundary
+      elementBoundary = matrixTarget.createBoundary(
+            nameTable.getDownstreamBoundaryName(numCells.intValue()), elementCell);
+      configureDownstreamBoundary(elementBoundary, numCells);
+   }
+
+   /**
+    * Create the cells and boundaries of a stream network.  The cells of
+    * each reach are created first, in parallel if configured, followed
+    * by the external boundaries at the upstream ends of the headwater
+    * reaches, the boundaries at the confluences, and the downstream
+    * boundary of the outlet reach.  A reach fed only by its tributaries
+    * has no upstream boundary.
+    * 
+    * @throws Exception
+    *       if error in configuring the holons
+    */
+   private void configureNetwork() throws Exception
+   {
+      System.out.println(String.format(
+            "Building a network of %d reaches...", 
+            network.getNumReaches()
+            ));
+      if (isParallel())
+      {
+         configureReachesParallel();
+      }
+      else
+      {
+         for (int reach = 0; reach < network.getNumReaches(); reach++)
+         {
+            configureReachCells(matrixTarget, reach);
+         }
+      }
+
+      BoundaryTarget elementBoundary;
+      BoundaryTarget elementBoundaryAdj;
+      for (int reach = 0; reach < network.getNumReaches(); reach++)
+      {
+         int firstCell = network.getFirstCell(reach);
+         int lastCell = network.getLastCell(reach);
+         int confluenceCell = network.getConfluenceCell(reach);
+
+         // Create upstream boundary
+         if (network.isHeadwater(reach))
+         {
+            elementBoundary = matrixTarget.createBoundary(
+                  nameTable.getUpstreamBoundaryName(firstCell), 
+                  nameTable.getCellName(firstCell)
+                  );
+            configureUpstreamBoundary(elementBoundary, firstCell);
+         }
+
+         if (confluenceCell == StreamNetwork.NONE)
+         {
+            // Create downstream boundary
+            elementBoundary = matrixTarget.createBoundary(
+                  nameTable.getDownstreamBoundaryName(lastCell), 
+                  nameTable.getCellName(lastCell)
+                  );
+            configureDownstreamBoundary(elementBoundary, lastCell);
+         }
+         else
+         {
+            // Create confluence boundary and the adjacent boundary
+            // at the outlet of the tributary
+            elementBoundary = matrixTarget.createBoundary(
+                  nameTable.getConfluenceBoundaryName(reach), 
+                  nameTable.getCellName(confluenceCell)
+                  );
+            elementBoundaryAdj = elementBoundary.createAdjacent(
+                  nameTable.getDownstreamBoundaryName(lastCell), 
+                  nameTable.getCellName(lastCell)
+                  );
+            configureConfluenceBoundary(
+                  elementBoundary, elementBoundaryAdj, confluenceCell, lastCell);
+         }
+         matrixTarget.commit();
+      }
+   }
+
+   /**
+    * Create the cells of a reach in a stream network, with the
+    * boundaries between them
+    * 
+    * @param target
+    *       matrix target for the cells
+    * @param reach
+    *       index of the reach
+    * @throws Exception
+    *       if error in configuring the cells
+    */
+   private void configureReachCells(HolonMatrixTarget target, int reach) throws Exception
+   {
+      int firstCell = network.getFirstCell(reach);
+      HolonTarget elementCell = target.createCell(nameTable.getCellName(firstCell));
+      configureStreamCell(elementCell, firstCell);
+      target.commit();
+      configureCells(target, elementCell, firstCell + 1, network.getLastCell(reach));
+   }
+
+   /**
+    * Create the cells of each reach in a stream network on separate
+    * threads, and append the reaches to the matrix definition in order.
+    * Reaches only meet at confluence boundaries, so the cells of
+    * independent branches are built concurrently.
+    * 
+    * @throws Exception
+    *       if error in configuring the cells
+    */
+   private void configureReachesParallel() throws Exception
+   {
+      MatrixDefinition definition = ((HolonMatrixTargetDefinition)matrixTarget).getDefinition();
+      String rootName = definition.getHolonName(MatrixDefinition.HOLON_ROOT);
+      int threads = metaInput.getAttributeThreads();
+      System.out.println(String.format(
+            "Building reaches on %d threads...",
+            threads
+            ));
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      ArrayList<ReachTask> tasks = new ArrayList<ReachTask>();
+      try
+      {
+         for (int reach = 0; reach < network.getNumReaches(); reach++)
+         {
+            ReachTask task = new ReachTask(rootName, reach);
+            pool.execute(task);
+            tasks.add(task);
+         }
+         for (ReachTask task: tasks)
+         {
+            definition.append(task.join(), MatrixDefinition.HOLON_ROOT + 1);
+         }
+      }
+      catch (SegmentException e)
+      {
+         throw getSegmentCause(e);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+
+   /**
+    * Get the exception thrown while building a segment
+    * 
+    * @param e
+    *       unchecked wrapper thrown by the segment task
+    * @return
+    *       exception thrown while building the segment
+    */
+   private static Exception getSegmentCause(SegmentException e)
+   {
+      Throwable cause = e;
+      while (cause instanceof SegmentException && cause.getCause() != null)
+      {
+         cause = cause.getCause();
+      }
+      return cause instanceof Exception ? (Exception)cause : e;
+   }
+
+   /**
+    * Create a range of cells, with their upstream boundaries and the
+    * adjacent downstream boundaries of the preceding cells
+    * 
+    * @param target
+    *       matrix target for the cells
+    * @param elementCellUp
+    *       target for the cell preceding the range
+    * @param firstCell
+    *       number of the first cell in the range
+    * @param lastCell
+    *       number of the last cell in the range
+    * @return
+    *       target for the last cell in the range
+    * @throws Exception
+    *       if error in configuring the cells
+    */
+   private HolonTarget configureCells(HolonMatrixTarget target, HolonTarget elementCellUp,
+         int firstCell, int lastCell) throws Exception
+   {
+      HolonTarget elementCell = elementCellUp;
+      BoundaryTarget elementBoundary;
+      BoundaryTarget elementBoundaryAdj;
+      for (int i = firstCell; i <= lastCell; i++)
+      {
+         elementCellUp = elementCell;
+
          // Create cell
-         cellName = String.format(
-               "%s%0" + numCellsDigits.toString() + "d", 
-               cellNameRoot,
-               i
-               );
-         elementCell = documentHolon.createCellElement(cellName);
+         elementCell = target.createCell(nameTable.getCellName(i));
          configureStreamCell(elementCell, i);
 
          // Create upstream boundary
-         boundaryName = String.format(
-               "%s%0" + numCellsDigits.toString() + "d_%0" + numCellsDigits.toString() + "d", 
-               boundaryNameRoot,
-               i,
-               i - 1
-               );
-         elementBoundary = documentHolon.createBoundaryElement(boundaryName, cellName);
+         elementBoundary = target.createBoundary(
+               nameTable.getUpstreamBoundaryName(i), elementCell);
          
          // Create adjacent boundary
-         cellName = String.format(
-               "%s%0" + numCellsDigits.toString() + "d", 
-               cellNameRoot,
-               i - 1
-               );
-         boundaryName = String.format(
-               "%s%0" + numCellsDigits.toString() + "d_%0" + numCellsDigits.toString() + "d", 
-               boundaryNameRoot,
-               i - 1,
-               i
-               );
-         elementBoundaryAdj = elementBoundary.createAdjacentElement(boundaryName, cellName);
+         elementBoundaryAdj = elementBoundary.createAdjacent(
+               nameTable.getDownstreamBoundaryName(i - 1), elementCellUp);
          configureStreamBoundary(elementBoundary, elementBoundaryAdj, i);
+         target.commit();
       }
-      
-      // Create downstream boundary
-      cellName = String.format(
-            "%s%0" + numCellsDigits.toString() + "d", 
-            cellNameRoot,
-            numCells
-            );
-      boundaryName = String.format(
-            "%s%0" + numCellsDigits.toString() + "d_ext", 
-            boundaryNameRoot,
-            numCells
+      return elementCell;
+   }
+
+   /**
+    * Determine if the cells are built in parallel segments, or in
+    * parallel reaches for a stream network.  Segments are built in 
+    * separate matrix definitions, so parallel builds are only available
+    * for in-memory builds.
+    * 
+    * @return
+    *       true if the cells are built in parallel, false otherwise
+    */
+   protected boolean isParallel()
+   {
+      if (!metaInput.isParallel())
+      {
+         return false;
+      }
+      if (!(matrixTarget instanceof HolonMatrixTargetDefinition))
+      {
+         System.out.println(
+               "Parallel builds require an in-memory matrix, building the cells sequentially..."
+               );
+         return false;
+      }
+      if (network != null)
+      {
+         return network.getNumReaches() > 1;
+      }
+      return numCells > MIN_SEGMENT_CELLS;
+   }
+
+   /**
+    * Create cells 2 through the last cell in parallel segments, 
+    * and append the segments to the matrix definition in order
+    * 
+    * @return
+    *       target for the last cell
+    * @throws Exception
+    *       if error in configuring the cells
+    */
+   private HolonTarget configureCellsParallel() throws Exception
+   {
+      HolonMatrixTargetDefinition target = (HolonMatrixTargetDefinition)matrixTarget;
+      MatrixDefinition definition = target.getDefinition();
+      int threads = metaInput.getAttributeThreads();
+      int segmentCells = Math.max(
+            MIN_SEGMENT_CELLS, 
+            (numCells.intValue() - 1) / (SEGMENTS_PER_THREAD * threads) + 1
             );
-      elementBoundary = documentHolon.createBoundaryElement(
-            boundaryName, cellName);
-      configureDownstreamBoundary(elementBoundary, numCells);
+      System.out.println(String.format(
+            "Building cells in segments of %d cells on %d threads...",
+            segmentCells,
+            threads
+            ));
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      ArrayList<MatrixDefinition> segments;
+      try
+      {
+         segments = pool.invoke(new SegmentTask(
+               definition.getHolonName(MatrixDefinition.HOLON_ROOT),
+               2, 
+               numCells.intValue(),
+               segmentCells
+               ));
+      }
+      catch (SegmentException e)
+      {
+         throw getSegmentCause(e);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+      for (MatrixDefinition segment: segments)
+      {
+         definition.append(segment, SEGMENT_FIRST_HOLON);
+      }
+      return target.getHolon(definition.findHolon(nameTable.getCellName(numCells.intValue())));
+   }
+
+   @Override
+   protected void configureGlobals() throws Exception
+   {
+      isInitialConditions = config.isInitialConditions();
+
+      // Stream structure
+      numCells = config.getNumCells();
+      cellNameRoot = config.getCellName();
+      boundaryNameRoot = config.getBoundaryName();
+
+      // Geometry
+      streamLength = config.getStreamLength();
+      elevationDatum = config.getElevationDatum();
+      bedSlope = config.getBedSlope();
+      activeDepth = config.getActiveDepth();
+      averageWidth = config.getAverageWidth();
+      if (topology == null)
+      {
+         topology = resolveTopology();
+      }
+      network = topology.getNetwork();
+      geometry = topology.getGeometry();
+      if (geometry != null)
+      {
+         streamLength = geometry.getStreamLength();
+         averageWidth = geometry.getAverageWidth();
+         bedSlope = geometry.getAverageBedSlope();
+      }
+      nameTable = topology.getNameTable();
+      numCells = Long.valueOf(nameTable.getNumCells());
+      if (streamLength != null)
+      {
+         cellLength = streamLength / numCells;
+      }
+      numCellsDigits = nameTable.getNumCellsDigits();
+      simulator.setNameTable(nameTable);
+      
+      // Flow
+      initialDepth = config.getInitialDepth();
+      initialFlow = config.getInitialFlow();
+      if (network != null && initialFlow != null)
+      {
+         cellFlow = network.getCellFlow(initialFlow);
+      }
+      dispersionCoeff = config.getDispersionCoefficient();
+      wieleInt = config.getWieleInt();
+      wieleSlope = config.getWieleSlope();
+      
+      configureStreamLoop();
+   }
+
+   @Override
+   protected HashSet<String> getPatchableAttributes()
+   {
+      HashSet<String> attributes = super.getPatchableAttributes();
+      attributes.add("time/timeInterval");
+      attributes.add("time/lastIteration");
+      return attributes;
+   }
+
+   /**
+    * Determine if all cells in the reach have the same geometry
+    * 
+    * @return
+    *       true if there is no segment geometry table or stream
+    *       network, false otherwise
+    */
+   protected boolean isUniformGeometry()
+   {
+      return geometry == null;
+   }
+
+   /**
+    * Get the length of a cell
+    * 
+    * @param index
+    *       index number of cell
+    * @return
+    *       cell length
+    */
+   protected double getCellLength(long index)
+   {
+      if (geometry == null)
+      {
+         return cellLength;
+      }
+      return geometry.getCellLength(index);
+   }
+
+   /**
+    * Get the distance from the upstream end of the reach
+    * to the center of a cell
+    * 
+    * @param index
+    *       index number of cell
+    * @return
+    *       distance
+    */
+   protected double getCellDistance(long index)
+   {
+      if (geometry == null)
+      {
+         return (cellLength * index) - (cellLength / 2);
+      }
+      return geometry.getCellDistance(index);
+   }
+
+   /**
+    * Get the width of the active channel in a cell
+    * 
+    * @param index
+    *       index number of cell
+    * @return
+    *       cell width
+    */
+   protected double getCellWidth(long index)
+   {
+      if (geometry == null)
+      {
+         return averageWidth;
+      }
+      return geometry.getCellWidth(index);
+   }
+
+   /**
+    * Get the initial flow leaving a cell, which is the initial flow
+    * of a single reach, or the initial flow accumulated down a stream
+    * network from its headwaters
+    * 
+    * @param index
+    *       index number of cell
+    * @return
+    *       flow
+    */
+   protected double getCellFlow(long index)
+   {
+      if (cellFlow == null)
+      {
+         return initialFlow;
+      }
+      return cellFlow[(int)index - 1];
+   }
+
+   /**
+    * Get the elevation of the bed at the center of a cell
+    * 
+    * @param index
+    *       index number of cell
+    * @return
+    *       bed elevation
+    */
+   protected double getBedElevation(long index)
+   {
+      if (geometry == null)
+      {
+         return elevationDatum + bedSlope * (streamLength - getCellDistance(index));
+      }
+      return elevationDatum + geometry.getCellBedHeight(index);
    }
 
    /**
@@ -248,7 +1058,7 @@ public abstract class InputProcessorXMLStreamBuilder<MIT extends MetaInputXMLStr
     *       index number of cell         
     * @throws Exception 
     */
-   protected abstract void configureStreamCell(ElementHolon elementCell, long index) throws Exception;
+   protected abstract void configureStreamCell(HolonTarget elementCell, long index) throws Exception;
 
    /**
     * Set up a stream boundary
@@ -258,8 +1068,29 @@ public abstract class InputProcessorXMLStreamBuilder<MIT extends MetaInputXMLStr
     * @param index
     *       index number of cell
     */
-   protected abstract void configureStreamBoundary(ElementBoundary elementBoundary, 
-         ElementBoundary elementBoundaryAdj, int index);
+   protected abstract void configureStreamBoundary(BoundaryTarget elementBoundary, 
+         BoundaryTarget elementBoundaryAdj, int index);
+
+   /**
+    * Set up the boundaries at a confluence, where the outlet of a 
+    * tributary reach joins a cell of the receiving reach.  The flow
+    * across the boundaries is the flow leaving the last cell of the
+    * tributary, not the flow of the receiving cell.
+    * 
+    * @param elementBoundary
+    *       boundary element on the receiving cell
+    * @param elementBoundaryAdj
+    *       adjacent boundary element at the outlet of the tributary
+    * @param indexCell
+    *       index number of the receiving cell
+    * @param indexTributaryCell
+    *       index number of the last cell in the tributary
+    * @throws Exception
+    *       if error in configuring the boundaries
+    */
+   protected abstract void configureConfluenceBoundary(BoundaryTarget elementBoundary,
+         BoundaryTarget elementBoundaryAdj, int indexCell, int indexTributaryCell) 
+         throws Exception;
 
    /**
     * Configure the upstream boundary
@@ -271,7 +1102,7 @@ public abstract class InputProcessorXMLStreamBuilder<MIT extends MetaInputXMLStr
     * @throws Exception
     *       if error in configuring boundary       
     */
-   protected abstract void configureUpstreamBoundary(ElementBoundary elementBoundary,
+   protected abstract void configureUpstreamBoundary(BoundaryTarget elementBoundary,
          int indexFirstCell) throws Exception;
 
    /**
@@ -283,7 +1114,7 @@ public abstract class InputProcessorXMLStreamBuilder<MIT extends MetaInputXMLStr
     *       index of the last cell
     * @throws Exception 
     */
-   protected abstract void configureDownstreamBoundary(ElementBoundary elementBoundary,
+   protected abstract void configureDownstreamBoundary(BoundaryTarget elementBoundary,
          long indexLastCell) throws Exception;
 
 }
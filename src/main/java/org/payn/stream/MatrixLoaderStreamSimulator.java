@@ -20,6 +20,9 @@ import org.payn.neoch.io.reporters.ReporterXMLSerialFactoryXML;
 import org.payn.resources.solute.ResourceSolute;
 import org.payn.resources.solute.concentration.ResourceSoluteConcentration;
 import org.payn.resources.water.ResourceWater;
+import org.payn.stream.io.MatrixBuilderDefinition;
+import org.payn.stream.io.MatrixBuilderSnapshot;
+import org.payn.stream.io.MatrixDefinitionView;
 import org.payn.stream.reporter.ReporterTASCCFactoryXML;
 
 /**
@@ -44,6 +47,22 @@ public class MatrixLoaderStreamSimulator extends ModelLoaderXML {
     * Behavior reporter name
     */
    private static final String REPORTER_TASCC = "tascc";
+   
+   /**
+    * Definition of a matrix built in memory, null once the
+    * builder is created
+    */
+   private MatrixDefinitionView matrixDefinition;
+
+   /**
+    * Binary snapshot of the matrix
+    */
+   private File snapshotFile;
+
+   /**
+    * Flag for memory mapping the snapshot
+    */
+   private boolean isSnapshotMapped;
 
    /**
     * Load and build the matrix
@@ -71,6 +90,39 @@ public class MatrixLoaderStreamSimulator extends ModelLoaderXML {
       return matrix;
    }
 
+   /**
+    * Set the definition of a matrix built in memory.
+    * The matrix is built from the definition rather than
+    * the holon XML files if the definition is not null.
+    * The loader releases the definition when it creates
+    * the builder.
+    * 
+    * @param matrixDefinition
+    *       matrix definition
+    */
+   public void setMatrixDefinition(MatrixDefinitionView matrixDefinition)
+   {
+      this.matrixDefinition = matrixDefinition;
+   }
+
+   /**
+    * Set the binary snapshot of the matrix.
+    * The matrix is built from the snapshot rather than the holon
+    * XML files if the snapshot is not null and no matrix
+    * definition is set.
+    * 
+    * @param snapshotFile
+    *       snapshot file
+    * @param isMapped
+    *       true if the snapshot is memory mapped rather
+    *       than read into memory
+    */
+   public void setSnapshotFile(File snapshotFile, boolean isMapped)
+   {
+      this.snapshotFile = snapshotFile;
+      this.isSnapshotMapped = isMapped;
+   }
+
    @Override
    protected void loadLoggers() throws Exception {
       loggerList.add(LoggerSystemOut.class);
@@ -84,7 +136,19 @@ public class MatrixLoaderStreamSimulator extends ModelLoaderXML {
       builder = super.loadBuilder();
       if (builder == null)
       {
-         builder = new MatrixBuilderXML();
+         if (matrixDefinition != null)
+         {
+            builder = new MatrixBuilderDefinition(matrixDefinition);
+            matrixDefinition = null;
+         }
+         else if (snapshotFile != null)
+         {
+            builder = new MatrixBuilderSnapshot(snapshotFile, isSnapshotMapped);
+         }
+         else
+         {
+            builder = new MatrixBuilderXML();
+         }
       }
       return builder;
    }
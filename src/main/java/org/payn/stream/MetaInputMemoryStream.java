@@ -0,0 +1,337 @@
+package org.payn.stream;
+
+import java.io.File;
+
+import org.payn.simulation.metainputs.MetaInput;
+import org.payn.stream.io.BuildCache;
+
+/**
+ * Meta input for a NEOCH stream model builder that holds its
+ * configuration in memory, so generated configurations can be
+ * built without writing or parsing XML files.
+ *
+ * The matrix is built in memory by default, and the build cache
+ * is not used unless it is enabled.
+ *
+ * @author robpayn
+ *
+ */
+public class MetaInputMemoryStream extends MetaInput implements MetaInputStream {
+
+   /**
+    * Working directory for resolving the paths of input files
+    */
+   private File inputDir;
+
+   /**
+    * Holon file of the model
+    */
+   private File holonFile;
+
+   /**
+    * Stream configuration
+    */
+   private StreamConfig config;
+
+   /**
+    * Topology shared with other models, null if not shared
+    */
+   private StreamTopology topology;
+
+   /**
+    * In-memory build flag
+    */
+   private boolean isInMemory;
+
+   /**
+    * XML export flag
+    */
+   private boolean isExportXML;
+
+   /**
+    * Stream XML flag
+    */
+   private boolean isStreamXML;
+
+   /**
+    * Build cache flag
+    */
+   private boolean isBuildCache;
+
+   /**
+    * Incremental build flag
+    */
+   private boolean isIncremental;
+
+   /**
+    * Parallel build flag
+    */
+   private boolean isParallel;
+
+   /**
+    * Number of threads for a parallel build
+    */
+   private int threads;
+
+   /**
+    * Binary snapshot file, null if no snapshot is written
+    */
+   private File snapshotFile;
+
+   /**
+    * Map snapshot flag
+    */
+   private boolean isMapSnapshot;
+
+   /**
+    * Construct a new instance with the provided configuration
+    *
+    * @param inputDir
+    *       working directory for resolving the paths of input files
+    * @param holonFile
+    *       holon file of the model
+    * @param config
+    *       stream configuration
+    */
+   public MetaInputMemoryStream(File inputDir, File holonFile, StreamConfig config)
+   {
+      this.inputDir = inputDir;
+      this.holonFile = holonFile;
+      this.config = config;
+      this.isInMemory = true;
+      this.isBuildCache = false;
+      this.threads = Runtime.getRuntime().availableProcessors();
+   }
+
+   @Override
+   public boolean isActive()
+   {
+      return true;
+   }
+
+   @Override
+   public File getInputDir()
+   {
+      return inputDir;
+   }
+
+   @Override
+   public StreamConfig getConfig()
+   {
+      return config;
+   }
+
+   /**
+    * Replace the stream configuration, so the same meta input
+    * can be used for a variant
+    *
+    * @param config
+    *       stream configuration
+    */
+   public void setConfig(StreamConfig config)
+   {
+      this.config = config;
+   }
+
+   @Override
+   public StreamTopology getTopology()
+   {
+      return topology;
+   }
+
+   /**
+    * Share a topology with other models built from variants
+    * of the same configuration
+    *
+    * @param topology
+    *       shared topology, null if the builder creates its own
+    */
+   public void setTopology(StreamTopology topology)
+   {
+      this.topology = topology;
+   }
+
+   @Override
+   public File getHolonFile()
+   {
+      return holonFile;
+   }
+
+   @Override
+   public boolean isInMemory()
+   {
+      return isInMemory;
+   }
+
+   /**
+    * Set the in-memory build flag
+    *
+    * @param isInMemory
+    *       true if the matrix is built in memory
+    */
+   public void setInMemory(boolean isInMemory)
+   {
+      this.isInMemory = isInMemory;
+   }
+
+   @Override
+   public boolean isExportXML()
+   {
+      return isExportXML;
+   }
+
+   /**
+    * Set the XML export flag
+    *
+    * @param isExportXML
+    *       true if the holon XML files are written for a matrix
+    *       built in memory
+    */
+   public void setExportXML(boolean isExportXML)
+   {
+      this.isExportXML = isExportXML;
+   }
+
+   @Override
+   public boolean isStreamXML()
+   {
+      return isStreamXML;
+   }
+
+   /**
+    * Set the stream XML flag
+    *
+    * @param isStreamXML
+    *       true if the holon XML files are streamed to disk
+    */
+   public void setStreamXML(boolean isStreamXML)
+   {
+      this.isStreamXML = isStreamXML;
+   }
+
+   @Override
+   public boolean isBuildCache()
+   {
+      return isBuildCache;
+   }
+
+   /**
+    * Set the build cache flag
+    *
+    * @param isBuildCache
+    *       true if the build cache is used
+    */
+   public void setBuildCache(boolean isBuildCache)
+   {
+      this.isBuildCache = isBuildCache;
+   }
+
+   @Override
+   public boolean isIncremental()
+   {
+      return isIncremental;
+   }
+
+   /**
+    * Set the incremental build flag
+    *
+    * @param isIncremental
+    *       true if snapshots are patched when only patchable
+    *       attributes have changed
+    */
+   public void setIncremental(boolean isIncremental)
+   {
+      this.isIncremental = isIncremental;
+   }
+
+   @Override
+   public boolean isParallel()
+   {
+      return isParallel;
+   }
+
+   /**
+    * Set the parallel build flag
+    *
+    * @param isParallel
+    *       true if the cells are built in parallel segments
+    */
+   public void setParallel(boolean isParallel)
+   {
+      this.isParallel = isParallel;
+   }
+
+   @Override
+   public int getAttributeThreads()
+   {
+      return threads;
+   }
+
+   /**
+    * Set the number of threads for a parallel build
+    *
+    * @param threads
+    *       number of threads
+    */
+   public void setThreads(int threads)
+   {
+      this.threads = threads;
+   }
+
+   @Override
+   public File getSnapshotFile()
+   {
+      return snapshotFile;
+   }
+
+   /**
+    * Set the binary snapshot file
+    *
+    * @param snapshotFile
+    *       snapshot file, null if no snapshot is written
+    */
+   public void setSnapshotFile(File snapshotFile)
+   {
+      this.snapshotFile = snapshotFile;
+   }
+
+   @Override
+   public boolean isMapSnapshot()
+   {
+      return isMapSnapshot;
+   }
+
+   /**
+    * Set the map snapshot flag
+    *
+    * @param isMapSnapshot
+    *       true if the snapshot is mapped into memory when it is loaded
+    */
+   public void setMapSnapshot(boolean isMapSnapshot)
+   {
+      this.isMapSnapshot = isMapSnapshot;
+   }
+
+   @Override
+   public Double getAttributeTimeInterval()
+   {
+      return config.getTimeInterval();
+   }
+
+   @Override
+   public Long getAttributeLastIteration()
+   {
+      return config.getLastIteration();
+   }
+
+   @Override
+   public void addToBuildCache(BuildCache cache) throws Exception
+   {
+      cache.addString(Boolean.toString(isInMemory));
+      cache.addString(Boolean.toString(isExportXML));
+      cache.addString(snapshotFile == null ? null : snapshotFile.getName());
+      config.addToBuildCache(cache,
+            inputDir, holonFile.getAbsoluteFile().getParentFile());
+   }
+
+}
@@ -0,0 +1,138 @@
+package org.payn.stream;
+
+import java.io.File;
+
+import org.payn.stream.io.BuildCache;
+
+/**
+ * Meta input for a NEOCH model builder, independent of the source
+ * of the configuration
+ *
+ * @author robpayn
+ *
+ */
+public interface MetaInputNEOCH {
+
+   /**
+    * Get the working directory for resolving the paths of input files
+    *
+    * @return
+    *       input directory
+    */
+   File getInputDir();
+
+   /**
+    * Get the holon file of the model
+    *
+    * @return
+    *       holon file
+    * @throws Exception
+    *       if error in finding the holon file
+    */
+   File getHolonFile() throws Exception;
+
+   /**
+    * Is the matrix built in memory rather than through the
+    * holon XML files?
+    *
+    * @return
+    *       true if the matrix is built in memory, false otherwise
+    */
+   boolean isInMemory();
+
+   /**
+    * Are the holon XML files written for a matrix built in memory?
+    *
+    * @return
+    *       true if the files are exported, false otherwise
+    */
+   boolean isExportXML();
+
+   /**
+    * Are the holon XML files streamed to disk while the matrix is built?
+    *
+    * @return
+    *       true if the files are streamed, false otherwise
+    */
+   boolean isStreamXML();
+
+   /**
+    * Is the build cache used to skip the builder when the builder
+    * configuration has not changed since the last build?
+    *
+    * @return
+    *       true if the build cache is used, false otherwise
+    */
+   boolean isBuildCache();
+
+   /**
+    * Is an existing snapshot patched rather than rebuilt when only
+    * patchable attributes have changed?
+    *
+    * @return
+    *       true if snapshots are patched, false otherwise
+    */
+   boolean isIncremental();
+
+   /**
+    * Are the cells of the matrix built in parallel segments?
+    *
+    * @return
+    *       true if the matrix is built in parallel, false otherwise
+    */
+   boolean isParallel();
+
+   /**
+    * Get the number of threads for a parallel build
+    *
+    * @return
+    *       number of threads
+    */
+   int getAttributeThreads();
+
+   /**
+    * Add the builder configuration to a build cache, including
+    * the contents of the input files it references
+    *
+    * @param cache
+    *       build cache
+    * @throws Exception
+    *       if error in reading an input file
+    */
+   void addToBuildCache(BuildCache cache) throws Exception;
+
+   /**
+    * Get the binary snapshot file of the matrix
+    *
+    * @return
+    *       snapshot file, null if no snapshot is configured
+    * @throws Exception
+    *       if error in finding the holon file
+    */
+   File getSnapshotFile() throws Exception;
+
+   /**
+    * Is the snapshot mapped into memory when it is loaded?
+    *
+    * @return
+    *       true if the snapshot is mapped, false otherwise
+    */
+   boolean isMapSnapshot();
+
+   /**
+    * Get the time interval
+    *
+    * @return
+    *       time interval
+    */
+   Double getAttributeTimeInterval();
+
+   /**
+    * Get the last iteration
+    *
+    * @return
+    *       last iteration
+    */
+   Long getAttributeLastIteration();
+
+}
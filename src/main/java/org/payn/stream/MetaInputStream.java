@@ -0,0 +1,31 @@
+package org.payn.stream;
+
+/**
+ * Meta input for a NEOCH stream model builder, independent of the
+ * source of the configuration
+ *
+ * @author robpayn
+ *
+ */
+public interface MetaInputStream extends MetaInputNEOCH {
+
+   /**
+    * Get the compiled configuration of the stream
+    *
+    * @return
+    *       stream configuration
+    * @throws Exception
+    *       if the configuration is not valid
+    */
+   StreamConfig getConfig() throws Exception;
+
+   /**
+    * Get a topology shared with other models built from variants
+    * of the same configuration
+    *
+    * @return
+    *       shared topology, null if the builder creates its own
+    */
+   StreamTopology getTopology();
+
+}
@@ -6,6 +6,7 @@ import org.payn.chsm.io.xmltools.ElementHelper;
 import org.payn.chsm.io.xmltools.XMLDocumentModelConfig;
 import org.payn.neoch.io.xmltools.ElementXMLInputMatrix;
 import org.payn.simulation.metainputs.MetaInputXML;
+import org.payn.stream.io.BuildCache;
 
 /**
  * Abstract meta input for a NEOCH model builder
@@ -13,7 +14,8 @@ import org.payn.simulation.metainputs.MetaInputXML;
  * @author robpayn
  *
  */
-public abstract class MetaInputXMLNEOCH extends MetaInputXML<XMLDocumentModelConfig> {
+public abstract class MetaInputXMLNEOCH extends MetaInputXML<XMLDocumentModelConfig> 
+      implements MetaInputNEOCH {
 
    /**
     * Input element for the model input
@@ -25,6 +27,11 @@ public abstract class MetaInputXMLNEOCH extends MetaInputXML<XMLDocumentModelCon
     */
    private ElementHelper timeElement;
 
+   /**
+    * Working directory for resolving the paths of input files
+    */
+   private File inputDir;
+
    /**
     * Construct a new instance that uses the provided working directory,
     * path to the configuration file, and the name of the XML element
@@ -39,6 +46,7 @@ public abstract class MetaInputXMLNEOCH extends MetaInputXML<XMLDocumentModelCon
          String elementName) throws Exception 
    {
       super(workingDir, path, elementName);
+      this.inputDir = workingDir;
       this.xmlInputElement = 
             new ElementXMLInputMatrix(
                   document.getBuilderElement().getXMLInputElement(),
@@ -53,6 +61,17 @@ public abstract class MetaInputXMLNEOCH extends MetaInputXML<XMLDocumentModelCon
       return new XMLDocumentModelConfig(metaInputFile);
    }
 
+   /**
+    * Get the working directory for resolving the paths of input files
+    * 
+    * @return
+    *       input directory
+    */
+   public File getInputDir()
+   {
+      return inputDir;
+   }
+
    /**
     * Get the holon file from the NEOCH settings
     * 
@@ -65,6 +84,206 @@ public abstract class MetaInputXMLNEOCH extends MetaInputXML<XMLDocumentModelCon
       return xmlInputElement.getHolonFile();
    }
    
+   /**
+    * Is the matrix built in memory rather than through the
+    * holon XML files?
+    *
+    * @return
+    *       true if the in-memory flag is set, false otherwise
+    */
+   public boolean isInMemory()
+   {
+      String value = helper.getAttribute("inMemory");
+      if (value.equals(""))
+      {
+         return false;
+      }
+      else
+      {
+         return Boolean.valueOf(value);
+      }
+   }
+
+   /**
+    * Are the holon XML files written for a matrix built in memory?
+    * Defaults to false for in-memory builds.
+    *
+    * @return
+    *       true if the XML export flag is set, false otherwise
+    */
+   public boolean isExportXML()
+   {
+      String value = helper.getAttribute("exportXML");
+      if (value.equals(""))
+      {
+         return false;
+      }
+      else
+      {
+         return Boolean.valueOf(value);
+      }
+   }
+
+   /**
+    * Are the holon XML files streamed to disk while the matrix is built,
+    * rather than held in memory until the build is finished?
+    *
+    * @return
+    *       true if the stream XML flag is set, false otherwise
+    */
+   public boolean isStreamXML()
+   {
+      String value = helper.getAttribute("streamXML");
+      if (value.equals(""))
+      {
+         return false;
+      }
+      else
+      {
+         return Boolean.valueOf(value);
+      }
+   }
+
+   /**
+    * Is the build cache used to skip the builder when the builder
+    * configuration has not changed since the last build?
+    * Defaults to true.
+    *
+    * @return
+    *       false if the build cache flag is set to false, true otherwise
+    */
+   public boolean isBuildCache()
+   {
+      String value = helper.getAttribute("buildCache");
+      if (value.equals(""))
+      {
+         return true;
+      }
+      else
+      {
+         return Boolean.valueOf(value);
+      }
+   }
+
+   /**
+    * Is an existing snapshot patched rather than rebuilt when only 
+    * attributes that affect the global initial values have changed?
+    * Defaults to false.
+    *
+    * @return
+    *       true if the incremental flag is set, false otherwise
+    */
+   public boolean isIncremental()
+   {
+      String value = helper.getAttribute("incremental");
+      if (value.equals(""))
+      {
+         return false;
+      }
+      else
+      {
+         return Boolean.valueOf(value);
+      }
+   }
+
+   /**
+    * Are the cells of the matrix built in parallel segments?
+    * Defaults to false.
+    *
+    * @return
+    *       true if the parallel flag is set, false otherwise
+    */
+   public boolean isParallel()
+   {
+      String value = helper.getAttribute("parallel");
+      if (value.equals(""))
+      {
+         return false;
+      }
+      else
+      {
+         return Boolean.valueOf(value);
+      }
+   }
+
+   /**
+    * Get the number of threads for a parallel build.
+    * Defaults to the number of available processors.
+    *
+    * @return
+    *       number of threads
+    */
+   public int getAttributeThreads()
+   {
+      String value = helper.getAttribute("threads");
+      if (value.equals(""))
+      {
+         return Runtime.getRuntime().availableProcessors();
+      }
+      else
+      {
+         return Integer.valueOf(value);
+      }
+   }
+
+   /**
+    * Add the builder configuration to a build cache, including
+    * the contents of the input files it references
+    *
+    * @param cache
+    *       build cache
+    * @throws Exception
+    *       if error in reading an input file
+    */
+   public void addToBuildCache(BuildCache cache) throws Exception
+   {
+      File holonDir = getHolonFile().getAbsoluteFile().getParentFile();
+      cache.addElement(helper.getElement(), inputDir, holonDir);
+      cache.addElement(getTimeElement().getElement(), inputDir, holonDir);
+   }
+
+   /**
+    * Get the binary snapshot file of the matrix, relative to the
+    * directory of the holon file
+    *
+    * @return
+    *       snapshot file, null if no snapshot is configured
+    * @throws Exception
+    *       if error in finding the holon file
+    */
+   public File getSnapshotFile() throws Exception
+   {
+      String value = helper.getAttribute("snapshot");
+      if (value.equals(""))
+      {
+         return null;
+      }
+      else
+      {
+         return new File(getHolonFile().getAbsoluteFile().getParentFile(), value);
+      }
+   }
+
+   /**
+    * Is the binary snapshot memory mapped when the model is loaded,
+    * rather than read into memory?
+    *
+    * @return
+    *       true if the map snapshot flag is set, false otherwise
+    */
+   public boolean isMapSnapshot()
+   {
+      String value = helper.getAttribute("mapSnapshot");
+      if (value.equals(""))
+      {
+         return false;
+      }
+      else
+      {
+         return Boolean.valueOf(value);
+      }
+   }
+
    /**
     * Get the time interval attribute
     * 
@@ -87,6 +306,28 @@ public abstract class MetaInputXMLNEOCH extends MetaInputXML<XMLDocumentModelCon
       return getTimeElement().getAttributeLong("lastIteration");
    }
 
+   /**
+    * Get the time step mode attribute
+    * 
+    * @return
+    *       time step mode, null if not set
+    */
+   public String getAttributeTimeStepMode()
+   {
+      return getTimeElement().getAttributeString("timeStep");
+   }
+
+   /**
+    * Get the time step safety factor attribute
+    * 
+    * @return
+    *       safety factor, null if not set
+    */
+   public Double getAttributeTimeStepSafety()
+   {
+      return getTimeElement().getAttributeDouble("timeStepSafety");
+   }
+
    /**
     * Get the time XML element
     * 
@@ -1,9 +1,10 @@
 package org.payn.stream;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import org.payn.chsm.io.xmltools.ElementHelper;
+import org.payn.stream.io.BuildCache;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -13,7 +14,8 @@ import org.w3c.dom.NodeList;
  * @author robpayn
  *
  */
-public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
+public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH 
+      implements MetaInputStream {
    
    /**
     * XML element for solute configuration information
@@ -341,7 +343,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributeUpstreamPath() 
       {
-         return getElementUpstreamBound().getAttribute("upstreamPath");
+         ElementHelper helper = getElementUpstreamBound();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttribute("upstreamPath");
+         }
       }
 
       /**
@@ -367,7 +377,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributeUpstreamInterpType() 
       {
-         return getElementUpstreamBound().getAttribute("upstreamInterpType");
+         ElementHelper helper = getElementUpstreamBound();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttribute("upstreamInterpType");
+         }
       }
 
       /**
@@ -378,7 +396,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributeUpstreamDelimiter() 
       {
-         return getElementUpstreamBound().getAttribute("upstreamDelimiter");
+         ElementHelper helper = getElementUpstreamBound();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttribute("upstreamDelimiter");
+         }
       }
 
       /**
@@ -401,7 +427,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public Double getAttributeK600() 
       {
-         return getElementAWExchange().getAttributeDouble("k600");
+         ElementHelper helper = getElementAWExchange();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttributeDouble("k600");
+         }
       }
 
       /**
@@ -412,7 +446,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributePARType() 
       {
-         return getElementPhotosynthesis().getAttributeString("parType");
+         ElementHelper helper = getElementPhotosynthesis();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttributeString("parType");
+         }
       }
 
       /**
@@ -423,7 +465,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributePARDelimiter() 
       {
-         return getElementPhotosynthesis().getAttributeString("parDelimiter");
+         ElementHelper helper = getElementPhotosynthesis();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttributeString("parDelimiter");
+         }
       }
 
       /**
@@ -434,7 +484,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributePARPath() 
       {
-         return getElementPhotosynthesis().getAttributeString("parPath");
+         ElementHelper helper = getElementPhotosynthesis();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttributeString("parPath");
+         }
       }
 
       /**
@@ -445,7 +503,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public Double getAttributePToPARRatio() 
       {
-         return getElementPhotosynthesis().getAttributeDouble("pToPARRatio");
+         ElementHelper helper = getElementPhotosynthesis();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttributeDouble("pToPARRatio");
+         }
       }
 
       /**
@@ -458,7 +524,50 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public Double getAttributeRespiration() 
       {
-         return getElementRespiration().getAttributeDouble("respiration");
+         ElementHelper helper = getElementRespiration();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttributeDouble("respiration");
+         }
+      }
+
+      /**
+       * Compile the solute configuration from the element
+       * 
+       * @return
+       *       solute configuration
+       * @throws Exception
+       *       if the configuration is not valid
+       */
+      public StreamConfig.Solute compile() throws Exception
+      {
+         StreamConfig.Solute.Builder builder = new StreamConfig.Solute.Builder(getName());
+         builder.setActive(isActive());
+         builder.setInitialConc(getAttributeInitialConc());
+         builder.setBkgConc(getAttributeBkgConc());
+         builder.setConcBoundFile(getAttributeConcBoundFile());
+         builder.setInterpolationType(getAttributeInterpolationType());
+         builder.setDelimiter(getAttributeDelimiter());
+         builder.setUpstreamInject(isUpstreamInject());
+         builder.setInjectMass(getAttributeInjectMass());
+         builder.setInjectDuration(getAttributeInjectDuration());
+         builder.setInjectStartInterval(getAttributeInjectStartInterval());
+         builder.setUptakeMax(getAttributeUptakeMax());
+         builder.setConcHalfSat(getAttributeConcHalfSat());
+         builder.setUpstreamPath(getAttributeUpstreamPath());
+         builder.setUpstreamInterpType(getAttributeUpstreamInterpType());
+         builder.setUpstreamDelimiter(getAttributeUpstreamDelimiter());
+         builder.setK600(getAttributeK600());
+         builder.setPARType(getAttributePARType());
+         builder.setPARDelimiter(getAttributePARDelimiter());
+         builder.setPARPath(getAttributePARPath());
+         builder.setPToPARRatio(getAttributePToPARRatio());
+         builder.setRespiration(getAttributeRespiration());
+         return builder.build();
       }
 
    }
@@ -481,6 +590,11 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       private ElementHelper elementActiveChannel;
 
+      /**
+       * Segment geometry table element
+       */
+      private ElementHelper elementSegments;
+
       /**
        * Construct a new instance associated with the provided element
        * 
@@ -533,6 +647,59 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
          return elementActiveChannel;
       }
 
+      /**
+       * Get the element for the segment geometry table
+       * 
+       * @return
+       *        segment table element, null if the reach is uniform
+       */
+      private ElementHelper getElementSegments() 
+      {
+         if (elementSegments == null)
+         {
+            elementSegments = getFirstChildElementHelper("segments");
+         }
+         return elementSegments;
+      }
+
+      /**
+       * Get the path to the segment geometry table
+       * 
+       * @return
+       *        path value, null if the reach is uniform
+       */
+      public String getAttributeSegmentsPath() 
+      {
+         ElementHelper helper = getElementSegments();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttribute("path");
+         }
+      }
+
+      /**
+       * Get the column delimiter of the segment geometry table
+       * 
+       * @return
+       *        delimiter value, a comma by default
+       */
+      public String getAttributeSegmentsDelimiter() 
+      {
+         ElementHelper helper = getElementSegments();
+         if (helper == null || helper.getAttribute("delimiter").equals(""))
+         {
+            return ",";
+         }
+         else
+         {
+            return helper.getAttribute("delimiter");
+         }
+      }
+
       /**
        * Get the datum attribute value
        * 
@@ -814,7 +981,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributeUpstreamFlowPath() 
       {
-         return getElementUpstreamBound().getAttribute("upstreamPath");
+         ElementHelper helper = getElementUpstreamBound();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttribute("upstreamPath");
+         }
       }
 
       /**
@@ -825,7 +1000,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributeUpstreamFlowDelimeter() 
       {
-         return getElementUpstreamBound().getAttribute("upstreamDelimiter");
+         ElementHelper helper = getElementUpstreamBound();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttribute("upstreamDelimiter");
+         }
       }
 
       /**
@@ -836,7 +1019,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
        */
       public String getAttributeUpstreamInterpType() 
       {
-         return getElementUpstreamBound().getAttribute("upstreamInterpType");
+         ElementHelper helper = getElementUpstreamBound();
+         if (helper == null)
+         {
+            return null;
+         }
+         else
+         {
+            return helper.getAttribute("upstreamInterpType");
+         }
       }
 
       /**
@@ -865,6 +1056,11 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
     */
    private ElementHelper elementStructure;
 
+   /**
+    * Element helper for the network element
+    */
+   private ElementHelper elementNetwork;
+
    /**
     * Element for channel geometry configuration
     */
@@ -878,7 +1074,7 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
    /**
     * Hash map for looking up the elements for each simulated solute
     */
-   HashMap<String, ElementSolute> elementSoluteMap;
+   LinkedHashMap<String, ElementSolute> elementSoluteMap;
 
    /**
     * Element helper for the temperature element
@@ -890,6 +1086,21 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
     */
    private ElementHelper elementAtmosphere;
 
+   /**
+    * Compiled configuration
+    */
+   private StreamConfig config;
+
+   /**
+    * True if the compiled configuration was replaced by a variant
+    */
+   private boolean isConfigOverridden;
+
+   /**
+    * Topology shared with other models, null if not shared
+    */
+   private StreamTopology topology;
+
    /**
     * Construct a new instance that uses the provided working directory,
     * path to the configuration file, and the name of the XML element
@@ -988,6 +1199,62 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
    {
       return getElementModelStructure().getAttributeLong("numCells");
    }
+
+   /**
+    * Get the element helper for the network element
+    * 
+    * @return
+    *       network element, null if the stream is a single reach
+    */
+   private ElementHelper getElementNetwork() 
+   {
+      if (elementNetwork == null)
+      {
+         elementNetwork = getElementModelStructure().getFirstChildElementHelper("network");
+      }
+      return elementNetwork;
+   }
+
+   /**
+    * Get the reach table file of a stream network, relative to
+    * the working directory
+    * 
+    * @return
+    *       table file, null if the stream is a single reach
+    */
+   public File getNetworkFile()
+   {
+      ElementHelper helper = getElementNetwork();
+      if (helper == null || helper.getAttribute("path").equals(""))
+      {
+         return null;
+      }
+      File file = new File(helper.getAttribute("path"));
+      if (!file.isAbsolute())
+      {
+         file = new File(getInputDir(), helper.getAttribute("path"));
+      }
+      return file;
+   }
+
+   /**
+    * Get the column delimiter of the reach table
+    * 
+    * @return
+    *       delimiter, a comma by default
+    */
+   public String getAttributeNetworkDelimiter()
+   {
+      ElementHelper helper = getElementNetwork();
+      if (helper == null || helper.getAttribute("delimiter").equals(""))
+      {
+         return ",";
+      }
+      else
+      {
+         return helper.getAttribute("delimiter");
+      }
+   }
    
    /**
     * Get the length of the stream
@@ -1019,6 +1286,39 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
       }
    }
 
+   /**
+    * Get the segment geometry table file, relative to
+    * the working directory
+    * 
+    * @return
+    *       table file, null if the reach has uniform geometry
+    */
+   public File getSegmentsFile()
+   {
+      String path = getElementGeometry().getAttributeSegmentsPath();
+      if (path == null || path.equals(""))
+      {
+         return null;
+      }
+      File file = new File(path);
+      if (!file.isAbsolute())
+      {
+         file = new File(getInputDir(), path);
+      }
+      return file;
+   }
+
+   /**
+    * Get the column delimiter of the segment geometry table
+    * 
+    * @return
+    *       delimiter
+    */
+   public String getAttributeSegmentsDelimiter()
+   {
+      return getElementGeometry().getAttributeSegmentsDelimiter();
+   }
+
    /**
     * Get the elevation datum
     * 
@@ -1434,10 +1734,26 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
     * @return
     */
    protected ElementSolute getElementSolute(String soluteName) 
+   {
+      ElementSolute elementSolute = getElementSoluteMap().get(soluteName);
+      if (elementSolute == null)
+      {
+         return null;
+      }
+      return elementSolute;
+   }
+
+   /**
+    * Get the elements for all solutes, in document order
+    * 
+    * @return
+    *       map of solute elements by name
+    */
+   private LinkedHashMap<String, ElementSolute> getElementSoluteMap() 
    {
       if (elementSoluteMap == null)
       {
-         elementSoluteMap = new HashMap<String, ElementSolute>();
+         elementSoluteMap = new LinkedHashMap<String, ElementSolute>();
          NodeList nodes = helper.getElement().getElementsByTagName("solute");
          for (int nodeCount = 0; nodeCount < nodes.getLength(); nodeCount++)
          {
@@ -1446,12 +1762,7 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
             elementSoluteMap.put(elementSolute.getName(), elementSolute);
          }
       }
-      ElementSolute elementSolute = elementSoluteMap.get(soluteName);
-      if (elementSolute == null)
-      {
-         return null;
-      }
-      return elementSolute;
+      return elementSoluteMap;
    }
 
    /**
@@ -1475,7 +1786,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
     */
    public String getAttributeUpstreamTempPath() 
    {
-      return getElementTemperature().getAttributeString("upstreamPath");
+      ElementHelper helper = getElementTemperature();
+      if (helper == null)
+      {
+         return null;
+      }
+      else
+      {
+         return helper.getAttributeString("upstreamPath");
+      }
    }
 
    /**
@@ -1487,7 +1806,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
     */
    public String getAttributeDownstreamTempPath() 
    {
-      return getElementTemperature().getAttributeString("downstreamPath");
+      ElementHelper helper = getElementTemperature();
+      if (helper == null)
+      {
+         return null;
+      }
+      else
+      {
+         return helper.getAttributeString("downstreamPath");
+      }
    }
 
    /**
@@ -1498,7 +1825,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
     */
    public String getAttributeUpstreamTempType() 
    {
-      return getElementTemperature().getAttributeString("interpType");
+      ElementHelper helper = getElementTemperature();
+      if (helper == null)
+      {
+         return null;
+      }
+      else
+      {
+         return helper.getAttributeString("interpType");
+      }
    }
 
    /**
@@ -1509,7 +1844,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
     */
    public String getAttributeUpstreamTempDelimiter() 
    {
-      return getElementTemperature().getAttributeString("delimiter");
+      ElementHelper helper = getElementTemperature();
+      if (helper == null)
+      {
+         return null;
+      }
+      else
+      {
+         return helper.getAttributeString("delimiter");
+      }
    }
 
    /**
@@ -1534,7 +1877,15 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
     */
    public Double getAttributeAirPressure() 
    {
-      return getElementAtmosphere().getAttributeDouble("airPressure");
+      ElementHelper helper = getElementAtmosphere();
+      if (helper == null)
+      {
+         return null;
+      }
+      else
+      {
+         return helper.getAttributeDouble("airPressure");
+      }
    }
 
    /**
@@ -1602,4 +1953,130 @@ public abstract class MetaInputXMLStream extends MetaInputXMLNEOCH {
       return getElementSolute(soluteName).getAttributeRespiration();
    }
 
+   /**
+    * Get the compiled configuration.  The XML is compiled on the
+    * first call, and the same configuration is returned after that.
+    * 
+    * @return
+    *       compiled configuration
+    * @throws Exception
+    *       if the configuration is not valid
+    */
+   @Override
+   public StreamConfig getConfig() throws Exception
+   {
+      if (config == null)
+      {
+         config = compileConfig();
+      }
+      return config;
+   }
+
+   /**
+    * Replace the compiled configuration with a variant, so a model
+    * can be built without reading the XML again
+    * 
+    * @param config
+    *       configuration variant
+    */
+   public void setConfig(StreamConfig config)
+   {
+      this.config = config;
+      isConfigOverridden = true;
+   }
+
+   @Override
+   public StreamTopology getTopology()
+   {
+      return topology;
+   }
+
+   /**
+    * Share a topology with other models built from variants
+    * of the same configuration
+    * 
+    * @param topology
+    *       shared topology, null if the builder creates its own
+    */
+   public void setTopology(StreamTopology topology)
+   {
+      this.topology = topology;
+   }
+
+   /**
+    * Compile the configuration from the XML elements
+    * 
+    * @return
+    *       compiled configuration
+    * @throws Exception
+    *       if the configuration is not valid
+    */
+   protected StreamConfig compileConfig() throws Exception
+   {
+      StreamConfig.Builder builder = new StreamConfig.Builder();
+      builder.setNumCells(getAttributeNumCells());
+      builder.setCellName(getAttributeCellName());
+      builder.setBoundaryName(getAttributeBoundaryName());
+      builder.setNetworkFile(getNetworkFile());
+      builder.setNetworkDelimiter(getAttributeNetworkDelimiter());
+      builder.setStreamLength(getAttributeStreamLength());
+      builder.setElevationDatum(getAttributeElevationDatum());
+      builder.setBedSlope(getAttributeBedSlope());
+      builder.setActiveDepth(getAttributeActiveDepth());
+      builder.setAverageWidth(getAttributeAverageWidth());
+      builder.setSegmentsFile(getSegmentsFile());
+      builder.setSegmentsDelimiter(getAttributeSegmentsDelimiter());
+      builder.setInitialDepth(getAttributeInitialDepth());
+      builder.setInitialFlow(getAttributeInitialFlow());
+      builder.setDispersionCoefficient(getAttributeDispersionCoefficient());
+      builder.setChezey(getAttributeChezey());
+      builder.setChezeyExpVel(getAttributeChezeyExpVel());
+      builder.setChezeyExpRad(getAttributeChezeyExpRad());
+      builder.setWieleInt(getAttributeWieleInt());
+      builder.setWieleSlope(getAttributeWieleSlope());
+      builder.setUpstreamFlowPath(getAttributeUpstreamFlowPath());
+      builder.setUpstreamFlowInterpType(getAttributeUpstreamFlowInterpType());
+      builder.setUpstreamFlowDelimiter(getAttributeUpstreamFlowDelimiter());
+      builder.setUpstreamTempPath(getAttributeUpstreamTempPath());
+      builder.setDownstreamTempPath(getAttributeDownstreamTempPath());
+      builder.setUpstreamTempType(getAttributeUpstreamTempType());
+      builder.setUpstreamTempDelimiter(getAttributeUpstreamTempDelimiter());
+      builder.setAirPressure(getAttributeAirPressure());
+      builder.setTimeInterval(getAttributeTimeInterval());
+      builder.setLastIteration(getAttributeLastIteration());
+      builder.setTimeStepMode(getAttributeTimeStepMode());
+      builder.setTimeStepSafety(getAttributeTimeStepSafety());
+      builder.setInitialConditions(isInitialConditions());
+      builder.setInitialConditionPathCell(getAttributeInitialConditionPathCell());
+      builder.setInitialConditionDelimiterCell(getAttributeInitialConditionDelimiterCell());
+      builder.setInitialConditionPathBound(getAttributeInitialConditionPathBound());
+      builder.setInitialConditionDelimiterBound(getAttributeInitialConditionDelimiterBound());
+      for (ElementSolute elementSolute: getElementSoluteMap().values())
+      {
+         builder.setSolute(elementSolute.compile());
+      }
+      return builder.build();
+   }
+
+   /**
+    * Add the builder configuration to a build cache.  If the compiled
+    * configuration was replaced by a variant, the values of the variant
+    * are added after the XML.
+    * 
+    * @param cache
+    *       build cache
+    * @throws Exception
+    *       if error in reading an input file
+    */
+   @Override
+   public void addToBuildCache(BuildCache cache) throws Exception
+   {
+      super.addToBuildCache(cache);
+      if (isConfigOverridden)
+      {
+         config.addToBuildCache(cache, 
+               getInputDir(), getHolonFile().getAbsoluteFile().getParentFile());
+      }
+   }
+
 }
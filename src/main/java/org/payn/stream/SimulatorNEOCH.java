@@ -2,8 +2,14 @@ package org.payn.stream;
 
 import java.io.File;
 
+import org.payn.chsm.resources.time.BehaviorTime;
+import org.payn.chsm.resources.time.Iteration;
+import org.payn.chsm.resources.time.Time;
+import org.payn.chsm.values.ValueDouble;
+import org.payn.chsm.values.ValueLong;
 import org.payn.neoch.HolonMatrix;
 import org.payn.simulation.SimulatorAbstract;
+import org.payn.stream.io.MatrixDefinitionView;
 
 /**
  * Simulator using a NEOCH model
@@ -18,6 +24,35 @@ public abstract class SimulatorNEOCH extends SimulatorAbstract {
     */
    protected HolonMatrix matrix;
 
+   /**
+    * Definition of a matrix built in memory, null if the matrix
+    * is built from the holon XML files or has been created
+    */
+   protected MatrixDefinitionView matrixDefinition;
+
+   /**
+    * Binary snapshot of the matrix, null if the matrix
+    * is not loaded from a snapshot
+    */
+   protected File snapshotFile;
+
+   /**
+    * Flag for memory mapping the snapshot
+    */
+   protected boolean isSnapshotMapped;
+
+   /**
+    * Flag for a model that is advanced in steps by the caller
+    * rather than run to its last iteration by execute
+    */
+   protected boolean isStepped;
+
+   /**
+    * Meta input of the builder of the model, null if the model
+    * is not built by a NEOCH builder
+    */
+   protected MetaInputNEOCH builderInput;
+
    /**
     * Constructor 
     * 
@@ -31,20 +66,152 @@ public abstract class SimulatorNEOCH extends SimulatorAbstract {
    }
 
    /**
-    * Initialize the model
+    * Initialize the model.  The matrix definition is released once
+    * the matrix is created, since the matrix holds its own state.
     * 
     * @throws Exception
     */
    public void initializeModel() throws Exception
    {
-      matrix = createMatrix();
+      try
+      {
+         matrix = createMatrix();
+      }
+      finally
+      {
+         matrixDefinition = null;
+      }
+   }
+
+   /**
+    * Set the definition of a matrix built in memory
+    *
+    * @param matrixDefinition
+    *       matrix definition
+    */
+   public void setMatrixDefinition(MatrixDefinitionView matrixDefinition)
+   {
+      this.matrixDefinition = matrixDefinition;
+   }
+
+   /**
+    * Set the binary snapshot file the matrix is loaded from
+    *
+    * @param snapshotFile
+    *       snapshot file
+    * @param isMapped
+    *       true if the snapshot is memory mapped
+    */
+   public void setSnapshotFile(File snapshotFile, boolean isMapped)
+   {
+      this.snapshotFile = snapshotFile;
+      this.isSnapshotMapped = isMapped;
+   }
+
+   /**
+    * Set the flag for a model that is advanced in steps.  A stepped
+    * model is built and initialized by execute, but not run, so the
+    * caller can advance it with {@link #advanceTo(long)}.
+    *
+    * @param isStepped
+    *       true if the model is advanced in steps
+    */
+   public void setStepped(boolean isStepped)
+   {
+      this.isStepped = isStepped;
+   }
+
+   /**
+    * Set the meta input of the builder of the model, so the
+    * builder configuration can be part of the run fingerprint
+    *
+    * @param builderInput
+    *       meta input of the builder
+    */
+   public void setBuilderInput(MetaInputNEOCH builderInput)
+   {
+      this.builderInput = builderInput;
+   }
+
+   /**
+    * Get the model matrix
+    *
+    * @return
+    *       matrix, null before the model is initialized
+    */
+   public HolonMatrix getMatrix()
+   {
+      return matrix;
    }
 
    @Override
    protected void runModel() throws Exception 
    {
+      if (!isStepped)
+      {
+         matrix.getController().executeController();
+      }
+   }
+
+   /**
+    * Advance the model to an iteration by moving the last iteration
+    * of the model and running the controller from the current
+    * iteration
+    *
+    * @param iteration
+    *       iteration to stop at
+    * @throws Exception
+    *       if error in running the model
+    */
+   public void advanceTo(long iteration) throws Exception
+   {
+      ((ValueLong)matrix.getState(BehaviorTime.LAST_ITERATION).getValue()).n = iteration;
       matrix.getController().executeController();
    }
+
+   /**
+    * Get the current iteration of the model
+    *
+    * @return
+    *       iteration
+    */
+   public long getIteration()
+   {
+      return ((ValueLong)matrix.getState(Iteration.class.getSimpleName()).getValue()).n;
+   }
+
+   /**
+    * Get the last iteration of the model
+    *
+    * @return
+    *       last iteration
+    */
+   public long getLastIteration()
+   {
+      return ((ValueLong)matrix.getState(BehaviorTime.LAST_ITERATION).getValue()).n;
+   }
+
+   /**
+    * Get the current time of the model
+    *
+    * @return
+    *       time
+    */
+   public double getTime()
+   {
+      return ((ValueDouble)matrix.getState(Time.class.getSimpleName()).getValue()).n;
+   }
+
+   /**
+    * Get the time step of the model
+    *
+    * @return
+    *       time step
+    */
+   public double getTimeStep()
+   {
+      return ((ValueDouble)matrix.getState(BehaviorTime.ITERATION_INTERVAL).getValue()).n;
+   }
    
    /**
     * Create the matrix for the model
@@ -1,9 +1,17 @@
 package org.payn.stream;
 
 import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import org.payn.neoch.HolonMatrix;
 import org.payn.simulation.OutputProcessorFactory;
 import org.payn.simulation.OutputProcessorFactoryAbstract;
+import org.payn.stream.io.BuildCache;
+import org.payn.stream.io.ResultCache;
+import org.payn.stream.io.StreamNameTable;
 import org.payn.stream.metabolism.InputProcessorXMLMetabolismBuilder;
 import org.payn.stream.metabolism.MetaInputXMLMetabolism;
 import org.payn.stream.uptake.InputProcessorXMLHyperUptake;
@@ -12,16 +20,64 @@ import org.payn.stream.uptake.MetaInputXMLHyperUptake;
 /**
  * Implementation of a simulator for stream simulations
  * 
+ * A run can use a result cache, enabled with the argument
+ * {@link #ARG_RESULT_CACHE}.  The run is fingerprinted by the simulator
+ * and loader types, the command line arguments, the model configuration
+ * file with the controller and reporters it configures, the compiled
+ * builder configuration, and the contents of the input files they
+ * reference.  A run with a known fingerprint restores the outputs of
+ * the previous run rather than simulating again.  The output directory
+ * is cleared before a run or a restore, so it holds only the outputs
+ * of that run.
+ * 
  * @author robpayn
  *
  */
 public class SimulatorStream extends SimulatorNEOCH {
+
+   /**
+    * Argument for the result cache directory, relative to the
+    * working directory
+    */
+   public static final String ARG_RESULT_CACHE = "resultCache";
+
+   /**
+    * Argument for the size budget of the result cache, in megabytes
+    */
+   public static final String ARG_RESULT_CACHE_SIZE = "resultCacheSize";
+
+   /**
+    * Argument for restoring cached outputs as hard links
+    */
+   public static final String ARG_RESULT_CACHE_LINK = "resultCacheLink";
+
+   /**
+    * Argument for the output directory of the reporters that is
+    * cached, relative to the working directory, which is cleared
+    * before each run
+    */
+   public static final String ARG_RESULT_OUTPUT = "resultOutput";
+
+   /**
+    * Default size budget of the result cache, in megabytes
+    */
+   private static final long DEFAULT_RESULT_CACHE_SIZE = 1024;
+
+   /**
+    * Default output directory of the reporters
+    */
+   private static final String DEFAULT_RESULT_OUTPUT = "output";
    
    /**
     * Loader to use to create the matrix
     */
    private MatrixLoaderStreamSimulator loader;
 
+   /**
+    * Table of cell and boundary names in the stream
+    */
+   private StreamNameTable nameTable;
+
    /**
     * Construct a new instance based on the provided command line arguments and working directory
     * 
@@ -41,6 +97,151 @@ public class SimulatorStream extends SimulatorNEOCH {
       this.loader = loader;
    }
 
+   /**
+    * Set the table of cell and boundary names in the stream
+    * 
+    * @param nameTable
+    *       name table created by the model builder
+    */
+   public void setNameTable(StreamNameTable nameTable)
+   {
+      this.nameTable = nameTable;
+   }
+
+   /**
+    * Get the table of cell and boundary names in the stream
+    * 
+    * @return
+    *       name table, null if the model was not built by
+    *       a stream builder in this run
+    */
+   public StreamNameTable getNameTable()
+   {
+      return nameTable;
+   }
+
+   @Override
+   public void execute() throws Exception
+   {
+      ResultCache cache = createResultCache();
+      if (cache == null)
+      {
+         super.execute();
+         return;
+      }
+      String outputPath = argMap.containsKey(ARG_RESULT_OUTPUT) ?
+            argMap.get(ARG_RESULT_OUTPUT) : DEFAULT_RESULT_OUTPUT;
+      File outputDir = resolve(outputPath);
+      if (workingDir.getAbsoluteFile().toPath().normalize().startsWith(
+            outputDir.getAbsoluteFile().toPath().normalize()))
+      {
+         throw new Exception(String.format(
+               "Output directory %s holds the working directory and cannot be cached",
+               outputDir.getPath()
+               ));
+      }
+      String key = getResultKey();
+      if (cache.restore(key, outputDir))
+      {
+         System.out.println(String.format(
+               "Run %s is in the result cache, restored its outputs to %s",
+               key.substring(0, 12),
+               outputDir.getPath()
+               ));
+         return;
+      }
+      // Only the files of this run are stored under its key
+      cache.clear(outputDir);
+      super.execute();
+      if (cache.store(key, outputDir))
+      {
+         System.out.println(String.format(
+               "Stored the outputs of run %s in the result cache",
+               key.substring(0, 12)
+               ));
+      }
+   }
+
+   /**
+    * Create the result cache configured by the command line arguments
+    * 
+    * @return
+    *       result cache, null if no cache is configured or the
+    *       model is advanced in steps
+    * @throws Exception
+    *       if the cache directory cannot be created
+    */
+   private ResultCache createResultCache() throws Exception
+   {
+      if (isStepped || argMap == null || !argMap.containsKey(ARG_RESULT_CACHE))
+      {
+         return null;
+      }
+      long size = argMap.containsKey(ARG_RESULT_CACHE_SIZE) ?
+            Long.valueOf(argMap.get(ARG_RESULT_CACHE_SIZE)) : DEFAULT_RESULT_CACHE_SIZE;
+      ResultCache cache = new ResultCache(
+            resolve(argMap.get(ARG_RESULT_CACHE)), 
+            size * 1024 * 1024
+            );
+      cache.setLinked(Boolean.valueOf(argMap.get(ARG_RESULT_CACHE_LINK)));
+      return cache;
+   }
+
+   /**
+    * Get the fingerprint of the run
+    * 
+    * @return
+    *       hexadecimal key
+    * @throws Exception
+    *       if error in reading the configuration or an input file
+    */
+   private String getResultKey() throws Exception
+   {
+      BuildCache fingerprint = new BuildCache(workingDir);
+      fingerprint.addString(getClass().getName());
+      fingerprint.addString(loader.getClass().getName());
+      TreeMap<String, String> args = new TreeMap<String, String>(argMap);
+      args.remove(ARG_RESULT_CACHE);
+      args.remove(ARG_RESULT_CACHE_SIZE);
+      args.remove(ARG_RESULT_CACHE_LINK);
+      for (Map.Entry<String, String> arg: args.entrySet())
+      {
+         fingerprint.addAttribute(arg.getKey(), arg.getValue(), workingDir);
+      }
+      if (args.containsKey("config"))
+      {
+         File configFile = resolve(args.get("config"));
+         if (configFile.isFile())
+         {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            fingerprint.addElement(
+                  factory.newDocumentBuilder().parse(configFile).getDocumentElement(),
+                  workingDir,
+                  configFile.getAbsoluteFile().getParentFile()
+                  );
+         }
+      }
+      if (builderInput != null)
+      {
+         builderInput.addToBuildCache(fingerprint);
+      }
+      return fingerprint.getKey();
+   }
+
+   /**
+    * Resolve a path against the working directory
+    * 
+    * @param path
+    *       absolute path or path relative to the working directory
+    * @return
+    *       file
+    */
+   private File resolve(String path)
+   {
+      File file = new File(path);
+      return file.isAbsolute() ? file : new File(workingDir, path);
+   }
+
    @Override
    protected InputProcessorFactoryStreamSimulator createInputProcessorFactory() 
    {
@@ -50,21 +251,39 @@ public class SimulatorStream extends SimulatorNEOCH {
          public void addMetabolismBuilderInputProcessor(File workingDir, String configPath)
                throws Exception 
          {
-            new InputProcessorXMLMetabolismBuilder(
+            new InputProcessorXMLMetabolismBuilder<MetaInputXMLMetabolism>(
                   new MetaInputXMLMetabolism(workingDir, configPath, "stream"), 
                   getSimulator()
                   );
          }
 
+         @Override
+         public void addMetabolismBuilderInputProcessor(MetaInputMemoryStream metaInput)
+         {
+            new InputProcessorXMLMetabolismBuilder<MetaInputMemoryStream>(
+                  metaInput, 
+                  getSimulator()
+                  );
+         }
+
          @Override
          public void addHyperUptakeBuilderInputProcessor(File workingDir,
                String configPath) throws Exception 
          {
-            new InputProcessorXMLHyperUptake(
+            new InputProcessorXMLHyperUptake<MetaInputXMLHyperUptake>(
                   new MetaInputXMLHyperUptake(workingDir, configPath, "stream"), 
                   getSimulator()
                   );
          }
+
+         @Override
+         public void addHyperUptakeBuilderInputProcessor(MetaInputMemoryStream metaInput)
+         {
+            new InputProcessorXMLHyperUptake<MetaInputMemoryStream>(
+                  metaInput, 
+                  getSimulator()
+                  );
+         }
          
       };
    }
@@ -85,6 +304,8 @@ public class SimulatorStream extends SimulatorNEOCH {
    @Override
    public HolonMatrix createMatrix() throws Exception 
    {
+      loader.setMatrixDefinition(matrixDefinition);
+      loader.setSnapshotFile(snapshotFile, isSnapshotMapped);
       return MatrixLoaderStreamSimulator.initializeStreamSimulator(
             workingDir, 
             argMap,
@@ -0,0 +1,2183 @@
+package org.payn.stream;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import org.payn.stream.io.BuildCache;
+
+/**
+ * Compiled configuration of a stream model, with typed values for the
+ * structure, geometry, flow, temperature, atmosphere, time, initial
+ * conditions, and solutes of the model.
+ *
+ * A configuration is compiled once from the meta input and is not
+ * changed after it is created, so it can be shared between builders
+ * and threads.  Variants are created with a builder initialized from
+ * an existing configuration, which copies the values without parsing
+ * the meta input again.
+ *
+ * @author robpayn
+ *
+ */
+public final class StreamConfig implements Cloneable {
+
+   /**
+    * Compiled configuration of a solute
+    *
+    * @author robpayn
+    *
+    */
+   public static final class Solute implements Cloneable {
+
+      /**
+       * Builder for a solute configuration
+       *
+       * @author robpayn
+       *
+       */
+      public static class Builder {
+
+         /**
+          * Configuration being built
+          */
+         private Solute solute;
+
+         /**
+          * Construct a new builder for a solute with the provided name
+          *
+          * @param name
+          *       solute name
+          */
+         public Builder(String name)
+         {
+            solute = new Solute(name);
+         }
+
+         /**
+          * Construct a new builder initialized with the values of
+          * the provided solute
+          *
+          * @param source
+          *       solute configuration to copy
+          */
+         private Builder(Solute source)
+         {
+            solute = source.copy();
+         }
+
+         /**
+          * Create the solute configuration.  The builder can be used
+          * to create further variants.
+          *
+          * @return
+          *       solute configuration
+          * @throws Exception
+          *       if the values are not valid
+          */
+         public Solute build() throws Exception
+         {
+            solute.validate();
+            Solute result = solute;
+            solute = result.copy();
+            return result;
+         }
+
+         /**
+          * Set the active flag
+          *
+          * @param isActive
+          *       true if the solute is simulated
+          */
+         public void setActive(boolean isActive)
+         {
+            solute.isActive = isActive;
+         }
+
+         /**
+          * Set the initial concentration
+          *
+          * @param initialConc
+          *       initial concentration
+          */
+         public void setInitialConc(Double initialConc)
+         {
+            solute.initialConc = initialConc;
+         }
+
+         /**
+          * Set the background concentration
+          *
+          * @param bkgConc
+          *       background concentration
+          */
+         public void setBkgConc(Double bkgConc)
+         {
+            solute.bkgConc = bkgConc;
+         }
+
+         /**
+          * Set the path to the concentration boundary file
+          *
+          * @param concBoundFile
+          *       path
+          */
+         public void setConcBoundFile(String concBoundFile)
+         {
+            solute.concBoundFile = concBoundFile;
+         }
+
+         /**
+          * Set the interpolation type of the concentration boundary
+          *
+          * @param interpolationType
+          *       interpolation type
+          */
+         public void setInterpolationType(String interpolationType)
+         {
+            solute.interpolationType = interpolationType;
+         }
+
+         /**
+          * Set the delimiter of the concentration boundary file
+          *
+          * @param delimiter
+          *       delimiter
+          */
+         public void setDelimiter(String delimiter)
+         {
+            solute.delimiter = delimiter;
+         }
+
+         /**
+          * Set the upstream injection flag
+          *
+          * @param isUpstreamInject
+          *       true if the solute is injected at the upstream boundary
+          */
+         public void setUpstreamInject(boolean isUpstreamInject)
+         {
+            solute.isUpstreamInject = isUpstreamInject;
+         }
+
+         /**
+          * Set the injected solute mass
+          *
+          * @param injectMass
+          *       solute mass
+          */
+         public void setInjectMass(Double injectMass)
+         {
+            solute.injectMass = injectMass;
+         }
+
+         /**
+          * Set the duration of the injection
+          *
+          * @param injectDuration
+          *       number of iterations
+          */
+         public void setInjectDuration(Long injectDuration)
+         {
+            solute.injectDuration = injectDuration;
+         }
+
+         /**
+          * Set the iteration that starts the injection
+          *
+          * @param injectStartInterval
+          *       start iteration
+          */
+         public void setInjectStartInterval(Long injectStartInterval)
+         {
+            solute.injectStartInterval = injectStartInterval;
+         }
+
+         /**
+          * Set the maximum uptake rate
+          *
+          * @param uptakeMax
+          *       maximum uptake
+          */
+         public void setUptakeMax(Double uptakeMax)
+         {
+            solute.uptakeMax = uptakeMax;
+         }
+
+         /**
+          * Set the half saturation concentration
+          *
+          * @param concHalfSat
+          *       half saturation concentration
+          */
+         public void setConcHalfSat(Double concHalfSat)
+         {
+            solute.concHalfSat = concHalfSat;
+         }
+
+         /**
+          * Set the path to the upstream concentration file
+          *
+          * @param upstreamPath
+          *       path
+          */
+         public void setUpstreamPath(String upstreamPath)
+         {
+            solute.upstreamPath = upstreamPath;
+         }
+
+         /**
+          * Set the interpolation type of the upstream concentration
+          *
+          * @param upstreamInterpType
+          *       interpolation type
+          */
+         public void setUpstreamInterpType(String upstreamInterpType)
+         {
+            solute.upstreamInterpType = upstreamInterpType;
+         }
+
+         /**
+          * Set the delimiter of the upstream concentration file
+          *
+          * @param upstreamDelimiter
+          *       delimiter
+          */
+         public void setUpstreamDelimiter(String upstreamDelimiter)
+         {
+            solute.upstreamDelimiter = upstreamDelimiter;
+         }
+
+         /**
+          * Set the gas exchange velocity
+          *
+          * @param k600
+          *       gas exchange velocity
+          */
+         public void setK600(Double k600)
+         {
+            solute.k600 = k600;
+         }
+
+         /**
+          * Set the interpolation type of the PAR file
+          *
+          * @param parType
+          *       interpolation type
+          */
+         public void setPARType(String parType)
+         {
+            solute.parType = parType;
+         }
+
+         /**
+          * Set the delimiter of the PAR file
+          *
+          * @param parDelimiter
+          *       delimiter
+          */
+         public void setPARDelimiter(String parDelimiter)
+         {
+            solute.parDelimiter = parDelimiter;
+         }
+
+         /**
+          * Set the path to the PAR file
+          *
+          * @param parPath
+          *       path
+          */
+         public void setPARPath(String parPath)
+         {
+            solute.parPath = parPath;
+         }
+
+         /**
+          * Set the ratio of production to PAR
+          *
+          * @param pToPARRatio
+          *       ratio
+          */
+         public void setPToPARRatio(Double pToPARRatio)
+         {
+            solute.pToPARRatio = pToPARRatio;
+         }
+
+         /**
+          * Set the respiration rate
+          *
+          * @param respiration
+          *       respiration rate
+          */
+         public void setRespiration(Double respiration)
+         {
+            solute.respiration = respiration;
+         }
+
+      }
+
+      /**
+       * Solute name
+       */
+      private String name;
+
+      /**
+       * Active flag
+       */
+      private boolean isActive;
+
+      /**
+       * Initial concentration
+       */
+      private Double initialConc;
+
+      /**
+       * Background concentration
+       */
+      private Double bkgConc;
+
+      /**
+       * Path to the concentration boundary file
+       */
+      private String concBoundFile;
+
+      /**
+       * Interpolation type of the concentration boundary
+       */
+      private String interpolationType;
+
+      /**
+       * Delimiter of the concentration boundary file
+       */
+      private String delimiter;
+
+      /**
+       * Upstream injection flag
+       */
+      private boolean isUpstreamInject;
+
+      /**
+       * Injected solute mass
+       */
+      private Double injectMass;
+
+      /**
+       * Duration of the injection in iterations
+       */
+      private Long injectDuration;
+
+      /**
+       * Iteration that starts the injection
+       */
+      private Long injectStartInterval;
+
+      /**
+       * Maximum uptake rate
+       */
+      private Double uptakeMax;
+
+      /**
+       * Half saturation concentration
+       */
+      private Double concHalfSat;
+
+      /**
+       * Path to the upstream concentration file
+       */
+      private String upstreamPath;
+
+      /**
+       * Interpolation type of the upstream concentration
+       */
+      private String upstreamInterpType;
+
+      /**
+       * Delimiter of the upstream concentration file
+       */
+      private String upstreamDelimiter;
+
+      /**
+       * Gas exchange velocity
+       */
+      private Double k600;
+
+      /**
+       * Interpolation type of the PAR file
+       */
+      private String parType;
+
+      /**
+       * Delimiter of the PAR file
+       */
+      private String parDelimiter;
+
+      /**
+       * Path to the PAR file
+       */
+      private String parPath;
+
+      /**
+       * Ratio of production to PAR
+       */
+      private Double pToPARRatio;
+
+      /**
+       * Respiration rate
+       */
+      private Double respiration;
+
+      /**
+       * Construct a new solute configuration with no values
+       *
+       * @param name
+       *       solute name
+       */
+      private Solute(String name)
+      {
+         this.name = name;
+      }
+
+      /**
+       * Create a builder initialized with the values of this solute
+       *
+       * @return
+       *       builder
+       */
+      public Builder toBuilder()
+      {
+         return new Builder(this);
+      }
+
+      /**
+       * Copy the solute configuration
+       *
+       * @return
+       *       copy
+       */
+      private Solute copy()
+      {
+         try
+         {
+            return (Solute)clone();
+         }
+         catch (CloneNotSupportedException e)
+         {
+            throw new IllegalStateException(e);
+         }
+      }
+
+      /**
+       * Check the values of the solute configuration
+       *
+       * @throws Exception
+       *       if the values are not valid
+       */
+      private void validate() throws Exception
+      {
+         if (isUpstreamInject && (injectMass == null || injectDuration == null
+               || injectStartInterval == null))
+         {
+            throw new Exception(String.format(
+                  "Injection of solute %s requires the solute mass, duration, and start iteration",
+                  name
+                  ));
+         }
+         checkNonNegative(uptakeMax, "uptakeMax", name);
+         checkNonNegative(concHalfSat, "concHalfSat", name);
+         checkNonNegative(bkgConc, "bkgConc", name);
+         checkNonNegative(initialConc, "initialConc", name);
+      }
+
+      /**
+       * Add the values of the solute configuration to a build cache
+       *
+       * @param cache
+       *       build cache
+       * @param baseDirs
+       *       directories used to resolve relative paths, in order
+       * @throws Exception
+       *       if error in reading a referenced file
+       */
+      private void addToBuildCache(BuildCache cache, File... baseDirs) throws Exception
+      {
+         cache.addString("solute");
+         cache.addAttribute("solute", "name", name, baseDirs);
+         cache.addAttribute("solute", "active", Boolean.toString(isActive), baseDirs);
+         cache.addAttribute("solute", "initialConc", toValue(initialConc), baseDirs);
+         cache.addAttribute("solute", "bkgConc", toValue(bkgConc), baseDirs);
+         cache.addAttribute("interpolate", "path", concBoundFile, baseDirs);
+         cache.addAttribute("interpolate", "type", interpolationType, baseDirs);
+         cache.addAttribute("interpolate", "delimiter", delimiter, baseDirs);
+         cache.addAttribute("solute", "inject", Boolean.toString(isUpstreamInject), baseDirs);
+         cache.addAttribute("inject", "soluteMass", toValue(injectMass), baseDirs);
+         cache.addAttribute("inject", "durationIterations", toValue(injectDuration), baseDirs);
+         cache.addAttribute("inject", "startIteration",
+               toValue(injectStartInterval), baseDirs);
+         cache.addAttribute("hyperbolic", "uptakeMax", toValue(uptakeMax), baseDirs);
+         cache.addAttribute("hyperbolic", "concHalfSat", toValue(concHalfSat), baseDirs);
+         cache.addAttribute("upstreambound", "upstreamPath", upstreamPath, baseDirs);
+         cache.addAttribute("upstreambound", "upstreamInterpType",
+               upstreamInterpType, baseDirs);
+         cache.addAttribute("upstreambound", "upstreamDelimiter", upstreamDelimiter, baseDirs);
+         cache.addAttribute("awexchange", "k600", toValue(k600), baseDirs);
+         cache.addAttribute("photosynthesis", "parType", parType, baseDirs);
+         cache.addAttribute("photosynthesis", "parDelimiter", parDelimiter, baseDirs);
+         cache.addAttribute("photosynthesis", "parPath", parPath, baseDirs);
+         cache.addAttribute("photosynthesis", "pToPARRatio", toValue(pToPARRatio), baseDirs);
+         cache.addAttribute("respiration", "respiration", toValue(respiration), baseDirs);
+      }
+
+      /**
+       * Get the solute name
+       *
+       * @return
+       *       solute name
+       */
+      public String getName()
+      {
+         return name;
+      }
+
+      /**
+       * Is the solute simulated?
+       *
+       * @return
+       *       true if the solute is active, false otherwise
+       */
+      public boolean isActive()
+      {
+         return isActive;
+      }
+
+      /**
+       * Get the initial concentration
+       *
+       * @return
+       *       initial concentration
+       */
+      public Double getInitialConc()
+      {
+         return initialConc;
+      }
+
+      /**
+       * Get the background concentration
+       *
+       * @return
+       *       background concentration
+       */
+      public Double getBkgConc()
+      {
+         return bkgConc;
+      }
+
+      /**
+       * Get the path to the concentration boundary file
+       *
+       * @return
+       *       path
+       */
+      public String getConcBoundFile()
+      {
+         return concBoundFile;
+      }
+
+      /**
+       * Get the interpolation type of the concentration boundary
+       *
+       * @return
+       *       interpolation type
+       */
+      public String getInterpolationType()
+      {
+         return interpolationType;
+      }
+
+      /**
+       * Get the delimiter of the concentration boundary file
+       *
+       * @return
+       *       delimiter
+       */
+      public String getDelimiter()
+      {
+         return delimiter;
+      }
+
+      /**
+       * Is the solute injected at the upstream boundary?
+       *
+       * @return
+       *       true if the solute is injected, false otherwise
+       */
+      public boolean isUpstreamInject()
+      {
+         return isUpstreamInject;
+      }
+
+      /**
+       * Get the injected solute mass
+       *
+       * @return
+       *       solute mass
+       */
+      public Double getInjectMass()
+      {
+         return injectMass;
+      }
+
+      /**
+       * Get the duration of the injection
+       *
+       * @return
+       *       number of iterations
+       */
+      public Long getInjectDuration()
+      {
+         return injectDuration;
+      }
+
+      /**
+       * Get the iteration that starts the injection
+       *
+       * @return
+       *       start iteration
+       */
+      public Long getInjectStartInterval()
+      {
+         return injectStartInterval;
+      }
+
+      /**
+       * Get the maximum uptake rate
+       *
+       * @return
+       *       maximum uptake
+       */
+      public Double getUptakeMax()
+      {
+         return uptakeMax;
+      }
+
+      /**
+       * Get the half saturation concentration
+       *
+       * @return
+       *       half saturation concentration
+       */
+      public Double getConcHalfSat()
+      {
+         return concHalfSat;
+      }
+
+      /**
+       * Get the path to the upstream concentration file
+       *
+       * @return
+       *       path
+       */
+      public String getUpstreamPath()
+      {
+         return upstreamPath;
+      }
+
+      /**
+       * Get the interpolation type of the upstream concentration
+       *
+       * @return
+       *       interpolation type
+       */
+      public String getUpstreamInterpType()
+      {
+         return upstreamInterpType;
+      }
+
+      /**
+       * Get the delimiter of the upstream concentration file
+       *
+       * @return
+       *       delimiter
+       */
+      public String getUpstreamDelimiter()
+      {
+         return upstreamDelimiter;
+      }
+
+      /**
+       * Get the gas exchange velocity
+       *
+       * @return
+       *       gas exchange velocity
+       */
+      public Double getK600()
+      {
+         return k600;
+      }
+
+      /**
+       * Get the interpolation type of the PAR file
+       *
+       * @return
+       *       interpolation type
+       */
+      public String getPARType()
+      {
+         return parType;
+      }
+
+      /**
+       * Get the delimiter of the PAR file
+       *
+       * @return
+       *       delimiter
+       */
+      public String getPARDelimiter()
+      {
+         return parDelimiter;
+      }
+
+      /**
+       * Get the path to the PAR file
+       *
+       * @return
+       *       path
+       */
+      public String getPARPath()
+      {
+         return parPath;
+      }
+
+      /**
+       * Get the ratio of production to PAR
+       *
+       * @return
+       *       ratio
+       */
+      public Double getPToPARRatio()
+      {
+         return pToPARRatio;
+      }
+
+      /**
+       * Get the respiration rate
+       *
+       * @return
+       *       respiration rate
+       */
+      public Double getRespiration()
+      {
+         return respiration;
+      }
+
+   }
+
+   /**
+    * Builder for a stream configuration
+    *
+    * @author robpayn
+    *
+    */
+   public static class Builder {
+
+      /**
+       * Configuration being built
+       */
+      private StreamConfig config;
+
+      /**
+       * Construct a new builder for a configuration with no values
+       */
+      public Builder()
+      {
+         config = new StreamConfig();
+      }
+
+      /**
+       * Construct a new builder initialized with the values of
+       * the provided configuration
+       *
+       * @param source
+       *       configuration to copy
+       */
+      private Builder(StreamConfig source)
+      {
+         config = source.copy();
+      }
+
+      /**
+       * Create the configuration.  The builder can be used to create
+       * further variants.
+       *
+       * @return
+       *       configuration
+       * @throws Exception
+       *       if the values are not valid
+       */
+      public StreamConfig build() throws Exception
+      {
+         config.validate();
+         StreamConfig result = config;
+         config = result.copy();
+         return result;
+      }
+
+      /**
+       * Set the number of cells
+       *
+       * @param numCells
+       *       number of cells
+       */
+      public void setNumCells(Long numCells)
+      {
+         config.numCells = numCells;
+      }
+
+      /**
+       * Set the root string for cell names
+       *
+       * @param cellName
+       *       root string
+       */
+      public void setCellName(String cellName)
+      {
+         config.cellName = cellName;
+      }
+
+      /**
+       * Set the root string for boundary names
+       *
+       * @param boundaryName
+       *       root string
+       */
+      public void setBoundaryName(String boundaryName)
+      {
+         config.boundaryName = boundaryName;
+      }
+
+      /**
+       * Set the reach table file of a stream network
+       *
+       * @param networkFile
+       *       table file, null if the stream is a single reach
+       */
+      public void setNetworkFile(File networkFile)
+      {
+         config.networkFile = networkFile;
+      }
+
+      /**
+       * Set the column delimiter of the reach table
+       *
+       * @param networkDelimiter
+       *       delimiter
+       */
+      public void setNetworkDelimiter(String networkDelimiter)
+      {
+         config.networkDelimiter = networkDelimiter;
+      }
+
+      /**
+       * Set the length of the stream
+       *
+       * @param streamLength
+       *       stream length
+       */
+      public void setStreamLength(Double streamLength)
+      {
+         config.streamLength = streamLength;
+      }
+
+      /**
+       * Set the elevation datum
+       *
+       * @param elevationDatum
+       *       elevation datum
+       */
+      public void setElevationDatum(Double elevationDatum)
+      {
+         config.elevationDatum = elevationDatum;
+      }
+
+      /**
+       * Set the bed slope
+       *
+       * @param bedSlope
+       *       bed slope
+       */
+      public void setBedSlope(Double bedSlope)
+      {
+         config.bedSlope = bedSlope;
+      }
+
+      /**
+       * Set the active channel depth
+       *
+       * @param activeDepth
+       *       active channel depth
+       */
+      public void setActiveDepth(Double activeDepth)
+      {
+         config.activeDepth = activeDepth;
+      }
+
+      /**
+       * Set the average width of the active channel
+       *
+       * @param averageWidth
+       *       average width
+       */
+      public void setAverageWidth(Double averageWidth)
+      {
+         config.averageWidth = averageWidth;
+      }
+
+      /**
+       * Set the segment geometry table file
+       *
+       * @param segmentsFile
+       *       table file, null if the reach has uniform geometry
+       */
+      public void setSegmentsFile(File segmentsFile)
+      {
+         config.segmentsFile = segmentsFile;
+      }
+
+      /**
+       * Set the column delimiter of the segment geometry table
+       *
+       * @param segmentsDelimiter
+       *       delimiter
+       */
+      public void setSegmentsDelimiter(String segmentsDelimiter)
+      {
+         config.segmentsDelimiter = segmentsDelimiter;
+      }
+
+      /**
+       * Set the initial water depth
+       *
+       * @param initialDepth
+       *       initial depth
+       */
+      public void setInitialDepth(Double initialDepth)
+      {
+         config.initialDepth = initialDepth;
+      }
+
+      /**
+       * Set the initial stream flow
+       *
+       * @param initialFlow
+       *       initial flow
+       */
+      public void setInitialFlow(Double initialFlow)
+      {
+         config.initialFlow = initialFlow;
+      }
+
+      /**
+       * Set the dispersion coefficient
+       *
+       * @param dispersionCoefficient
+       *       dispersion coefficient
+       */
+      public void setDispersionCoefficient(Double dispersionCoefficient)
+      {
+         config.dispersionCoefficient = dispersionCoefficient;
+      }
+
+      /**
+       * Set the Chezey friction coefficient
+       *
+       * @param chezey
+       *       Chezey coefficient
+       */
+      public void setChezey(Double chezey)
+      {
+         config.chezey = chezey;
+      }
+
+      /**
+       * Set the velocity exponent of the Chezey friction
+       *
+       * @param chezeyExpVel
+       *       velocity exponent
+       */
+      public void setChezeyExpVel(Double chezeyExpVel)
+      {
+         config.chezeyExpVel = chezeyExpVel;
+      }
+
+      /**
+       * Set the hydraulic radius exponent of the Chezey friction
+       *
+       * @param chezeyExpRad
+       *       radius exponent
+       */
+      public void setChezeyExpRad(Double chezeyExpRad)
+      {
+         config.chezeyExpRad = chezeyExpRad;
+      }
+
+      /**
+       * Set the intercept of the Wiele friction vs. depth relationship
+       *
+       * @param wieleInt
+       *       intercept
+       */
+      public void setWieleInt(Double wieleInt)
+      {
+         config.wieleInt = wieleInt;
+      }
+
+      /**
+       * Set the slope of the Wiele friction vs. depth relationship
+       *
+       * @param wieleSlope
+       *       slope
+       */
+      public void setWieleSlope(Double wieleSlope)
+      {
+         config.wieleSlope = wieleSlope;
+      }
+
+      /**
+       * Set the path to the upstream flow file
+       *
+       * @param upstreamFlowPath
+       *       path
+       */
+      public void setUpstreamFlowPath(String upstreamFlowPath)
+      {
+         config.upstreamFlowPath = upstreamFlowPath;
+      }
+
+      /**
+       * Set the interpolation type of the upstream flow
+       *
+       * @param upstreamFlowInterpType
+       *       interpolation type
+       */
+      public void setUpstreamFlowInterpType(String upstreamFlowInterpType)
+      {
+         config.upstreamFlowInterpType = upstreamFlowInterpType;
+      }
+
+      /**
+       * Set the delimiter of the upstream flow file
+       *
+       * @param upstreamFlowDelimiter
+       *       delimiter
+       */
+      public void setUpstreamFlowDelimiter(String upstreamFlowDelimiter)
+      {
+         config.upstreamFlowDelimiter = upstreamFlowDelimiter;
+      }
+
+      /**
+       * Set the path to the upstream temperature file
+       *
+       * @param upstreamTempPath
+       *       path
+       */
+      public void setUpstreamTempPath(String upstreamTempPath)
+      {
+         config.upstreamTempPath = upstreamTempPath;
+      }
+
+      /**
+       * Set the path to the downstream temperature file
+       *
+       * @param downstreamTempPath
+       *       path
+       */
+      public void setDownstreamTempPath(String downstreamTempPath)
+      {
+         config.downstreamTempPath = downstreamTempPath;
+      }
+
+      /**
+       * Set the interpolation type of the temperature files
+       *
+       * @param upstreamTempType
+       *       interpolation type
+       */
+      public void setUpstreamTempType(String upstreamTempType)
+      {
+         config.upstreamTempType = upstreamTempType;
+      }
+
+      /**
+       * Set the delimiter of the temperature files
+       *
+       * @param upstreamTempDelimiter
+       *       delimiter
+       */
+      public void setUpstreamTempDelimiter(String upstreamTempDelimiter)
+      {
+         config.upstreamTempDelimiter = upstreamTempDelimiter;
+      }
+
+      /**
+       * Set the air pressure
+       *
+       * @param airPressure
+       *       air pressure
+       */
+      public void setAirPressure(Double airPressure)
+      {
+         config.airPressure = airPressure;
+      }
+
+      /**
+       * Set the time interval
+       *
+       * @param timeInterval
+       *       time interval
+       */
+      public void setTimeInterval(Double timeInterval)
+      {
+         config.timeInterval = timeInterval;
+      }
+
+      /**
+       * Set the last iteration
+       *
+       * @param lastIteration
+       *       last iteration
+       */
+      public void setLastIteration(Long lastIteration)
+      {
+         config.lastIteration = lastIteration;
+      }
+
+      /**
+       * Set the selection of the time interval from the stable
+       * time step of the model
+       *
+       * @param timeStepMode
+       *       one of the modes of {@link StreamTimeStep}
+       */
+      public void setTimeStepMode(String timeStepMode)
+      {
+         config.timeStepMode = timeStepMode;
+      }
+
+      /**
+       * Set the fraction of the stable time step used as the
+       * largest time interval
+       *
+       * @param timeStepSafety
+       *       safety factor, greater than zero and at most one
+       */
+      public void setTimeStepSafety(Double timeStepSafety)
+      {
+         config.timeStepSafety = timeStepSafety;
+      }
+
+      /**
+       * Set the initial conditions flag
+       *
+       * @param isInitialConditions
+       *       true if initial conditions are read from tables
+       */
+      public void setInitialConditions(boolean isInitialConditions)
+      {
+         config.isInitialConditions = isInitialConditions;
+      }
+
+      /**
+       * Set the path to the initial conditions table for cells
+       *
+       * @param initialConditionPathCell
+       *       path
+       */
+      public void setInitialConditionPathCell(String initialConditionPathCell)
+      {
+         config.initialConditionPathCell = initialConditionPathCell;
+      }
+
+      /**
+       * Set the delimiter of the initial conditions table for cells
+       *
+       * @param initialConditionDelimiterCell
+       *       delimiter
+       */
+      public void setInitialConditionDelimiterCell(String initialConditionDelimiterCell)
+      {
+         config.initialConditionDelimiterCell = initialConditionDelimiterCell;
+      }
+
+      /**
+       * Set the path to the initial conditions table for boundaries
+       *
+       * @param initialConditionPathBound
+       *       path
+       */
+      public void setInitialConditionPathBound(String initialConditionPathBound)
+      {
+         config.initialConditionPathBound = initialConditionPathBound;
+      }
+
+      /**
+       * Set the delimiter of the initial conditions table for boundaries
+       *
+       * @param initialConditionDelimiterBound
+       *       delimiter
+       */
+      public void setInitialConditionDelimiterBound(String initialConditionDelimiterBound)
+      {
+         config.initialConditionDelimiterBound = initialConditionDelimiterBound;
+      }
+
+      /**
+       * Add a solute configuration, replacing any solute with the same name
+       *
+       * @param solute
+       *       solute configuration
+       */
+      public void setSolute(Solute solute)
+      {
+         config.solutes.put(solute.getName(), solute);
+      }
+
+      /**
+       * Get a solute configuration of the configuration being built
+       *
+       * @param name
+       *       solute name
+       * @return
+       *       solute configuration, inactive with no values if
+       *       the solute is not configured
+       */
+      public Solute getSolute(String name)
+      {
+         return config.getSolute(name);
+      }
+
+      /**
+       * Remove a solute configuration
+       *
+       * @param name
+       *       solute name
+       */
+      public void removeSolute(String name)
+      {
+         config.solutes.remove(name);
+      }
+
+   }
+
+   /**
+    * Number of cells
+    */
+   private Long numCells;
+
+   /**
+    * Root string for cell names
+    */
+   private String cellName;
+
+   /**
+    * Root string for boundary names
+    */
+   private String boundaryName;
+
+   /**
+    * Reach table file of a stream network
+    */
+   private File networkFile;
+
+   /**
+    * Column delimiter of the reach table
+    */
+   private String networkDelimiter;
+
+   /**
+    * Length of the stream
+    */
+   private Double streamLength;
+
+   /**
+    * Elevation datum
+    */
+   private Double elevationDatum;
+
+   /**
+    * Bed slope
+    */
+   private Double bedSlope;
+
+   /**
+    * Active channel depth
+    */
+   private Double activeDepth;
+
+   /**
+    * Average width of the active channel
+    */
+   private Double averageWidth;
+
+   /**
+    * Segment geometry table file
+    */
+   private File segmentsFile;
+
+   /**
+    * Column delimiter of the segment geometry table
+    */
+   private String segmentsDelimiter;
+
+   /**
+    * Initial water depth
+    */
+   private Double initialDepth;
+
+   /**
+    * Initial stream flow
+    */
+   private Double initialFlow;
+
+   /**
+    * Dispersion coefficient
+    */
+   private Double dispersionCoefficient;
+
+   /**
+    * Chezey friction coefficient
+    */
+   private Double chezey;
+
+   /**
+    * Velocity exponent of the Chezey friction
+    */
+   private Double chezeyExpVel;
+
+   /**
+    * Hydraulic radius exponent of the Chezey friction
+    */
+   private Double chezeyExpRad;
+
+   /**
+    * Intercept of the Wiele friction vs. depth relationship
+    */
+   private Double wieleInt;
+
+   /**
+    * Slope of the Wiele friction vs. depth relationship
+    */
+   private Double wieleSlope;
+
+   /**
+    * Path to the upstream flow file
+    */
+   private String upstreamFlowPath;
+
+   /**
+    * Interpolation type of the upstream flow
+    */
+   private String upstreamFlowInterpType;
+
+   /**
+    * Delimiter of the upstream flow file
+    */
+   private String upstreamFlowDelimiter;
+
+   /**
+    * Path to the upstream temperature file
+    */
+   private String upstreamTempPath;
+
+   /**
+    * Path to the downstream temperature file
+    */
+   private String downstreamTempPath;
+
+   /**
+    * Interpolation type of the temperature files
+    */
+   private String upstreamTempType;
+
+   /**
+    * Delimiter of the temperature files
+    */
+   private String upstreamTempDelimiter;
+
+   /**
+    * Air pressure
+    */
+   private Double airPressure;
+
+   /**
+    * Time interval
+    */
+   private Double timeInterval;
+
+   /**
+    * Last iteration
+    */
+   private Long lastIteration;
+
+   /**
+    * Selection of the time interval from the stable time step
+    */
+   private String timeStepMode;
+
+   /**
+    * Fraction of the stable time step used as the largest
+    * time interval
+    */
+   private Double timeStepSafety;
+
+   /**
+    * Initial conditions flag
+    */
+   private boolean isInitialConditions;
+
+   /**
+    * Path to the initial conditions table for cells
+    */
+   private String initialConditionPathCell;
+
+   /**
+    * Delimiter of the initial conditions table for cells
+    */
+   private String initialConditionDelimiterCell;
+
+   /**
+    * Path to the initial conditions table for boundaries
+    */
+   private String initialConditionPathBound;
+
+   /**
+    * Delimiter of the initial conditions table for boundaries
+    */
+   private String initialConditionDelimiterBound;
+
+   /**
+    * Solute configurations, in configuration order
+    */
+   private LinkedHashMap<String, Solute> solutes;
+
+   /**
+    * Construct a new configuration with no values
+    */
+   private StreamConfig()
+   {
+      solutes = new LinkedHashMap<String, Solute>();
+   }
+
+   /**
+    * Create a builder initialized with the values of this configuration
+    *
+    * @return
+    *       builder
+    */
+   public Builder toBuilder()
+   {
+      return new Builder(this);
+   }
+
+   /**
+    * Copy the configuration.  Solute configurations are shared,
+    * since they are not changed after they are created.
+    *
+    * @return
+    *       copy
+    */
+   @SuppressWarnings("unchecked")
+   private StreamConfig copy()
+   {
+      try
+      {
+         StreamConfig copy = (StreamConfig)clone();
+         copy.solutes = (LinkedHashMap<String, Solute>)solutes.clone();
+         return copy;
+      }
+      catch (CloneNotSupportedException e)
+      {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * Check the values of the configuration
+    *
+    * @throws Exception
+    *       if the values are not valid
+    */
+   private void validate() throws Exception
+   {
+      if (cellName == null || boundaryName == null)
+      {
+         throw new Exception("The model structure requires cell and boundary names");
+      }
+      if (numCells == null && networkFile == null && segmentsFile == null)
+      {
+         throw new Exception(
+               "The model structure requires a number of cells, "
+               + "a segment geometry table, or a stream network"
+               );
+      }
+      if (networkFile != null && segmentsFile != null)
+      {
+         throw new Exception(
+               "Segment geometry tables cannot be used with a stream network, "
+               + "use the width and bed slope columns of the network table instead"
+               );
+      }
+      if (numCells != null && numCells < 1)
+      {
+         throw new Exception("The number of cells must be positive");
+      }
+      if (timeInterval == null || !(timeInterval > 0.0))
+      {
+         throw new Exception("The time interval must be positive");
+      }
+      if (lastIteration == null || lastIteration < 0)
+      {
+         throw new Exception("The last iteration must not be negative");
+      }
+      if (timeStepMode != null && !timeStepMode.equals(StreamTimeStep.MODE_WARN)
+            && !timeStepMode.equals(StreamTimeStep.MODE_AUTO)
+            && !timeStepMode.equals(StreamTimeStep.MODE_OFF))
+      {
+         throw new Exception(String.format(
+               "Unknown time step mode %s, use %s, %s, or %s",
+               timeStepMode,
+               StreamTimeStep.MODE_WARN,
+               StreamTimeStep.MODE_AUTO,
+               StreamTimeStep.MODE_OFF
+               ));
+      }
+      if (timeStepSafety != null && !(timeStepSafety > 0.0 && timeStepSafety <= 1.0))
+      {
+         throw new Exception("The time step safety factor must be greater than 0 and at most 1");
+      }
+      checkPositive(streamLength, "length");
+      checkPositive(averageWidth, "averageWidth");
+      checkNonNegative(activeDepth, "depth", null);
+      checkNonNegative(initialDepth, "initialDepth", null);
+      checkNonNegative(dispersionCoefficient, "coefficient", null);
+      if (isInitialConditions && (initialConditionPathCell == null
+            || initialConditionPathCell.equals("")
+            || initialConditionPathBound == null
+            || initialConditionPathBound.equals("")))
+      {
+         throw new Exception("Initial conditions require the cell and boundary table paths");
+      }
+   }
+
+   /**
+    * Check that an optional value is positive
+    *
+    * @param value
+    *       value to check, may be null
+    * @param name
+    *       attribute name for the error message
+    * @throws Exception
+    *       if the value is not positive
+    */
+   private static void checkPositive(Double value, String name) throws Exception
+   {
+      if (value != null && !(value > 0.0))
+      {
+         throw new Exception(String.format(
+               "The value of %s must be positive",
+               name
+               ));
+      }
+   }
+
+   /**
+    * Check that an optional value is not negative
+    *
+    * @param value
+    *       value to check, may be null
+    * @param name
+    *       attribute name for the error message
+    * @param soluteName
+    *       name of the solute with the attribute, null for the stream
+    * @throws Exception
+    *       if the value is negative
+    */
+   private static void checkNonNegative(Double value, String name, String soluteName)
+         throws Exception
+   {
+      if (value != null && !(value >= 0.0))
+      {
+         throw new Exception(String.format(
+               soluteName == null ?
+                     "The value of %s must not be negative" :
+                     "The value of %s for solute %s must not be negative",
+               name,
+               soluteName
+               ));
+      }
+   }
+
+   /**
+    * Convert an optional value to a string
+    *
+    * @param value
+    *       value, may be null
+    * @return
+    *       string value, null if the value is null
+    */
+   private static String toValue(Object value)
+   {
+      return value == null ? null : value.toString();
+   }
+
+   /**
+    * Add the values of the configuration to a build cache.  Values are
+    * added under the element and attribute names of the meta input, so
+    * attributes that can be patched are recognized by the cache.
+    *
+    * @param cache
+    *       build cache
+    * @param baseDirs
+    *       directories used to resolve relative paths, in order
+    * @throws Exception
+    *       if error in reading a referenced file
+    */
+   public void addToBuildCache(BuildCache cache, File... baseDirs) throws Exception
+   {
+      cache.addString("modelstructure");
+      cache.addAttribute("modelstructure", "numCells", toValue(numCells), baseDirs);
+      cache.addAttribute("modelstructure", "cellName", cellName, baseDirs);
+      cache.addAttribute("modelstructure", "boundaryName", boundaryName, baseDirs);
+      cache.addAttribute("network", "networkFile",
+            networkFile == null ? null : networkFile.getAbsolutePath(), baseDirs);
+      cache.addAttribute("network", "networkDelimiter", networkDelimiter, baseDirs);
+      cache.addString("channelgeometry");
+      cache.addAttribute("channelgeometry", "length", toValue(streamLength), baseDirs);
+      cache.addAttribute("elevation", "datum", toValue(elevationDatum), baseDirs);
+      cache.addAttribute("elevation", "bedSlope", toValue(bedSlope), baseDirs);
+      cache.addAttribute("activechannel", "depth", toValue(activeDepth), baseDirs);
+      cache.addAttribute("activechannel", "averageWidth", toValue(averageWidth), baseDirs);
+      cache.addAttribute("segments", "segmentsFile",
+            segmentsFile == null ? null : segmentsFile.getAbsolutePath(), baseDirs);
+      cache.addAttribute("segments", "segmentsDelimiter", segmentsDelimiter, baseDirs);
+      cache.addString("flow");
+      cache.addAttribute("flow", "initialDepth", toValue(initialDepth), baseDirs);
+      cache.addAttribute("flow", "initialFlow", toValue(initialFlow), baseDirs);
+      cache.addAttribute("dispersion", "coefficient",
+            toValue(dispersionCoefficient), baseDirs);
+      cache.addAttribute("friction", "chezey", toValue(chezey), baseDirs);
+      cache.addAttribute("friction", "chezeyExponentVelocity",
+            toValue(chezeyExpVel), baseDirs);
+      cache.addAttribute("friction", "chezeyExponentRadius", toValue(chezeyExpRad), baseDirs);
+      cache.addAttribute("friction", "wieleInt", toValue(wieleInt), baseDirs);
+      cache.addAttribute("friction", "wieleSlope", toValue(wieleSlope), baseDirs);
+      cache.addAttribute("upstreambound", "upstreamPath", upstreamFlowPath, baseDirs);
+      cache.addAttribute("upstreambound", "upstreamInterpType",
+            upstreamFlowInterpType, baseDirs);
+      cache.addAttribute("upstreambound", "upstreamDelimiter",
+            upstreamFlowDelimiter, baseDirs);
+      cache.addString("temperature");
+      cache.addAttribute("temperature", "upstreamPath", upstreamTempPath, baseDirs);
+      cache.addAttribute("temperature", "downstreamPath", downstreamTempPath, baseDirs);
+      cache.addAttribute("temperature", "interpType", upstreamTempType, baseDirs);
+      cache.addAttribute("temperature", "delimiter", upstreamTempDelimiter, baseDirs);
+      cache.addString("atmosphere");
+      cache.addAttribute("atmosphere", "airPressure", toValue(airPressure), baseDirs);
+      cache.addString("time");
+      cache.addAttribute("time", "timeInterval", toValue(timeInterval), baseDirs);
+      cache.addAttribute("time", "lastIteration", toValue(lastIteration), baseDirs);
+      cache.addAttribute("time", "timeStep", timeStepMode, baseDirs);
+      cache.addAttribute("time", "timeStepSafety", toValue(timeStepSafety), baseDirs);
+      cache.addString("initialconditions");
+      cache.addAttribute("initialconditions", "initialConditions",
+            Boolean.toString(isInitialConditions), baseDirs);
+      cache.addAttribute("initialconditions", "cellPath", initialConditionPathCell, baseDirs);
+      cache.addAttribute("initialconditions", "cellDelimiter",
+            initialConditionDelimiterCell, baseDirs);
+      cache.addAttribute("initialconditions", "boundPath",
+            initialConditionPathBound, baseDirs);
+      cache.addAttribute("initialconditions", "boundDelimiter",
+            initialConditionDelimiterBound, baseDirs);
+      for (Solute solute: solutes.values())
+      {
+         solute.addToBuildCache(cache, baseDirs);
+      }
+   }
+
+   /**
+    * Get the number of cells
+    *
+    * @return
+    *       number of cells, null if defined by a table
+    */
+   public Long getNumCells()
+   {
+      return numCells;
+   }
+
+   /**
+    * Get the root string for cell names
+    *
+    * @return
+    *       root string
+    */
+   public String getCellName()
+   {
+      return cellName;
+   }
+
+   /**
+    * Get the root string for boundary names
+    *
+    * @return
+    *       root string
+    */
+   public String getBoundaryName()
+   {
+      return boundaryName;
+   }
+
+   /**
+    * Get the reach table file of a stream network
+    *
+    * @return
+    *       table file, null if the stream is a single reach
+    */
+   public File getNetworkFile()
+   {
+      return networkFile;
+   }
+
+   /**
+    * Get the column delimiter of the reach table
+    *
+    * @return
+    *       delimiter
+    */
+   public String getNetworkDelimiter()
+   {
+      return networkDelimiter;
+   }
+
+   /**
+    * Get the length of the stream
+    *
+    * @return
+    *       stream length
+    */
+   public Double getStreamLength()
+   {
+      return streamLength;
+   }
+
+   /**
+    * Get the elevation datum
+    *
+    * @return
+    *       elevation datum
+    */
+   public Double getElevationDatum()
+   {
+      return elevationDatum;
+   }
+
+   /**
+    * Get the bed slope
+    *
+    * @return
+    *       bed slope
+    */
+   public Double getBedSlope()
+   {
+      return bedSlope;
+   }
+
+   /**
+    * Get the active channel depth
+    *
+    * @return
+    *       active channel depth
+    */
+   public Double getActiveDepth()
+   {
+      return activeDepth;
+   }
+
+   /**
+    * Get the average width of the active channel
+    *
+    * @return
+    *       average width
+    */
+   public Double getAverageWidth()
+   {
+      return averageWidth;
+   }
+
+   /**
+    * Get the segment geometry table file
+    *
+    * @return
+    *       table file, null if the reach has uniform geometry
+    */
+   public File getSegmentsFile()
+   {
+      return segmentsFile;
+   }
+
+   /**
+    * Get the column delimiter of the segment geometry table
+    *
+    * @return
+    *       delimiter
+    */
+   public String getSegmentsDelimiter()
+   {
+      return segmentsDelimiter;
+   }
+
+   /**
+    * Get the initial water depth
+    *
+    * @return
+    *       initial depth
+    */
+   public Double getInitialDepth()
+   {
+      return initialDepth;
+   }
+
+   /**
+    * Get the initial stream flow
+    *
+    * @return
+    *       initial flow
+    */
+   public Double getInitialFlow()
+   {
+      return initialFlow;
+   }
+
+   /**
+    * Get the dispersion coefficient
+    *
+    * @return
+    *       dispersion coefficient
+    */
+   public Double getDispersionCoefficient()
+   {
+      return dispersionCoefficient;
+   }
+
+   /**
+    * Get the Chezey friction coefficient
+    *
+    * @return
+    *       Chezey coefficient
+    */
+   public Double getChezey()
+   {
+      return chezey;
+   }
+
+   /**
+    * Are the exponents of the Chezey friction configured?
+    *
+    * @return
+    *       true if both exponents are configured, false otherwise
+    */
+   public boolean isChezyExpConfigured()
+   {
+      return chezeyExpVel != null && chezeyExpRad != null;
+   }
+
+   /**
+    * Get the velocity exponent of the Chezey friction
+    *
+    * @return
+    *       velocity exponent
+    */
+   public Double getChezeyExpVel()
+   {
+      return chezeyExpVel;
+   }
+
+   /**
+    * Get the hydraulic radius exponent of the Chezey friction
+    *
+    * @return
+    *       radius exponent
+    */
+   public Double getChezeyExpRad()
+   {
+      return chezeyExpRad;
+   }
+
+   /**
+    * Is the Wiele friction configured?
+    *
+    * @return
+    *       true if the intercept and slope are configured, false otherwise
+    */
+   public boolean isWieleConfigured()
+   {
+      return wieleInt != null && wieleSlope != null;
+   }
+
+   /**
+    * Get the intercept of the Wiele friction vs. depth relationship
+    *
+    * @return
+    *       intercept
+    */
+   public Double getWieleInt()
+   {
+      return wieleInt;
+   }
+
+   /**
+    * Get the slope of the Wiele friction vs. depth relationship
+    *
+    * @return
+    *       slope
+    */
+   public Double getWieleSlope()
+   {
+      return wieleSlope;
+   }
+
+   /**
+    * Get the path to the upstream flow file
+    *
+    * @return
+    *       path
+    */
+   public String getUpstreamFlowPath()
+   {
+      return upstreamFlowPath;
+   }
+
+   /**
+    * Get the interpolation type of the upstream flow
+    *
+    * @return
+    *       interpolation type
+    */
+   public String getUpstreamFlowInterpType()
+   {
+      return upstreamFlowInterpType;
+   }
+
+   /**
+    * Get the delimiter of the upstream flow file
+    *
+    * @return
+    *       delimiter
+    */
+   public String getUpstreamFlowDelimiter()
+   {
+      return upstreamFlowDelimiter;
+   }
+
+   /**
+    * Get the path to the upstream temperature file
+    *
+    * @return
+    *       path
+    */
+   public String getUpstreamTempPath()
+   {
+      return upstreamTempPath;
+   }
+
+   /**
+    * Get the path to the downstream temperature file
+    *
+    * @return
+    *       path
+    */
+   public String getDownstreamTempPath()
+   {
+      return downstreamTempPath;
+   }
+
+   /**
+    * Get the interpolation type of the temperature files
+    *
+    * @return
+    *       interpolation type
+    */
+   public String getUpstreamTempType()
+   {
+      return upstreamTempType;
+   }
+
+   /**
+    * Get the delimiter of the temperature files
+    *
+    * @return
+    *       delimiter
+    */
+   public String getUpstreamTempDelimiter()
+   {
+      return upstreamTempDelimiter;
+   }
+
+   /**
+    * Get the air pressure
+    *
+    * @return
+    *       air pressure
+    */
+   public Double getAirPressure()
+   {
+      return airPressure;
+   }
+
+   /**
+    * Get the time interval
+    *
+    * @return
+    *       time interval
+    */
+   public Double getTimeInterval()
+   {
+      return timeInterval;
+   }
+
+   /**
+    * Get the last iteration
+    *
+    * @return
+    *       last iteration
+    */
+   public Long getLastIteration()
+   {
+      return lastIteration;
+   }
+
+   /**
+    * Get the selection of the time interval from the stable time step
+    *
+    * @return
+    *       one of the modes of {@link StreamTimeStep}, default is
+    *       {@link StreamTimeStep#MODE_WARN}
+    */
+   public String getTimeStepMode()
+   {
+      return timeStepMode == null ? StreamTimeStep.MODE_WARN : timeStepMode;
+   }
+
+   /**
+    * Get the fraction of the stable time step used as the largest
+    * time interval
+    *
+    * @return
+    *       safety factor, default is
+    *       {@link StreamTimeStep#DEFAULT_SAFETY}
+    */
+   public double getTimeStepSafety()
+   {
+      return timeStepSafety == null ? StreamTimeStep.DEFAULT_SAFETY : timeStepSafety;
+   }
+
+   /**
+    * Are the initial conditions read from tables?
+    *
+    * @return
+    *       true if the initial conditions flag is set, false otherwise
+    */
+   public boolean isInitialConditions()
+   {
+      return isInitialConditions;
+   }
+
+   /**
+    * Get the path to the initial conditions table for cells
+    *
+    * @return
+    *       path
+    */
+   public String getInitialConditionPathCell()
+   {
+      return initialConditionPathCell;
+   }
+
+   /**
+    * Get the delimiter of the initial conditions table for cells
+    *
+    * @return
+    *       delimiter
+    */
+   public String getInitialConditionDelimiterCell()
+   {
+      return initialConditionDelimiterCell;
+   }
+
+   /**
+    * Get the path to the initial conditions table for boundaries
+    *
+    * @return
+    *       path
+    */
+   public String getInitialConditionPathBound()
+   {
+      return initialConditionPathBound;
+   }
+
+   /**
+    * Get the delimiter of the initial conditions table for boundaries
+    *
+    * @return
+    *       delimiter
+    */
+   public String getInitialConditionDelimiterBound()
+   {
+      return initialConditionDelimiterBound;
+   }
+
+   /**
+    * Get the configuration of a solute
+    *
+    * @param name
+    *       solute name
+    * @return
+    *       solute configuration, with no values and inactive
+    *       if the solute is not configured
+    */
+   public Solute getSolute(String name)
+   {
+      Solute solute = solutes.get(name);
+      if (solute == null)
+      {
+         return new Solute(name);
+      }
+      return solute;
+   }
+
+   /**
+    * Get the configurations of all solutes
+    *
+    * @return
+    *       unmodifiable collection of solute configurations
+    */
+   public Collection<Solute> getSolutes()
+   {
+      return Collections.unmodifiableCollection(solutes.values());
+   }
+
+   /**
+    * Is a solute configured and active?
+    *
+    * @param name
+    *       solute name
+    * @return
+    *       true if the solute is configured and active, false otherwise
+    */
+   public boolean isSoluteConfigured(String name)
+   {
+      Solute solute = solutes.get(name);
+      return solute != null && solute.isActive();
+   }
+
+}
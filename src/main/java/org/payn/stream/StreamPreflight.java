@@ -0,0 +1,352 @@
+package org.payn.stream;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Checks made on a stream configuration before a model is built.
+ * Missing attributes and forcing files are collected, so all of them
+ * are reported at once rather than as a failure part way through
+ * the build.  The size of the model is estimated from the number
+ * of holons, so models that do not fit in the heap or on disk are
+ * rejected before they are built.
+ *
+ * The estimates are approximate and are based on typical sizes of
+ * the holons and values of a NEOCH matrix, erring low so that
+ * models are not rejected when they would fit.
+ *
+ * @author robpayn
+ *
+ */
+public class StreamPreflight {
+
+   /**
+    * Approximate heap use of a holon, excluding its values
+    */
+   private static final long HOLON_BYTES = 1024;
+
+   /**
+    * Approximate heap use of a state value
+    */
+   private static final long VALUE_BYTES = 96;
+
+   /**
+    * Approximate size of a value in the holon XML files
+    */
+   private static final long XML_VALUE_BYTES = 96;
+
+   /**
+    * Approximate size of a value in a binary snapshot
+    */
+   private static final long SNAPSHOT_VALUE_BYTES = 32;
+
+   /**
+    * Approximate size of a value in a text report
+    */
+   private static final long REPORT_VALUE_BYTES = 12;
+
+   /**
+    * Number of bytes in a megabyte
+    */
+   private static final double MEGABYTE = 1024.0 * 1024.0;
+
+   /**
+    * Directories used to resolve the paths of forcing files, in order
+    */
+   private File[] baseDirs;
+
+   /**
+    * Problems found in the configuration
+    */
+   private ArrayList<String> errors;
+
+   /**
+    * Number of cells
+    */
+   private long numCells;
+
+   /**
+    * Number of boundaries
+    */
+   private long numBoundaries;
+
+   /**
+    * Number of state values in each holon
+    */
+   private int valuesPerHolon;
+
+   /**
+    * Construct a new instance that resolves file paths against
+    * the provided directories
+    *
+    * @param baseDirs
+    *       directories used to resolve relative paths, in order
+    */
+   public StreamPreflight(File... baseDirs)
+   {
+      this.baseDirs = baseDirs;
+      this.errors = new ArrayList<String>();
+   }
+
+   /**
+    * Record an error
+    *
+    * @param message
+    *       description of the problem
+    */
+   public void addError(String message)
+   {
+      errors.add(message);
+   }
+
+   /**
+    * Require an attribute value
+    *
+    * @param value
+    *       attribute value, null if missing
+    * @param name
+    *       description of the attribute
+    */
+   public void require(Object value, String name)
+   {
+      if (value == null || value.equals(""))
+      {
+         errors.add(String.format("Missing attribute %s", name));
+      }
+   }
+
+   /**
+    * Require a forcing file
+    *
+    * @param path
+    *       absolute or relative path, null if missing
+    * @param name
+    *       description of the attribute with the path
+    */
+   public void requireFile(String path, String name)
+   {
+      if (path == null || path.equals(""))
+      {
+         errors.add(String.format("Missing attribute %s", name));
+      }
+      else if (resolve(path) == null)
+      {
+         errors.add(String.format("File %s for %s does not exist", path, name));
+      }
+   }
+
+   /**
+    * Require a table file
+    *
+    * @param file
+    *       table file
+    * @param name
+    *       description of the attribute with the path
+    */
+   public void requireFile(File file, String name)
+   {
+      if (!file.isFile())
+      {
+         errors.add(String.format("File %s for %s does not exist", file.getPath(), name));
+      }
+   }
+
+   /**
+    * Resolve a path against the base directories
+    *
+    * @param path
+    *       absolute or relative path
+    * @return
+    *       existing file, null if the path does not resolve to a file
+    */
+   private File resolve(String path)
+   {
+      File file = new File(path);
+      if (file.isAbsolute() || baseDirs.length == 0)
+      {
+         return file.isFile() ? file : null;
+      }
+      for (File baseDir: baseDirs)
+      {
+         file = new File(baseDir, path);
+         if (file.isFile())
+         {
+            return file;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Throw an exception listing all errors found
+    *
+    * @throws Exception
+    *       if any errors were found
+    */
+   public void checkErrors() throws Exception
+   {
+      if (!errors.isEmpty())
+      {
+         StringBuilder message = new StringBuilder(String.format(
+               "The stream configuration has %d error(s):",
+               errors.size()
+               ));
+         for (String error: errors)
+         {
+            message.append(String.format("%n   %s", error));
+         }
+         throw new Exception(message.toString());
+      }
+   }
+
+   /**
+    * Set the size of the model used for the estimates
+    *
+    * @param numCells
+    *       number of cells
+    * @param numBoundaries
+    *       number of boundaries
+    * @param valuesPerHolon
+    *       number of state values in each holon
+    */
+   public void setModelSize(long numCells, long numBoundaries, int valuesPerHolon)
+   {
+      this.numCells = numCells;
+      this.numBoundaries = numBoundaries;
+      this.valuesPerHolon = valuesPerHolon;
+   }
+
+   /**
+    * Get the number of cells
+    *
+    * @return
+    *       number of cells
+    */
+   public long getNumCells()
+   {
+      return numCells;
+   }
+
+   /**
+    * Get the number of boundaries
+    *
+    * @return
+    *       number of boundaries
+    */
+   public long getNumBoundaries()
+   {
+      return numBoundaries;
+   }
+
+   /**
+    * Get the number of holons, including the root holon
+    *
+    * @return
+    *       number of holons
+    */
+   public long getNumHolons()
+   {
+      return numCells + numBoundaries + 1;
+   }
+
+   /**
+    * Get the estimated heap use of the model
+    *
+    * @return
+    *       number of bytes
+    */
+   public long getHeapBytes()
+   {
+      return getNumHolons() * (HOLON_BYTES + valuesPerHolon * VALUE_BYTES);
+   }
+
+   /**
+    * Get the estimated size of the model files written by the build
+    *
+    * @param isXML
+    *       true if the holon XML files are written
+    * @param isSnapshot
+    *       true if a binary snapshot is written
+    * @return
+    *       number of bytes
+    */
+   public long getBuildOutputBytes(boolean isXML, boolean isSnapshot)
+   {
+      long values = getNumHolons() * valuesPerHolon;
+      long bytes = 0;
+      if (isXML)
+      {
+         bytes += values * XML_VALUE_BYTES;
+      }
+      if (isSnapshot)
+      {
+         bytes += values * SNAPSHOT_VALUE_BYTES;
+      }
+      return bytes;
+   }
+
+   /**
+    * Get the estimated size of a text report of every value
+    * in the model at one iteration
+    *
+    * @return
+    *       number of bytes
+    */
+   public long getReportBytes()
+   {
+      return getNumHolons() * valuesPerHolon * REPORT_VALUE_BYTES;
+   }
+
+   /**
+    * Print the estimates and reject models that do not fit in the
+    * maximum heap or in the space available for the model files
+    *
+    * @param outputDir
+    *       directory of the model files
+    * @param isXML
+    *       true if the holon XML files are written
+    * @param isSnapshot
+    *       true if a binary snapshot is written
+    * @throws Exception
+    *       if the model does not fit
+    */
+   public void checkResources(File outputDir, boolean isXML, boolean isSnapshot)
+         throws Exception
+   {
+      long heapBytes = getHeapBytes();
+      long buildBytes = getBuildOutputBytes(isXML, isSnapshot);
+      System.out.println(String.format(
+            "Model has %d cells and %d boundaries, estimated heap %.1f MB, "
+            + "model files %.1f MB, %.1f MB for each reported iteration",
+            numCells,
+            numBoundaries,
+            heapBytes / MEGABYTE,
+            buildBytes / MEGABYTE,
+            getReportBytes() / MEGABYTE
+            ));
+      long maxHeap = Runtime.getRuntime().maxMemory();
+      if (maxHeap != Long.MAX_VALUE && heapBytes > maxHeap)
+      {
+         throw new Exception(String.format(
+               "Estimated heap use of %.1f MB exceeds the maximum heap of %.1f MB",
+               heapBytes / MEGABYTE,
+               maxHeap / MEGABYTE
+               ));
+      }
+      File dir = outputDir;
+      while (dir != null && !dir.exists())
+      {
+         dir = dir.getParentFile();
+      }
+      if (dir != null && buildBytes > dir.getUsableSpace())
+      {
+         throw new Exception(String.format(
+               "Estimated model files of %.1f MB exceed the %.1f MB available in %s",
+               buildBytes / MEGABYTE,
+               dir.getUsableSpace() / MEGABYTE,
+               dir.getPath()
+               ));
+      }
+   }
+
+}
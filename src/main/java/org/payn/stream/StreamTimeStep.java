@@ -0,0 +1,315 @@
+package org.payn.stream;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import org.payn.stream.io.StreamGeometry;
+import org.payn.stream.io.StreamNetwork;
+
+/**
+ * Largest stable time step of a stream model, estimated from the
+ * initial flow and depth and the geometry of each cell before the
+ * model is built.
+ *
+ * The solutes are moved with explicit upwind advection and dispersion
+ * between neighboring cells, which is stable for a time step up to
+ * 1 / (u / dx + 2 D / dx^2), where u is the velocity, dx is the length
+ * of the cell, and D is the dispersion coefficient.  The velocity of
+ * a cell in a stream network is that of the flow accumulated from the
+ * headwaters, which is largest below the confluences.  A model that moves
+ * water with the dynamic wave is also limited by the celerity of the
+ * wave, with a time step up to dx / (u + sqrt(g h)), where h is the
+ * depth.  The gravity constant assumes lengths in meters and times in
+ * seconds.
+ *
+ * The time interval of the configuration is compared to the stable
+ * time step times a safety factor, with a warning if it is larger
+ * ({@link #MODE_WARN}), or is replaced by it ({@link #MODE_AUTO}).
+ * Injections are timed in iterations of the configured time interval,
+ * so the interval cannot be replaced for a model with an injection.
+ *
+ * @author robpayn
+ *
+ */
+public class StreamTimeStep {
+
+   /**
+    * Mode that warns if the time interval is not stable
+    */
+   public static final String MODE_WARN = "warn";
+
+   /**
+    * Mode that replaces the time interval with the stable time step
+    */
+   public static final String MODE_AUTO = "auto";
+
+   /**
+    * Mode that does not check the time interval
+    */
+   public static final String MODE_OFF = "off";
+
+   /**
+    * Default fraction of the stable time step used as the largest
+    * time interval
+    */
+   public static final double DEFAULT_SAFETY = 0.8;
+
+   /**
+    * Acceleration of gravity, in meters per second squared
+    */
+   public static final double GRAVITY = 9.81;
+
+   /**
+    * Fraction of the largest time interval below which the time
+    * interval is reported as smaller than needed
+    */
+   private static final double SMALL_FRACTION = 0.25;
+
+   /**
+    * Largest stable time step
+    */
+   private double stableStep;
+
+   /**
+    * Number of the cell with the smallest stable time step
+    */
+   private int limitingCell;
+
+   /**
+    * Process that limits the time step
+    */
+   private String limit;
+
+   /**
+    * Estimate the largest stable time step of a model
+    *
+    * @param config
+    *       configuration of the model
+    * @param topology
+    *       topology of the stream
+    * @param isDynamicWave
+    *       true if water is moved with the dynamic wave
+    * @return
+    *       stable time step, null if it cannot be estimated
+    *       because the initial flow or depth are read from
+    *       initial condition tables, or nothing limits the step
+    */
+   public static StreamTimeStep calculate(StreamConfig config, StreamTopology topology,
+         boolean isDynamicWave)
+   {
+      if (config.isInitialConditions() || config.getInitialDepth() == null
+            || config.getInitialFlow() == null || !(config.getInitialDepth() > 0.0))
+      {
+         return null;
+      }
+      double depth = config.getInitialDepth();
+      double flow = Math.abs(config.getInitialFlow());
+      double dispersion = config.getDispersionCoefficient() == null ?
+            0.0 : config.getDispersionCoefficient();
+      double waveSpeed = Math.sqrt(GRAVITY * depth);
+      StreamGeometry geometry = topology.getGeometry();
+      StreamNetwork network = topology.getNetwork();
+      int numCells = topology.getNumCells();
+      double[] cellFlow = network == null ? null : network.getCellFlow(flow);
+
+      StreamTimeStep timeStep = new StreamTimeStep();
+      timeStep.stableStep = Double.POSITIVE_INFINITY;
+      for (int cell = 1; cell <= numCells; cell++)
+      {
+         double length;
+         double width;
+         if (geometry == null)
+         {
+            length = config.getStreamLength() / numCells;
+            width = config.getAverageWidth();
+         }
+         else
+         {
+            length = geometry.getCellLength(cell);
+            width = geometry.getCellWidth(cell);
+         }
+         double velocity = (cellFlow == null ? flow : cellFlow[cell - 1]) / (width * depth);
+         double rate = velocity / length + 2.0 * dispersion / (length * length);
+         if (rate > 0.0 && 1.0 / rate < timeStep.stableStep)
+         {
+            timeStep.stableStep = 1.0 / rate;
+            timeStep.limitingCell = cell;
+            timeStep.limit = "advection and dispersion";
+         }
+         if (isDynamicWave)
+         {
+            double waveStep = length / (velocity + waveSpeed);
+            if (waveStep < timeStep.stableStep)
+            {
+               timeStep.stableStep = waveStep;
+               timeStep.limitingCell = cell;
+               timeStep.limit = "the dynamic wave";
+            }
+         }
+      }
+      if (Double.isInfinite(timeStep.stableStep))
+      {
+         return null;
+      }
+      return timeStep;
+   }
+
+   /**
+    * Check the time interval of a configuration against the stable
+    * time step, selecting a new time interval in the automatic mode.
+    * A new time interval keeps the time of the last iteration, and
+    * intervals of reporters, which are counted in iterations, are
+    * reported in iterations of the new interval.
+    *
+    * @param config
+    *       configuration of the model
+    * @param topology
+    *       topology of the stream
+    * @param isDynamicWave
+    *       true if water is moved with the dynamic wave
+    * @return
+    *       configuration with the new time interval and last
+    *       iteration, or the provided configuration if the
+    *       time interval is not replaced
+    * @throws Exception
+    *       if the time interval would be replaced in a model with
+    *       an injection, or the new configuration is not valid
+    */
+   public static StreamConfig select(StreamConfig config, StreamTopology topology,
+         boolean isDynamicWave) throws Exception
+   {
+      String mode = config.getTimeStepMode();
+      if (mode.equals(MODE_OFF))
+      {
+         return config;
+      }
+      StreamTimeStep timeStep = calculate(config, topology, isDynamicWave);
+      if (timeStep == null)
+      {
+         System.out.println(
+               "The stable time step cannot be estimated without an initial flow and depth, "
+               + "keeping the configured time interval"
+               );
+         return config;
+      }
+      double safety = config.getTimeStepSafety();
+      double maxInterval = roundDown(safety * timeStep.stableStep);
+      double interval = config.getTimeInterval();
+      System.out.println(String.format(
+            "Largest stable time step is %s, limited by %s in cell %d",
+            Double.toString(timeStep.stableStep),
+            timeStep.limit,
+            timeStep.limitingCell
+            ));
+
+      if (mode.equals(MODE_WARN))
+      {
+         if (interval > safety * timeStep.stableStep)
+         {
+            System.out.println(String.format(
+                  "Warning: the time interval %s is larger than %s, the stable time step "
+                  + "times the safety factor %s, and the model may be unstable",
+                  Double.toString(interval),
+                  Double.toString(maxInterval),
+                  Double.toString(safety)
+                  ));
+         }
+         else if (interval < SMALL_FRACTION * maxInterval)
+         {
+            System.out.println(String.format(
+                  "The time interval %s is less than a quarter of the largest stable "
+                  + "time interval %s, the time step mode %s would take fewer iterations",
+                  Double.toString(interval),
+                  Double.toString(maxInterval),
+                  MODE_AUTO
+                  ));
+         }
+         return config;
+      }
+
+      for (StreamConfig.Solute solute: config.getSolutes())
+      {
+         if (solute.isActive() && solute.isUpstreamInject())
+         {
+            throw new Exception(String.format(
+                  "The time step mode %s cannot replace the time interval because the "
+                  + "injection of solute %s is timed in iterations, set the time interval "
+                  + "to %s or less with the time step mode %s instead",
+                  MODE_AUTO,
+                  solute.getName(),
+                  Double.toString(maxInterval),
+                  MODE_WARN
+                  ));
+         }
+      }
+      long lastIteration = config.getLastIteration();
+      if (lastIteration > 1)
+      {
+         lastIteration = 1 + (long)Math.ceil(
+               (lastIteration - 1) * interval / maxInterval - 1e-9);
+      }
+      System.out.println(String.format(
+            "Setting the time interval to %s and the last iteration to %d "
+            + "(configured %s and %d)",
+            Double.toString(maxInterval),
+            lastIteration,
+            Double.toString(interval),
+            config.getLastIteration()
+            ));
+      System.out.println(
+            "Reporter intervals are counted in iterations of the new time interval"
+            );
+      StreamConfig.Builder builder = config.toBuilder();
+      builder.setTimeInterval(maxInterval);
+      builder.setLastIteration(lastIteration);
+      return builder.build();
+   }
+
+   /**
+    * Round a time step down to two significant digits
+    *
+    * @param value
+    *       time step
+    * @return
+    *       rounded time step
+    */
+   private static double roundDown(double value)
+   {
+      return new BigDecimal(value).round(new MathContext(2, RoundingMode.DOWN)).doubleValue();
+   }
+
+   /**
+    * Get the largest stable time step
+    *
+    * @return
+    *       time step
+    */
+   public double getStableStep()
+   {
+      return stableStep;
+   }
+
+   /**
+    * Get the number of the cell with the smallest stable time step
+    *
+    * @return
+    *       cell number, starting at 1
+    */
+   public int getLimitingCell()
+   {
+      return limitingCell;
+   }
+
+   /**
+    * Get a description of the process that limits the time step
+    *
+    * @return
+    *       description
+    */
+   public String getLimit()
+   {
+      return limit;
+   }
+
+}
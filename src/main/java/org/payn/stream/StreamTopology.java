@@ -0,0 +1,319 @@
+package org.payn.stream;
+
+import java.io.File;
+
+import org.payn.stream.io.MatrixDefinition;
+import org.payn.stream.io.MatrixDefinitionOverlay;
+import org.payn.stream.io.MatrixDefinitionView;
+import org.payn.stream.io.StreamGeometry;
+import org.payn.stream.io.StreamNameTable;
+import org.payn.stream.io.StreamNetwork;
+
+/**
+ * Topology and geometry of a stream model: the table of cell and
+ * boundary names, the geometry of the cells, and the network of
+ * reaches.  None of these change after the topology is created, so
+ * a topology can be shared between ensemble members built from
+ * variants of the same configuration, with each member keeping
+ * only its own state.
+ *
+ * A shared topology is only used by a member with a compatible
+ * configuration, so variants may differ in any attribute except
+ * the names, number of cells, and geometry tables of the stream.
+ *
+ * The topology also holds the matrix definition of the first member
+ * built in memory, and later members that differ from it only in the
+ * values of the root and default behaviors are built from an overlay
+ * of it (see {@link MatrixDefinitionOverlay}), so the holons of the
+ * stream are defined once for the ensemble.
+ *
+ * @author robpayn
+ *
+ */
+public final class StreamTopology {
+
+   /**
+    * Table of cell and boundary names
+    */
+   private final StreamNameTable nameTable;
+
+   /**
+    * Geometry of the cells, null if all cells have the same geometry
+    */
+   private final StreamGeometry geometry;
+
+   /**
+    * Network of reaches, null if the stream is a single reach
+    */
+   private final StreamNetwork network;
+
+   /**
+    * Configuration the topology was created from
+    */
+   private final StreamConfig config;
+
+   /**
+    * Matrix definition of the first member built in memory,
+    * null until a member is built
+    */
+   private MatrixDefinition sharedDefinition;
+
+   /**
+    * Construct a new topology
+    *
+    * @param nameTable
+    *       table of cell and boundary names
+    * @param geometry
+    *       geometry of the cells, null if uniform
+    * @param network
+    *       network of reaches, null for a single reach
+    * @param config
+    *       configuration the topology was created from
+    */
+   private StreamTopology(StreamNameTable nameTable, StreamGeometry geometry,
+         StreamNetwork network, StreamConfig config)
+   {
+      this.nameTable = nameTable;
+      this.geometry = geometry;
+      this.network = network;
+      this.config = config;
+   }
+
+   /**
+    * Create the topology of a stream configuration, reading the segment
+    * geometry or stream network table if one is configured
+    *
+    * @param config
+    *       stream configuration
+    * @return
+    *       topology
+    * @throws Exception
+    *       if error in reading a table, or if the table does not match
+    *       the number of cells in the configuration
+    */
+   public static StreamTopology create(StreamConfig config) throws Exception
+   {
+      File networkFile = config.getNetworkFile();
+      File segmentsFile = config.getSegmentsFile();
+      StreamNetwork network = null;
+      StreamGeometry geometry = null;
+      if (networkFile != null)
+      {
+         System.out.println(String.format(
+               "Reading the stream network table %s...",
+               networkFile.getPath()
+               ));
+         network = StreamNetwork.readTable(
+               networkFile,
+               config.getNetworkDelimiter(),
+               config.getAverageWidth(),
+               config.getBedSlope()
+               );
+         geometry = network.createGeometry();
+      }
+      else if (segmentsFile != null)
+      {
+         System.out.println(String.format(
+               "Reading the segment geometry table %s...",
+               segmentsFile.getPath()
+               ));
+         geometry = StreamGeometry.readTable(
+               segmentsFile,
+               config.getSegmentsDelimiter(),
+               config.getAverageWidth(),
+               config.getBedSlope()
+               );
+      }
+
+      Long numCells = config.getNumCells();
+      if (geometry != null)
+      {
+         if (numCells != null && numCells.longValue() != geometry.getNumCells())
+         {
+            throw new Exception(String.format(
+                  "The %s defines %d cells, but the model structure has %d",
+                  network == null ? "segment geometry table" : "stream network table",
+                  geometry.getNumCells(),
+                  numCells
+                  ));
+         }
+         numCells = Long.valueOf(geometry.getNumCells());
+      }
+      if (numCells == null)
+      {
+         throw new Exception("The number of cells in the stream is not defined");
+      }
+
+      StreamNameTable nameTable;
+      if (network == null)
+      {
+         nameTable = new StreamNameTable(
+               config.getCellName(),
+               config.getBoundaryName(),
+               numCells.intValue()
+               );
+      }
+      else
+      {
+         nameTable = network.createNameTable(config.getCellName(), config.getBoundaryName());
+      }
+      return new StreamTopology(nameTable, geometry, network, config);
+   }
+
+   /**
+    * Get the table of cell and boundary names
+    *
+    * @return
+    *       name table
+    */
+   public StreamNameTable getNameTable()
+   {
+      return nameTable;
+   }
+
+   /**
+    * Get the geometry of the cells
+    *
+    * @return
+    *       geometry, null if all cells have the same geometry
+    */
+   public StreamGeometry getGeometry()
+   {
+      return geometry;
+   }
+
+   /**
+    * Get the network of reaches
+    *
+    * @return
+    *       network, null if the stream is a single reach
+    */
+   public StreamNetwork getNetwork()
+   {
+      return network;
+   }
+
+   /**
+    * Get the number of cells
+    *
+    * @return
+    *       number of cells
+    */
+   public int getNumCells()
+   {
+      return nameTable.getNumCells();
+   }
+
+   /**
+    * Get the number of boundaries, including confluence boundaries
+    *
+    * @return
+    *       number of boundaries
+    */
+   public int getNumBoundaries()
+   {
+      return nameTable.getNumBoundaries();
+   }
+
+   /**
+    * Share the matrix definition of a member built in memory.  The
+    * first definition is kept by the topology, and later definitions
+    * are replaced by an overlay of it if they only differ in the
+    * values of the root and default behaviors.
+    *
+    * @param definition
+    *       matrix definition built for a member, which must not be
+    *       changed after it is shared
+    * @return
+    *       definition to build the matrix of the member from
+    */
+   public MatrixDefinitionView shareDefinition(MatrixDefinition definition)
+   {
+      MatrixDefinition shared;
+      synchronized (this)
+      {
+         if (sharedDefinition == null)
+         {
+            sharedDefinition = definition;
+            return definition;
+         }
+         shared = sharedDefinition;
+      }
+      MatrixDefinitionOverlay overlay = MatrixDefinitionOverlay.create(shared, definition);
+      return overlay == null ? definition : overlay;
+   }
+
+   /**
+    * Determine if the topology can be used for a model built from
+    * the provided configuration
+    *
+    * @param other
+    *       stream configuration of the model
+    * @return
+    *       true if the configuration has the same names, number of
+    *       cells, and geometry tables, false otherwise
+    */
+   public boolean isCompatible(StreamConfig other)
+   {
+      if (other == config)
+      {
+         return true;
+      }
+      if (!isEqual(config.getCellName(), other.getCellName())
+            || !isEqual(config.getBoundaryName(), other.getBoundaryName())
+            || !isEqual(getAbsoluteFile(config.getNetworkFile()),
+                  getAbsoluteFile(other.getNetworkFile()))
+            || !isEqual(getAbsoluteFile(config.getSegmentsFile()),
+                  getAbsoluteFile(other.getSegmentsFile())))
+      {
+         return false;
+      }
+      if (geometry == null)
+      {
+         return isEqual(config.getNumCells(), other.getNumCells());
+      }
+      // The average width and bed slope are defaults for the table columns
+      if (other.getNumCells() != null && other.getNumCells().longValue() != getNumCells())
+      {
+         return false;
+      }
+      if (network != null)
+      {
+         return isEqual(config.getNetworkDelimiter(), other.getNetworkDelimiter())
+               && isEqual(config.getAverageWidth(), other.getAverageWidth())
+               && isEqual(config.getBedSlope(), other.getBedSlope());
+      }
+      return isEqual(config.getSegmentsDelimiter(), other.getSegmentsDelimiter())
+            && isEqual(config.getAverageWidth(), other.getAverageWidth())
+            && isEqual(config.getBedSlope(), other.getBedSlope());
+   }
+
+   /**
+    * Compare two values that may be null
+    *
+    * @param value
+    *       first value
+    * @param otherValue
+    *       second value
+    * @return
+    *       true if both are null or the values are equal
+    */
+   private static boolean isEqual(Object value, Object otherValue)
+   {
+      return value == null ? otherValue == null : value.equals(otherValue);
+   }
+
+   /**
+    * Get the absolute form of a file
+    *
+    * @param file
+    *       file, may be null
+    * @return
+    *       absolute file, null if the file is null
+    */
+   private static File getAbsoluteFile(File file)
+   {
+      return file == null ? null : file.getAbsoluteFile();
+   }
+
+}
@@ -0,0 +1,699 @@
+package org.payn.stream.assimilation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.payn.neoch.HolonCell;
+import org.payn.neoch.HolonMatrix;
+import org.payn.resources.solute.ResourceSolute;
+import org.payn.stream.SimulatorStream;
+import org.payn.stream.io.ObservationTable;
+import org.payn.stream.io.StreamNameTable;
+
+/**
+ * Assimilates sensor observations of a solute, such as dissolved
+ * oxygen, into an ensemble of stream models with the stochastic
+ * ensemble Kalman filter (Evensen 2003).
+ *
+ * The members are built and initialized concurrently, then advanced
+ * together in parallel from one observation time to the next.  At
+ * each observation time, the concentration of the solute in every
+ * cell and the estimated parameter states are gathered into primitive
+ * arrays, updated from the observations perturbed with the observation
+ * error, and written back to the models.  After the last observation,
+ * the members are run to their last iteration as a forecast.
+ *
+ * Observations are matched to cells by name, and observation times are
+ * converted to the nearest iteration of the models, which must share
+ * the same start time and time step.  The ensemble mean and spread at
+ * each analysis are written to {@link #FILE_ANALYSIS}.
+ *
+ * @author robpayn
+ *
+ */
+public abstract class EnsembleKalmanFilter {
+
+   /**
+    * Name of the file with the analysis history
+    */
+   public static final String FILE_ANALYSIS = "analysis.txt";
+
+   /**
+    * Directory for the working directories and output of the members
+    */
+   private File assimilationDir;
+
+   /**
+    * Number of members advanced at the same time
+    */
+   private int threads;
+
+   /**
+    * Number of members in the ensemble
+    */
+   private int numMembers;
+
+   /**
+    * Sensor observations
+    */
+   private ObservationTable observations;
+
+   /**
+    * Standard deviation of the observation error
+    */
+   private double observationError;
+
+   /**
+    * Name of the observed solute
+    */
+   private String soluteName;
+
+   /**
+    * Names of the parameter states of the root holon that are estimated
+    */
+   private ArrayList<String> parameterStates;
+
+   /**
+    * Random number generator for the observation perturbations,
+    * only used by the calling thread
+    */
+   private Random random;
+
+   /**
+    * Simulators of the members
+    */
+   private SimulatorStream[] members;
+
+   /**
+    * State vector of each member
+    */
+   private StateVector[] vectors;
+
+   /**
+    * Number of cells, the first entries of each state vector
+    */
+   private int numCells;
+
+   /**
+    * Index in the state vector of the cell at each observed location
+    */
+   private int[] observedIndices;
+
+   /**
+    * Construct a new filter
+    *
+    * @param assimilationDir
+    *       directory for the working directories and output
+    *       of the members
+    * @param threads
+    *       number of members advanced at the same time
+    * @param numMembers
+    *       number of members in the ensemble
+    * @param observations
+    *       sensor observations, with a column for each observed cell
+    * @param observationError
+    *       standard deviation of the observation error
+    */
+   public EnsembleKalmanFilter(File assimilationDir, int threads, int numMembers,
+         ObservationTable observations, double observationError)
+   {
+      this.assimilationDir = assimilationDir;
+      this.threads = Math.max(1, threads);
+      this.numMembers = numMembers;
+      this.observations = observations;
+      this.observationError = observationError;
+      this.soluteName = "oxygen";
+      this.parameterStates = new ArrayList<String>();
+      this.random = new Random();
+   }
+
+   /**
+    * Set the name of the observed solute
+    *
+    * @param soluteName
+    *       solute name, oxygen by default
+    */
+   public void setSoluteName(String soluteName)
+   {
+      this.soluteName = soluteName;
+   }
+
+   /**
+    * Estimate a parameter state of the root holon along with the
+    * concentrations, such as {@link ResourceSolute#DEFAULT_NAME_DO_RESPIRATION}
+    * or {@link ResourceSolute#DEFAULT_NAME_DO_PTOPAR_RATIO}.  The members
+    * must be created with different values of the parameter.
+    *
+    * @param stateName
+    *       name of the state
+    */
+   public void addParameterState(String stateName)
+   {
+      parameterStates.add(stateName);
+   }
+
+   /**
+    * Get the name of the gas exchange velocity state of a solute, which
+    * can be estimated as a parameter state
+    *
+    * @param soluteName
+    *       solute name
+    * @return
+    *       state name
+    */
+   public static String getK600StateName(String soluteName)
+   {
+      ResourceSolute resource = new ResourceSolute();
+      resource.initialize(soluteName);
+      return resource.getBehavior(ResourceSolute.BEHAVIOR_DO_AW_EXCHANGE_BOUND)
+            .getAbstractStateName(ResourceSolute.DEFAULT_NAME_K600);
+   }
+
+   /**
+    * Seed the random number generator, so an assimilation can be repeated
+    *
+    * @param seed
+    *       random seed
+    */
+   public void setSeed(long seed)
+   {
+      random = new Random(seed);
+   }
+
+   /**
+    * Create the simulator of a member, with its input processors added.
+    * Members should differ in the estimated parameters and, if needed,
+    * in their initial conditions.  Called concurrently for different
+    * members, so implementations must not change shared state.
+    *
+    * @param workingDir
+    *       working directory of the member, which exists
+    * @param member
+    *       index of the member
+    * @return
+    *       simulator ready to execute
+    * @throws Exception
+    *       if error in creating the simulator
+    */
+   protected abstract SimulatorStream createSimulator(File workingDir, int member)
+         throws Exception;
+
+   /**
+    * Run the assimilation
+    *
+    * @throws Exception
+    *       if a member cannot be built or advanced, an observed cell
+    *       does not exist, or error in writing the output
+    */
+   public void run() throws Exception
+   {
+      if (numMembers < 2)
+      {
+         throw new Exception(String.format(
+               "An ensemble Kalman filter needs at least 2 members, found %d",
+               numMembers
+               ));
+      }
+      if (!assimilationDir.isDirectory() && !assimilationDir.mkdirs())
+      {
+         throw new Exception(String.format(
+               "Unable to create the assimilation directory %s",
+               assimilationDir.getPath()
+               ));
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      BufferedWriter writer = null;
+      try
+      {
+         buildMembers(executor);
+         bindVectors();
+         writer = new BufferedWriter(new FileWriter(
+               new File(assimilationDir, FILE_ANALYSIS)));
+         writeHeader(writer);
+
+         SimulatorStream first = members[0];
+         long lastIteration = first.getLastIteration();
+         double[][] ensemble = new double[numMembers][vectors[0].size()];
+         for (int index = 0; index < observations.getNumTimes(); index++)
+         {
+            long iteration = first.getIteration() + Math.round(
+                  (observations.getTime(index) - first.getTime()) / first.getTimeStep());
+            if (iteration > lastIteration)
+            {
+               break;
+            }
+            if (iteration > first.getIteration())
+            {
+               advance(executor, iteration);
+            }
+            for (int member = 0; member < numMembers; member++)
+            {
+               vectors[member].read(ensemble[member]);
+            }
+            double[] forecast = getMean(ensemble);
+            if (analyze(ensemble, index))
+            {
+               for (int member = 0; member < numMembers; member++)
+               {
+                  vectors[member].write(ensemble[member]);
+               }
+            }
+            writeAnalysis(writer, index, iteration, forecast, ensemble);
+         }
+
+         if (first.getIteration() < lastIteration)
+         {
+            System.out.println(String.format(
+                  "Forecasting to iteration %d...",
+                  lastIteration
+                  ));
+            advance(executor, lastIteration);
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+         if (writer != null)
+         {
+            writer.close();
+         }
+      }
+   }
+
+   /**
+    * Create, build, and initialize the members concurrently
+    *
+    * @param executor
+    *       executor for the members
+    * @throws Exception
+    *       if a member cannot be built
+    */
+   private void buildMembers(ExecutorService executor) throws Exception
+   {
+      System.out.println(String.format(
+            "Building %d ensemble members...",
+            numMembers
+            ));
+      ArrayList<Future<SimulatorStream>> futures = new ArrayList<Future<SimulatorStream>>();
+      for (int member = 0; member < numMembers; member++)
+      {
+         final int index = member;
+         futures.add(executor.submit(new Callable<SimulatorStream>() {
+            @Override
+            public SimulatorStream call() throws Exception
+            {
+               File workingDir = new File(assimilationDir, String.format("member_%04d", index));
+               if (!workingDir.isDirectory() && !workingDir.mkdirs())
+               {
+                  throw new Exception(String.format(
+                        "Unable to create the working directory %s",
+                        workingDir.getPath()
+                        ));
+               }
+               SimulatorStream simulator = createSimulator(workingDir, index);
+               simulator.setStepped(true);
+               simulator.execute();
+               return simulator;
+            }
+         }));
+      }
+      members = new SimulatorStream[numMembers];
+      for (int member = 0; member < numMembers; member++)
+      {
+         members[member] = futures.get(member).get();
+      }
+   }
+
+   /**
+    * Bind the state vector of each member to the concentration of the
+    * solute in each cell and to the estimated parameter states
+    *
+    * @throws Exception
+    *       if a member was not built by a stream builder, or a state
+    *       or observed cell does not exist
+    */
+   private void bindVectors() throws Exception
+   {
+      ResourceSolute resource = new ResourceSolute();
+      resource.initialize(soluteName);
+      String concStateName = resource.getBehavior(ResourceSolute.BEHAVIOR_STORAGE)
+            .getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC);
+
+      vectors = new StateVector[numMembers];
+      for (int member = 0; member < numMembers; member++)
+      {
+         StreamNameTable nameTable = members[member].getNameTable();
+         if (nameTable == null)
+         {
+            throw new Exception(String.format(
+                  "Member %d was not built by a stream builder",
+                  member
+                  ));
+         }
+         HolonMatrix matrix = members[member].getMatrix();
+         StateVector vector = new StateVector();
+         numCells = nameTable.getNumCells();
+         for (int cell = 1; cell <= numCells; cell++)
+         {
+            HolonCell holon = matrix.getCell(nameTable.getCellName(cell));
+            vector.add(holon, concStateName);
+         }
+         for (String stateName: parameterStates)
+         {
+            vector.add(matrix, stateName);
+         }
+         vectors[member] = vector;
+      }
+
+      StreamNameTable nameTable = members[0].getNameTable();
+      observedIndices = new int[observations.getNumLocations()];
+      for (int location = 0; location < observedIndices.length; location++)
+      {
+         int cell = nameTable.getCellIndex(observations.getName(location));
+         if (cell == StreamNameTable.NONE)
+         {
+            throw new Exception(String.format(
+                  "Observed location %s is not a cell of the stream",
+                  observations.getName(location)
+                  ));
+         }
+         observedIndices[location] = cell - 1;
+      }
+   }
+
+   /**
+    * Advance all members to an iteration in parallel
+    *
+    * @param executor
+    *       executor for the members
+    * @param iteration
+    *       iteration to stop at
+    * @throws Exception
+    *       if a member cannot be advanced
+    */
+   private void advance(ExecutorService executor, final long iteration) throws Exception
+   {
+      ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+      for (final SimulatorStream member: members)
+      {
+         futures.add(executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception
+            {
+               member.advanceTo(iteration);
+               return null;
+            }
+         }));
+      }
+      for (Future<Object> future: futures)
+      {
+         future.get();
+      }
+   }
+
+   /**
+    * Update the ensemble with the observations at a time.  Each member
+    * is moved by the gain times the difference between the perturbed
+    * observations and its observed values, with the gain calculated from
+    * the ensemble anomalies, so the state covariance is never formed.
+    *
+    * @param ensemble
+    *       state vector of each member, updated in place
+    * @param index
+    *       index of the observation time
+    * @return
+    *       true if the ensemble was updated, false if there were
+    *       no observations at the time
+    */
+   private boolean analyze(double[][] ensemble, int index)
+   {
+      int numObserved = 0;
+      for (int location = 0; location < observedIndices.length; location++)
+      {
+         if (!Double.isNaN(observations.getValue(index, location)))
+         {
+            numObserved++;
+         }
+      }
+      if (numObserved == 0)
+      {
+         return false;
+      }
+      double[] observed = new double[numObserved];
+      int[] entries = new int[numObserved];
+      int obs = 0;
+      for (int location = 0; location < observedIndices.length; location++)
+      {
+         double value = observations.getValue(index, location);
+         if (!Double.isNaN(value))
+         {
+            observed[obs] = value;
+            entries[obs] = observedIndices[location];
+            obs++;
+         }
+      }
+
+      int size = ensemble[0].length;
+      double[] mean = getMean(ensemble);
+      double[][] anomalies = new double[numMembers][size];
+      double[][] observedAnomalies = new double[numMembers][numObserved];
+      for (int member = 0; member < numMembers; member++)
+      {
+         for (int entry = 0; entry < size; entry++)
+         {
+            anomalies[member][entry] = ensemble[member][entry] - mean[entry];
+         }
+         for (obs = 0; obs < numObserved; obs++)
+         {
+            observedAnomalies[member][obs] = anomalies[member][entries[obs]];
+         }
+      }
+
+      // Covariance of the observed values plus the observation error
+      double scale = 1.0 / (numMembers - 1);
+      double variance = observationError * observationError;
+      double[][] covariance = new double[numObserved][numObserved];
+      for (int row = 0; row < numObserved; row++)
+      {
+         for (int col = 0; col <= row; col++)
+         {
+            double sum = 0.0;
+            for (int member = 0; member < numMembers; member++)
+            {
+               sum += observedAnomalies[member][row] * observedAnomalies[member][col];
+            }
+            covariance[row][col] = sum * scale;
+            covariance[col][row] = covariance[row][col];
+         }
+         covariance[row][row] += variance;
+      }
+      choleskyDecompose(covariance);
+
+      double[] innovation = new double[numObserved];
+      double[] weights = new double[numMembers];
+      for (int member = 0; member < numMembers; member++)
+      {
+         for (obs = 0; obs < numObserved; obs++)
+         {
+            innovation[obs] = observed[obs] + observationError * random.nextGaussian()
+                  - ensemble[member][entries[obs]];
+         }
+         choleskySolve(covariance, innovation);
+         for (int other = 0; other < numMembers; other++)
+         {
+            double sum = 0.0;
+            for (obs = 0; obs < numObserved; obs++)
+            {
+               sum += observedAnomalies[other][obs] * innovation[obs];
+            }
+            weights[other] = sum * scale;
+         }
+         double[] state = ensemble[member];
+         for (int other = 0; other < numMembers; other++)
+         {
+            double weight = weights[other];
+            double[] anomaly = anomalies[other];
+            for (int entry = 0; entry < size; entry++)
+            {
+               state[entry] += weight * anomaly[entry];
+            }
+         }
+         for (int entry = 0; entry < numCells; entry++)
+         {
+            if (state[entry] < 0.0)
+            {
+               state[entry] = 0.0;
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Replace a symmetric positive definite matrix with its lower
+    * Cholesky factor
+    *
+    * @param matrix
+    *       matrix, replaced by its factor
+    */
+   private static void choleskyDecompose(double[][] matrix)
+   {
+      int size = matrix.length;
+      for (int col = 0; col < size; col++)
+      {
+         double sum = matrix[col][col];
+         for (int k = 0; k < col; k++)
+         {
+            sum -= matrix[col][k] * matrix[col][k];
+         }
+         matrix[col][col] = Math.sqrt(sum);
+         for (int row = col + 1; row < size; row++)
+         {
+            sum = matrix[row][col];
+            for (int k = 0; k < col; k++)
+            {
+               sum -= matrix[row][k] * matrix[col][k];
+            }
+            matrix[row][col] = sum / matrix[col][col];
+         }
+         for (int row = 0; row < col; row++)
+         {
+            matrix[row][col] = 0.0;
+         }
+      }
+   }
+
+   /**
+    * Solve a linear system with a lower Cholesky factor
+    *
+    * @param factor
+    *       lower Cholesky factor of the system matrix
+    * @param vector
+    *       right hand side, replaced by the solution
+    */
+   private static void choleskySolve(double[][] factor, double[] vector)
+   {
+      int size = vector.length;
+      for (int row = 0; row < size; row++)
+      {
+         double sum = vector[row];
+         for (int k = 0; k < row; k++)
+         {
+            sum -= factor[row][k] * vector[k];
+         }
+         vector[row] = sum / factor[row][row];
+      }
+      for (int row = size - 1; row >= 0; row--)
+      {
+         double sum = vector[row];
+         for (int k = row + 1; k < size; k++)
+         {
+            sum -= factor[k][row] * vector[k];
+         }
+         vector[row] = sum / factor[row][row];
+      }
+   }
+
+   /**
+    * Get the mean of the ensemble
+    *
+    * @param ensemble
+    *       state vector of each member
+    * @return
+    *       mean state vector
+    */
+   private static double[] getMean(double[][] ensemble)
+   {
+      double[] mean = new double[ensemble[0].length];
+      for (double[] state: ensemble)
+      {
+         for (int entry = 0; entry < mean.length; entry++)
+         {
+            mean[entry] += state[entry];
+         }
+      }
+      for (int entry = 0; entry < mean.length; entry++)
+      {
+         mean[entry] /= ensemble.length;
+      }
+      return mean;
+   }
+
+   /**
+    * Write the header of the analysis history
+    *
+    * @param writer
+    *       analysis history
+    * @throws Exception
+    *       if error in writing
+    */
+   private void writeHeader(BufferedWriter writer) throws Exception
+   {
+      writer.write("time iteration");
+      for (int location = 0; location < observedIndices.length; location++)
+      {
+         String name = observations.getName(location);
+         writer.write(String.format(" %s.observed %s.forecast %s.analysis", name, name, name));
+      }
+      for (String stateName: parameterStates)
+      {
+         writer.write(String.format(" %s.mean %s.sd", stateName, stateName));
+      }
+      writer.newLine();
+   }
+
+   /**
+    * Write the ensemble means at an observation time
+    *
+    * @param writer
+    *       analysis history
+    * @param index
+    *       index of the observation time
+    * @param iteration
+    *       iteration of the analysis
+    * @param forecast
+    *       ensemble mean before the analysis
+    * @param ensemble
+    *       state vector of each member after the analysis
+    * @throws Exception
+    *       if error in writing
+    */
+   private void writeAnalysis(BufferedWriter writer, int index, long iteration,
+         double[] forecast, double[][] ensemble) throws Exception
+   {
+      double[] mean = getMean(ensemble);
+      writer.write(String.format("%s %d", Double.toString(observations.getTime(index)), iteration));
+      for (int location = 0; location < observedIndices.length; location++)
+      {
+         int entry = observedIndices[location];
+         writer.write(String.format(" %s %s %s",
+               Double.toString(observations.getValue(index, location)),
+               Double.toString(forecast[entry]),
+               Double.toString(mean[entry])
+               ));
+      }
+      for (int param = 0; param < parameterStates.size(); param++)
+      {
+         int entry = numCells + param;
+         double sum = 0.0;
+         for (double[] state: ensemble)
+         {
+            sum += (state[entry] - mean[entry]) * (state[entry] - mean[entry]);
+         }
+         writer.write(String.format(" %s %s",
+               Double.toString(mean[entry]),
+               Double.toString(Math.sqrt(sum / (numMembers - 1)))
+               ));
+      }
+      writer.newLine();
+      writer.flush();
+   }
+
+}
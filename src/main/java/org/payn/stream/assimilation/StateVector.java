@@ -0,0 +1,119 @@
+package org.payn.stream.assimilation;
+
+import java.util.ArrayList;
+
+import org.payn.chsm.Holon;
+import org.payn.chsm.State;
+import org.payn.chsm.values.ValueDouble;
+
+/**
+ * Values of a model gathered into a vector, so an analysis can work
+ * on primitive arrays.  The values of the states are looked up once,
+ * when the vector is bound to a model, and are then read and written
+ * directly on each analysis.
+ *
+ * @author robpayn
+ *
+ */
+public class StateVector {
+
+   /**
+    * Values of the states in the vector
+    */
+   private ArrayList<ValueDouble> values;
+
+   /**
+    * Names of the entries, for output
+    */
+   private ArrayList<String> names;
+
+   /**
+    * Construct a new empty vector
+    */
+   public StateVector()
+   {
+      values = new ArrayList<ValueDouble>();
+      names = new ArrayList<String>();
+   }
+
+   /**
+    * Add the value of a state of a holon to the end of the vector
+    *
+    * @param holon
+    *       holon with the state
+    * @param stateName
+    *       name of the state
+    * @return
+    *       index of the entry
+    * @throws Exception
+    *       if the holon has no state with a double value of that name
+    */
+   public int add(Holon holon, String stateName) throws Exception
+   {
+      State state = holon.getState(stateName);
+      if (state == null || !(state.getValue() instanceof ValueDouble))
+      {
+         throw new Exception(String.format(
+               "Holon %s has no numeric state %s",
+               holon.getName(),
+               stateName
+               ));
+      }
+      values.add((ValueDouble)state.getValue());
+      names.add(holon.getName() + "." + stateName);
+      return values.size() - 1;
+   }
+
+   /**
+    * Get the number of entries
+    *
+    * @return
+    *       number of entries
+    */
+   public int size()
+   {
+      return values.size();
+   }
+
+   /**
+    * Get the name of an entry
+    *
+    * @param index
+    *       index of the entry
+    * @return
+    *       holon and state name
+    */
+   public String getName(int index)
+   {
+      return names.get(index);
+   }
+
+   /**
+    * Copy the values of the model into an array
+    *
+    * @param vector
+    *       array with at least one element for each entry
+    */
+   public void read(double[] vector)
+   {
+      for (int index = 0; index < vector.length && index < values.size(); index++)
+      {
+         vector[index] = values.get(index).n;
+      }
+   }
+
+   /**
+    * Copy an array into the values of the model
+    *
+    * @param vector
+    *       array with at least one element for each entry
+    */
+   public void write(double[] vector)
+   {
+      for (int index = 0; index < vector.length && index < values.size(); index++)
+      {
+         values.get(index).n = vector[index];
+      }
+   }
+
+}
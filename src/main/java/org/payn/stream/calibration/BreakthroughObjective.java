@@ -0,0 +1,119 @@
+package org.payn.stream.calibration;
+
+import java.io.File;
+
+import org.payn.stream.io.TimeSeries;
+
+/**
+ * Objective that scores a simulated breakthrough curve against an
+ * observed series with the root mean square error.  The simulated
+ * curve is read from a table written by a reporter in the working
+ * directory of each simulation, and interpolated to the times of
+ * the observations.
+ *
+ * @author robpayn
+ *
+ */
+public class BreakthroughObjective extends CalibrationObjective {
+
+   /**
+    * Observed breakthrough curve
+    */
+   private TimeSeries observed;
+
+   /**
+    * Path of the simulated table, relative to the working directory
+    */
+   private String simulatedPath;
+
+   /**
+    * Column delimiter of the simulated table
+    */
+   private String delimiter;
+
+   /**
+    * Name of the time column of the simulated table
+    */
+   private String timeColumn;
+
+   /**
+    * Name of the value column of the simulated table
+    */
+   private String valueColumn;
+
+   /**
+    * Construct a new objective for the provided observations
+    *
+    * @param observed
+    *       observed breakthrough curve
+    * @param simulatedPath
+    *       path of the simulated table, relative to the working
+    *       directory of each simulation
+    * @param delimiter
+    *       column delimiter of the simulated table
+    * @param timeColumn
+    *       name of the time column of the simulated table
+    * @param valueColumn
+    *       name of the value column of the simulated table
+    */
+   public BreakthroughObjective(TimeSeries observed, String simulatedPath,
+         String delimiter, String timeColumn, String valueColumn)
+   {
+      this.observed = observed;
+      this.simulatedPath = simulatedPath;
+      this.delimiter = delimiter;
+      this.timeColumn = timeColumn;
+      this.valueColumn = valueColumn;
+   }
+
+   @Override
+   public double score(File workingDir) throws Exception
+   {
+      File file = new File(workingDir, simulatedPath);
+      if (!file.isFile())
+      {
+         throw new Exception(String.format(
+               "Simulated breakthrough curve %s does not exist",
+               file.getPath()
+               ));
+      }
+      return score(TimeSeries.readTable(file, delimiter, timeColumn, valueColumn));
+   }
+
+   /**
+    * Score a simulated breakthrough curve
+    *
+    * @param simulated
+    *       simulated breakthrough curve
+    * @return
+    *       root mean square error at the observed times
+    *       covered by the simulation
+    * @throws Exception
+    *       if the simulation covers none of the observed times
+    */
+   public double score(TimeSeries simulated) throws Exception
+   {
+      double sum = 0.0;
+      int count = 0;
+      for (int index = 0; index < observed.size(); index++)
+      {
+         double value = simulated.interpolate(observed.getTime(index));
+         if (!Double.isNaN(value))
+         {
+            double error = value - observed.getValue(index);
+            sum += error * error;
+            count++;
+         }
+      }
+      if (count == 0)
+      {
+         throw new Exception(String.format(
+               "Simulated breakthrough curve from %f to %f covers none of the observations",
+               simulated.getStartTime(),
+               simulated.getEndTime()
+               ));
+      }
+      return Math.sqrt(sum / count);
+   }
+
+}
@@ -0,0 +1,29 @@
+package org.payn.stream.calibration;
+
+import java.io.File;
+
+/**
+ * Objective function of a calibration, which scores the output
+ * of a simulation against observations.  Lower scores are better.
+ *
+ * Objectives are called concurrently for different simulations,
+ * so implementations must not change shared state when scoring.
+ *
+ * @author robpayn
+ *
+ */
+public abstract class CalibrationObjective {
+
+   /**
+    * Score the output of a finished simulation
+    *
+    * @param workingDir
+    *       working directory of the simulation
+    * @return
+    *       score, lower is better
+    * @throws Exception
+    *       if the output cannot be read or scored
+    */
+   public abstract double score(File workingDir) throws Exception;
+
+}
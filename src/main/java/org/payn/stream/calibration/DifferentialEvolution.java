@@ -0,0 +1,716 @@
+package org.payn.stream.calibration;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.payn.stream.EnsembleRunner;
+import org.payn.stream.SimulatorStream;
+
+/**
+ * Calibrates the parameters of a stream model with differential
+ * evolution (the DE/rand/1/bin scheme of Storn and Price).  Each
+ * generation of candidate parameter sets is run as an ensemble, so
+ * the candidates are evaluated concurrently on a bounded number
+ * of threads.
+ *
+ * Each member of the population is run in its own working directory
+ * under the calibration directory, which is reused by the member in
+ * later generations.  The calibration directory also receives a log
+ * of every evaluation, the convergence history, and the best
+ * parameter set found.  A candidate whose simulation or scoring
+ * fails is given an infinite score, so it is never selected.
+ *
+ * @author robpayn
+ *
+ */
+public abstract class DifferentialEvolution {
+
+   /**
+    * Name of the log of all evaluations
+    */
+   public static final String FILE_EVALUATIONS = "evaluations.txt";
+
+   /**
+    * Name of the convergence history
+    */
+   public static final String FILE_CONVERGENCE = "convergence.txt";
+
+   /**
+    * Name of the file with the best parameter set
+    */
+   public static final String FILE_BEST = "best.txt";
+
+   /**
+    * Directory for the working directories and output of the calibration
+    */
+   private File calibrationDir;
+
+   /**
+    * Number of simulations run at the same time
+    */
+   private int threads;
+
+   /**
+    * Objective used to score the simulations
+    */
+   private CalibrationObjective objective;
+
+   /**
+    * Names of the parameters
+    */
+   private ArrayList<String> names;
+
+   /**
+    * Minimum value of each parameter
+    */
+   private ArrayList<Double> minValues;
+
+   /**
+    * Maximum value of each parameter
+    */
+   private ArrayList<Double> maxValues;
+
+   /**
+    * Number of members in the population, 0 for ten per parameter
+    */
+   private int populationSize;
+
+   /**
+    * Maximum number of generations after the initial population
+    */
+   private int maxGenerations;
+
+   /**
+    * Differential weight applied to the difference vector
+    */
+   private double weight;
+
+   /**
+    * Probability of taking a parameter from the mutant vector
+    */
+   private double crossover;
+
+   /**
+    * Relative spread of the population scores at which the
+    * calibration has converged
+    */
+   private double tolerance;
+
+   /**
+    * Random number generator, only used by the calling thread
+    */
+   private Random random;
+
+   /**
+    * Best parameter set found
+    */
+   private double[] bestParameters;
+
+   /**
+    * Score of the best parameter set
+    */
+   private double bestScore;
+
+   /**
+    * Construct a new calibration
+    *
+    * @param calibrationDir
+    *       directory for the working directories and output
+    *       of the calibration
+    * @param threads
+    *       number of simulations run at the same time
+    * @param objective
+    *       objective used to score the simulations
+    */
+   public DifferentialEvolution(File calibrationDir, int threads,
+         CalibrationObjective objective)
+   {
+      this.calibrationDir = calibrationDir;
+      this.threads = threads;
+      this.objective = objective;
+      this.names = new ArrayList<String>();
+      this.minValues = new ArrayList<Double>();
+      this.maxValues = new ArrayList<Double>();
+      this.populationSize = 0;
+      this.maxGenerations = 100;
+      this.weight = 0.7;
+      this.crossover = 0.9;
+      this.tolerance = 1e-4;
+      this.random = new Random();
+   }
+
+   /**
+    * Add a parameter to calibrate
+    *
+    * @param name
+    *       parameter name
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @throws Exception
+    *       if the parameter already exists or the range is empty
+    */
+   public void addParameter(String name, double minValue, double maxValue) throws Exception
+   {
+      if (names.contains(name))
+      {
+         throw new Exception(String.format(
+               "Calibration already has a parameter named %s",
+               name
+               ));
+      }
+      if (!(maxValue > minValue))
+      {
+         throw new Exception(String.format(
+               "Maximum value of parameter %s must be greater than its minimum",
+               name
+               ));
+      }
+      names.add(name);
+      minValues.add(minValue);
+      maxValues.add(maxValue);
+   }
+
+   /**
+    * Get the number of parameters
+    *
+    * @return
+    *       number of parameters
+    */
+   public int getNumParameters()
+   {
+      return names.size();
+   }
+
+   /**
+    * Get the name of a parameter
+    *
+    * @param index
+    *       index of the parameter, in the order added
+    * @return
+    *       parameter name
+    */
+   public String getParameterName(int index)
+   {
+      return names.get(index);
+   }
+
+   /**
+    * Set the number of members in the population
+    *
+    * @param populationSize
+    *       number of members, at least 4
+    */
+   public void setPopulationSize(int populationSize)
+   {
+      this.populationSize = populationSize;
+   }
+
+   /**
+    * Set the maximum number of generations after the initial population
+    *
+    * @param maxGenerations
+    *       maximum number of generations
+    */
+   public void setMaxGenerations(int maxGenerations)
+   {
+      this.maxGenerations = maxGenerations;
+   }
+
+   /**
+    * Set the differential weight applied to the difference vector
+    *
+    * @param weight
+    *       differential weight, typically between 0.4 and 1
+    */
+   public void setWeight(double weight)
+   {
+      this.weight = weight;
+   }
+
+   /**
+    * Set the probability of taking a parameter from the mutant vector
+    *
+    * @param crossover
+    *       crossover probability, between 0 and 1
+    */
+   public void setCrossover(double crossover)
+   {
+      this.crossover = crossover;
+   }
+
+   /**
+    * Set the relative spread of the population scores at which
+    * the calibration has converged
+    *
+    * @param tolerance
+    *       relative tolerance
+    */
+   public void setTolerance(double tolerance)
+   {
+      this.tolerance = tolerance;
+   }
+
+   /**
+    * Seed the random number generator, so a calibration can be repeated
+    *
+    * @param seed
+    *       random seed
+    */
+   public void setSeed(long seed)
+   {
+      random = new Random(seed);
+   }
+
+   /**
+    * Get the best parameter set found
+    *
+    * @return
+    *       parameter values in the order added, null before
+    *       the calibration is run
+    */
+   public double[] getBestParameters()
+   {
+      return bestParameters == null ? null : bestParameters.clone();
+   }
+
+   /**
+    * Get the score of the best parameter set
+    *
+    * @return
+    *       score
+    */
+   public double getBestScore()
+   {
+      return bestScore;
+   }
+
+   /**
+    * Create the simulator for a candidate parameter set, with its
+    * input processors added.  Called concurrently for different
+    * candidates, so implementations must not change shared state.
+    *
+    * @param workingDir
+    *       working directory of the simulation, which exists
+    * @param parameters
+    *       parameter values in the order added
+    * @return
+    *       simulator ready to execute
+    * @throws Exception
+    *       if error in creating the simulator
+    */
+   protected abstract SimulatorStream createSimulator(File workingDir, double[] parameters)
+         throws Exception;
+
+   /**
+    * Run the calibration
+    *
+    * @return
+    *       best parameter set found, in the order added
+    * @throws Exception
+    *       if the calibration is not valid, no candidate could be
+    *       scored, or error in writing the output
+    */
+   public double[] calibrate() throws Exception
+   {
+      int numParameters = names.size();
+      if (numParameters == 0)
+      {
+         throw new Exception("Calibration has no parameters");
+      }
+      int size = populationSize > 0 ? populationSize : 10 * numParameters;
+      if (size < 4)
+      {
+         throw new Exception(String.format(
+               "Differential evolution needs a population of at least 4, found %d",
+               size
+               ));
+      }
+      if (!calibrationDir.isDirectory() && !calibrationDir.mkdirs())
+      {
+         throw new Exception(String.format(
+               "Unable to create the calibration directory %s",
+               calibrationDir.getPath()
+               ));
+      }
+
+      BufferedWriter evaluations = new BufferedWriter(new FileWriter(
+            new File(calibrationDir, FILE_EVALUATIONS)));
+      BufferedWriter convergence = new BufferedWriter(new FileWriter(
+            new File(calibrationDir, FILE_CONVERGENCE)));
+      try
+      {
+         evaluations.write("generation member score" + getHeader());
+         evaluations.newLine();
+         convergence.write("generation evaluations bestScore meanScore" + getHeader());
+         convergence.newLine();
+
+         double[][] population = new double[size][];
+         for (int member = 0; member < size; member++)
+         {
+            population[member] = new double[numParameters];
+            for (int param = 0; param < numParameters; param++)
+            {
+               double min = minValues.get(param);
+               population[member][param] = min + random.nextDouble() * (maxValues.get(param) - min);
+            }
+         }
+         double[] scores = evaluate(population, 0, evaluations);
+         int best = findBest(scores);
+         writeConvergence(convergence, 0, size, scores, population[best]);
+
+         int generation = 1;
+         while (generation <= maxGenerations && !isConverged(scores, best))
+         {
+            double[][] trials = new double[size][];
+            for (int member = 0; member < size; member++)
+            {
+               trials[member] = createTrial(population, member);
+            }
+            double[] trialScores = evaluate(trials, generation, evaluations);
+            for (int member = 0; member < size; member++)
+            {
+               if (trialScores[member] <= scores[member])
+               {
+                  population[member] = trials[member];
+                  scores[member] = trialScores[member];
+               }
+            }
+            best = findBest(scores);
+            writeConvergence(convergence, generation, (generation + 1) * size,
+                  scores, population[best]);
+            generation++;
+         }
+
+         if (Double.isInfinite(scores[best]))
+         {
+            throw new Exception("No candidate parameter set could be scored");
+         }
+         bestParameters = population[best].clone();
+         bestScore = scores[best];
+         writeBest();
+         System.out.println(String.format(
+               "Calibration finished after %d generations, best score %g",
+               generation - 1,
+               bestScore
+               ));
+         return getBestParameters();
+      }
+      finally
+      {
+         evaluations.close();
+         convergence.close();
+      }
+   }
+
+   /**
+    * Run and score a population as an ensemble
+    *
+    * @param population
+    *       parameter sets to evaluate
+    * @param generation
+    *       generation number
+    * @param evaluations
+    *       log of all evaluations
+    * @return
+    *       score of each parameter set, infinite if it failed
+    * @throws Exception
+    *       if the ensemble is interrupted or error in writing the log
+    */
+   private double[] evaluate(double[][] population, int generation,
+         BufferedWriter evaluations) throws Exception
+   {
+      EnsembleRunner runner = new EnsembleRunner(calibrationDir, threads);
+      for (int member = 0; member < population.length; member++)
+      {
+         final double[] parameters = population[member];
+         runner.addMember(new EnsembleRunner.Member(getMemberName(member)) {
+            @Override
+            protected SimulatorStream createSimulator(File workingDir) throws Exception
+            {
+               return DifferentialEvolution.this.createSimulator(workingDir, parameters);
+            }
+         });
+      }
+      ArrayList<EnsembleRunner.Result> results = runner.run();
+      double[] scores = new double[population.length];
+      for (int member = 0; member < population.length; member++)
+      {
+         EnsembleRunner.Result result = results.get(member);
+         scores[member] = Double.POSITIVE_INFINITY;
+         if (result.isSuccess())
+         {
+            try
+            {
+               double score = objective.score(result.getWorkingDir());
+               if (!Double.isNaN(score))
+               {
+                  scores[member] = score;
+               }
+            }
+            catch (Exception e)
+            {
+               System.out.println(String.format(
+                     "Unable to score %s: %s",
+                     result.getName(),
+                     e.getMessage()
+                     ));
+            }
+         }
+         evaluations.write(String.format("%d %d %s%s",
+               generation,
+               member,
+               Double.toString(scores[member]),
+               getValues(population[member])
+               ));
+         evaluations.newLine();
+      }
+      evaluations.flush();
+      return scores;
+   }
+
+   /**
+    * Create a trial parameter set for a member by mutation and
+    * binomial crossover.  Mutant values outside the range of a
+    * parameter are moved to a random point between the value of
+    * the target member and the violated bound.
+    *
+    * @param population
+    *       current population
+    * @param target
+    *       index of the target member
+    * @return
+    *       trial parameter set
+    */
+   private double[] createTrial(double[][] population, int target)
+   {
+      int size = population.length;
+      int r1 = pickOther(size, target, -1, -1);
+      int r2 = pickOther(size, target, r1, -1);
+      int r3 = pickOther(size, target, r1, r2);
+      int numParameters = names.size();
+      int forced = random.nextInt(numParameters);
+      double[] trial = population[target].clone();
+      for (int param = 0; param < numParameters; param++)
+      {
+         if (param == forced || random.nextDouble() < crossover)
+         {
+            double value = population[r1][param]
+                  + weight * (population[r2][param] - population[r3][param]);
+            double min = minValues.get(param);
+            double max = maxValues.get(param);
+            double current = population[target][param];
+            if (value < min)
+            {
+               value = current + random.nextDouble() * (min - current);
+            }
+            else if (value > max)
+            {
+               value = current + random.nextDouble() * (max - current);
+            }
+            trial[param] = value;
+         }
+      }
+      return trial;
+   }
+
+   /**
+    * Pick a random member different from up to three others
+    *
+    * @param size
+    *       population size
+    * @param first
+    *       member to exclude
+    * @param second
+    *       member to exclude, -1 for none
+    * @param third
+    *       member to exclude, -1 for none
+    * @return
+    *       index of the member
+    */
+   private int pickOther(int size, int first, int second, int third)
+   {
+      int member;
+      do
+      {
+         member = random.nextInt(size);
+      }
+      while (member == first || member == second || member == third);
+      return member;
+   }
+
+   /**
+    * Find the member with the lowest score
+    *
+    * @param scores
+    *       scores of the population
+    * @return
+    *       index of the best member
+    */
+   private static int findBest(double[] scores)
+   {
+      int best = 0;
+      for (int member = 1; member < scores.length; member++)
+      {
+         if (scores[member] < scores[best])
+         {
+            best = member;
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Determine if the population scores have converged
+    *
+    * @param scores
+    *       scores of the population
+    * @param best
+    *       index of the best member
+    * @return
+    *       true if the spread of the scores is within the tolerance
+    */
+   private boolean isConverged(double[] scores, int best)
+   {
+      double worst = scores[best];
+      for (double score: scores)
+      {
+         worst = Math.max(worst, score);
+      }
+      if (Double.isInfinite(worst))
+      {
+         return false;
+      }
+      double spread = worst - scores[best];
+      return spread == 0.0 || spread <= tolerance * Math.abs(scores[best]);
+   }
+
+   /**
+    * Write a line of the convergence history
+    *
+    * @param convergence
+    *       convergence history
+    * @param generation
+    *       generation number
+    * @param numEvaluations
+    *       number of evaluations so far
+    * @param scores
+    *       scores of the population
+    * @param best
+    *       best parameter set in the population
+    * @throws Exception
+    *       if error in writing the history
+    */
+   private void writeConvergence(BufferedWriter convergence, int generation,
+         int numEvaluations, double[] scores, double[] best) throws Exception
+   {
+      double bestValue = Double.POSITIVE_INFINITY;
+      double sum = 0.0;
+      int count = 0;
+      for (double score: scores)
+      {
+         bestValue = Math.min(bestValue, score);
+         if (!Double.isInfinite(score))
+         {
+            sum += score;
+            count++;
+         }
+      }
+      double mean = count > 0 ? sum / count : Double.POSITIVE_INFINITY;
+      convergence.write(String.format("%d %d %s %s%s",
+            generation,
+            numEvaluations,
+            Double.toString(bestValue),
+            Double.toString(mean),
+            getValues(best)
+            ));
+      convergence.newLine();
+      convergence.flush();
+      System.out.println(String.format(
+            "Generation %d: best score %g, mean score %g",
+            generation,
+            bestValue,
+            mean
+            ));
+   }
+
+   /**
+    * Write the best parameter set, one parameter on each line
+    *
+    * @throws Exception
+    *       if error in writing the file
+    */
+   private void writeBest() throws Exception
+   {
+      BufferedWriter writer = new BufferedWriter(new FileWriter(
+            new File(calibrationDir, FILE_BEST)));
+      try
+      {
+         writer.write("parameter value");
+         writer.newLine();
+         writer.write("score " + Double.toString(bestScore));
+         writer.newLine();
+         for (int param = 0; param < names.size(); param++)
+         {
+            writer.write(names.get(param) + " " + Double.toString(bestParameters[param]));
+            writer.newLine();
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   /**
+    * Get the parameter names as columns of a table header
+    *
+    * @return
+    *       space-delimited names, with a leading space
+    */
+   private String getHeader()
+   {
+      StringBuilder header = new StringBuilder();
+      for (String name: names)
+      {
+         header.append(" ").append(name);
+      }
+      return header.toString();
+   }
+
+   /**
+    * Get parameter values as columns of a table row
+    *
+    * @param parameters
+    *       parameter values
+    * @return
+    *       space-delimited values, with a leading space
+    */
+   private static String getValues(double[] parameters)
+   {
+      StringBuilder values = new StringBuilder();
+      for (double value: parameters)
+      {
+         values.append(" ").append(Double.toString(value));
+      }
+      return values.toString();
+   }
+
+   /**
+    * Get the name of the working directory of a member
+    *
+    * @param member
+    *       index of the member
+    * @return
+    *       directory name
+    */
+   private static String getMemberName(int member)
+   {
+      return String.format("member_%04d", member);
+   }
+
+}
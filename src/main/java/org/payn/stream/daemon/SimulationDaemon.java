@@ -0,0 +1,811 @@
+package org.payn.stream.daemon;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A resident stream simulator that keeps one warm JVM running and
+ * accepts simulation jobs, so short runs do not each pay for JVM
+ * startup, class loading of the behaviors, and compilation.
+ *
+ * Jobs are described as in {@link SimulationJob} and run on a fixed
+ * pool of worker threads.  They are accepted from either or both of:
+ * <ul>
+ * <li>a spool directory, where each file with the suffix
+ *    {@link #SUFFIX_JOB} holds one job.  The daemon claims a job by
+ *    renaming it with the suffix {@link #SUFFIX_RUNNING}, and reports
+ *    completion by replacing it with a file of the same name and the
+ *    suffix {@link #SUFFIX_DONE} or {@link #SUFFIX_FAILED}.  A file
+ *    named {@link #FILE_STOP} in the spool directory stops the daemon.</li>
+ * <li>a socket on the loopback address, where each line sent by a
+ *    client is a job.  The daemon replies with a line starting with
+ *    "accepted" or "rejected", then a line starting with "done" or
+ *    "failed" when the job completes.  The line {@link #COMMAND_STOP}
+ *    stops the daemon.</li>
+ * </ul>
+ * Every completion is reported with the time the job waited in the
+ * queue and the time it ran, in milliseconds, and is appended to
+ * {@link #FILE_LOG} in the working directory of the daemon.  A stopped
+ * daemon accepts no new jobs but lets queued jobs finish.
+ *
+ * @author robpayn
+ *
+ */
+public class SimulationDaemon {
+
+   /**
+    * Receives the completion of a job
+    *
+    * @author robpayn
+    *
+    */
+   public static interface JobListener {
+
+      /**
+       * Called on the worker thread when a job completes
+       *
+       * @param job
+       *       job that completed
+       * @param error
+       *       error that stopped the job, null if it finished
+       * @param queueMillis
+       *       time the job waited in the queue, in milliseconds
+       * @param runMillis
+       *       time the job ran, in milliseconds
+       */
+      public void jobFinished(SimulationJob job, Exception error,
+            long queueMillis, long runMillis);
+
+   }
+
+   /**
+    * Suffix of a job file waiting in the spool directory
+    */
+   public static final String SUFFIX_JOB = ".job";
+
+   /**
+    * Suffix of a job file claimed by the daemon
+    */
+   public static final String SUFFIX_RUNNING = ".running";
+
+   /**
+    * Suffix of the report of a finished job
+    */
+   public static final String SUFFIX_DONE = ".done";
+
+   /**
+    * Suffix of the report of a failed job
+    */
+   public static final String SUFFIX_FAILED = ".failed";
+
+   /**
+    * Name of the file that stops the daemon
+    */
+   public static final String FILE_STOP = "stop";
+
+   /**
+    * Line that stops the daemon when sent to the socket
+    */
+   public static final String COMMAND_STOP = "stop";
+
+   /**
+    * Name of the log of completed jobs
+    */
+   public static final String FILE_LOG = "jobs.txt";
+
+   /**
+    * Entry point for the daemon.  Arguments are:
+    * <ul>
+    * <li>spool: spool directory relative to the working directory</li>
+    * <li>port: port of the socket on the loopback address</li>
+    * <li>threads: number of worker threads, default is the
+    *    number of processors</li>
+    * <li>poll: milliseconds between scans of the spool directory,
+    *    default is 500</li>
+    * </ul>
+    * At least one of spool or port must be provided.
+    *
+    * @param args
+    *       command line arguments
+    */
+   public static void main(String[] args)
+   {
+      try
+      {
+         File workingDir = new File(System.getProperty("user.dir"));
+         HashMap<String, String> argMap = new HashMap<String, String>();
+         for (String arg: args)
+         {
+            int split = arg.indexOf('=');
+            if (split > 0)
+            {
+               argMap.put(arg.substring(0, split), arg.substring(split + 1));
+            }
+         }
+         if (!argMap.containsKey("spool") && !argMap.containsKey("port"))
+         {
+            throw new Exception(
+                  "Must provide an argument for a spool directory or a port " +
+                        "(e.g. 'spool=./spool' or 'port=9123')"
+                  );
+         }
+         int threads = argMap.containsKey("threads") ?
+               Integer.valueOf(argMap.get("threads")) :
+               Runtime.getRuntime().availableProcessors();
+         SimulationDaemon daemon = new SimulationDaemon(workingDir, threads);
+         if (argMap.containsKey("spool"))
+         {
+            daemon.setSpoolDir(new File(workingDir, argMap.get("spool")));
+         }
+         if (argMap.containsKey("port"))
+         {
+            daemon.setPort(Integer.valueOf(argMap.get("port")));
+         }
+         if (argMap.containsKey("poll"))
+         {
+            daemon.setPollMillis(Long.valueOf(argMap.get("poll")));
+         }
+         daemon.run();
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Working directory of the daemon, for relative job directories
+    * and the job log
+    */
+   private File workingDir;
+
+   /**
+    * Number of worker threads
+    */
+   private int threads;
+
+   /**
+    * Spool directory, null if jobs are not read from files
+    */
+   private File spoolDir;
+
+   /**
+    * Port of the socket, 0 if jobs are not read from a socket
+    */
+   private int port;
+
+   /**
+    * Milliseconds between scans of the spool directory
+    */
+   private long pollMillis;
+
+   /**
+    * Worker threads
+    */
+   private ExecutorService workers;
+
+   /**
+    * Number of jobs accepted, for job identifiers
+    */
+   private AtomicLong numJobs;
+
+   /**
+    * Is the daemon accepting jobs?
+    */
+   private volatile boolean isRunning;
+
+   /**
+    * Socket accepting connections, null if not listening
+    */
+   private ServerSocket serverSocket;
+
+   /**
+    * Log of completed jobs
+    */
+   private BufferedWriter log;
+
+   /**
+    * Construct a new daemon
+    *
+    * @param workingDir
+    *       working directory of the daemon
+    * @param threads
+    *       number of worker threads
+    */
+   public SimulationDaemon(File workingDir, int threads)
+   {
+      this.workingDir = workingDir;
+      this.threads = Math.max(1, threads);
+      this.pollMillis = 500;
+      this.numJobs = new AtomicLong();
+   }
+
+   /**
+    * Accept jobs from files in a spool directory
+    *
+    * @param spoolDir
+    *       spool directory
+    */
+   public void setSpoolDir(File spoolDir)
+   {
+      this.spoolDir = spoolDir;
+   }
+
+   /**
+    * Accept jobs from a socket on the loopback address
+    *
+    * @param port
+    *       port of the socket
+    */
+   public void setPort(int port)
+   {
+      this.port = port;
+   }
+
+   /**
+    * Set the time between scans of the spool directory
+    *
+    * @param pollMillis
+    *       time in milliseconds
+    */
+   public void setPollMillis(long pollMillis)
+   {
+      this.pollMillis = Math.max(1, pollMillis);
+   }
+
+   /**
+    * Run the daemon until it is stopped.  Jobs already queued when
+    * the daemon is stopped run before this method returns.
+    *
+    * @throws Exception
+    *       if the spool directory cannot be created, the socket cannot
+    *       be opened, or error in writing the job log
+    */
+   public void run() throws Exception
+   {
+      if (spoolDir != null && !spoolDir.isDirectory() && !spoolDir.mkdirs())
+      {
+         throw new Exception(String.format(
+               "Unable to create the spool directory %s",
+               spoolDir.getPath()
+               ));
+      }
+      log = new BufferedWriter(new FileWriter(new File(workingDir, FILE_LOG), true));
+      workers = Executors.newFixedThreadPool(threads);
+      isRunning = true;
+      try
+      {
+         if (port > 0)
+         {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(new Runnable() {
+               @Override
+               public void run()
+               {
+                  acceptConnections();
+               }
+            }, "daemon-socket");
+            acceptor.setDaemon(true);
+            acceptor.start();
+         }
+         if (spoolDir != null)
+         {
+            recoverSpool();
+         }
+         System.out.println(String.format(
+               "Simulation daemon running on %d threads%s%s",
+               threads,
+               spoolDir == null ? "" : ", spool directory " + spoolDir.getPath(),
+               port > 0 ? ", port " + port : ""
+               ));
+
+         while (isRunning)
+         {
+            if (spoolDir != null)
+            {
+               File stopFile = new File(spoolDir, FILE_STOP);
+               if (stopFile.exists())
+               {
+                  stopFile.delete();
+                  stop();
+                  break;
+               }
+               scanSpool();
+            }
+            synchronized (this)
+            {
+               if (isRunning)
+               {
+                  wait(pollMillis);
+               }
+            }
+         }
+      }
+      finally
+      {
+         isRunning = false;
+         if (serverSocket != null)
+         {
+            serverSocket.close();
+         }
+         System.out.println("Simulation daemon stopping, waiting for queued jobs...");
+         workers.shutdown();
+         workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+         synchronized (log)
+         {
+            log.close();
+         }
+         System.out.println(String.format(
+               "Simulation daemon stopped after %d jobs",
+               numJobs.get()
+               ));
+      }
+   }
+
+   /**
+    * Stop accepting jobs.  Queued jobs still run.
+    */
+   public void stop()
+   {
+      synchronized (this)
+      {
+         isRunning = false;
+         notifyAll();
+      }
+      try
+      {
+         if (serverSocket != null)
+         {
+            serverSocket.close();
+         }
+      }
+      catch (IOException e)
+      {
+         // the socket is closed anyway
+      }
+   }
+
+   /**
+    * Queue a job on the worker threads
+    *
+    * @param job
+    *       job to run
+    * @param listener
+    *       receives the completion of the job, may be null
+    * @return
+    *       future that completes with the job
+    * @throws Exception
+    *       if the daemon is not running
+    */
+   public Future<Object> submit(final SimulationJob job, final JobListener listener)
+         throws Exception
+   {
+      if (!isRunning)
+      {
+         throw new Exception(String.format(
+               "Simulation daemon is not running, job %s rejected",
+               job.getId()
+               ));
+      }
+      final long submitted = System.currentTimeMillis();
+      return workers.submit(new Callable<Object>() {
+         @Override
+         public Object call()
+         {
+            runJob(job, listener, submitted);
+            return null;
+         }
+      });
+   }
+
+   /**
+    * Get an identifier for a new job
+    *
+    * @param name
+    *       name given to the job by its source
+    * @return
+    *       identifier
+    */
+   private String nextId(String name)
+   {
+      return String.format("%06d-%s", numJobs.incrementAndGet(), name);
+   }
+
+   /**
+    * Run a job on the current thread and report its completion.
+    * A job stopped by an error of the JVM is reported as failed
+    * before the error is thrown on.
+    *
+    * @param job
+    *       job to run
+    * @param listener
+    *       receives the completion of the job, may be null
+    * @param submitted
+    *       time the job was queued, in milliseconds
+    */
+   private void runJob(SimulationJob job, JobListener listener, long submitted)
+   {
+      long start = System.currentTimeMillis();
+      Exception error = null;
+      Error fatal = null;
+      try
+      {
+         job.createSimulator().execute();
+      }
+      catch (Exception e)
+      {
+         error = e;
+      }
+      catch (Error e)
+      {
+         fatal = e;
+         error = new Exception(e.toString(), e);
+      }
+      long runMillis = System.currentTimeMillis() - start;
+      long queueMillis = start - submitted;
+      System.out.println(String.format(
+            "Job %s %s in %.1f s after %.1f s in the queue%s",
+            job.getId(),
+            error == null ? "finished" : "failed",
+            runMillis / 1000.0,
+            queueMillis / 1000.0,
+            error == null ? "" : ": " + error.getMessage()
+            ));
+      synchronized (log)
+      {
+         try
+         {
+            log.write(String.format("%s %s %s %s %d %d",
+                  job.getId(),
+                  job.getModel(),
+                  job.getWorkingDir().getPath(),
+                  error == null ? "done" : "failed",
+                  queueMillis,
+                  runMillis
+                  ));
+            log.newLine();
+            log.flush();
+         }
+         catch (IOException e)
+         {
+            System.out.println(String.format(
+                  "Unable to log job %s: %s",
+                  job.getId(),
+                  e.getMessage()
+                  ));
+         }
+      }
+      if (listener != null)
+      {
+         listener.jobFinished(job, error, queueMillis, runMillis);
+      }
+      if (fatal != null)
+      {
+         throw fatal;
+      }
+   }
+
+   /**
+    * Return jobs claimed by a daemon that did not finish them
+    * to the spool
+    */
+   private void recoverSpool()
+   {
+      File[] files = spoolDir.listFiles();
+      if (files == null)
+      {
+         return;
+      }
+      for (File file: files)
+      {
+         String name = file.getName();
+         if (name.endsWith(SUFFIX_RUNNING))
+         {
+            String jobName = name.substring(0, name.length() - SUFFIX_RUNNING.length());
+            file.renameTo(new File(spoolDir, jobName + SUFFIX_JOB));
+         }
+      }
+   }
+
+   /**
+    * Claim and queue the jobs waiting in the spool directory,
+    * in the order of their file names
+    */
+   private void scanSpool()
+   {
+      File[] files = spoolDir.listFiles();
+      if (files == null)
+      {
+         return;
+      }
+      Arrays.sort(files);
+      for (File file: files)
+      {
+         String name = file.getName();
+         if (!name.endsWith(SUFFIX_JOB) || !file.isFile())
+         {
+            continue;
+         }
+         final String jobName = name.substring(0, name.length() - SUFFIX_JOB.length());
+         final File runningFile = new File(spoolDir, jobName + SUFFIX_RUNNING);
+         if (!file.renameTo(runningFile))
+         {
+            continue;
+         }
+         String id = nextId(jobName);
+         try
+         {
+            SimulationJob job = SimulationJob.parse(id, readJobLine(runningFile), workingDir);
+            submit(job, new JobListener() {
+               @Override
+               public void jobFinished(SimulationJob job, Exception error,
+                     long queueMillis, long runMillis)
+               {
+                  reportSpoolJob(jobName, runningFile, job.getId(), error,
+                        queueMillis, runMillis);
+               }
+            });
+         }
+         catch (Exception e)
+         {
+            System.out.println(String.format(
+                  "Job %s rejected: %s",
+                  id,
+                  e.getMessage()
+                  ));
+            reportSpoolJob(jobName, runningFile, id, e, 0, 0);
+         }
+      }
+   }
+
+   /**
+    * Read the description of a job from a job file
+    *
+    * @param file
+    *       job file
+    * @return
+    *       first line that is not blank
+    * @throws Exception
+    *       if the file has no description
+    */
+   private static String readJobLine(File file) throws Exception
+   {
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try
+      {
+         String line;
+         while ((line = reader.readLine()) != null)
+         {
+            if (line.trim().length() > 0)
+            {
+               return line;
+            }
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      throw new Exception(String.format(
+            "Job file %s is empty",
+            file.getPath()
+            ));
+   }
+
+   /**
+    * Replace a claimed job file with the report of its completion
+    *
+    * @param jobName
+    *       name of the job file without its suffix
+    * @param runningFile
+    *       claimed job file
+    * @param id
+    *       identifier of the job
+    * @param error
+    *       error that stopped the job, null if it finished
+    * @param queueMillis
+    *       time the job waited in the queue, in milliseconds
+    * @param runMillis
+    *       time the job ran, in milliseconds
+    */
+   private void reportSpoolJob(String jobName, File runningFile, String id,
+         Exception error, long queueMillis, long runMillis)
+   {
+      File reportFile = new File(spoolDir,
+            jobName + (error == null ? SUFFIX_DONE : SUFFIX_FAILED));
+      try
+      {
+         BufferedWriter writer = new BufferedWriter(new FileWriter(reportFile));
+         try
+         {
+            writer.write(String.format("id %s", id));
+            writer.newLine();
+            writer.write(String.format("queueMillis %d", queueMillis));
+            writer.newLine();
+            writer.write(String.format("runMillis %d", runMillis));
+            writer.newLine();
+            if (error != null)
+            {
+               writer.write(String.format("error %s", error.getMessage()));
+               writer.newLine();
+            }
+         }
+         finally
+         {
+            writer.close();
+         }
+         runningFile.delete();
+      }
+      catch (IOException e)
+      {
+         System.out.println(String.format(
+               "Unable to write report %s: %s",
+               reportFile.getPath(),
+               e.getMessage()
+               ));
+      }
+   }
+
+   /**
+    * Accept connections to the socket until it is closed, handling
+    * each connection on its own thread
+    */
+   private void acceptConnections()
+   {
+      while (isRunning)
+      {
+         try
+         {
+            final Socket socket = serverSocket.accept();
+            Thread handler = new Thread(new Runnable() {
+               @Override
+               public void run()
+               {
+                  handleConnection(socket);
+               }
+            }, "daemon-connection");
+            handler.setDaemon(true);
+            handler.start();
+         }
+         catch (IOException e)
+         {
+            if (isRunning)
+            {
+               System.out.println(String.format(
+                     "Unable to accept a connection: %s",
+                     e.getMessage()
+                     ));
+            }
+         }
+      }
+   }
+
+   /**
+    * Read jobs from a connection, one per line, and reply with their
+    * acceptance and completion.  The connection is closed when the
+    * client has stopped sending and all of its jobs have completed.
+    *
+    * @param socket
+    *       connection to a client
+    */
+   private void handleConnection(Socket socket)
+   {
+      ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+      try
+      {
+         BufferedReader reader = new BufferedReader(
+               new InputStreamReader(socket.getInputStream()));
+         final BufferedWriter writer = new BufferedWriter(
+               new OutputStreamWriter(socket.getOutputStream()));
+         String line;
+         while ((line = reader.readLine()) != null)
+         {
+            line = line.trim();
+            if (line.length() == 0)
+            {
+               continue;
+            }
+            if (line.equals(COMMAND_STOP))
+            {
+               reply(writer, "stopping");
+               stop();
+               break;
+            }
+            String id = nextId("socket");
+            try
+            {
+               SimulationJob job = SimulationJob.parse(id, line, workingDir);
+               // Hold the writer so the job cannot report before it is accepted
+               synchronized (writer)
+               {
+                  futures.add(submit(job, new JobListener() {
+                     @Override
+                     public void jobFinished(SimulationJob job, Exception error,
+                           long queueMillis, long runMillis)
+                     {
+                        reply(writer, String.format("%s %s %d %d%s",
+                              error == null ? "done" : "failed",
+                              job.getId(),
+                              queueMillis,
+                              runMillis,
+                              error == null ? "" : " " + error.getMessage()
+                              ));
+                     }
+                  }));
+                  reply(writer, String.format("accepted %s", id));
+               }
+            }
+            catch (Exception e)
+            {
+               reply(writer, String.format("rejected %s %s", id, e.getMessage()));
+            }
+         }
+         for (Future<Object> future: futures)
+         {
+            future.get();
+         }
+      }
+      catch (Exception e)
+      {
+         System.out.println(String.format(
+               "Connection closed: %s",
+               e.getMessage()
+               ));
+      }
+      finally
+      {
+         try
+         {
+            socket.close();
+         }
+         catch (IOException e)
+         {
+            // nothing left to report to
+         }
+      }
+   }
+
+   /**
+    * Send a line to a client, ignoring a client that has gone away
+    *
+    * @param writer
+    *       writer of the connection
+    * @param line
+    *       line to send
+    */
+   private static void reply(BufferedWriter writer, String line)
+   {
+      synchronized (writer)
+      {
+         try
+         {
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+         }
+         catch (IOException e)
+         {
+            // the client no longer wants the reply
+         }
+      }
+   }
+
+}
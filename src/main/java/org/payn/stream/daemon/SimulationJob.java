@@ -0,0 +1,217 @@
+package org.payn.stream.daemon;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.payn.stream.SimulatorStream;
+import org.payn.stream.metabolism.MatrixLoaderMetabolismSimulator;
+import org.payn.stream.uptake.MatrixLoaderUptakeSimulator;
+
+/**
+ * A simulation submitted to a {@link SimulationDaemon}.  A job is
+ * described by one line of text with the model type, the working
+ * directory of the run, and the command line arguments of the stream
+ * simulator, separated by white space:
+ * <pre>
+ * metabolism ./site1 config=./config/config.xml
+ * </pre>
+ * The model type is {@link #MODEL_METABOLISM} or {@link #MODEL_UPTAKE},
+ * and a relative working directory is resolved against the working
+ * directory of the daemon.
+ *
+ * @author robpayn
+ *
+ */
+public class SimulationJob {
+
+   /**
+    * Model type of a metabolism simulation
+    */
+   public static final String MODEL_METABOLISM = "metabolism";
+
+   /**
+    * Model type of a hyperbolic uptake simulation
+    */
+   public static final String MODEL_UPTAKE = "uptake";
+
+   /**
+    * Parse a job from its description
+    *
+    * @param id
+    *       identifier of the job
+    * @param line
+    *       description of the job
+    * @param baseDir
+    *       directory for resolving a relative working directory
+    * @return
+    *       job
+    * @throws Exception
+    *       if the description has no working directory, the model type
+    *       is unknown, or the working directory does not exist
+    */
+   public static SimulationJob parse(String id, String line, File baseDir) throws Exception
+   {
+      String[] tokens = line.trim().split("\\s+");
+      if (tokens.length < 2)
+      {
+         throw new Exception(String.format(
+               "Job %s must provide a model type and a working directory, found '%s'",
+               id,
+               line.trim()
+               ));
+      }
+      String model = tokens[0];
+      if (!model.equals(MODEL_METABOLISM) && !model.equals(MODEL_UPTAKE))
+      {
+         throw new Exception(String.format(
+               "Unknown model type %s for job %s, must be %s or %s",
+               model,
+               id,
+               MODEL_METABOLISM,
+               MODEL_UPTAKE
+               ));
+      }
+      File workingDir = new File(tokens[1]);
+      if (!workingDir.isAbsolute())
+      {
+         workingDir = new File(baseDir, tokens[1]);
+      }
+      if (!workingDir.isDirectory())
+      {
+         throw new Exception(String.format(
+               "Working directory %s of job %s does not exist",
+               workingDir.getPath(),
+               id
+               ));
+      }
+      return new SimulationJob(id, model, workingDir,
+            Arrays.copyOfRange(tokens, 2, tokens.length));
+   }
+
+   /**
+    * Identifier of the job
+    */
+   private String id;
+
+   /**
+    * Model type
+    */
+   private String model;
+
+   /**
+    * Working directory of the run
+    */
+   private File workingDir;
+
+   /**
+    * Command line arguments of the simulator
+    */
+   private String[] args;
+
+   /**
+    * Construct a new job
+    *
+    * @param id
+    *       identifier of the job
+    * @param model
+    *       model type
+    * @param workingDir
+    *       working directory of the run
+    * @param args
+    *       command line arguments of the simulator
+    */
+   public SimulationJob(String id, String model, File workingDir, String[] args)
+   {
+      this.id = id;
+      this.model = model;
+      this.workingDir = workingDir;
+      this.args = args;
+   }
+
+   /**
+    * Get the identifier of the job
+    *
+    * @return
+    *       identifier
+    */
+   public String getId()
+   {
+      return id;
+   }
+
+   /**
+    * Get the model type
+    *
+    * @return
+    *       model type
+    */
+   public String getModel()
+   {
+      return model;
+   }
+
+   /**
+    * Get the working directory of the run
+    *
+    * @return
+    *       working directory
+    */
+   public File getWorkingDir()
+   {
+      return workingDir;
+   }
+
+   /**
+    * Create the simulator of the job, with the builder of its model
+    * type added, the same way as the entry point of the model
+    *
+    * @return
+    *       simulator ready to execute
+    * @throws Exception
+    *       if no configuration file is provided or error in
+    *       creating the simulator
+    */
+   public SimulatorStream createSimulator() throws Exception
+   {
+      SimulatorStream simulator;
+      if (model.equals(MODEL_METABOLISM))
+      {
+         simulator = new SimulatorStream(
+               workingDir,
+               args,
+               new MatrixLoaderMetabolismSimulator()
+               );
+      }
+      else
+      {
+         simulator = new SimulatorStream(
+               workingDir,
+               args,
+               new MatrixLoaderUptakeSimulator()
+               );
+      }
+      if (!simulator.getArgMap().containsKey("config"))
+      {
+         throw new Exception(String.format(
+               "Job %s must provide an argument for configuration file relative to " +
+                     "its working directory (e.g. 'config=./config/config.xml')",
+               id
+               ));
+      }
+      String configPath = simulator.getArgMap().get("config");
+      if (model.equals(MODEL_METABOLISM))
+      {
+         simulator.getInputProcessorFactory().addMetabolismBuilderInputProcessor(
+               workingDir, configPath
+               );
+      }
+      else
+      {
+         simulator.getInputProcessorFactory().addHyperUptakeBuilderInputProcessor(
+               workingDir, configPath
+               );
+      }
+      return simulator;
+   }
+
+}
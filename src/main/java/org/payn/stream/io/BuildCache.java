@@ -0,0 +1,530 @@
+package org.payn.stream.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Cache of the key of the configuration used for the last build of a
+ * model.  The key is a content hash of everything added to the cache,
+ * including the contents of files referenced by path attributes of
+ * configuration elements, so an unchanged configuration can reuse the
+ * model files from the previous build.
+ *
+ * A second structure key leaves out the values of patchable attributes,
+ * which only affect initial values that can be patched in an existing
+ * model.  A configuration that matches the structure key of the previous
+ * build only differs from it in patchable attributes.  Patchable attributes
+ * are named by the name of their element and the attribute name, separated
+ * by a slash (e.g. "dispersion/coefficient"), so an attribute with the same
+ * name on another element is still part of the structure.
+ *
+ * @author robpayn
+ *
+ */
+public class BuildCache {
+
+   /**
+    * Name of the file holding the key of the last build
+    */
+   public static final String CACHE_FILE_NAME = ".buildcache";
+
+   /**
+    * File holding the key of the last build
+    */
+   private File cacheFile;
+
+   /**
+    * Digest of the content added to the cache
+    */
+   private MessageDigest digest;
+
+   /**
+    * Digest of the content added to the cache, without the values
+    * of patchable attributes
+    */
+   private MessageDigest structureDigest;
+
+   /**
+    * Key of the current configuration, null until the digest is finished
+    */
+   private String key;
+
+   /**
+    * Structure key of the current configuration, null until 
+    * the digest is finished
+    */
+   private String structureKey;
+
+   /**
+    * Element and attribute names of the patchable attributes
+    */
+   private Set<String> patchableAttributes;
+
+   /**
+    * Construct a new cache that stores its key in the provided directory
+    *
+    * @param directory
+    *       directory of the model files
+    * @throws Exception
+    *       if the hash algorithm is not available
+    */
+   public BuildCache(File directory) throws Exception
+   {
+      this(directory, Collections.<String>emptySet());
+   }
+
+   /**
+    * Construct a new cache that stores its keys in the provided directory,
+    * leaving the provided attributes out of the structure key
+    *
+    * @param directory
+    *       directory of the model files
+    * @param patchableAttributes
+    *       element and attribute names of the patchable attributes,
+    *       separated by a slash
+    * @throws Exception
+    *       if the hash algorithm is not available
+    */
+   public BuildCache(File directory, Set<String> patchableAttributes) throws Exception
+   {
+      this.cacheFile = new File(directory, CACHE_FILE_NAME);
+      this.digest = MessageDigest.getInstance("SHA-256");
+      this.structureDigest = MessageDigest.getInstance("SHA-256");
+      this.patchableAttributes = patchableAttributes;
+   }
+
+   /**
+    * Add a string to the key
+    *
+    * @param value
+    *       string to add, may be null
+    */
+   public void addString(String value)
+   {
+      addString(value, true);
+   }
+
+   /**
+    * Add a string to the key, and to the structure key if requested
+    *
+    * @param value
+    *       string to add, may be null
+    * @param isStructure
+    *       true if the string is also added to the structure key
+    */
+   private void addString(String value, boolean isStructure)
+   {
+      if (value == null)
+      {
+         update(new byte[] {0}, 0, 1, isStructure);
+      }
+      else
+      {
+         byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+         addLength(bytes.length, isStructure);
+         update(bytes, 0, bytes.length, isStructure);
+      }
+   }
+
+   /**
+    * Add the contents of a file to the key
+    *
+    * @param file
+    *       file to add
+    * @throws Exception
+    *       if error in reading the file
+    */
+   public void addFile(File file) throws Exception
+   {
+      addFile(file, true);
+   }
+
+   /**
+    * Add the contents of a file to the key, and to the structure
+    * key if requested
+    *
+    * @param file
+    *       file to add
+    * @param isStructure
+    *       true if the contents are also added to the structure key
+    * @throws Exception
+    *       if error in reading the file
+    */
+   private void addFile(File file, boolean isStructure) throws Exception
+   {
+      addLength(file.length(), isStructure);
+      InputStream input = new FileInputStream(file);
+      try
+      {
+         byte[] buffer = new byte[1 << 16];
+         int count;
+         while ((count = input.read(buffer)) >= 0)
+         {
+            update(buffer, 0, count, isStructure);
+         }
+      }
+      finally
+      {
+         input.close();
+      }
+   }
+
+   /**
+    * Add an element with its attributes and child elements to the key.
+    * Attributes are added in name order, so the key does not depend on
+    * the attribute order in the configuration file.  The contents of
+    * files referenced by path attributes are added if the files exist.
+    *
+    * @param element
+    *       element to add
+    * @param baseDirs
+    *       directories used to resolve relative paths, in order
+    * @throws Exception
+    *       if error in reading a referenced file
+    */
+   public void addElement(Element element, File... baseDirs) throws Exception
+   {
+      addString(element.getNodeName());
+      NamedNodeMap attributes = element.getAttributes();
+      Attr[] sorted = new Attr[attributes.getLength()];
+      for (int i = 0; i < sorted.length; i++)
+      {
+         sorted[i] = (Attr)attributes.item(i);
+      }
+      Arrays.sort(sorted, new Comparator<Attr>() {
+         @Override
+         public int compare(Attr a, Attr b)
+         {
+            return a.getName().compareTo(b.getName());
+         }
+      });
+      for (Attr attribute: sorted)
+      {
+         addAttribute(
+               element.getNodeName(), attribute.getName(), attribute.getValue(), baseDirs);
+      }
+      for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+      {
+         if (child.getNodeType() == Node.ELEMENT_NODE)
+         {
+            addElement((Element)child, baseDirs);
+         }
+         else if (child.getNodeType() == Node.TEXT_NODE
+               && child.getNodeValue().trim().length() > 0)
+         {
+            addString(child.getNodeValue().trim());
+         }
+      }
+      // Mark the end of the child list
+      update(new byte[] {0}, 0, 1, true);
+   }
+
+   /**
+    * Add a named configuration value that is not part of an element
+    * to the key, and to the structure key.  The contents of files
+    * referenced by path attributes are added.
+    *
+    * @param name
+    *       attribute name
+    * @param value
+    *       attribute value, may be null
+    * @param baseDirs
+    *       directories used to resolve relative paths, in order
+    * @throws Exception
+    *       if error in reading a referenced file
+    */
+   public void addAttribute(String name, String value, File... baseDirs) throws Exception
+   {
+      addAttribute(name, value, true, baseDirs);
+   }
+
+   /**
+    * Add an attribute of a configuration element to the key.  Values
+    * of attributes that can be patched are left out of the structure
+    * key, and the contents of files referenced by path attributes are
+    * added.
+    *
+    * @param element
+    *       element name
+    * @param name
+    *       attribute name
+    * @param value
+    *       attribute value, may be null
+    * @param baseDirs
+    *       directories used to resolve relative paths, in order
+    * @throws Exception
+    *       if error in reading a referenced file
+    */
+   public void addAttribute(String element, String name, String value, File... baseDirs)
+         throws Exception
+   {
+      addAttribute(name, value, !patchableAttributes.contains(element + "/" + name), baseDirs);
+   }
+
+   /**
+    * Add a named configuration value to the key, and to the structure
+    * key if requested
+    *
+    * @param name
+    *       attribute name
+    * @param value
+    *       attribute value, may be null
+    * @param isStructure
+    *       true if the value is also added to the structure key
+    * @param baseDirs
+    *       directories used to resolve relative paths, in order
+    * @throws Exception
+    *       if error in reading a referenced file
+    */
+   private void addAttribute(String name, String value, boolean isStructure, File... baseDirs)
+         throws Exception
+   {
+      addString(name);
+      addString(value, isStructure);
+      if (value != null && isPathAttribute(name))
+      {
+         File file = resolve(value, baseDirs);
+         if (file != null)
+         {
+            addFile(file, isStructure);
+         }
+      }
+   }
+
+   /**
+    * Get the key of the configuration added to the cache.
+    * No content can be added after the key is created.
+    *
+    * @return
+    *       hexadecimal key
+    */
+   public String getKey()
+   {
+      if (key == null)
+      {
+         key = toHex(digest.digest());
+      }
+      return key;
+   }
+
+   /**
+    * Get the structure key of the configuration added to the cache.
+    * No content can be added after the key is created.
+    *
+    * @return
+    *       hexadecimal structure key
+    */
+   public String getStructureKey()
+   {
+      if (structureKey == null)
+      {
+         structureKey = toHex(structureDigest.digest());
+      }
+      return structureKey;
+   }
+
+   /**
+    * Determine if the model files were built with the current configuration
+    *
+    * @param outputs
+    *       model files that must exist to reuse the build
+    * @return
+    *       true if the stored key matches and all outputs exist, false otherwise
+    * @throws Exception
+    *       if error in reading the stored key
+    */
+   public boolean isCurrent(File... outputs) throws Exception
+   {
+      String[] storedKeys = readStoredKeys(outputs);
+      return storedKeys != null && storedKeys[0].equals(getKey());
+   }
+
+   /**
+    * Determine if the model files were built with a configuration that
+    * differs from the current configuration in patchable attributes only
+    *
+    * @param outputs
+    *       model files that must exist to patch the build
+    * @return
+    *       true if the stored structure key matches and all outputs exist,
+    *       false otherwise
+    * @throws Exception
+    *       if error in reading the stored keys
+    */
+   public boolean isStructureCurrent(File... outputs) throws Exception
+   {
+      String[] storedKeys = readStoredKeys(outputs);
+      return storedKeys != null && storedKeys.length > 1 
+            && storedKeys[1].equals(getStructureKey());
+   }
+
+   /**
+    * Read the keys stored by the last build
+    *
+    * @param outputs
+    *       model files that must exist for the keys to be valid
+    * @return
+    *       stored keys, null if there are no keys or an output is missing
+    * @throws Exception
+    *       if error in reading the stored keys
+    */
+   private String[] readStoredKeys(File... outputs) throws Exception
+   {
+      if (!cacheFile.exists())
+      {
+         return null;
+      }
+      for (File output: outputs)
+      {
+         if (!output.exists())
+         {
+            return null;
+         }
+      }
+      return new String(
+            Files.readAllBytes(cacheFile.toPath()), StandardCharsets.UTF_8
+            ).trim().split("\\s+");
+   }
+
+   /**
+    * Remove the stored key before the model files are rebuilt,
+    * so a failed build is not reused
+    */
+   public void invalidate()
+   {
+      cacheFile.delete();
+   }
+
+   /**
+    * Store the key after the model files are built
+    *
+    * @throws Exception
+    *       if error in writing the key
+    */
+   public void store() throws Exception
+   {
+      cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+      Files.write(
+            cacheFile.toPath(), 
+            (getKey() + "\n" + getStructureKey() + "\n").getBytes(StandardCharsets.UTF_8)
+            );
+   }
+
+   /**
+    * Add a length to the digests to separate variable length content
+    *
+    * @param length
+    *       length to add
+    * @param isStructure
+    *       true if the length is also added to the structure digest
+    */
+   private void addLength(long length, boolean isStructure)
+   {
+      byte[] bytes = new byte[8];
+      for (int i = 0; i < 8; i++)
+      {
+         bytes[i] = (byte)(length >>> (56 - 8 * i));
+      }
+      update(bytes, 0, 8, isStructure);
+   }
+
+   /**
+    * Update the digests
+    *
+    * @param bytes
+    *       bytes to add
+    * @param offset
+    *       offset of the first byte
+    * @param length
+    *       number of bytes
+    * @param isStructure
+    *       true if the bytes are also added to the structure digest
+    */
+   private void update(byte[] bytes, int offset, int length, boolean isStructure)
+   {
+      digest.update(bytes, offset, length);
+      if (isStructure)
+      {
+         structureDigest.update(bytes, offset, length);
+      }
+   }
+
+   /**
+    * Convert a digest to a hexadecimal string
+    *
+    * @param bytes
+    *       digest
+    * @return
+    *       hexadecimal string
+    */
+   private static String toHex(byte[] bytes)
+   {
+      StringBuilder builder = new StringBuilder();
+      for (byte b: bytes)
+      {
+         builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+         builder.append(Character.forDigit(b & 0xF, 16));
+      }
+      return builder.toString();
+   }
+
+   /**
+    * Determine if an attribute holds the path to a file
+    *
+    * @param name
+    *       attribute name
+    * @return
+    *       true if the attribute is a path attribute, false otherwise
+    */
+   private static boolean isPathAttribute(String name)
+   {
+      String lowerName = name.toLowerCase();
+      return lowerName.endsWith("path") || lowerName.endsWith("file");
+   }
+
+   /**
+    * Resolve a path against the provided directories
+    *
+    * @param path
+    *       absolute or relative path
+    * @param baseDirs
+    *       directories used to resolve relative paths, in order
+    * @return
+    *       existing file, null if the path does not resolve to a file
+    */
+   private static File resolve(String path, File... baseDirs)
+   {
+      if (path.isEmpty())
+      {
+         return null;
+      }
+      File file = new File(path);
+      if (file.isAbsolute())
+      {
+         return file.isFile() ? file : null;
+      }
+      for (File baseDir: baseDirs)
+      {
+         file = new File(baseDir, path);
+         if (file.isFile())
+         {
+            return file;
+         }
+      }
+      return null;
+   }
+
+}
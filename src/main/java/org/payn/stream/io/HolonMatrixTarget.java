@@ -0,0 +1,195 @@
+package org.payn.stream.io;
+
+import org.payn.chsm.resources.Behavior;
+
+/**
+ * Target for the holons, behaviors, and initial values produced
+ * by a NEOCH model builder
+ *
+ * @author robpayn
+ *
+ */
+public interface HolonMatrixTarget {
+
+   /**
+    * Target for a holon in the matrix
+    *
+    * @author robpayn
+    *
+    */
+   public interface HolonTarget {
+
+      /**
+       * Get the name of the holon
+       *
+       * @return
+       *       holon name
+       */
+      String getName();
+
+      /**
+       * Get the matrix target that created the holon
+       *
+       * @return
+       *       matrix target
+       */
+      HolonMatrixTarget getMatrixTarget();
+
+      /**
+       * Install a behavior in the holon
+       *
+       * @param behavior
+       *       behavior to install
+       * @return
+       *       target for the initial values of the behavior
+       */
+      BehaviorTarget createBehavior(Behavior behavior);
+
+   }
+
+   /**
+    * Target for a boundary in the matrix
+    *
+    * @author robpayn
+    *
+    */
+   public interface BoundaryTarget extends HolonTarget {
+
+      /**
+       * Create the boundary adjacent to this boundary
+       *
+       * @param name
+       *       name of the adjacent boundary
+       * @param cellName
+       *       name of the cell attached to the adjacent boundary
+       * @return
+       *       target for the adjacent boundary
+       */
+      BoundaryTarget createAdjacent(String name, String cellName);
+
+      /**
+       * Create the boundary adjacent to this boundary
+       *
+       * @param name
+       *       name of the adjacent boundary
+       * @param cell
+       *       target for the cell attached to the adjacent boundary,
+       *       created by the same matrix target
+       * @return
+       *       target for the adjacent boundary
+       */
+      BoundaryTarget createAdjacent(String name, HolonTarget cell);
+
+      /**
+       * Get the boundary adjacent to this boundary
+       *
+       * @return
+       *       target for the adjacent boundary, null if there is none
+       */
+      BoundaryTarget getAdjacent();
+
+   }
+
+   /**
+    * Target for the initial values of a behavior
+    *
+    * @author robpayn
+    *
+    */
+   public interface BehaviorTarget {
+
+      /**
+       * Create an initial value for a state
+       *
+       * @param name
+       *       name of the state
+       * @param value
+       *       initial value as a string
+       */
+      void createInitValue(String name, String value);
+
+      /**
+       * Create a numeric initial value for a state
+       *
+       * @param name
+       *       name of the state
+       * @param value
+       *       initial value
+       */
+      void createInitValue(String name, double value);
+
+      /**
+       * Set the table of initial values for the behavior
+       *
+       * @param path
+       *       path to the table
+       * @param delimiter
+       *       column delimiter in the table
+       */
+      void setInitTable(String path, String delimiter);
+
+   }
+
+   /**
+    * Get the target for the root holon of the matrix
+    *
+    * @return
+    *       root holon target
+    */
+   HolonTarget getRootHolon();
+
+   /**
+    * Create the default initial values for a behavior
+    *
+    * @param behavior
+    *       behavior with default values
+    * @return
+    *       target for the default initial values
+    */
+   BehaviorTarget createDefaultBehavior(Behavior behavior);
+
+   /**
+    * Create a cell
+    *
+    * @param name
+    *       name of the cell
+    * @return
+    *       target for the cell
+    */
+   HolonTarget createCell(String name);
+
+   /**
+    * Create a boundary
+    *
+    * @param name
+    *       name of the boundary
+    * @param cellName
+    *       name of the cell attached to the boundary
+    * @return
+    *       target for the boundary
+    */
+   BoundaryTarget createBoundary(String name, String cellName);
+
+   /**
+    * Create a boundary
+    *
+    * @param name
+    *       name of the boundary
+    * @param cell
+    *       target for the cell attached to the boundary,
+    *       created by this matrix target
+    * @return
+    *       target for the boundary
+    */
+   BoundaryTarget createBoundary(String name, HolonTarget cell);
+
+   /**
+    * Signal that all holons created so far, including their behaviors
+    * and initial values, are complete and will not be modified
+    *
+    * @throws Exception
+    *       if error in committing the holons
+    */
+   void commit() throws Exception;
+
+}
@@ -0,0 +1,248 @@
+package org.payn.stream.io;
+
+import org.payn.chsm.resources.Behavior;
+
+/**
+ * Holon matrix target that fills an in-memory matrix definition
+ *
+ * @author robpayn
+ *
+ */
+public class HolonMatrixTargetDefinition implements HolonMatrixTarget {
+
+   /**
+    * Holon target for a holon in the definition
+    *
+    * @author robpayn
+    *
+    */
+   private class HolonTargetDefinition implements HolonTarget {
+
+      /**
+       * Index of the holon in the definition
+       */
+      protected int holon;
+
+      /**
+       * Construct a new instance for the provided holon index
+       *
+       * @param holon
+       *       index of the holon
+       */
+      public HolonTargetDefinition(int holon)
+      {
+         this.holon = holon;
+      }
+
+      @Override
+      public String getName()
+      {
+         return definition.getHolonName(holon);
+      }
+
+      @Override
+      public HolonMatrixTarget getMatrixTarget()
+      {
+         return HolonMatrixTargetDefinition.this;
+      }
+
+      @Override
+      public BehaviorTarget createBehavior(Behavior behavior)
+      {
+         return new BehaviorTargetDefinition(definition.addBehavior(holon, behavior));
+      }
+
+   }
+
+   /**
+    * Boundary target for a boundary in the definition
+    *
+    * @author robpayn
+    *
+    */
+   private class BoundaryTargetDefinition extends HolonTargetDefinition
+         implements BoundaryTarget {
+
+      /**
+       * Construct a new instance for the provided boundary index
+       *
+       * @param holon
+       *       index of the boundary
+       */
+      public BoundaryTargetDefinition(int holon)
+      {
+         super(holon);
+      }
+
+      @Override
+      public BoundaryTarget createAdjacent(String name, String cellName)
+      {
+         int adjacent = definition.addBoundary(
+               name,
+               definition.getHolonIndex(cellName)
+               );
+         definition.setAdjacent(holon, adjacent);
+         return new BoundaryTargetDefinition(adjacent);
+      }
+
+      @Override
+      public BoundaryTarget createAdjacent(String name, HolonTarget cell)
+      {
+         int adjacent = definition.addBoundary(
+               name,
+               ((HolonTargetDefinition)cell).holon
+               );
+         definition.setAdjacent(holon, adjacent);
+         return new BoundaryTargetDefinition(adjacent);
+      }
+
+      @Override
+      public BoundaryTarget getAdjacent()
+      {
+         int adjacent = definition.getHolonAdjacent(holon);
+         if (adjacent == MatrixDefinition.NONE)
+         {
+            return null;
+         }
+         return new BoundaryTargetDefinition(adjacent);
+      }
+
+   }
+
+   /**
+    * Behavior target for a behavior assignment in the definition
+    *
+    * @author robpayn
+    *
+    */
+   private class BehaviorTargetDefinition implements BehaviorTarget {
+
+      /**
+       * Index of the behavior assignment in the definition
+       */
+      private int behavior;
+
+      /**
+       * Construct a new instance for the provided behavior assignment
+       *
+       * @param behavior
+       *       index of the behavior assignment
+       */
+      public BehaviorTargetDefinition(int behavior)
+      {
+         this.behavior = behavior;
+      }
+
+      @Override
+      public void createInitValue(String name, String value)
+      {
+         definition.addInitValue(behavior, name, value);
+      }
+
+      @Override
+      public void createInitValue(String name, double value)
+      {
+         definition.addInitValue(behavior, name, value);
+      }
+
+      @Override
+      public void setInitTable(String path, String delimiter)
+      {
+         definition.setInitTable(behavior, path, delimiter);
+      }
+
+   }
+
+   /**
+    * Matrix definition being filled
+    */
+   private MatrixDefinition definition;
+
+   /**
+    * Target for the root holon
+    */
+   private HolonTargetDefinition rootHolon;
+
+   /**
+    * Construct a new instance that fills the provided definition
+    *
+    * @param definition
+    *       matrix definition
+    */
+   public HolonMatrixTargetDefinition(MatrixDefinition definition)
+   {
+      this.definition = definition;
+      this.rootHolon = new HolonTargetDefinition(MatrixDefinition.HOLON_ROOT);
+   }
+
+   /**
+    * Get the matrix definition
+    *
+    * @return
+    *       matrix definition
+    */
+   public MatrixDefinition getDefinition()
+   {
+      return definition;
+   }
+
+   /**
+    * Get the target for an existing holon in the definition
+    *
+    * @param holon
+    *       index of the holon
+    * @return
+    *       target for the holon, a boundary target for a boundary
+    */
+   public HolonTarget getHolon(int holon)
+   {
+      if (definition.getHolonType(holon) == MatrixDefinition.TYPE_BOUNDARY)
+      {
+         return new BoundaryTargetDefinition(holon);
+      }
+      return new HolonTargetDefinition(holon);
+   }
+
+   @Override
+   public HolonTarget getRootHolon()
+   {
+      return rootHolon;
+   }
+
+   @Override
+   public BehaviorTarget createDefaultBehavior(Behavior behavior)
+   {
+      return new BehaviorTargetDefinition(
+            definition.addBehavior(MatrixDefinition.HOLON_DEFAULT, behavior)
+            );
+   }
+
+   @Override
+   public HolonTarget createCell(String name)
+   {
+      return new HolonTargetDefinition(definition.addCell(name));
+   }
+
+   @Override
+   public BoundaryTarget createBoundary(String name, String cellName)
+   {
+      return new BoundaryTargetDefinition(
+            definition.addBoundary(name, definition.getHolonIndex(cellName))
+            );
+   }
+
+   @Override
+   public BoundaryTarget createBoundary(String name, HolonTarget cell)
+   {
+      return new BoundaryTargetDefinition(
+            definition.addBoundary(name, ((HolonTargetDefinition)cell).holon)
+            );
+   }
+
+   @Override
+   public void commit() throws Exception
+   {
+      // The definition holds all holons in memory
+   }
+
+}
@@ -0,0 +1,763 @@
+package org.payn.stream.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.payn.chsm.io.xmltools.ElementHolon;
+import org.payn.neoch.io.xmltools.DocumentHolonMatrix;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Holon matrix target that streams committed cell and boundary elements
+ * to disk with a StAX writer and removes them from the holon XML document.
+ * Memory use of the builder is therefore independent of the number of cells.
+ * The holon XML files are written by the holon document as usual,
+ * and the streamed elements are spliced back into the files written
+ * for their owner documents.  The file of the holon document is known
+ * from the holon file, and the file of any other owner document is
+ * found by the marker on its document element, reading each file only
+ * up to its document element.  Files are spliced as byte streams, so
+ * neither the written files nor the fragments are held in memory.
+ *
+ * @author robpayn
+ *
+ */
+public class HolonMatrixTargetStAX extends HolonMatrixTargetXML {
+
+   /**
+    * Attribute used to mark the root element of a document with
+    * streamed elements until the document is written
+    */
+   private static final String ATTRIBUTE_MARKER = "streamFragment";
+
+   /**
+    * Number of spaces per level of indentation
+    */
+   private static final String INDENT = "   ";
+
+   /**
+    * Largest number of bytes read from the start of a file to find
+    * its document element
+    */
+   private static final int MAX_HEAD_BYTES = 1 << 16;
+
+   /**
+    * Number of bytes read from the end of a file to find the end
+    * tag of its document element
+    */
+   private static final int TAIL_BYTES = 4096;
+
+   /**
+    * Start tag of the document element of a written file, with the
+    * location of the marker of a fragment
+    *
+    * @author robpayn
+    *
+    */
+   private static class RootTag {
+
+      /**
+       * Name of the document element
+       */
+      private String name;
+
+      /**
+       * Offset of the marker attribute in the file
+       */
+      private long markerStart;
+
+      /**
+       * Offset after the marker attribute
+       */
+      private long markerEnd;
+
+      /**
+       * Offset after the end of the start tag
+       */
+      private long end;
+
+      /**
+       * True if the document element is an empty element
+       */
+      private boolean isEmpty;
+
+   }
+
+   /**
+    * Stream of elements removed from one owner document
+    *
+    * @author robpayn
+    *
+    */
+   private class FragmentStream {
+
+      /**
+       * Identifier for the fragment
+       */
+      private String id;
+
+      /**
+       * Temporary file holding the fragment
+       */
+      private File file;
+
+      /**
+       * Character writer for the fragment file
+       */
+      private Writer writer;
+
+      /**
+       * StAX writer for the fragment
+       */
+      private XMLStreamWriter xmlWriter;
+
+      /**
+       * True if the fragment file is closed
+       */
+      private boolean isClosed;
+
+      /**
+       * Construct a new fragment stream for the provided document
+       *
+       * @param document
+       *       owner document of the streamed elements
+       * @param id
+       *       identifier for the fragment
+       * @throws Exception
+       *       if error in opening the fragment file
+       */
+      public FragmentStream(Document document, String id) throws Exception
+      {
+         this.id = id;
+         file = File.createTempFile("holon_" + id + "_", ".tmp", directory);
+         writer = new BufferedWriter(new OutputStreamWriter(
+               new FileOutputStream(file), StandardCharsets.UTF_8
+               ));
+         xmlWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+         document.getDocumentElement().setAttribute(ATTRIBUTE_MARKER, id);
+      }
+
+      /**
+       * Write an element and its content to the fragment
+       *
+       * @param element
+       *       element to write
+       * @throws XMLStreamException
+       *       if error in writing the element
+       */
+      public void write(Element element) throws XMLStreamException
+      {
+         writeNode(element, 1);
+         xmlWriter.writeCharacters("\n");
+      }
+
+      /**
+       * Write a node to the fragment recursively
+       *
+       * @param node
+       *       node to write
+       * @param depth
+       *       depth below the document element
+       * @throws XMLStreamException
+       *       if error in writing the node
+       */
+      private void writeNode(Node node, int depth) throws XMLStreamException
+      {
+         switch(node.getNodeType())
+         {
+            case Node.ELEMENT_NODE:
+               indent(depth);
+               boolean hasContent = false;
+               for (Node child = node.getFirstChild(); child != null;
+                     child = child.getNextSibling())
+               {
+                  if (child.getNodeType() == Node.ELEMENT_NODE
+                        || child.getNodeType() == Node.TEXT_NODE
+                        && child.getNodeValue().trim().length() > 0)
+                  {
+                     hasContent = true;
+                     break;
+                  }
+               }
+               if (hasContent)
+               {
+                  xmlWriter.writeStartElement(node.getNodeName());
+               }
+               else
+               {
+                  xmlWriter.writeEmptyElement(node.getNodeName());
+               }
+               NamedNodeMap attributes = node.getAttributes();
+               for (int i = 0; i < attributes.getLength(); i++)
+               {
+                  Attr attribute = (Attr)attributes.item(i);
+                  xmlWriter.writeAttribute(attribute.getName(), attribute.getValue());
+               }
+               if (hasContent)
+               {
+                  boolean hasElements = false;
+                  for (Node child = node.getFirstChild(); child != null;
+                        child = child.getNextSibling())
+                  {
+                     hasElements |= child.getNodeType() == Node.ELEMENT_NODE;
+                     writeNode(child, depth + 1);
+                  }
+                  if (hasElements)
+                  {
+                     indent(depth);
+                  }
+                  xmlWriter.writeEndElement();
+               }
+               break;
+            case Node.TEXT_NODE:
+               if (node.getNodeValue().trim().length() > 0)
+               {
+                  xmlWriter.writeCharacters(node.getNodeValue());
+               }
+               break;
+            case Node.CDATA_SECTION_NODE:
+               xmlWriter.writeCData(node.getNodeValue());
+               break;
+            case Node.COMMENT_NODE:
+               xmlWriter.writeComment(node.getNodeValue());
+               break;
+         }
+      }
+
+      /**
+       * Write a new line and indentation
+       *
+       * @param depth
+       *       level of indentation
+       * @throws XMLStreamException
+       *       if error in writing
+       */
+      private void indent(int depth) throws XMLStreamException
+      {
+         StringBuilder builder = new StringBuilder("\n");
+         for (int i = 0; i < depth; i++)
+         {
+            builder.append(INDENT);
+         }
+         xmlWriter.writeCharacters(builder.toString());
+      }
+
+      /**
+       * Close the fragment file
+       *
+       * @throws Exception
+       *       if error in closing the file
+       */
+      public void close() throws Exception
+      {
+         if (isClosed)
+         {
+            return;
+         }
+         isClosed = true;
+         try
+         {
+            xmlWriter.flush();
+            xmlWriter.close();
+         }
+         finally
+         {
+            writer.close();
+         }
+      }
+
+      /**
+       * Close and delete the fragment file
+       */
+      public void discard()
+      {
+         try
+         {
+            close();
+         }
+         catch (Exception e)
+         {
+            // The file is deleted anyway
+         }
+         file.delete();
+      }
+
+   }
+
+   /**
+    * Directory where the holon files are written
+    */
+   private File directory;
+
+   /**
+    * Name of the file written for the holon document
+    */
+   private String holonFileName;
+
+   /**
+    * Holon elements created since the last commit
+    */
+   private ArrayList<Element> createdElements;
+
+   /**
+    * Fragment streams for each owner document
+    */
+   private LinkedHashMap<Document, FragmentStream> fragmentMap;
+
+   /**
+    * Construct a new instance creating a document for the
+    * provided holon file
+    *
+    * @param holonFile
+    *       holon file for the document
+    * @throws Exception
+    *       if error in creating the document
+    */
+   public HolonMatrixTargetStAX(File holonFile) throws Exception
+   {
+      this(new DocumentHolonMatrix(holonFile.getName()), holonFile);
+   }
+
+   /**
+    * Construct a new instance that creates elements in the
+    * provided document
+    *
+    * @param documentHolon
+    *       holon XML document
+    * @param holonFile
+    *       holon file for the document
+    */
+   public HolonMatrixTargetStAX(DocumentHolonMatrix documentHolon, File holonFile)
+   {
+      super(documentHolon);
+      this.directory = holonFile.getAbsoluteFile().getParentFile();
+      this.directory.mkdirs();
+      this.holonFileName = holonFile.getName();
+      this.createdElements = new ArrayList<Element>();
+      this.fragmentMap = new LinkedHashMap<Document, FragmentStream>();
+   }
+
+   @Override
+   protected void holonCreated(ElementHolon element)
+   {
+      createdElements.add(element.getElement());
+   }
+
+   @Override
+   public void commit() throws Exception
+   {
+      IdentityHashMap<Element, Element> streamed = new IdentityHashMap<Element, Element>();
+      for (Element element: createdElements)
+      {
+         // Stream the ancestor that is a direct child of the document element
+         Node topLevel = element;
+         while (topLevel.getParentNode() != null
+               && topLevel.getParentNode().getParentNode() != null
+               && topLevel.getParentNode().getParentNode().getNodeType() != Node.DOCUMENT_NODE)
+         {
+            topLevel = topLevel.getParentNode();
+         }
+         if (topLevel.getParentNode() == null || streamed.containsKey(topLevel))
+         {
+            continue;
+         }
+         Element topElement = (Element)topLevel;
+         streamed.put(topElement, topElement);
+         Document document = topElement.getOwnerDocument();
+         FragmentStream fragment = fragmentMap.get(document);
+         if (fragment == null)
+         {
+            fragment = new FragmentStream(document, Integer.toString(fragmentMap.size()));
+            fragmentMap.put(document, fragment);
+         }
+         fragment.write(topElement);
+         topElement.getParentNode().removeChild(topElement);
+      }
+      createdElements.clear();
+   }
+
+   @Override
+   public void write(File holonFile) throws Exception
+   {
+      try
+      {
+         commit();
+         for (FragmentStream fragment: fragmentMap.values())
+         {
+            fragment.close();
+         }
+         super.write(holonFile);
+         File writeDir = holonFile.getAbsoluteFile().getParentFile();
+         Document holonDocument =
+               documentHolon.getRootHolonElement().getElement().getOwnerDocument();
+         for (Map.Entry<Document, FragmentStream> entry: fragmentMap.entrySet())
+         {
+            FragmentStream fragment = entry.getValue();
+            String marker = String.format(" %s=\"%s\"", ATTRIBUTE_MARKER, fragment.id);
+            File file = null;
+            RootTag tag = null;
+            if (entry.getKey() == holonDocument)
+            {
+               file = new File(writeDir, holonFileName);
+               tag = readRootTag(file, marker);
+            }
+            else
+            {
+               File[] files = writeDir.listFiles();
+               for (int i = 0; tag == null && files != null && i < files.length; i++)
+               {
+                  file = files[i];
+                  if (file.isFile() && !isFragmentFile(file))
+                  {
+                     tag = readRootTag(file, marker);
+                  }
+               }
+            }
+            if (tag == null)
+            {
+               throw new Exception(String.format(
+                     "Could not find the holon file for streamed fragment %s",
+                     fragment.id
+                     ));
+            }
+            splice(file, tag, fragment);
+         }
+      }
+      finally
+      {
+         discard();
+      }
+   }
+
+   @Override
+   public void discard()
+   {
+      for (Map.Entry<Document, FragmentStream> entry: fragmentMap.entrySet())
+      {
+         entry.getValue().discard();
+         entry.getKey().getDocumentElement().removeAttribute(ATTRIBUTE_MARKER);
+      }
+      fragmentMap.clear();
+      createdElements.clear();
+   }
+
+   /**
+    * Determine if a file is the file of a fragment stream
+    *
+    * @param file
+    *       file in the holon directory
+    * @return
+    *       true if the file holds a fragment, false otherwise
+    */
+   private boolean isFragmentFile(File file)
+   {
+      for (FragmentStream fragment: fragmentMap.values())
+      {
+         if (fragment.file.getAbsoluteFile().equals(file.getAbsoluteFile()))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Read the start tag of the document element of a written file,
+    * reading no further than the end of the tag
+    *
+    * @param file
+    *       written file
+    * @param marker
+    *       marker attribute of a fragment
+    * @return
+    *       start tag, null if the file is not an XML file or its
+    *       document element does not have the marker
+    * @throws Exception
+    *       if error in reading the file
+    */
+   private static RootTag readRootTag(File file, String marker) throws Exception
+   {
+      if (!file.isFile())
+      {
+         return null;
+      }
+      InputStream input = new BufferedInputStream(new FileInputStream(file));
+      try
+      {
+         // Skip the byte order mark, declaration, comments, and white space
+         long position = 0;
+         int c = input.read();
+         while (true)
+         {
+            while (c == 0xEF || c == 0xBB || c == 0xBF || c == ' ' || c == '\t'
+                  || c == '\r' || c == '\n')
+            {
+               c = input.read();
+               position++;
+            }
+            if (c != '<' || position > MAX_HEAD_BYTES)
+            {
+               return null;
+            }
+            input.mark(4);
+            int next = input.read();
+            if (next != '?' && next != '!')
+            {
+               input.reset();
+               break;
+            }
+            position++;
+            boolean isComment = false;
+            if (next == '!')
+            {
+               input.mark(2);
+               isComment = input.read() == '-' && input.read() == '-';
+               if (isComment)
+               {
+                  position += 2;
+               }
+               else
+               {
+                  input.reset();
+               }
+            }
+            int last = 0;
+            int beforeLast = 0;
+            for (c = input.read(); c >= 0; c = input.read())
+            {
+               position++;
+               if (c == '>' && (!isComment || last == '-' && beforeLast == '-'))
+               {
+                  break;
+               }
+               beforeLast = last;
+               last = c;
+            }
+            c = input.read();
+            position++;
+         }
+
+         // Read the start tag of the document element as single byte
+         // characters, so offsets in the tag are offsets in the file
+         long start = position;
+         ByteArrayOutputStream tag = new ByteArrayOutputStream();
+         tag.write(c);
+         int quote = 0;
+         for (c = input.read(); c >= 0; c = input.read())
+         {
+            tag.write(c);
+            if (tag.size() > MAX_HEAD_BYTES)
+            {
+               return null;
+            }
+            if (quote != 0)
+            {
+               quote = c == quote ? 0 : quote;
+            }
+            else if (c == '"' || c == '\'')
+            {
+               quote = c;
+            }
+            else if (c == '>')
+            {
+               break;
+            }
+         }
+         String text = new String(tag.toByteArray(), StandardCharsets.ISO_8859_1);
+         int markerIndex = text.indexOf(marker);
+         if (c < 0 || markerIndex < 0)
+         {
+            return null;
+         }
+         RootTag rootTag = new RootTag();
+         rootTag.name = text.substring(1).split("[\\s/>]")[0];
+         rootTag.markerStart = start + markerIndex;
+         rootTag.markerEnd = rootTag.markerStart + marker.length();
+         rootTag.end = start + text.length();
+         rootTag.isEmpty = text.endsWith("/>");
+         return rootTag;
+      }
+      finally
+      {
+         input.close();
+      }
+   }
+
+   /**
+    * Find the end tag of the document element of a written file,
+    * reading only the end of the file
+    *
+    * @param file
+    *       written file
+    * @return
+    *       offset of the end tag
+    * @throws Exception
+    *       if the end of the file has no end tag
+    */
+   private static long findEndTag(File file) throws Exception
+   {
+      RandomAccessFile input = new RandomAccessFile(file, "r");
+      try
+      {
+         long length = input.length();
+         byte[] tail = new byte[(int)Math.min(length, TAIL_BYTES)];
+         input.seek(length - tail.length);
+         input.readFully(tail);
+         for (int i = tail.length - 2; i >= 0; i--)
+         {
+            if (tail[i] == '<' && tail[i + 1] == '/')
+            {
+               return length - tail.length + i;
+            }
+         }
+      }
+      finally
+      {
+         input.close();
+      }
+      throw new Exception(String.format(
+            "Could not find the end of the document element in %s",
+            file.getPath()
+            ));
+   }
+
+   /**
+    * Splice a fragment into a written file before the end tag of its
+    * document element, removing the marker of the fragment
+    *
+    * @param file
+    *       written file
+    * @param tag
+    *       start tag of the document element
+    * @param fragment
+    *       fragment to splice
+    * @throws Exception
+    *       if error in splicing
+    */
+   private void splice(File file, RootTag tag, FragmentStream fragment) throws Exception
+   {
+      long endTag = tag.isEmpty ? tag.end - 2 : findEndTag(file);
+      File splicedFile = File.createTempFile("holon_spliced_", ".tmp", directory);
+      try
+      {
+         OutputStream output = new BufferedOutputStream(new FileOutputStream(splicedFile));
+         InputStream input = new BufferedInputStream(new FileInputStream(file));
+         InputStream fragmentInput = new BufferedInputStream(
+               new FileInputStream(fragment.file));
+         try
+         {
+            copy(input, output, tag.markerStart);
+            skip(input, tag.markerEnd - tag.markerStart);
+            copy(input, output, endTag - tag.markerEnd);
+            if (tag.isEmpty)
+            {
+               // Replace the end of the empty element with an end tag after
+               // the fragment
+               skip(input, 2);
+               output.write('>');
+            }
+            copy(fragmentInput, output, -1);
+            if (tag.isEmpty)
+            {
+               output.write(("</" + tag.name + ">").getBytes(StandardCharsets.UTF_8));
+            }
+            copy(input, output, -1);
+         }
+         finally
+         {
+            fragmentInput.close();
+            input.close();
+            output.close();
+         }
+         Files.move(splicedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      finally
+      {
+         splicedFile.delete();
+      }
+   }
+
+   /**
+    * Copy bytes from an input stream to an output stream
+    *
+    * @param input
+    *       input stream
+    * @param output
+    *       output stream
+    * @param count
+    *       number of bytes to copy, negative to copy to the end
+    *       of the input
+    * @throws Exception
+    *       if the input ends before the bytes are copied
+    */
+   private static void copy(InputStream input, OutputStream output, long count)
+         throws Exception
+   {
+      byte[] buffer = new byte[8192];
+      while (count != 0)
+      {
+         int read = input.read(buffer, 0,
+               count < 0 ? buffer.length : (int)Math.min(count, buffer.length));
+         if (read < 0)
+         {
+            if (count < 0)
+            {
+               return;
+            }
+            throw new Exception("Holon file ended before the fragment was spliced");
+         }
+         output.write(buffer, 0, read);
+         if (count > 0)
+         {
+            count -= read;
+         }
+      }
+   }
+
+   /**
+    * Skip bytes of an input stream
+    *
+    * @param input
+    *       input stream
+    * @param count
+    *       number of bytes to skip
+    * @throws Exception
+    *       if the input ends before the bytes are skipped
+    */
+   private static void skip(InputStream input, long count) throws Exception
+   {
+      for (; count > 0; count--)
+      {
+         if (input.read() < 0)
+         {
+            throw new Exception("Holon file ended before the fragment was spliced");
+         }
+      }
+   }
+
+}
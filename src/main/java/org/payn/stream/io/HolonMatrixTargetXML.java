@@ -0,0 +1,279 @@
+package org.payn.stream.io;
+
+import java.io.File;
+
+import org.payn.chsm.io.xmltools.ElementBehavior;
+import org.payn.chsm.io.xmltools.ElementHolon;
+import org.payn.chsm.resources.Behavior;
+import org.payn.neoch.io.xmltools.DocumentHolonMatrix;
+import org.payn.neoch.io.xmltools.ElementBoundary;
+
+/**
+ * Holon matrix target that creates the elements of a
+ * holon XML document
+ *
+ * @author robpayn
+ *
+ */
+public class HolonMatrixTargetXML implements HolonMatrixTarget {
+
+   /**
+    * Holon target wrapping a holon XML element
+    *
+    * @author robpayn
+    *
+    */
+   protected class HolonTargetXML implements HolonTarget {
+
+      /**
+       * Holon XML element
+       */
+      protected ElementHolon element;
+
+      /**
+       * Construct a new instance wrapping the provided element
+       *
+       * @param element
+       *       holon XML element
+       */
+      public HolonTargetXML(ElementHolon element)
+      {
+         this.element = element;
+      }
+
+      @Override
+      public String getName()
+      {
+         return element.getName();
+      }
+
+      @Override
+      public HolonMatrixTarget getMatrixTarget()
+      {
+         return HolonMatrixTargetXML.this;
+      }
+
+      @Override
+      public BehaviorTarget createBehavior(Behavior behavior)
+      {
+         return new BehaviorTargetXML(element.createBehaviorElement(behavior));
+      }
+
+   }
+
+   /**
+    * Boundary target wrapping a boundary XML element
+    *
+    * @author robpayn
+    *
+    */
+   protected class BoundaryTargetXML extends HolonTargetXML implements BoundaryTarget {
+
+      /**
+       * Target for the adjacent boundary
+       */
+      private BoundaryTargetXML adjacent;
+
+      /**
+       * Construct a new instance wrapping the provided element
+       *
+       * @param element
+       *       boundary XML element
+       */
+      public BoundaryTargetXML(ElementBoundary element)
+      {
+         super(element);
+      }
+
+      @Override
+      public BoundaryTarget createAdjacent(String name, String cellName)
+      {
+         adjacent = new BoundaryTargetXML(
+               ((ElementBoundary)element).createAdjacentElement(name, cellName)
+               );
+         adjacent.adjacent = this;
+         holonCreated(adjacent.element);
+         return adjacent;
+      }
+
+      @Override
+      public BoundaryTarget createAdjacent(String name, HolonTarget cell)
+      {
+         return createAdjacent(name, cell.getName());
+      }
+
+      @Override
+      public BoundaryTarget getAdjacent()
+      {
+         return adjacent;
+      }
+
+   }
+
+   /**
+    * Behavior target wrapping a behavior XML element
+    *
+    * @author robpayn
+    *
+    */
+   protected class BehaviorTargetXML implements BehaviorTarget {
+
+      /**
+       * Behavior XML element
+       */
+      private ElementBehavior element;
+
+      /**
+       * Construct a new instance wrapping the provided element
+       *
+       * @param element
+       *       behavior XML element
+       */
+      public BehaviorTargetXML(ElementBehavior element)
+      {
+         this.element = element;
+      }
+
+      @Override
+      public void createInitValue(String name, String value)
+      {
+         element.createInitValueElement(name, value, null);
+      }
+
+      @Override
+      public void createInitValue(String name, double value)
+      {
+         element.createInitValueElement(name, Double.toString(value), null);
+      }
+
+      @Override
+      public void setInitTable(String path, String delimiter)
+      {
+         element.setInitTable(path, delimiter);
+      }
+
+   }
+
+   /**
+    * Holon XML document
+    */
+   protected DocumentHolonMatrix documentHolon;
+
+   /**
+    * Target for the root holon
+    */
+   private HolonTargetXML rootHolon;
+
+   /**
+    * Construct a new instance creating a document for the
+    * provided holon file
+    *
+    * @param holonFile
+    *       holon file for the document
+    * @throws Exception
+    *       if error in creating the document
+    */
+   public HolonMatrixTargetXML(File holonFile) throws Exception
+   {
+      this(new DocumentHolonMatrix(holonFile.getName()));
+   }
+
+   /**
+    * Construct a new instance that creates elements in the
+    * provided document
+    *
+    * @param documentHolon
+    *       holon XML document
+    */
+   public HolonMatrixTargetXML(DocumentHolonMatrix documentHolon)
+   {
+      this.documentHolon = documentHolon;
+      this.rootHolon = new HolonTargetXML(documentHolon.getRootHolonElement());
+   }
+
+   /**
+    * Get the holon XML document
+    *
+    * @return
+    *       holon XML document
+    */
+   public DocumentHolonMatrix getDocument()
+   {
+      return documentHolon;
+   }
+
+   @Override
+   public HolonTarget getRootHolon()
+   {
+      return rootHolon;
+   }
+
+   @Override
+   public BehaviorTarget createDefaultBehavior(Behavior behavior)
+   {
+      return new BehaviorTargetXML(documentHolon.createDefaultBehaviorElement(behavior));
+   }
+
+   @Override
+   public HolonTarget createCell(String name)
+   {
+      HolonTargetXML cell = new HolonTargetXML(documentHolon.createCellElement(name));
+      holonCreated(cell.element);
+      return cell;
+   }
+
+   @Override
+   public BoundaryTarget createBoundary(String name, String cellName)
+   {
+      BoundaryTargetXML boundary = 
+            new BoundaryTargetXML(documentHolon.createBoundaryElement(name, cellName));
+      holonCreated(boundary.element);
+      return boundary;
+   }
+
+   @Override
+   public BoundaryTarget createBoundary(String name, HolonTarget cell)
+   {
+      return createBoundary(name, cell.getName());
+   }
+
+   @Override
+   public void commit() throws Exception
+   {
+      // Elements are kept in the document until it is written
+   }
+
+   /**
+    * Called when a cell or boundary element is created
+    *
+    * @param element
+    *       holon XML element that was created
+    */
+   protected void holonCreated(ElementHolon element)
+   {
+      // No action needed when the whole document is held in memory
+   }
+
+   /**
+    * Write the holon XML files
+    *
+    * @param holonFile
+    *       location of the holon file
+    * @throws Exception
+    *       if error in writing the files
+    */
+   public void write(File holonFile) throws Exception
+   {
+      holonFile.getParentFile().mkdirs();
+      documentHolon.write(holonFile.getParentFile());
+   }
+
+   /**
+    * Remove any temporary files of the target, called after the
+    * files are written or when the build fails before they are
+    */
+   public void discard()
+   {
+   }
+
+}
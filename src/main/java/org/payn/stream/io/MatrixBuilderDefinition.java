@@ -0,0 +1,176 @@
+package org.payn.stream.io;
+
+import java.util.HashMap;
+
+import org.payn.chsm.Holon;
+import org.payn.neoch.HolonBoundary;
+import org.payn.neoch.HolonCell;
+import org.payn.neoch.HolonMatrix;
+import org.payn.neoch.io.MatrixBuilder;
+
+/**
+ * Matrix builder that builds a holon matrix directly from a
+ * matrix definition, without reading holon XML files.
+ *
+ * Behaviors are installed through {@link MatrixBuilder}, which takes
+ * the initial values of a behavior as a map of strings and parses them
+ * into the values of the states.  Numeric values of the definition are
+ * therefore formatted as strings here, for a definition read into
+ * memory or mapped from a snapshot alike.
+ *
+ * @author robpayn
+ *
+ */
+public class MatrixBuilderDefinition extends MatrixBuilder {
+
+   /**
+    * Matrix definition to build
+    */
+   protected MatrixDefinitionView definition;
+
+   /**
+    * Matrix being built
+    */
+   private HolonMatrix matrix;
+
+   /**
+    * Holons created from the definition, indexed by holon index
+    */
+   private Holon[] holons;
+
+   /**
+    * Construct a new instance that builds the provided definition
+    *
+    * @param definition
+    *       matrix definition
+    */
+   public MatrixBuilderDefinition(MatrixDefinitionView definition)
+   {
+      this.definition = definition;
+   }
+
+   @Override
+   protected HolonMatrix newModel() throws Exception
+   {
+      matrix = new HolonMatrix(definition.getHolonName(MatrixDefinition.HOLON_ROOT));
+      holons = new Holon[definition.getHolonCount()];
+      holons[MatrixDefinition.HOLON_ROOT] = matrix;
+      return matrix;
+   }
+
+   @Override
+   protected void buildCells() throws Exception
+   {
+      for (int holon = MatrixDefinition.HOLON_ROOT + 1;
+            holon < definition.getHolonCount(); holon++)
+      {
+         if (definition.getHolonType(holon) == MatrixDefinition.TYPE_CELL)
+         {
+            holons[holon] = createCell(definition.getHolonName(holon));
+         }
+      }
+   }
+
+   @Override
+   protected void buildBoundaries() throws Exception
+   {
+      for (int holon = MatrixDefinition.HOLON_ROOT + 1;
+            holon < definition.getHolonCount(); holon++)
+      {
+         if (definition.getHolonType(holon) == MatrixDefinition.TYPE_BOUNDARY)
+         {
+            int adjacent = definition.getHolonAdjacent(holon);
+            HolonBoundary adjacentBoundary = null;
+            if (adjacent != MatrixDefinition.NONE && adjacent < holon)
+            {
+               adjacentBoundary = (HolonBoundary)holons[adjacent];
+            }
+            holons[holon] = createBoundary(
+                  definition.getHolonName(holon),
+                  (HolonCell)holons[definition.getHolonCell(holon)],
+                  adjacentBoundary
+                  );
+         }
+      }
+      installBehaviors();
+
+      // The matrix holds its own holons, so the definition can be released
+      holons = null;
+      definition = null;
+   }
+
+   /**
+    * Install the behaviors in the holons, merging the default
+    * initial values with the values specific to each holon
+    *
+    * @throws Exception
+    *       if error in installing a behavior, or a behavior has
+    *       an initial value table
+    */
+   private void installBehaviors() throws Exception
+   {
+      for (int behavior = 0; behavior < definition.getBehaviorCount(); behavior++)
+      {
+         if (definition.getTablePath(behavior) != MatrixDefinition.NONE)
+         {
+            throw new Exception(String.format(
+                  "Behavior %s has an initial value table, which is only read "
+                  + "from the XML model files",
+                  definition.getBehaviorName(behavior)
+                  ));
+         }
+      }
+      HashMap<String, HashMap<String, String>> defaultValueMap =
+            new HashMap<String, HashMap<String, String>>();
+      for (int behavior = 0; behavior < definition.getBehaviorCount(); behavior++)
+      {
+         if (definition.getBehaviorHolon(behavior) == MatrixDefinition.HOLON_DEFAULT)
+         {
+            HashMap<String, String> values = defaultValueMap.get(
+                  definition.getBehaviorName(behavior)
+                  );
+            if (values == null)
+            {
+               values = new HashMap<String, String>();
+               defaultValueMap.put(definition.getBehaviorName(behavior), values);
+            }
+            putValues(behavior, values);
+         }
+      }
+      for (int behavior = 0; behavior < definition.getBehaviorCount(); behavior++)
+      {
+         int holon = definition.getBehaviorHolon(behavior);
+         if (holon != MatrixDefinition.HOLON_DEFAULT)
+         {
+            String behaviorName = definition.getBehaviorName(behavior);
+            HashMap<String, String> values = new HashMap<String, String>();
+            if (defaultValueMap.containsKey(behaviorName))
+            {
+               values.putAll(defaultValueMap.get(behaviorName));
+            }
+            putValues(behavior, values);
+            installBehavior(holons[holon], getBehavior(behaviorName), values);
+         }
+      }
+   }
+
+   /**
+    * Put the initial values of a behavior assignment in a map, with
+    * numeric values formatted as strings for the install method of
+    * the model builder
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @param values
+    *       map of state names to initial values
+    */
+   private void putValues(int behavior, HashMap<String, String> values)
+   {
+      for (int value = definition.getFirstValue(behavior); value != MatrixDefinition.NONE;
+            value = definition.getNextValue(value))
+      {
+         values.put(definition.getValueName(value), definition.getValueString(value));
+      }
+   }
+
+}
@@ -0,0 +1,59 @@
+package org.payn.stream.io;
+
+import java.io.File;
+
+import org.payn.neoch.HolonMatrix;
+
+/**
+ * Matrix builder that builds a holon matrix from a binary
+ * snapshot of a matrix definition.  The snapshot is either read
+ * into memory or memory mapped.
+ *
+ * @author robpayn
+ *
+ */
+public class MatrixBuilderSnapshot extends MatrixBuilderDefinition {
+
+   /**
+    * Snapshot file
+    */
+   private File snapshotFile;
+
+   /**
+    * Flag for mapping the snapshot rather than reading it
+    */
+   private boolean isMapped;
+
+   /**
+    * Construct a new instance that builds the matrix in
+    * the provided snapshot file
+    *
+    * @param snapshotFile
+    *       snapshot file
+    * @param isMapped
+    *       true if the snapshot is memory mapped,
+    *       false if it is read into memory
+    */
+   public MatrixBuilderSnapshot(File snapshotFile, boolean isMapped)
+   {
+      super(null);
+      this.snapshotFile = snapshotFile;
+      this.isMapped = isMapped;
+   }
+
+   @Override
+   protected HolonMatrix newModel() throws Exception
+   {
+      System.out.println("Loading the matrix snapshot " + snapshotFile.getName() + "...");
+      if (isMapped)
+      {
+         definition = new MatrixDefinitionMapped(snapshotFile);
+      }
+      else
+      {
+         definition = MatrixDefinition.readSnapshot(snapshotFile);
+      }
+      return super.newModel();
+   }
+
+}
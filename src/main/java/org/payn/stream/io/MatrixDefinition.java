@@ -0,0 +1,1371 @@
+package org.payn.stream.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.payn.chsm.resources.Behavior;
+import org.payn.stream.io.HolonMatrixTarget.BehaviorTarget;
+import org.payn.stream.io.HolonMatrixTarget.BoundaryTarget;
+import org.payn.stream.io.HolonMatrixTarget.HolonTarget;
+
+/**
+ * Compact in-memory definition of a holon matrix.
+ * Holons, behavior assignments, and initial values are stored
+ * in primitive arrays indexed by integer, with all names held
+ * once in a string table.
+ *
+ * @author robpayn
+ *
+ */
+public class MatrixDefinition implements MatrixDefinitionView {
+
+   /**
+    * Holon index used for default behavior values
+    */
+   public static final int HOLON_DEFAULT = -1;
+
+   /**
+    * Holon index of the root holon
+    */
+   public static final int HOLON_ROOT = 0;
+
+   /**
+    * Index indicating no entry
+    */
+   public static final int NONE = -1;
+
+   /**
+    * Holon type for the root holon
+    */
+   public static final byte TYPE_ROOT = 0;
+
+   /**
+    * Holon type for a cell
+    */
+   public static final byte TYPE_CELL = 1;
+
+   /**
+    * Holon type for a boundary
+    */
+   public static final byte TYPE_BOUNDARY = 2;
+
+   /**
+    * Identifier at the start of a snapshot file
+    */
+   public static final int SNAPSHOT_MAGIC = 0x4E424D44;
+
+   /**
+    * Version of the snapshot file format
+    */
+   public static final int SNAPSHOT_VERSION = 1;
+
+   /**
+    * Initial capacity of the arrays
+    */
+   private static final int INITIAL_CAPACITY = 64;
+
+   /**
+    * Number of array entries written to a snapshot at a time
+    */
+   private static final int WRITE_CHUNK = 8192;
+
+   /**
+    * Table of strings used in the definition
+    */
+   private ArrayList<String> strings;
+
+   /**
+    * Map of strings to their index in the string table,
+    * created when first needed for a definition read from a snapshot.
+    * Holon names are unique, so they are added to the string table
+    * without being mapped.
+    */
+   private HashMap<String, Integer> stringIndexMap;
+
+   /**
+    * Map of behavior names to the behaviors assigned through
+    * this definition
+    */
+   private HashMap<String, Behavior> behaviorMap;
+
+   /**
+    * Map of holon names to holon index, created when first needed
+    * for a definition read from a snapshot or appended to
+    */
+   private HashMap<String, Integer> holonIndexMap;
+
+   /**
+    * Number of holons
+    */
+   private int holonCount;
+
+   /**
+    * Holon type
+    */
+   private byte[] holonType;
+
+   /**
+    * String index of holon name
+    */
+   private int[] holonName;
+
+   /**
+    * Holon index of the cell attached to a boundary
+    */
+   private int[] holonCell;
+
+   /**
+    * Holon index of the adjacent boundary
+    */
+   private int[] holonAdjacent;
+
+   /**
+    * Number of behavior assignments
+    */
+   private int behaviorCount;
+
+   /**
+    * Holon index of the behavior assignment
+    */
+   private int[] behaviorHolon;
+
+   /**
+    * String index of the behavior name
+    */
+   private int[] behaviorName;
+
+   /**
+    * First initial value of the behavior assignment
+    */
+   private int[] behaviorFirstValue;
+
+   /**
+    * Last initial value of the behavior assignment
+    */
+   private int[] behaviorLastValue;
+
+   /**
+    * String index of the initial value table path
+    */
+   private int[] behaviorTablePath;
+
+   /**
+    * String index of the initial value table delimiter
+    */
+   private int[] behaviorTableDelimiter;
+
+   /**
+    * Number of initial values
+    */
+   private int valueCount;
+
+   /**
+    * String index of the state name for the initial value
+    */
+   private int[] valueName;
+
+   /**
+    * Numeric initial value
+    */
+   private double[] valueNumber;
+
+   /**
+    * String index of a non-numeric initial value
+    */
+   private int[] valueString;
+
+   /**
+    * Next initial value for the same behavior assignment
+    */
+   private int[] valueNext;
+
+   /**
+    * Construct a new empty definition with a root holon
+    *
+    * @param rootName
+    *       name of the root holon
+    */
+   public MatrixDefinition(String rootName)
+   {
+      strings = new ArrayList<String>();
+      stringIndexMap = new HashMap<String, Integer>();
+      behaviorMap = new HashMap<String, Behavior>();
+      holonIndexMap = new HashMap<String, Integer>();
+      holonType = new byte[INITIAL_CAPACITY];
+      holonName = new int[INITIAL_CAPACITY];
+      holonCell = new int[INITIAL_CAPACITY];
+      holonAdjacent = new int[INITIAL_CAPACITY];
+      behaviorHolon = new int[INITIAL_CAPACITY];
+      behaviorName = new int[INITIAL_CAPACITY];
+      behaviorFirstValue = new int[INITIAL_CAPACITY];
+      behaviorLastValue = new int[INITIAL_CAPACITY];
+      behaviorTablePath = new int[INITIAL_CAPACITY];
+      behaviorTableDelimiter = new int[INITIAL_CAPACITY];
+      valueName = new int[INITIAL_CAPACITY];
+      valueNumber = new double[INITIAL_CAPACITY];
+      valueString = new int[INITIAL_CAPACITY];
+      valueNext = new int[INITIAL_CAPACITY];
+      addHolon(TYPE_ROOT, rootName, NONE);
+   }
+
+   /**
+    * Construct a new definition without arrays, to be filled
+    * from a snapshot
+    */
+   private MatrixDefinition()
+   {
+      behaviorMap = new HashMap<String, Behavior>();
+   }
+
+   /**
+    * Get the index of a string in the string table, adding
+    * the string if necessary
+    *
+    * @param string
+    *       string to index
+    * @return
+    *       index in the string table
+    */
+   public int indexString(String string)
+   {
+      if (stringIndexMap == null)
+      {
+         stringIndexMap = new HashMap<String, Integer>(2 * strings.size());
+         for (int i = 0; i < strings.size(); i++)
+         {
+            stringIndexMap.put(strings.get(i), i);
+         }
+      }
+      Integer index = stringIndexMap.get(string);
+      if (index == null)
+      {
+         index = strings.size();
+         strings.add(string);
+         stringIndexMap.put(string, index);
+      }
+      return index;
+   }
+
+   @Override
+   public String getString(int index)
+   {
+      return strings.get(index);
+   }
+
+   @Override
+   public int getStringCount()
+   {
+      return strings.size();
+   }
+
+   /**
+    * Add a holon
+    *
+    * @param type
+    *       holon type
+    * @param name
+    *       holon name
+    * @param cell
+    *       index of attached cell for a boundary
+    * @return
+    *       index of the new holon
+    */
+   private int addHolon(byte type, String name, int cell)
+   {
+      if (holonCount == holonType.length)
+      {
+         int capacity = holonCount * 2;
+         holonType = Arrays.copyOf(holonType, capacity);
+         holonName = Arrays.copyOf(holonName, capacity);
+         holonCell = Arrays.copyOf(holonCell, capacity);
+         holonAdjacent = Arrays.copyOf(holonAdjacent, capacity);
+      }
+      int index = holonCount++;
+      holonType[index] = type;
+      holonName[index] = strings.size();
+      strings.add(name);
+      holonCell[index] = cell;
+      holonAdjacent[index] = NONE;
+      if (holonIndexMap != null)
+      {
+         holonIndexMap.put(name, index);
+      }
+      return index;
+   }
+
+   /**
+    * Add a cell
+    *
+    * @param name
+    *       cell name
+    * @return
+    *       index of the cell
+    */
+   public int addCell(String name)
+   {
+      return addHolon(TYPE_CELL, name, NONE);
+   }
+
+   /**
+    * Add a boundary
+    *
+    * @param name
+    *       boundary name
+    * @param cell
+    *       index of the attached cell
+    * @return
+    *       index of the boundary
+    */
+   public int addBoundary(String name, int cell)
+   {
+      return addHolon(TYPE_BOUNDARY, name, cell);
+   }
+
+   /**
+    * Make two boundaries adjacent to each other
+    *
+    * @param boundary
+    *       index of a boundary
+    * @param adjacent
+    *       index of the adjacent boundary
+    */
+   public void setAdjacent(int boundary, int adjacent)
+   {
+      holonAdjacent[boundary] = adjacent;
+      holonAdjacent[adjacent] = boundary;
+   }
+
+   /**
+    * Get the index of a holon by name
+    *
+    * @param name
+    *       holon name
+    * @return
+    *       index of the holon
+    * @throws IllegalArgumentException
+    *       if the holon does not exist
+    */
+   public int getHolonIndex(String name)
+   {
+      Integer index = getHolonIndexMap().get(name);
+      if (index == null)
+      {
+         throw new IllegalArgumentException(String.format(
+               "Holon %s does not exist in the matrix definition",
+               name
+               ));
+      }
+      return index;
+   }
+
+   /**
+    * Find a holon by name, searching backward from the last holon.
+    * Faster than the holon index map for recently added holons, 
+    * and does not require the map.
+    *
+    * @param name
+    *       holon name
+    * @return
+    *       index of the holon, NONE if the holon does not exist
+    */
+   public int findHolon(String name)
+   {
+      for (int holon = holonCount - 1; holon >= HOLON_ROOT; holon--)
+      {
+         if (strings.get(holonName[holon]).equals(name))
+         {
+            return holon;
+         }
+      }
+      return NONE;
+   }
+
+   /**
+    * Get the map of holon names to holon index, creating
+    * it if necessary
+    *
+    * @return
+    *       map of holon names to holon index
+    */
+   private HashMap<String, Integer> getHolonIndexMap()
+   {
+      if (holonIndexMap == null)
+      {
+         holonIndexMap = new HashMap<String, Integer>(2 * holonCount);
+         for (int holon = 0; holon < holonCount; holon++)
+         {
+            holonIndexMap.put(strings.get(holonName[holon]), holon);
+         }
+      }
+      return holonIndexMap;
+   }
+
+   /**
+    * Add a behavior assignment
+    *
+    * @param holon
+    *       index of the holon, or HOLON_DEFAULT for default values
+    * @param name
+    *       behavior name
+    * @return
+    *       index of the behavior assignment
+    */
+   public int addBehavior(int holon, String name)
+   {
+      if (behaviorCount == behaviorHolon.length)
+      {
+         int capacity = behaviorCount * 2;
+         behaviorHolon = Arrays.copyOf(behaviorHolon, capacity);
+         behaviorName = Arrays.copyOf(behaviorName, capacity);
+         behaviorFirstValue = Arrays.copyOf(behaviorFirstValue, capacity);
+         behaviorLastValue = Arrays.copyOf(behaviorLastValue, capacity);
+         behaviorTablePath = Arrays.copyOf(behaviorTablePath, capacity);
+         behaviorTableDelimiter = Arrays.copyOf(behaviorTableDelimiter, capacity);
+      }
+      int index = behaviorCount++;
+      behaviorHolon[index] = holon;
+      behaviorName[index] = indexString(name);
+      behaviorFirstValue[index] = NONE;
+      behaviorLastValue[index] = NONE;
+      behaviorTablePath[index] = NONE;
+      behaviorTableDelimiter[index] = NONE;
+      return index;
+   }
+
+   /**
+    * Add a behavior assignment for the provided behavior
+    *
+    * @param holon
+    *       index of the holon, or HOLON_DEFAULT for default values
+    * @param behavior
+    *       behavior to assign
+    * @return
+    *       index of the behavior assignment
+    */
+   public int addBehavior(int holon, Behavior behavior)
+   {
+      behaviorMap.put(behavior.getName(), behavior);
+      return addBehavior(holon, behavior.getName());
+   }
+
+   /**
+    * Get a behavior assigned through this definition
+    *
+    * @param name
+    *       behavior name
+    * @return
+    *       behavior, null if the behavior was only assigned by name
+    */
+   public Behavior getBehavior(String name)
+   {
+      return behaviorMap.get(name);
+   }
+
+   /**
+    * Set the initial value table for a behavior assignment
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @param path
+    *       path to the table
+    * @param delimiter
+    *       column delimiter
+    */
+   public void setInitTable(int behavior, String path, String delimiter)
+   {
+      behaviorTablePath[behavior] = indexString(path);
+      behaviorTableDelimiter[behavior] = indexString(delimiter);
+   }
+
+   /**
+    * Add an initial value to a behavior assignment
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @param name
+    *       state name
+    * @param number
+    *       numeric value
+    * @param string
+    *       string index of a non-numeric value, NONE if numeric
+    * @return
+    *       index of the initial value
+    */
+   private int addValue(int behavior, String name, double number, int string)
+   {
+      if (valueCount == valueName.length)
+      {
+         int capacity = valueCount * 2;
+         valueName = Arrays.copyOf(valueName, capacity);
+         valueNumber = Arrays.copyOf(valueNumber, capacity);
+         valueString = Arrays.copyOf(valueString, capacity);
+         valueNext = Arrays.copyOf(valueNext, capacity);
+      }
+      int index = valueCount++;
+      valueName[index] = indexString(name);
+      valueNumber[index] = number;
+      valueString[index] = string;
+      valueNext[index] = NONE;
+      if (behaviorLastValue[behavior] == NONE)
+      {
+         behaviorFirstValue[behavior] = index;
+      }
+      else
+      {
+         valueNext[behaviorLastValue[behavior]] = index;
+      }
+      behaviorLastValue[behavior] = index;
+      return index;
+   }
+
+   /**
+    * Add a numeric initial value to a behavior assignment
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @param name
+    *       state name
+    * @param value
+    *       initial value
+    * @return
+    *       index of the initial value
+    */
+   public int addInitValue(int behavior, String name, double value)
+   {
+      return addValue(behavior, name, value, NONE);
+   }
+
+   /**
+    * Add a string initial value to a behavior assignment
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @param name
+    *       state name
+    * @param value
+    *       initial value
+    * @return
+    *       index of the initial value
+    */
+   public int addInitValue(int behavior, String name, String value)
+   {
+      return addValue(behavior, name, Double.NaN, indexString(value));
+   }
+
+   @Override
+   public int getHolonCount()
+   {
+      return holonCount;
+   }
+
+   @Override
+   public byte getHolonType(int holon)
+   {
+      return holonType[holon];
+   }
+
+   @Override
+   public String getHolonName(int holon)
+   {
+      return strings.get(holonName[holon]);
+   }
+
+   @Override
+   public int getHolonCell(int holon)
+   {
+      return holonCell[holon];
+   }
+
+   @Override
+   public int getHolonAdjacent(int holon)
+   {
+      return holonAdjacent[holon];
+   }
+
+   @Override
+   public int getBehaviorCount()
+   {
+      return behaviorCount;
+   }
+
+   @Override
+   public int getBehaviorHolon(int behavior)
+   {
+      return behaviorHolon[behavior];
+   }
+
+   @Override
+   public String getBehaviorName(int behavior)
+   {
+      return strings.get(behaviorName[behavior]);
+   }
+
+   @Override
+   public int getFirstValue(int behavior)
+   {
+      return behaviorFirstValue[behavior];
+   }
+
+   @Override
+   public int getTablePath(int behavior)
+   {
+      return behaviorTablePath[behavior];
+   }
+
+   @Override
+   public int getTableDelimiter(int behavior)
+   {
+      return behaviorTableDelimiter[behavior];
+   }
+
+   @Override
+   public int getValueCount()
+   {
+      return valueCount;
+   }
+
+   @Override
+   public int getNextValue(int value)
+   {
+      return valueNext[value];
+   }
+
+   @Override
+   public String getValueName(int value)
+   {
+      return strings.get(valueName[value]);
+   }
+
+   @Override
+   public boolean isValueNumeric(int value)
+   {
+      return valueString[value] == NONE;
+   }
+
+   @Override
+   public double getValueNumber(int value)
+   {
+      return valueNumber[value];
+   }
+
+   @Override
+   public String getValueString(int value)
+   {
+      if (valueString[value] == NONE)
+      {
+         return Double.toString(valueNumber[value]);
+      }
+      else
+      {
+         return strings.get(valueString[value]);
+      }
+   }
+
+   /**
+    * Patch the initial values of the root holon behaviors and the
+    * default behavior values with the values in another definition.
+    * The definitions must assign the same root and default behaviors
+    * with the same states, otherwise nothing is changed.
+    *
+    * @param globals
+    *       definition with the root and default behaviors to apply,
+    *       and no other holons
+    * @return
+    *       number of initial values changed, NONE if the definitions
+    *       do not have the same root and default behaviors
+    */
+   public int patchGlobals(MatrixDefinitionView globals)
+   {
+      if (globals.getHolonCount() != 1)
+      {
+         return NONE;
+      }
+      HashMap<String, Integer> assignmentMap = new HashMap<String, Integer>();
+      for (int behavior = 0; behavior < behaviorCount; behavior++)
+      {
+         if (behaviorHolon[behavior] == HOLON_ROOT || behaviorHolon[behavior] == HOLON_DEFAULT)
+         {
+            assignmentMap.put(behaviorHolon[behavior] + ":" + getBehaviorName(behavior), behavior);
+         }
+      }
+      if (assignmentMap.size() != globals.getBehaviorCount())
+      {
+         return NONE;
+      }
+
+      // Match every value before changing any
+      int[] assignments = new int[globals.getBehaviorCount()];
+      int[] values = new int[globals.getValueCount()];
+      for (int source = 0; source < globals.getBehaviorCount(); source++)
+      {
+         Integer behavior = assignmentMap.get(
+               globals.getBehaviorHolon(source) + ":" + globals.getBehaviorName(source)
+               );
+         if (behavior == null || !isSameTable(behavior, globals, source))
+         {
+            return NONE;
+         }
+         assignments[source] = behavior;
+         int count = 0;
+         for (int value = behaviorFirstValue[behavior]; value != NONE; value = valueNext[value])
+         {
+            count++;
+         }
+         for (int sourceValue = globals.getFirstValue(source); sourceValue != NONE;
+               sourceValue = globals.getNextValue(sourceValue))
+         {
+            int value = findValue(behavior, globals.getValueName(sourceValue));
+            if (value == NONE)
+            {
+               return NONE;
+            }
+            values[sourceValue] = value;
+            count--;
+         }
+         if (count != 0)
+         {
+            return NONE;
+         }
+      }
+
+      int changed = 0;
+      for (int source = 0; source < assignments.length; source++)
+      {
+         for (int sourceValue = globals.getFirstValue(source); sourceValue != NONE;
+               sourceValue = globals.getNextValue(sourceValue))
+         {
+            int value = values[sourceValue];
+            if (globals.isValueNumeric(sourceValue))
+            {
+               double number = globals.getValueNumber(sourceValue);
+               if (valueString[value] != NONE 
+                     || Double.doubleToLongBits(valueNumber[value]) != Double.doubleToLongBits(number))
+               {
+                  valueNumber[value] = number;
+                  valueString[value] = NONE;
+                  changed++;
+               }
+            }
+            else
+            {
+               String string = globals.getValueString(sourceValue);
+               if (valueString[value] == NONE || !strings.get(valueString[value]).equals(string))
+               {
+                  valueNumber[value] = Double.NaN;
+                  valueString[value] = indexString(string);
+                  changed++;
+               }
+            }
+         }
+      }
+      return changed;
+   }
+
+   /**
+    * Determine if a behavior assignment has the same initial value table
+    * as a behavior assignment in another definition
+    *
+    * @param behavior
+    *       index of the behavior assignment in this definition
+    * @param other
+    *       other definition
+    * @param otherBehavior
+    *       index of the behavior assignment in the other definition
+    * @return
+    *       true if the tables are the same, false otherwise
+    */
+   private boolean isSameTable(int behavior, MatrixDefinitionView other, int otherBehavior)
+   {
+      if (behaviorTablePath[behavior] == NONE || other.getTablePath(otherBehavior) == NONE)
+      {
+         return behaviorTablePath[behavior] == other.getTablePath(otherBehavior);
+      }
+      return strings.get(behaviorTablePath[behavior]).equals(
+                  other.getString(other.getTablePath(otherBehavior)))
+            && strings.get(behaviorTableDelimiter[behavior]).equals(
+                  other.getString(other.getTableDelimiter(otherBehavior)));
+   }
+
+   /**
+    * Find an initial value of a behavior assignment by state name
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @param name
+    *       state name
+    * @return
+    *       index of the initial value, NONE if the state has no value
+    */
+   private int findValue(int behavior, String name)
+   {
+      for (int value = behaviorFirstValue[behavior]; value != NONE; value = valueNext[value])
+      {
+         if (strings.get(valueName[value]).equals(name))
+         {
+            return value;
+         }
+      }
+      return NONE;
+   }
+
+   /**
+    * Append the holons and behavior assignments of a segment definition
+    * that was built separately.  Segment holons before the first appended
+    * holon are halo holons that stand in for holons already in this
+    * definition, and references to them are resolved by name.  Halo
+    * holons are usually the last holons of this definition, so they
+    * are found by searching backward rather than through the holon
+    * index map, which is rebuilt when next needed.
+    *
+    * @param segment
+    *       segment definition
+    * @param firstHolon
+    *       index of the first segment holon to append
+    * @throws IllegalArgumentException
+    *       if a halo holon does not exist in this definition
+    */
+   public void append(MatrixDefinition segment, int firstHolon)
+   {
+      // Names of the appended holons are unique, so they are added
+      // to the string table without being mapped
+      int[] stringMap = new int[segment.strings.size()];
+      Arrays.fill(stringMap, NONE);
+      for (int holon = firstHolon; holon < segment.holonCount; holon++)
+      {
+         stringMap[segment.holonName[holon]] = strings.size();
+         strings.add(segment.strings.get(segment.holonName[holon]));
+      }
+      for (int string = 0; string < stringMap.length; string++)
+      {
+         if (stringMap[string] == NONE)
+         {
+            stringMap[string] = indexString(segment.strings.get(string));
+         }
+      }
+      behaviorMap.putAll(segment.behaviorMap);
+
+      // Holons
+      int holonBase = holonCount;
+      int[] holonMap = new int[segment.holonCount];
+      holonMap[HOLON_ROOT] = HOLON_ROOT;
+      for (int holon = HOLON_ROOT + 1; holon < firstHolon; holon++)
+      {
+         holonMap[holon] = findHolon(segment.getHolonName(holon));
+         if (holonMap[holon] == NONE)
+         {
+            throw new IllegalArgumentException(String.format(
+                  "Halo holon %s does not exist in the matrix definition",
+                  segment.getHolonName(holon)
+                  ));
+         }
+      }
+      for (int holon = firstHolon; holon < segment.holonCount; holon++)
+      {
+         holonMap[holon] = holonBase + holon - firstHolon;
+      }
+      int count = holonBase + segment.holonCount - firstHolon;
+      if (count > holonType.length)
+      {
+         int capacity = Math.max(count, holonType.length * 2);
+         holonType = Arrays.copyOf(holonType, capacity);
+         holonName = Arrays.copyOf(holonName, capacity);
+         holonCell = Arrays.copyOf(holonCell, capacity);
+         holonAdjacent = Arrays.copyOf(holonAdjacent, capacity);
+      }
+      for (int holon = firstHolon; holon < segment.holonCount; holon++)
+      {
+         int index = holonMap[holon];
+         holonType[index] = segment.holonType[holon];
+         holonName[index] = stringMap[segment.holonName[holon]];
+         holonCell[index] = mapIndex(holonMap, segment.holonCell[holon]);
+         holonAdjacent[index] = mapIndex(holonMap, segment.holonAdjacent[holon]);
+         if (holonAdjacent[index] != NONE && holonAdjacent[index] < holonBase)
+         {
+            holonAdjacent[holonAdjacent[index]] = index;
+         }
+      }
+      holonCount = count;
+      holonIndexMap = null;
+
+      // Initial values
+      int valueBase = valueCount;
+      count = valueBase + segment.valueCount;
+      if (count > valueName.length)
+      {
+         int capacity = Math.max(count, valueName.length * 2);
+         valueName = Arrays.copyOf(valueName, capacity);
+         valueNumber = Arrays.copyOf(valueNumber, capacity);
+         valueString = Arrays.copyOf(valueString, capacity);
+         valueNext = Arrays.copyOf(valueNext, capacity);
+      }
+      System.arraycopy(segment.valueNumber, 0, valueNumber, valueBase, segment.valueCount);
+      for (int value = 0; value < segment.valueCount; value++)
+      {
+         valueName[valueBase + value] = stringMap[segment.valueName[value]];
+         valueString[valueBase + value] = mapIndex(stringMap, segment.valueString[value]);
+         valueNext[valueBase + value] = offsetIndex(valueBase, segment.valueNext[value]);
+      }
+      valueCount = count;
+
+      // Behavior assignments
+      int behaviorBase = behaviorCount;
+      count = behaviorBase + segment.behaviorCount;
+      if (count > behaviorHolon.length)
+      {
+         int capacity = Math.max(count, behaviorHolon.length * 2);
+         behaviorHolon = Arrays.copyOf(behaviorHolon, capacity);
+         behaviorName = Arrays.copyOf(behaviorName, capacity);
+         behaviorFirstValue = Arrays.copyOf(behaviorFirstValue, capacity);
+         behaviorLastValue = Arrays.copyOf(behaviorLastValue, capacity);
+         behaviorTablePath = Arrays.copyOf(behaviorTablePath, capacity);
+         behaviorTableDelimiter = Arrays.copyOf(behaviorTableDelimiter, capacity);
+      }
+      for (int behavior = 0; behavior < segment.behaviorCount; behavior++)
+      {
+         int index = behaviorBase + behavior;
+         behaviorHolon[index] = mapIndex(holonMap, segment.behaviorHolon[behavior]);
+         behaviorName[index] = stringMap[segment.behaviorName[behavior]];
+         behaviorFirstValue[index] = offsetIndex(valueBase, segment.behaviorFirstValue[behavior]);
+         behaviorLastValue[index] = offsetIndex(valueBase, segment.behaviorLastValue[behavior]);
+         behaviorTablePath[index] = mapIndex(stringMap, segment.behaviorTablePath[behavior]);
+         behaviorTableDelimiter[index] = 
+               mapIndex(stringMap, segment.behaviorTableDelimiter[behavior]);
+      }
+      behaviorCount = count;
+   }
+
+   /**
+    * Map an index through the provided map, keeping NONE and HOLON_DEFAULT
+    *
+    * @param map
+    *       map of old indices to new indices
+    * @param index
+    *       old index
+    * @return
+    *       new index
+    */
+   private static int mapIndex(int[] map, int index)
+   {
+      return index < 0 ? index : map[index];
+   }
+
+   /**
+    * Offset an index, keeping NONE
+    *
+    * @param base
+    *       offset to add
+    * @param index
+    *       old index
+    * @return
+    *       new index
+    */
+   private static int offsetIndex(int base, int index)
+   {
+      return index == NONE ? NONE : base + index;
+   }
+
+   /**
+    * Recreate the definition in the provided holon matrix target.
+    * Holons are created in order with their behaviors, and are committed
+    * as soon as no later holon depends on them, so streaming targets
+    * do not need to hold the whole matrix.
+    *
+    * @param target
+    *       holon matrix target
+    * @throws Exception
+    *       if error in recreating the definition
+    */
+   public void replay(HolonMatrixTarget target) throws Exception
+   {
+      // Group the behavior assignments by holon, defaults first
+      int[] holonFirstBehavior = new int[holonCount + 2];
+      for (int behavior = 0; behavior < behaviorCount; behavior++)
+      {
+         holonFirstBehavior[behaviorHolon[behavior] + 2]++;
+      }
+      for (int holon = 1; holon < holonFirstBehavior.length; holon++)
+      {
+         holonFirstBehavior[holon] += holonFirstBehavior[holon - 1];
+      }
+      int[] holonBehaviors = new int[behaviorCount];
+      int[] position = Arrays.copyOf(holonFirstBehavior, holonFirstBehavior.length);
+      for (int behavior = 0; behavior < behaviorCount; behavior++)
+      {
+         holonBehaviors[position[behaviorHolon[behavior] + 1]++] = behavior;
+      }
+
+      for (int index = holonFirstBehavior[0]; index < holonFirstBehavior[1]; index++)
+      {
+         replayBehavior(target.createDefaultBehavior(getReplayBehavior(holonBehaviors[index])),
+               holonBehaviors[index]);
+      }
+
+      HolonTarget[] pending = new HolonTarget[holonCount];
+      int lastDependent = HOLON_ROOT;
+      for (int holon = HOLON_ROOT; holon < holonCount; holon++)
+      {
+         if (holon > lastDependent)
+         {
+            target.commit();
+         }
+         HolonTarget holonTarget = null;
+         switch(holonType[holon])
+         {
+            case TYPE_ROOT:
+               holonTarget = target.getRootHolon();
+               break;
+            case TYPE_CELL:
+               holonTarget = target.createCell(getHolonName(holon));
+               break;
+            case TYPE_BOUNDARY:
+               int adjacent = holonAdjacent[holon];
+               String cellName = getHolonName(holonCell[holon]);
+               if (adjacent != NONE && adjacent < holon)
+               {
+                  holonTarget = ((BoundaryTarget)pending[adjacent]).createAdjacent(
+                        getHolonName(holon),
+                        cellName
+                        );
+                  pending[adjacent] = null;
+               }
+               else
+               {
+                  holonTarget = target.createBoundary(getHolonName(holon), cellName);
+                  if (adjacent != NONE)
+                  {
+                     pending[holon] = holonTarget;
+                     lastDependent = Math.max(lastDependent, adjacent);
+                  }
+               }
+               break;
+         }
+         for (int index = holonFirstBehavior[holon + 1]; 
+               index < holonFirstBehavior[holon + 2]; index++)
+         {
+            replayBehavior(holonTarget.createBehavior(getReplayBehavior(holonBehaviors[index])),
+                  holonBehaviors[index]);
+         }
+      }
+      target.commit();
+   }
+
+   /**
+    * Get the behavior object for a behavior assignment being replayed
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @return
+    *       behavior object
+    */
+   private Behavior getReplayBehavior(int behavior)
+   {
+      Behavior behaviorObject = behaviorMap.get(getBehaviorName(behavior));
+      if (behaviorObject == null)
+      {
+         throw new IllegalStateException(String.format(
+               "Behavior %s is not available to replay the matrix definition",
+               getBehaviorName(behavior)
+               ));
+      }
+      return behaviorObject;
+   }
+
+   /**
+    * Replay the initial values of a behavior assignment
+    *
+    * @param behaviorTarget
+    *       target for the behavior
+    * @param behavior
+    *       index of the behavior assignment
+    */
+   private void replayBehavior(BehaviorTarget behaviorTarget, int behavior)
+   {
+      if (behaviorTablePath[behavior] != NONE)
+      {
+         behaviorTarget.setInitTable(
+               strings.get(behaviorTablePath[behavior]),
+               strings.get(behaviorTableDelimiter[behavior])
+               );
+      }
+      for (int value = behaviorFirstValue[behavior]; value != NONE; value = valueNext[value])
+      {
+         if (valueString[value] == NONE)
+         {
+            behaviorTarget.createInitValue(getValueName(value), valueNumber[value]);
+         }
+         else
+         {
+            behaviorTarget.createInitValue(
+                  getValueName(value),
+                  strings.get(valueString[value])
+                  );
+         }
+      }
+   }
+
+   /**
+    * Write the definition to a binary snapshot file.
+    * Behavior objects are not stored, so a definition read from the
+    * snapshot refers to behaviors by name only.
+    *
+    * @param file
+    *       snapshot file
+    * @throws Exception
+    *       if error in writing the file
+    */
+   public void writeSnapshot(File file) throws Exception
+   {
+      file.getAbsoluteFile().getParentFile().mkdirs();
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file), 1 << 16
+            ));
+      try
+      {
+         output.writeInt(SNAPSHOT_MAGIC);
+         output.writeInt(SNAPSHOT_VERSION);
+
+         output.writeInt(strings.size());
+         for (String string: strings)
+         {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+         }
+
+         output.writeInt(holonCount);
+         output.write(holonType, 0, holonCount);
+         writeInts(output, holonName, holonCount);
+         writeInts(output, holonCell, holonCount);
+         writeInts(output, holonAdjacent, holonCount);
+
+         output.writeInt(behaviorCount);
+         writeInts(output, behaviorHolon, behaviorCount);
+         writeInts(output, behaviorName, behaviorCount);
+         writeInts(output, behaviorFirstValue, behaviorCount);
+         writeInts(output, behaviorLastValue, behaviorCount);
+         writeInts(output, behaviorTablePath, behaviorCount);
+         writeInts(output, behaviorTableDelimiter, behaviorCount);
+
+         output.writeInt(valueCount);
+         writeInts(output, valueName, valueCount);
+         writeDoubles(output, valueNumber, valueCount);
+         writeInts(output, valueString, valueCount);
+         writeInts(output, valueNext, valueCount);
+      }
+      finally
+      {
+         output.close();
+      }
+   }
+
+   /**
+    * Write the first entries of an integer array
+    *
+    * @param output
+    *       output stream
+    * @param array
+    *       array to write
+    * @param count
+    *       number of entries to write
+    * @throws Exception
+    *       if error in writing
+    */
+   private static void writeInts(DataOutputStream output, int[] array, int count)
+         throws Exception
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(4 * Math.min(count, WRITE_CHUNK));
+      for (int offset = 0; offset < count; offset += WRITE_CHUNK)
+      {
+         int length = Math.min(count - offset, WRITE_CHUNK);
+         buffer.asIntBuffer().put(array, offset, length);
+         output.write(buffer.array(), 0, 4 * length);
+      }
+   }
+
+   /**
+    * Write the first entries of a double array
+    *
+    * @param output
+    *       output stream
+    * @param array
+    *       array to write
+    * @param count
+    *       number of entries to write
+    * @throws Exception
+    *       if error in writing
+    */
+   private static void writeDoubles(DataOutputStream output, double[] array, int count)
+         throws Exception
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(8 * Math.min(count, WRITE_CHUNK));
+      for (int offset = 0; offset < count; offset += WRITE_CHUNK)
+      {
+         int length = Math.min(count - offset, WRITE_CHUNK);
+         buffer.asDoubleBuffer().put(array, offset, length);
+         output.write(buffer.array(), 0, 8 * length);
+      }
+   }
+
+   /**
+    * Read a definition from a binary snapshot file
+    *
+    * @param file
+    *       snapshot file
+    * @return
+    *       matrix definition
+    * @throws Exception
+    *       if the file is not a snapshot of a supported version
+    */
+   public static MatrixDefinition readSnapshot(File file) throws Exception
+   {
+      return readSnapshot(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), file);
+   }
+
+   /**
+    * Read a definition from a buffer with the contents of
+    * a binary snapshot file
+    *
+    * @param buffer
+    *       buffer positioned at the start of the snapshot
+    * @param file
+    *       snapshot file, used in error messages
+    * @return
+    *       matrix definition
+    * @throws Exception
+    *       if the buffer does not hold a snapshot of a supported version
+    */
+   public static MatrixDefinition readSnapshot(ByteBuffer buffer, File file) throws Exception
+   {
+      readSnapshotHeader(buffer, file);
+      MatrixDefinition definition = new MatrixDefinition();
+      definition.strings = new ArrayList<String>(Arrays.asList(readSnapshotStrings(buffer)));
+
+      definition.holonCount = buffer.getInt();
+      definition.holonType = new byte[capacity(definition.holonCount)];
+      buffer.get(definition.holonType, 0, definition.holonCount);
+      definition.holonName = readInts(buffer, definition.holonCount);
+      definition.holonCell = readInts(buffer, definition.holonCount);
+      definition.holonAdjacent = readInts(buffer, definition.holonCount);
+
+      definition.behaviorCount = buffer.getInt();
+      definition.behaviorHolon = readInts(buffer, definition.behaviorCount);
+      definition.behaviorName = readInts(buffer, definition.behaviorCount);
+      definition.behaviorFirstValue = readInts(buffer, definition.behaviorCount);
+      definition.behaviorLastValue = readInts(buffer, definition.behaviorCount);
+      definition.behaviorTablePath = readInts(buffer, definition.behaviorCount);
+      definition.behaviorTableDelimiter = readInts(buffer, definition.behaviorCount);
+
+      definition.valueCount = buffer.getInt();
+      definition.valueName = readInts(buffer, definition.valueCount);
+      definition.valueNumber = new double[capacity(definition.valueCount)];
+      buffer.asDoubleBuffer().get(definition.valueNumber, 0, definition.valueCount);
+      buffer.position(buffer.position() + 8 * definition.valueCount);
+      definition.valueString = readInts(buffer, definition.valueCount);
+      definition.valueNext = readInts(buffer, definition.valueCount);
+      return definition;
+   }
+
+   /**
+    * Check the identifier and version at the start of a snapshot
+    *
+    * @param buffer
+    *       buffer positioned at the start of the snapshot,
+    *       left positioned after the header
+    * @param file
+    *       snapshot file, used in error messages
+    * @throws Exception
+    *       if the buffer does not hold a snapshot of a supported version
+    */
+   static void readSnapshotHeader(ByteBuffer buffer, File file) throws Exception
+   {
+      if (buffer.remaining() < 8 || buffer.getInt() != SNAPSHOT_MAGIC)
+      {
+         throw new Exception(String.format(
+               "File %s is not a matrix snapshot",
+               file.getPath()
+               ));
+      }
+      int version = buffer.getInt();
+      if (version != SNAPSHOT_VERSION)
+      {
+         throw new Exception(String.format(
+               "Matrix snapshot %s has version %d, version %d is required",
+               file.getPath(),
+               version,
+               SNAPSHOT_VERSION
+               ));
+      }
+   }
+
+   /**
+    * Read the string table of a snapshot
+    *
+    * @param buffer
+    *       buffer positioned at the string table,
+    *       left positioned after the table
+    * @return
+    *       strings in the table
+    */
+   static String[] readSnapshotStrings(ByteBuffer buffer)
+   {
+      int stringCount = buffer.getInt();
+      String[] strings = new String[stringCount];
+      for (int i = 0; i < stringCount; i++)
+      {
+         int length = buffer.getInt();
+         if (buffer.hasArray())
+         {
+            strings[i] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), 
+                  length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+         }
+         else
+         {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+         }
+      }
+      return strings;
+   }
+
+   /**
+    * Read an integer array from a buffer
+    *
+    * @param buffer
+    *       buffer to read
+    * @param count
+    *       number of entries to read
+    * @return
+    *       array with capacity for further entries
+    */
+   private static int[] readInts(ByteBuffer buffer, int count)
+   {
+      int[] array = new int[capacity(count)];
+      buffer.asIntBuffer().get(array, 0, count);
+      buffer.position(buffer.position() + 4 * count);
+      return array;
+   }
+
+   /**
+    * Get the array capacity for a number of entries read from a snapshot
+    *
+    * @param count
+    *       number of entries
+    * @return
+    *       array capacity
+    */
+   private static int capacity(int count)
+   {
+      return Math.max(count, INITIAL_CAPACITY);
+   }
+
+}
@@ -0,0 +1,327 @@
+package org.payn.stream.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only matrix definition backed by a memory mapped snapshot file.
+ * Holon, behavior, and initial value entries are read from the mapped
+ * buffer when requested rather than copied into arrays, so the pages
+ * of a snapshot shared by many runs are held once in the page cache
+ * of the operating system.  The values are still copied when the
+ * behaviors are installed, as strings (see {@link MatrixBuilderDefinition}).
+ *
+ * @author robpayn
+ *
+ */
+public class MatrixDefinitionMapped implements MatrixDefinitionView {
+
+   /**
+    * Mapped contents of the snapshot file
+    */
+   private MappedByteBuffer buffer;
+
+   /**
+    * Buffer position of each string in the string table
+    */
+   private int[] stringPosition;
+
+   /**
+    * Length in bytes of each string in the string table
+    */
+   private int[] stringLength;
+
+   /**
+    * Strings that have been decoded from the buffer
+    */
+   private String[] strings;
+
+   /**
+    * Number of holons
+    */
+   private int holonCount;
+
+   /**
+    * Buffer position of the holon types
+    */
+   private int holonTypePosition;
+
+   /**
+    * Buffer position of the holon names
+    */
+   private int holonNamePosition;
+
+   /**
+    * Buffer position of the attached cells
+    */
+   private int holonCellPosition;
+
+   /**
+    * Buffer position of the adjacent boundaries
+    */
+   private int holonAdjacentPosition;
+
+   /**
+    * Number of behavior assignments
+    */
+   private int behaviorCount;
+
+   /**
+    * Buffer position of the behavior assignment holons
+    */
+   private int behaviorHolonPosition;
+
+   /**
+    * Buffer position of the behavior names
+    */
+   private int behaviorNamePosition;
+
+   /**
+    * Buffer position of the first initial values
+    */
+   private int behaviorFirstValuePosition;
+
+   /**
+    * Buffer position of the initial value table paths
+    */
+   private int behaviorTablePathPosition;
+
+   /**
+    * Buffer position of the initial value table delimiters
+    */
+   private int behaviorTableDelimiterPosition;
+
+   /**
+    * Number of initial values
+    */
+   private int valueCount;
+
+   /**
+    * Buffer position of the state names for the initial values
+    */
+   private int valueNamePosition;
+
+   /**
+    * Buffer position of the numeric initial values
+    */
+   private int valueNumberPosition;
+
+   /**
+    * Buffer position of the non-numeric initial values
+    */
+   private int valueStringPosition;
+
+   /**
+    * Buffer position of the links to the next initial values
+    */
+   private int valueNextPosition;
+
+   /**
+    * Map the provided snapshot file
+    *
+    * @param file
+    *       snapshot file
+    * @throws Exception
+    *       if the file cannot be mapped or is not a snapshot
+    *       of a supported version
+    */
+   public MatrixDefinitionMapped(File file) throws Exception
+   {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try
+      {
+         FileChannel channel = randomAccessFile.getChannel();
+         buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      finally
+      {
+         // The mapping remains valid after the channel is closed
+         randomAccessFile.close();
+      }
+      MatrixDefinition.readSnapshotHeader(buffer, file);
+
+      int stringCount = buffer.getInt();
+      stringPosition = new int[stringCount];
+      stringLength = new int[stringCount];
+      strings = new String[stringCount];
+      for (int i = 0; i < stringCount; i++)
+      {
+         stringLength[i] = buffer.getInt();
+         stringPosition[i] = buffer.position();
+         buffer.position(stringPosition[i] + stringLength[i]);
+      }
+
+      holonCount = buffer.getInt();
+      holonTypePosition = skip(holonCount);
+      holonNamePosition = skip(4 * holonCount);
+      holonCellPosition = skip(4 * holonCount);
+      holonAdjacentPosition = skip(4 * holonCount);
+
+      behaviorCount = buffer.getInt();
+      behaviorHolonPosition = skip(4 * behaviorCount);
+      behaviorNamePosition = skip(4 * behaviorCount);
+      behaviorFirstValuePosition = skip(4 * behaviorCount);
+      // Last values are only needed to extend a definition
+      skip(4 * behaviorCount);
+      behaviorTablePathPosition = skip(4 * behaviorCount);
+      behaviorTableDelimiterPosition = skip(4 * behaviorCount);
+
+      valueCount = buffer.getInt();
+      valueNamePosition = skip(4 * valueCount);
+      valueNumberPosition = skip(8 * valueCount);
+      valueStringPosition = skip(4 * valueCount);
+      valueNextPosition = skip(4 * valueCount);
+   }
+
+   /**
+    * Skip over a section of the buffer
+    *
+    * @param length
+    *       length of the section in bytes
+    * @return
+    *       position of the start of the section
+    */
+   private int skip(int length)
+   {
+      int position = buffer.position();
+      buffer.position(position + length);
+      return position;
+   }
+
+   @Override
+   public String getString(int index)
+   {
+      String string = strings[index];
+      if (string == null)
+      {
+         byte[] bytes = new byte[stringLength[index]];
+         ByteBuffer view = buffer.duplicate();
+         view.position(stringPosition[index]);
+         view.get(bytes);
+         string = new String(bytes, StandardCharsets.UTF_8);
+         strings[index] = string;
+      }
+      return string;
+   }
+
+   @Override
+   public int getStringCount()
+   {
+      return strings.length;
+   }
+
+   @Override
+   public int getHolonCount()
+   {
+      return holonCount;
+   }
+
+   @Override
+   public byte getHolonType(int holon)
+   {
+      return buffer.get(holonTypePosition + holon);
+   }
+
+   @Override
+   public String getHolonName(int holon)
+   {
+      return getString(buffer.getInt(holonNamePosition + 4 * holon));
+   }
+
+   @Override
+   public int getHolonCell(int holon)
+   {
+      return buffer.getInt(holonCellPosition + 4 * holon);
+   }
+
+   @Override
+   public int getHolonAdjacent(int holon)
+   {
+      return buffer.getInt(holonAdjacentPosition + 4 * holon);
+   }
+
+   @Override
+   public int getBehaviorCount()
+   {
+      return behaviorCount;
+   }
+
+   @Override
+   public int getBehaviorHolon(int behavior)
+   {
+      return buffer.getInt(behaviorHolonPosition + 4 * behavior);
+   }
+
+   @Override
+   public String getBehaviorName(int behavior)
+   {
+      return getString(buffer.getInt(behaviorNamePosition + 4 * behavior));
+   }
+
+   @Override
+   public int getFirstValue(int behavior)
+   {
+      return buffer.getInt(behaviorFirstValuePosition + 4 * behavior);
+   }
+
+   @Override
+   public int getTablePath(int behavior)
+   {
+      return buffer.getInt(behaviorTablePathPosition + 4 * behavior);
+   }
+
+   @Override
+   public int getTableDelimiter(int behavior)
+   {
+      return buffer.getInt(behaviorTableDelimiterPosition + 4 * behavior);
+   }
+
+   @Override
+   public int getValueCount()
+   {
+      return valueCount;
+   }
+
+   @Override
+   public int getNextValue(int value)
+   {
+      return buffer.getInt(valueNextPosition + 4 * value);
+   }
+
+   @Override
+   public String getValueName(int value)
+   {
+      return getString(buffer.getInt(valueNamePosition + 4 * value));
+   }
+
+   @Override
+   public boolean isValueNumeric(int value)
+   {
+      return buffer.getInt(valueStringPosition + 4 * value) == MatrixDefinition.NONE;
+   }
+
+   @Override
+   public double getValueNumber(int value)
+   {
+      return buffer.getDouble(valueNumberPosition + 8 * value);
+   }
+
+   @Override
+   public String getValueString(int value)
+   {
+      int string = buffer.getInt(valueStringPosition + 4 * value);
+      if (string == MatrixDefinition.NONE)
+      {
+         return Double.toString(getValueNumber(value));
+      }
+      else
+      {
+         return getString(string);
+      }
+   }
+
+}
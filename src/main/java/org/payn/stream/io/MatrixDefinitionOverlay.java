@@ -0,0 +1,332 @@
+package org.payn.stream.io;
+
+import java.util.HashMap;
+
+/**
+ * Read-only matrix definition of one model that shares the holons,
+ * behavior assignments, and initial values of a definition built for
+ * another model of the same stream.  Only the initial values of the
+ * root and default behaviors may differ from the shared definition,
+ * and only those are held by the overlay, so the models of an
+ * ensemble hold one copy of the structure of the stream between them.
+ *
+ * @author robpayn
+ *
+ */
+public class MatrixDefinitionOverlay implements MatrixDefinitionView {
+
+   /**
+    * Shared definition
+    */
+   private MatrixDefinitionView base;
+
+   /**
+    * Position in the value arrays of each replaced initial value,
+    * by value index in the shared definition
+    */
+   private HashMap<Integer, Integer> valueMap;
+
+   /**
+    * Replaced numeric values
+    */
+   private double[] valueNumber;
+
+   /**
+    * Replaced string values, null for a numeric value
+    */
+   private String[] valueString;
+
+   /**
+    * Construct a new overlay for the provided replaced values
+    *
+    * @param base
+    *       shared definition
+    * @param valueMap
+    *       position in the value arrays of each replaced value,
+    *       by value index in the shared definition
+    */
+   private MatrixDefinitionOverlay(MatrixDefinitionView base,
+         HashMap<Integer, Integer> valueMap)
+   {
+      this.base = base;
+      this.valueMap = valueMap;
+      this.valueNumber = new double[valueMap.size()];
+      this.valueString = new String[valueMap.size()];
+   }
+
+   /**
+    * Create an overlay of a shared definition for the definition of
+    * another model
+    *
+    * @param base
+    *       shared definition
+    * @param definition
+    *       definition of the model
+    * @return
+    *       overlay with the root and default values of the model,
+    *       null if the definitions differ in anything else
+    */
+   public static MatrixDefinitionOverlay create(MatrixDefinitionView base,
+         MatrixDefinitionView definition)
+   {
+      if (base.getHolonCount() != definition.getHolonCount()
+            || base.getBehaviorCount() != definition.getBehaviorCount()
+            || base.getValueCount() != definition.getValueCount())
+      {
+         return null;
+      }
+      for (int holon = 0; holon < base.getHolonCount(); holon++)
+      {
+         if (base.getHolonType(holon) != definition.getHolonType(holon)
+               || base.getHolonCell(holon) != definition.getHolonCell(holon)
+               || base.getHolonAdjacent(holon) != definition.getHolonAdjacent(holon)
+               || !base.getHolonName(holon).equals(definition.getHolonName(holon)))
+         {
+            return null;
+         }
+      }
+
+      HashMap<Integer, Integer> replaced = new HashMap<Integer, Integer>();
+      for (int behavior = 0; behavior < base.getBehaviorCount(); behavior++)
+      {
+         int holon = base.getBehaviorHolon(behavior);
+         if (holon != definition.getBehaviorHolon(behavior)
+               || !base.getBehaviorName(behavior).equals(definition.getBehaviorName(behavior))
+               || !isSameString(base, base.getTablePath(behavior),
+                     definition, definition.getTablePath(behavior))
+               || !isSameString(base, base.getTableDelimiter(behavior),
+                     definition, definition.getTableDelimiter(behavior)))
+         {
+            return null;
+         }
+         boolean isGlobal = holon == MatrixDefinition.HOLON_ROOT
+               || holon == MatrixDefinition.HOLON_DEFAULT;
+         int value = base.getFirstValue(behavior);
+         int otherValue = definition.getFirstValue(behavior);
+         for (; value != MatrixDefinition.NONE;
+               value = base.getNextValue(value),
+               otherValue = definition.getNextValue(otherValue))
+         {
+            if (value != otherValue
+                  || !base.getValueName(value).equals(definition.getValueName(value)))
+            {
+               return null;
+            }
+            if (!isSameValue(base, definition, value))
+            {
+               if (!isGlobal)
+               {
+                  return null;
+               }
+               replaced.put(value, replaced.size());
+            }
+         }
+         if (otherValue != MatrixDefinition.NONE)
+         {
+            return null;
+         }
+      }
+
+      MatrixDefinitionOverlay overlay = new MatrixDefinitionOverlay(base, replaced);
+      for (Integer value: replaced.keySet())
+      {
+         int position = replaced.get(value);
+         overlay.valueNumber[position] = definition.getValueNumber(value);
+         if (!definition.isValueNumeric(value))
+         {
+            overlay.valueString[position] = definition.getValueString(value);
+         }
+      }
+      return overlay;
+   }
+
+   /**
+    * Determine if two definitions refer to the same string
+    *
+    * @param definition
+    *       first definition
+    * @param index
+    *       index in the string table of the first definition, or NONE
+    * @param other
+    *       second definition
+    * @param otherIndex
+    *       index in the string table of the second definition, or NONE
+    * @return
+    *       true if both are NONE or the strings are equal
+    */
+   private static boolean isSameString(MatrixDefinitionView definition, int index,
+         MatrixDefinitionView other, int otherIndex)
+   {
+      if (index == MatrixDefinition.NONE || otherIndex == MatrixDefinition.NONE)
+      {
+         return index == otherIndex;
+      }
+      return definition.getString(index).equals(other.getString(otherIndex));
+   }
+
+   /**
+    * Determine if an initial value is the same in two definitions
+    *
+    * @param definition
+    *       first definition
+    * @param other
+    *       second definition
+    * @param value
+    *       index of the initial value in both definitions
+    * @return
+    *       true if the values are the same
+    */
+   private static boolean isSameValue(MatrixDefinitionView definition,
+         MatrixDefinitionView other, int value)
+   {
+      if (definition.isValueNumeric(value))
+      {
+         return other.isValueNumeric(value)
+               && Double.doubleToLongBits(definition.getValueNumber(value))
+                  == Double.doubleToLongBits(other.getValueNumber(value));
+      }
+      return !other.isValueNumeric(value)
+            && definition.getValueString(value).equals(other.getValueString(value));
+   }
+
+   /**
+    * Get the number of initial values that replace those of the
+    * shared definition
+    *
+    * @return
+    *       number of replaced values
+    */
+   public int getReplacedCount()
+   {
+      return valueNumber.length;
+   }
+
+   @Override
+   public String getString(int index)
+   {
+      return base.getString(index);
+   }
+
+   @Override
+   public int getStringCount()
+   {
+      return base.getStringCount();
+   }
+
+   @Override
+   public int getHolonCount()
+   {
+      return base.getHolonCount();
+   }
+
+   @Override
+   public byte getHolonType(int holon)
+   {
+      return base.getHolonType(holon);
+   }
+
+   @Override
+   public String getHolonName(int holon)
+   {
+      return base.getHolonName(holon);
+   }
+
+   @Override
+   public int getHolonCell(int holon)
+   {
+      return base.getHolonCell(holon);
+   }
+
+   @Override
+   public int getHolonAdjacent(int holon)
+   {
+      return base.getHolonAdjacent(holon);
+   }
+
+   @Override
+   public int getBehaviorCount()
+   {
+      return base.getBehaviorCount();
+   }
+
+   @Override
+   public int getBehaviorHolon(int behavior)
+   {
+      return base.getBehaviorHolon(behavior);
+   }
+
+   @Override
+   public String getBehaviorName(int behavior)
+   {
+      return base.getBehaviorName(behavior);
+   }
+
+   @Override
+   public int getFirstValue(int behavior)
+   {
+      return base.getFirstValue(behavior);
+   }
+
+   @Override
+   public int getTablePath(int behavior)
+   {
+      return base.getTablePath(behavior);
+   }
+
+   @Override
+   public int getTableDelimiter(int behavior)
+   {
+      return base.getTableDelimiter(behavior);
+   }
+
+   @Override
+   public int getValueCount()
+   {
+      return base.getValueCount();
+   }
+
+   @Override
+   public int getNextValue(int value)
+   {
+      return base.getNextValue(value);
+   }
+
+   @Override
+   public String getValueName(int value)
+   {
+      return base.getValueName(value);
+   }
+
+   @Override
+   public boolean isValueNumeric(int value)
+   {
+      Integer position = valueMap.get(value);
+      return position == null ? base.isValueNumeric(value) : valueString[position] == null;
+   }
+
+   @Override
+   public double getValueNumber(int value)
+   {
+      Integer position = valueMap.get(value);
+      return position == null ? base.getValueNumber(value) : valueNumber[position];
+   }
+
+   @Override
+   public String getValueString(int value)
+   {
+      Integer position = valueMap.get(value);
+      if (position == null)
+      {
+         return base.getValueString(value);
+      }
+      else if (valueString[position] == null)
+      {
+         return Double.toString(valueNumber[position]);
+      }
+      else
+      {
+         return valueString[position];
+      }
+   }
+
+}
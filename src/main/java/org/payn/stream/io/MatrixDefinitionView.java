@@ -0,0 +1,195 @@
+package org.payn.stream.io;
+
+/**
+ * Read access to the holons, behavior assignments, and initial
+ * values of a matrix definition, independent of where the
+ * definition is stored
+ *
+ * @author robpayn
+ *
+ */
+public interface MatrixDefinitionView {
+
+   /**
+    * Get a string from the string table
+    *
+    * @param index
+    *       index in the string table
+    * @return
+    *       string
+    */
+   String getString(int index);
+
+   /**
+    * Get the number of strings in the string table
+    *
+    * @return
+    *       number of strings
+    */
+   int getStringCount();
+
+   /**
+    * Get the number of holons, including the root holon
+    *
+    * @return
+    *       number of holons
+    */
+   int getHolonCount();
+
+   /**
+    * Get the type of a holon
+    *
+    * @param holon
+    *       holon index
+    * @return
+    *       holon type
+    */
+   byte getHolonType(int holon);
+
+   /**
+    * Get the name of a holon
+    *
+    * @param holon
+    *       holon index
+    * @return
+    *       holon name
+    */
+   String getHolonName(int holon);
+
+   /**
+    * Get the cell attached to a boundary
+    *
+    * @param holon
+    *       boundary index
+    * @return
+    *       cell index, NONE if the holon is not a boundary
+    */
+   int getHolonCell(int holon);
+
+   /**
+    * Get the boundary adjacent to a boundary
+    *
+    * @param holon
+    *       boundary index
+    * @return
+    *       adjacent boundary index, NONE if there is no adjacent boundary
+    */
+   int getHolonAdjacent(int holon);
+
+   /**
+    * Get the number of behavior assignments
+    *
+    * @return
+    *       number of behavior assignments
+    */
+   int getBehaviorCount();
+
+   /**
+    * Get the holon of a behavior assignment
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @return
+    *       holon index, HOLON_DEFAULT for default values
+    */
+   int getBehaviorHolon(int behavior);
+
+   /**
+    * Get the behavior name of a behavior assignment
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @return
+    *       behavior name
+    */
+   String getBehaviorName(int behavior);
+
+   /**
+    * Get the first initial value of a behavior assignment
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @return
+    *       index of the first initial value, NONE if there are no values
+    */
+   int getFirstValue(int behavior);
+
+   /**
+    * Get the string index of the initial value table path
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @return
+    *       string index, NONE if no table is set
+    */
+   int getTablePath(int behavior);
+
+   /**
+    * Get the string index of the initial value table delimiter
+    *
+    * @param behavior
+    *       index of the behavior assignment
+    * @return
+    *       string index, NONE if no table is set
+    */
+   int getTableDelimiter(int behavior);
+
+   /**
+    * Get the number of initial values
+    *
+    * @return
+    *       number of initial values
+    */
+   int getValueCount();
+
+   /**
+    * Get the next initial value of the same behavior assignment
+    *
+    * @param value
+    *       index of the initial value
+    * @return
+    *       index of the next initial value, NONE if this is the last
+    */
+   int getNextValue(int value);
+
+   /**
+    * Get the state name of an initial value
+    *
+    * @param value
+    *       index of the initial value
+    * @return
+    *       state name
+    */
+   String getValueName(int value);
+
+   /**
+    * Determine if an initial value is numeric
+    *
+    * @param value
+    *       index of the initial value
+    * @return
+    *       true if numeric, false otherwise
+    */
+   boolean isValueNumeric(int value);
+
+   /**
+    * Get a numeric initial value
+    *
+    * @param value
+    *       index of the initial value
+    * @return
+    *       numeric value, NaN if the value is not numeric
+    */
+   double getValueNumber(int value);
+
+   /**
+    * Get an initial value as a string
+    *
+    * @param value
+    *       index of the initial value
+    * @return
+    *       string representation of the value
+    */
+   String getValueString(int value);
+
+}
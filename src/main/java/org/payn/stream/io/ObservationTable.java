@@ -0,0 +1,193 @@
+package org.payn.stream.io;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Table of observations from sensors at named locations, such as
+ * dissolved oxygen at the cells of a stream.  The first column of the
+ * table holds the times of the observations, and each following column
+ * holds the observations at one location, named in the header.  Missing
+ * observations are left blank or given as NaN.
+ *
+ * @author robpayn
+ *
+ */
+public class ObservationTable {
+
+   /**
+    * Name of the time column
+    */
+   public static final String COLUMN_TIME = "time";
+
+   /**
+    * Names of the locations
+    */
+   private String[] names;
+
+   /**
+    * Times of the observations, in increasing order
+    */
+   private double[] times;
+
+   /**
+    * Observations, indexed by time and location, NaN if missing
+    */
+   private double[][] values;
+
+   /**
+    * Construct a new table
+    *
+    * @param names
+    *       names of the locations
+    * @param times
+    *       times of the observations, in increasing order
+    * @param values
+    *       observations, indexed by time and location
+    */
+   public ObservationTable(String[] names, double[] times, double[][] values)
+   {
+      this.names = names;
+      this.times = times;
+      this.values = values;
+   }
+
+   /**
+    * Read a table of observations
+    *
+    * @param file
+    *       table file
+    * @param delimiter
+    *       column delimiter
+    * @return
+    *       observations
+    * @throws Exception
+    *       if error in reading the table, the time column is missing,
+    *       or the times do not increase
+    */
+   public static ObservationTable readTable(File file, String delimiter) throws Exception
+   {
+      ArrayList<String[]> rows = StreamGeometry.readRows(file, delimiter);
+      if (rows.size() < 2)
+      {
+         throw new Exception(String.format(
+               "Observation table %s has no observations",
+               file.getPath()
+               ));
+      }
+      String[] header = rows.get(0);
+      int columnTime = StreamGeometry.findColumn(header, COLUMN_TIME, file, true);
+      String[] names = new String[header.length - 1];
+      int[] columns = new int[names.length];
+      int location = 0;
+      for (int column = 0; column < header.length; column++)
+      {
+         if (column != columnTime)
+         {
+            names[location] = header[column].trim();
+            columns[location] = column;
+            location++;
+         }
+      }
+
+      double[] times = new double[rows.size() - 1];
+      double[][] values = new double[times.length][names.length];
+      for (int index = 0; index < times.length; index++)
+      {
+         String[] row = rows.get(index + 1);
+         try
+         {
+            times[index] = Double.valueOf(row[columnTime].trim());
+            for (location = 0; location < names.length; location++)
+            {
+               String value = columns[location] < row.length ?
+                     row[columns[location]].trim() : "";
+               values[index][location] = value.length() == 0 ?
+                     Double.NaN : Double.valueOf(value);
+            }
+         }
+         catch (RuntimeException e)
+         {
+            throw new Exception(String.format(
+                  "Invalid row %d in observation table %s",
+                  index + 1,
+                  file.getPath()
+                  ), e);
+         }
+         if (index > 0 && !(times[index] > times[index - 1]))
+         {
+            throw new Exception(String.format(
+                  "Times in observation table %s must increase, found %f after %f",
+                  file.getPath(),
+                  times[index],
+                  times[index - 1]
+                  ));
+         }
+      }
+      return new ObservationTable(names, times, values);
+   }
+
+   /**
+    * Get the number of observation times
+    *
+    * @return
+    *       number of times
+    */
+   public int getNumTimes()
+   {
+      return times.length;
+   }
+
+   /**
+    * Get the number of locations
+    *
+    * @return
+    *       number of locations
+    */
+   public int getNumLocations()
+   {
+      return names.length;
+   }
+
+   /**
+    * Get the name of a location
+    *
+    * @param location
+    *       index of the location
+    * @return
+    *       name
+    */
+   public String getName(int location)
+   {
+      return names[location];
+   }
+
+   /**
+    * Get an observation time
+    *
+    * @param index
+    *       index of the time
+    * @return
+    *       time
+    */
+   public double getTime(int index)
+   {
+      return times[index];
+   }
+
+   /**
+    * Get an observation
+    *
+    * @param index
+    *       index of the time
+    * @param location
+    *       index of the location
+    * @return
+    *       observation, NaN if missing
+    */
+   public double getValue(int index, int location)
+   {
+      return values[index][location];
+   }
+
+}
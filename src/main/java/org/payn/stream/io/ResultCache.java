@@ -0,0 +1,435 @@
+package org.payn.stream.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Cache of the outputs of finished runs, keyed by a fingerprint of
+ * everything that determines a run, so a run that was already made
+ * can return its outputs without simulating again.
+ *
+ * Each entry is a directory named by its key, holding a copy of the
+ * output directory of the run.  The cache is kept within a size budget
+ * by removing the least recently used entries, with the use of an
+ * entry recorded in the modification time of its directory.  The
+ * cache can be shared by the threads of one JVM and by separate
+ * processes, which are kept apart by a lock file.
+ *
+ * @author robpayn
+ *
+ */
+public class ResultCache {
+
+   /**
+    * Name of the lock file in the cache directory
+    */
+   public static final String LOCK_FILE_NAME = ".lock";
+
+   /**
+    * Prefix of an entry that is still being written
+    */
+   private static final String PREFIX_TEMP = ".tmp-";
+
+   /**
+    * Lock for the threads of this JVM, since a file lock
+    * is held by the whole JVM
+    */
+   private static final Object JVM_LOCK = new Object();
+
+   /**
+    * Directory of the cache
+    */
+   private File cacheDir;
+
+   /**
+    * Maximum total size of the entries, in bytes
+    */
+   private long maxBytes;
+
+   /**
+    * Flag for restoring outputs as hard links rather than copies
+    */
+   private boolean isLinked;
+
+   /**
+    * Construct a new cache in the provided directory
+    *
+    * @param cacheDir
+    *       directory of the cache, created if needed
+    * @param maxBytes
+    *       maximum total size of the entries, in bytes
+    * @throws Exception
+    *       if the directory cannot be created
+    */
+   public ResultCache(File cacheDir, long maxBytes) throws Exception
+   {
+      if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+      {
+         throw new Exception(String.format(
+               "Unable to create the result cache directory %s",
+               cacheDir.getPath()
+               ));
+      }
+      this.cacheDir = cacheDir;
+      this.maxBytes = maxBytes;
+   }
+
+   /**
+    * Restore outputs as hard links to the cached files rather than
+    * copies.  Linked outputs must not be changed in place, because
+    * the change would also change the cached entry.  Outputs are
+    * copied where links are not supported.
+    *
+    * @param isLinked
+    *       true if outputs are linked
+    */
+   public void setLinked(boolean isLinked)
+   {
+      this.isLinked = isLinked;
+   }
+
+   /**
+    * Restore the outputs of a cached run
+    *
+    * @param key
+    *       fingerprint of the run
+    * @param outputDir
+    *       output directory of the run, cleared before the files
+    *       of the entry are restored so no file of another run
+    *       is left among them
+    * @return
+    *       true if the run was cached and its outputs were restored,
+    *       false if the run is not cached
+    * @throws Exception
+    *       if error in restoring the outputs
+    */
+   public boolean restore(String key, File outputDir) throws Exception
+   {
+      synchronized (JVM_LOCK)
+      {
+         FileLock lock = lock();
+         try
+         {
+            File entryDir = new File(cacheDir, key);
+            if (!entryDir.isDirectory())
+            {
+               return false;
+            }
+            entryDir.setLastModified(System.currentTimeMillis());
+            clear(outputDir);
+            copyTree(entryDir, outputDir, isLinked);
+            return true;
+         }
+         finally
+         {
+            release(lock);
+         }
+      }
+   }
+
+   /**
+    * Delete the contents of an output directory, so the directory
+    * holds only the files of the next run
+    *
+    * @param outputDir
+    *       output directory
+    * @throws Exception
+    *       if the output directory holds the cache, or a file
+    *       cannot be deleted
+    */
+   public void clear(File outputDir) throws Exception
+   {
+      Path outputPath = outputDir.getAbsoluteFile().toPath().normalize();
+      if (cacheDir.getAbsoluteFile().toPath().normalize().startsWith(outputPath))
+      {
+         throw new Exception(String.format(
+               "Output directory %s holds the result cache %s and cannot be cleared",
+               outputDir.getPath(),
+               cacheDir.getPath()
+               ));
+      }
+      File[] files = outputDir.listFiles();
+      if (files == null)
+      {
+         return;
+      }
+      for (File file: files)
+      {
+         delete(file);
+         if (file.exists())
+         {
+            throw new Exception(String.format(
+                  "Unable to delete %s from the output directory",
+                  file.getPath()
+                  ));
+         }
+      }
+   }
+
+   /**
+    * Store the outputs of a finished run, then remove the least
+    * recently used entries until the cache is within its budget.
+    * Outputs larger than the whole budget are not stored.
+    *
+    * @param key
+    *       fingerprint of the run
+    * @param outputDir
+    *       output directory of the run
+    * @return
+    *       true if the outputs were stored, false otherwise
+    * @throws Exception
+    *       if error in copying the outputs
+    */
+   public boolean store(String key, File outputDir) throws Exception
+   {
+      if (!outputDir.isDirectory() || getSize(outputDir) > maxBytes)
+      {
+         return false;
+      }
+
+      // Copy outside of the lock, then publish the entry by renaming it
+      File tempDir = Files.createTempDirectory(cacheDir.toPath(), PREFIX_TEMP).toFile();
+      try
+      {
+         copyTree(outputDir, tempDir, false);
+         synchronized (JVM_LOCK)
+         {
+            FileLock lock = lock();
+            try
+            {
+               File entryDir = new File(cacheDir, key);
+               if (!entryDir.exists() && !tempDir.renameTo(entryDir))
+               {
+                  return false;
+               }
+               entryDir.setLastModified(System.currentTimeMillis());
+               evict(entryDir);
+               return true;
+            }
+            finally
+            {
+               release(lock);
+            }
+         }
+      }
+      finally
+      {
+         if (tempDir.exists())
+         {
+            delete(tempDir);
+         }
+      }
+   }
+
+   /**
+    * Remove the least recently used entries until the total size of
+    * the cache is within the budget.  Called while holding the lock.
+    *
+    * @param keepDir
+    *       entry that is not removed
+    */
+   private void evict(File keepDir)
+   {
+      File[] entries = cacheDir.listFiles();
+      if (entries == null)
+      {
+         return;
+      }
+      final long[] lastUsed = new long[entries.length];
+      long[] sizes = new long[entries.length];
+      long total = 0;
+      Integer[] order = new Integer[entries.length];
+      for (int index = 0; index < entries.length; index++)
+      {
+         order[index] = index;
+         if (isEntry(entries[index]))
+         {
+            lastUsed[index] = entries[index].lastModified();
+            sizes[index] = getSize(entries[index]);
+            total += sizes[index];
+         }
+      }
+      if (total <= maxBytes)
+      {
+         return;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+         @Override
+         public int compare(Integer a, Integer b)
+         {
+            return Long.compare(lastUsed[a], lastUsed[b]);
+         }
+      });
+      for (int index: order)
+      {
+         if (total <= maxBytes)
+         {
+            break;
+         }
+         File entry = entries[index];
+         if (isEntry(entry) && !entry.equals(keepDir))
+         {
+            System.out.println(String.format(
+                  "Removing result cache entry %s (%.1f MB)",
+                  entry.getName(),
+                  sizes[index] / (1024.0 * 1024.0)
+                  ));
+            delete(entry);
+            total -= sizes[index];
+         }
+      }
+   }
+
+   /**
+    * Determine if a file in the cache directory is a finished entry
+    *
+    * @param file
+    *       file in the cache directory
+    * @return
+    *       true if the file is an entry, false otherwise
+    */
+   private static boolean isEntry(File file)
+   {
+      return file.isDirectory() && !file.getName().startsWith(".");
+   }
+
+   /**
+    * Lock the cache against other processes
+    *
+    * @return
+    *       lock, null if the file system does not support locks
+    * @throws Exception
+    *       if error in opening the lock file
+    */
+   private FileLock lock() throws Exception
+   {
+      RandomAccessFile lockFile = new RandomAccessFile(new File(cacheDir, LOCK_FILE_NAME), "rw");
+      try
+      {
+         return lockFile.getChannel().lock();
+      }
+      catch (IOException e)
+      {
+         lockFile.close();
+         return null;
+      }
+   }
+
+   /**
+    * Release a lock on the cache
+    *
+    * @param lock
+    *       lock, may be null
+    * @throws Exception
+    *       if error in closing the lock file
+    */
+   private static void release(FileLock lock) throws Exception
+   {
+      if (lock != null)
+      {
+         lock.release();
+         lock.channel().close();
+      }
+   }
+
+   /**
+    * Copy the files of a directory tree into another directory
+    *
+    * @param sourceDir
+    *       directory to copy
+    * @param targetDir
+    *       directory to copy to, created if needed
+    * @param isLinked
+    *       true if files are hard linked where possible
+    * @throws Exception
+    *       if error in copying
+    */
+   private static void copyTree(File sourceDir, File targetDir, boolean isLinked)
+         throws Exception
+   {
+      if (!targetDir.isDirectory() && !targetDir.mkdirs())
+      {
+         throw new Exception(String.format(
+               "Unable to create the directory %s",
+               targetDir.getPath()
+               ));
+      }
+      File[] files = sourceDir.listFiles();
+      if (files == null)
+      {
+         return;
+      }
+      for (File file: files)
+      {
+         File target = new File(targetDir, file.getName());
+         if (file.isDirectory())
+         {
+            copyTree(file, target, isLinked);
+            continue;
+         }
+         Files.deleteIfExists(target.toPath());
+         if (isLinked)
+         {
+            try
+            {
+               Files.createLink(target.toPath(), file.toPath());
+               continue;
+            }
+            catch (IOException | UnsupportedOperationException e)
+            {
+               // fall back to a copy
+            }
+         }
+         Files.copy(file.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+      }
+   }
+
+   /**
+    * Get the total size of the files in a directory tree
+    *
+    * @param dir
+    *       directory
+    * @return
+    *       size in bytes
+    */
+   private static long getSize(File dir)
+   {
+      long size = 0;
+      File[] files = dir.listFiles();
+      if (files != null)
+      {
+         for (File file: files)
+         {
+            size += file.isDirectory() ? getSize(file) : file.length();
+         }
+      }
+      return size;
+   }
+
+   /**
+    * Delete a directory tree
+    *
+    * @param file
+    *       file or directory to delete
+    */
+   private static void delete(File file)
+   {
+      File[] files = file.listFiles();
+      if (files != null)
+      {
+         for (File child: files)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+
+}
@@ -0,0 +1,409 @@
+package org.payn.stream.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Geometry of the cells in a stream reach built from a table of
+ * segments.  Each segment has its own length, number of cells, width,
+ * and bed slope, so fine resolution can be limited to the segments
+ * that need it.
+ *
+ * Cells are numbered from 1 to the number of cells, in the same way
+ * as the stream builders number them.
+ *
+ * @author robpayn
+ *
+ */
+public class StreamGeometry {
+
+   /**
+    * Column name for the segment length
+    */
+   public static final String COLUMN_LENGTH = "length";
+
+   /**
+    * Column name for the number of cells in a segment
+    */
+   public static final String COLUMN_NUM_CELLS = "numCells";
+
+   /**
+    * Column name for the segment width
+    */
+   public static final String COLUMN_WIDTH = "width";
+
+   /**
+    * Column name for the segment bed slope
+    */
+   public static final String COLUMN_BED_SLOPE = "bedSlope";
+
+   /**
+    * Length of each cell
+    */
+   private double[] cellLength;
+
+   /**
+    * Distance from the upstream end of the reach to the center of each cell
+    */
+   private double[] cellDistance;
+
+   /**
+    * Width of each cell
+    */
+   private double[] cellWidth;
+
+   /**
+    * Height of the bed at the center of each cell above the bed
+    * at the downstream end of the reach
+    */
+   private double[] cellBedHeight;
+
+   /**
+    * Length of the reach
+    */
+   private double streamLength;
+
+   /**
+    * Drop in bed elevation from the upstream end to the downstream
+    * end of the reach
+    */
+   private double bedDrop;
+
+   /**
+    * Construct a new geometry from the provided segments
+    *
+    * @param segmentLength
+    *       length of each segment
+    * @param segmentCells
+    *       number of cells in each segment
+    * @param segmentWidth
+    *       width of each segment
+    * @param segmentSlope
+    *       bed slope of each segment
+    */
+   public StreamGeometry(double[] segmentLength, int[] segmentCells,
+         double[] segmentWidth, double[] segmentSlope)
+   {
+      int numCells = 0;
+      for (int segment = 0; segment < segmentCells.length; segment++)
+      {
+         numCells += segmentCells[segment];
+      }
+      cellLength = new double[numCells];
+      cellDistance = new double[numCells];
+      cellWidth = new double[numCells];
+      cellBedHeight = new double[numCells];
+      double[] cellSlope = new double[numCells];
+
+      int cell = 0;
+      double distance = 0.0;
+      for (int segment = 0; segment < segmentCells.length; segment++)
+      {
+         double length = segmentLength[segment] / segmentCells[segment];
+         for (int i = 0; i < segmentCells[segment]; i++)
+         {
+            cellLength[cell] = length;
+            cellDistance[cell] = distance + length / 2;
+            cellWidth[cell] = segmentWidth[segment];
+            cellSlope[cell] = segmentSlope[segment];
+            distance += length;
+            cell++;
+         }
+      }
+      streamLength = distance;
+
+      // Bed heights accumulate from the downstream end
+      double height = 0.0;
+      for (cell = numCells - 1; cell >= 0; cell--)
+      {
+         cellBedHeight[cell] = height + cellSlope[cell] * cellLength[cell] / 2;
+         height += cellSlope[cell] * cellLength[cell];
+      }
+      bedDrop = height;
+   }
+
+   /**
+    * Construct a new geometry from the provided cell values
+    *
+    * @param cellLength
+    *       length of each cell
+    * @param cellDistance
+    *       distance from the upstream end of the reach to the center of each cell
+    * @param cellWidth
+    *       width of each cell
+    * @param cellBedHeight
+    *       height of the bed at the center of each cell above the bed
+    *       at the downstream end of the stream
+    * @param bedDrop
+    *       drop in bed elevation along the length of the stream
+    */
+   StreamGeometry(double[] cellLength, double[] cellDistance, double[] cellWidth,
+         double[] cellBedHeight, double bedDrop)
+   {
+      this.cellLength = cellLength;
+      this.cellDistance = cellDistance;
+      this.cellWidth = cellWidth;
+      this.cellBedHeight = cellBedHeight;
+      this.bedDrop = bedDrop;
+      streamLength = 0.0;
+      for (int cell = 0; cell < cellLength.length; cell++)
+      {
+         streamLength += cellLength[cell];
+      }
+   }
+
+   /**
+    * Read the geometry from a delimited segment table.  The first line
+    * holds the column names, and each following line describes a segment,
+    * from upstream to downstream.  The width and bed slope columns are
+    * optional if default values are provided.
+    *
+    * @param file
+    *       table file
+    * @param delimiter
+    *       column delimiter
+    * @param defaultWidth
+    *       width of segments if the table has no width column,
+    *       may be null
+    * @param defaultSlope
+    *       bed slope of segments if the table has no bed slope column,
+    *       may be null
+    * @return
+    *       stream geometry
+    * @throws Exception
+    *       if error in reading the table or a required column is missing
+    */
+   public static StreamGeometry readTable(File file, String delimiter,
+         Double defaultWidth, Double defaultSlope) throws Exception
+   {
+      ArrayList<String[]> rows = readRows(file, delimiter);
+      if (rows.size() < 2)
+      {
+         throw new Exception(String.format(
+               "Geometry table %s has no segments",
+               file.getPath()
+               ));
+      }
+
+      String[] header = rows.get(0);
+      int columnLength = findColumn(header, COLUMN_LENGTH, file, true);
+      int columnCells = findColumn(header, COLUMN_NUM_CELLS, file, true);
+      int columnWidth = findColumn(header, COLUMN_WIDTH, file, defaultWidth == null);
+      int columnSlope = findColumn(header, COLUMN_BED_SLOPE, file, defaultSlope == null);
+
+      int numSegments = rows.size() - 1;
+      double[] segmentLength = new double[numSegments];
+      int[] segmentCells = new int[numSegments];
+      double[] segmentWidth = new double[numSegments];
+      double[] segmentSlope = new double[numSegments];
+      for (int segment = 0; segment < numSegments; segment++)
+      {
+         String[] row = rows.get(segment + 1);
+         try
+         {
+            segmentLength[segment] = Double.valueOf(row[columnLength].trim());
+            segmentCells[segment] = Integer.valueOf(row[columnCells].trim());
+            segmentWidth[segment] = columnWidth < 0 ?
+                  defaultWidth : Double.valueOf(row[columnWidth].trim());
+            segmentSlope[segment] = columnSlope < 0 ?
+                  defaultSlope : Double.valueOf(row[columnSlope].trim());
+         }
+         catch (RuntimeException e)
+         {
+            throw new Exception(String.format(
+                  "Invalid segment %d in geometry table %s",
+                  segment + 1,
+                  file.getPath()
+                  ), e);
+         }
+         if (segmentCells[segment] < 1 || !(segmentLength[segment] > 0.0))
+         {
+            throw new Exception(String.format(
+                  "Segment %d in geometry table %s must have a positive length and cell count",
+                  segment + 1,
+                  file.getPath()
+                  ));
+         }
+      }
+      return new StreamGeometry(segmentLength, segmentCells, segmentWidth, segmentSlope);
+   }
+
+   /**
+    * Read the rows of a delimited table, skipping blank lines
+    *
+    * @param file
+    *       table file
+    * @param delimiter
+    *       column delimiter
+    * @return
+    *       list of rows, each split into its columns
+    * @throws Exception
+    *       if error in reading the table
+    */
+   static ArrayList<String[]> readRows(File file, String delimiter) throws Exception
+   {
+      ArrayList<String[]> rows = new ArrayList<String[]>();
+      Pattern pattern = Pattern.compile(Pattern.quote(delimiter));
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try
+      {
+         String line;
+         while ((line = reader.readLine()) != null)
+         {
+            if (line.trim().length() > 0)
+            {
+               rows.add(pattern.split(line.trim(), -1));
+            }
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      return rows;
+   }
+
+   /**
+    * Find a column in the header of a table
+    *
+    * @param header
+    *       column names
+    * @param name
+    *       name of the column to find
+    * @param file
+    *       table file, for error messages
+    * @param isRequired
+    *       true if the column must exist
+    * @return
+    *       index of the column, -1 if an optional column does not exist
+    * @throws Exception
+    *       if a required column does not exist
+    */
+   static int findColumn(String[] header, String name, File file,
+         boolean isRequired) throws Exception
+   {
+      for (int column = 0; column < header.length; column++)
+      {
+         if (header[column].trim().equals(name))
+         {
+            return column;
+         }
+      }
+      if (isRequired)
+      {
+         throw new Exception(String.format(
+               "Table %s has no %s column",
+               file.getPath(),
+               name
+               ));
+      }
+      return -1;
+   }
+
+   /**
+    * Get the number of cells
+    *
+    * @return
+    *       number of cells
+    */
+   public int getNumCells()
+   {
+      return cellLength.length;
+   }
+
+   /**
+    * Get the length of the reach
+    *
+    * @return
+    *       reach length
+    */
+   public double getStreamLength()
+   {
+      return streamLength;
+   }
+
+   /**
+    * Get the average width of the reach, weighted by cell length
+    *
+    * @return
+    *       average width
+    */
+   public double getAverageWidth()
+   {
+      double area = 0.0;
+      for (int cell = 0; cell < cellLength.length; cell++)
+      {
+         area += cellWidth[cell] * cellLength[cell];
+      }
+      return area / streamLength;
+   }
+
+   /**
+    * Get the average bed slope of the reach
+    *
+    * @return
+    *       average bed slope
+    */
+   public double getAverageBedSlope()
+   {
+      return bedDrop / streamLength;
+   }
+
+   /**
+    * Get the length of a cell
+    *
+    * @param cell
+    *       cell number, starting at 1
+    * @return
+    *       cell length
+    */
+   public double getCellLength(long cell)
+   {
+      return cellLength[(int)cell - 1];
+   }
+
+   /**
+    * Get the distance from the upstream end of the reach to
+    * the center of a cell
+    *
+    * @param cell
+    *       cell number, starting at 1
+    * @return
+    *       distance
+    */
+   public double getCellDistance(long cell)
+   {
+      return cellDistance[(int)cell - 1];
+   }
+
+   /**
+    * Get the width of a cell
+    *
+    * @param cell
+    *       cell number, starting at 1
+    * @return
+    *       cell width
+    */
+   public double getCellWidth(long cell)
+   {
+      return cellWidth[(int)cell - 1];
+   }
+
+   /**
+    * Get the height of the bed at the center of a cell above
+    * the bed at the downstream end of the stream
+    *
+    * @param cell
+    *       cell number, starting at 1
+    * @return
+    *       bed height
+    */
+   public double getCellBedHeight(long cell)
+   {
+      return cellBedHeight[(int)cell - 1];
+   }
+
+}
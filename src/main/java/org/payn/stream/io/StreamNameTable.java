@@ -0,0 +1,544 @@
+package org.payn.stream.io;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Table of the cell and boundary names in a stream reach or a network
+ * of reaches, with a dense integer index for each holon.
+ *
+ * Cells are numbered from 1 to the number of cells, in the same way
+ * as the stream builders number them.  Each cell has an upstream and
+ * a downstream boundary, so boundary indices run from 0 to twice the
+ * number of cells minus 1, with the upstream boundary of cell i at
+ * index 2(i - 1) and the downstream boundary at index 2(i - 1) + 1.
+ *
+ * In a network, each reach is a contiguous range of cell numbers.  The
+ * upstream boundary of the first cell in a reach is external, and the
+ * downstream boundary of the last cell in a tributary reach is adjacent
+ * to a confluence boundary on a cell of the receiving reach.  Confluence
+ * boundaries are indexed after the cell boundaries, in reach order.
+ *
+ * All names are generated once when the table is constructed, and
+ * the table is not changed afterwards, so it can be shared between
+ * threads and between models with the same topology.
+ *
+ * @author robpayn
+ *
+ */
+public class StreamNameTable {
+
+   /**
+    * Value returned for a holon that does not exist
+    */
+   public static final int NONE = -1;
+
+   /**
+    * Root string for cell names
+    */
+   private String cellNameRoot;
+
+   /**
+    * Root string for boundary names
+    */
+   private String boundaryNameRoot;
+
+   /**
+    * Number of cells
+    */
+   private int numCells;
+
+   /**
+    * Number of digits in cell numbers
+    */
+   private int numCellsDigits;
+
+   /**
+    * Number of the last cell in each reach
+    */
+   private int[] reachLastCells;
+
+   /**
+    * Number of the receiving cell for the outlet of each reach,
+    * NONE for the outlet of the network
+    */
+   private int[] confluenceCells;
+
+   /**
+    * Index of the confluence boundary for each reach,
+    * NONE for the outlet of the network
+    */
+   private int[] confluenceBoundaries;
+
+   /**
+    * Reach for each confluence boundary, indexed by boundary
+    * index minus twice the number of cells
+    */
+   private int[] confluenceReaches;
+
+   /**
+    * Cell names, indexed by cell number minus 1
+    */
+   private String[] cellNames;
+
+   /**
+    * Boundary names, indexed by boundary index
+    */
+   private String[] boundaryNames;
+
+   /**
+    * Map of cell names to cell numbers, created when first needed
+    * and not changed after it is published
+    */
+   private volatile HashMap<String, Integer> cellIndexMap;
+
+   /**
+    * Map of boundary names to boundary indices, created when first needed
+    * and not changed after it is published
+    */
+   private volatile HashMap<String, Integer> boundaryIndexMap;
+
+   /**
+    * Construct a new table for a stream with the provided number of cells
+    *
+    * @param cellNameRoot
+    *       root string for cell names
+    * @param boundaryNameRoot
+    *       root string for boundary names
+    * @param numCells
+    *       number of cells
+    */
+   public StreamNameTable(String cellNameRoot, String boundaryNameRoot, int numCells)
+   {
+      this(cellNameRoot, boundaryNameRoot, new int[] {numCells}, new int[] {NONE});
+   }
+
+   /**
+    * Construct a new table for a network of reaches
+    *
+    * @param cellNameRoot
+    *       root string for cell names
+    * @param boundaryNameRoot
+    *       root string for boundary names
+    * @param reachLastCells
+    *       number of the last cell in each reach, in increasing order
+    * @param confluenceCells
+    *       number of the receiving cell for the outlet of each reach,
+    *       NONE for the outlet of the network
+    */
+   public StreamNameTable(String cellNameRoot, String boundaryNameRoot,
+         int[] reachLastCells, int[] confluenceCells)
+   {
+      this.cellNameRoot = cellNameRoot;
+      this.boundaryNameRoot = boundaryNameRoot;
+      this.reachLastCells = reachLastCells;
+      this.confluenceCells = confluenceCells;
+      this.numCells = reachLastCells[reachLastCells.length - 1];
+      this.numCellsDigits = 1 + (int)Math.log10(numCells);
+
+      int numConfluences = 0;
+      for (int reach = 0; reach < reachLastCells.length; reach++)
+      {
+         if (confluenceCells[reach] != NONE)
+         {
+            numConfluences++;
+         }
+      }
+      confluenceBoundaries = new int[reachLastCells.length];
+      confluenceReaches = new int[numConfluences];
+
+      cellNames = new String[numCells];
+      boundaryNames = new String[2 * numCells + numConfluences];
+      String[] numbers = new String[numCells];
+      char[] digits = new char[numCellsDigits];
+      for (int cell = 1; cell <= numCells; cell++)
+      {
+         int number = cell;
+         for (int digit = numCellsDigits - 1; digit >= 0; digit--)
+         {
+            digits[digit] = (char)('0' + number % 10);
+            number /= 10;
+         }
+         numbers[cell - 1] = new String(digits);
+         cellNames[cell - 1] = cellNameRoot + numbers[cell - 1];
+      }
+
+      StringBuilder builder = new StringBuilder();
+      int confluenceBoundary = 2 * numCells;
+      for (int reach = 0; reach < reachLastCells.length; reach++)
+      {
+         int firstCell = getReachFirstCell(reach);
+         int lastCell = reachLastCells[reach];
+         int confluenceCell = confluenceCells[reach];
+         for (int cell = firstCell; cell <= lastCell; cell++)
+         {
+            String number = numbers[cell - 1];
+
+            // Upstream boundary
+            builder.setLength(0);
+            builder.append(boundaryNameRoot);
+            if (cell == firstCell)
+            {
+               builder.append("ext_").append(number);
+            }
+            else
+            {
+               builder.append(number).append('_').append(numbers[cell - 2]);
+            }
+            boundaryNames[getUpstreamBoundaryIndex(cell)] = builder.toString();
+
+            // Downstream boundary
+            builder.setLength(0);
+            builder.append(boundaryNameRoot).append(number);
+            if (cell < lastCell)
+            {
+               builder.append('_').append(numbers[cell]);
+            }
+            else if (confluenceCell == NONE)
+            {
+               builder.append("_ext");
+            }
+            else
+            {
+               builder.append('_').append(numbers[confluenceCell - 1]);
+            }
+            boundaryNames[getDownstreamBoundaryIndex(cell)] = builder.toString();
+         }
+
+         // Confluence boundary on the receiving cell
+         if (confluenceCell == NONE)
+         {
+            confluenceBoundaries[reach] = NONE;
+         }
+         else
+         {
+            boundaryNames[confluenceBoundary] = boundaryNameRoot 
+                  + numbers[confluenceCell - 1] + '_' + numbers[lastCell - 1];
+            confluenceBoundaries[reach] = confluenceBoundary;
+            confluenceReaches[confluenceBoundary - 2 * numCells] = reach;
+            confluenceBoundary++;
+         }
+      }
+   }
+
+   /**
+    * Get the root string for cell names
+    *
+    * @return
+    *       root string
+    */
+   public String getCellNameRoot()
+   {
+      return cellNameRoot;
+   }
+
+   /**
+    * Get the root string for boundary names
+    *
+    * @return
+    *       root string
+    */
+   public String getBoundaryNameRoot()
+   {
+      return boundaryNameRoot;
+   }
+
+   /**
+    * Get the number of cells
+    *
+    * @return
+    *       number of cells
+    */
+   public int getNumCells()
+   {
+      return numCells;
+   }
+
+   /**
+    * Get the number of digits in cell numbers
+    *
+    * @return
+    *       number of digits
+    */
+   public int getNumCellsDigits()
+   {
+      return numCellsDigits;
+   }
+
+   /**
+    * Get the number of boundaries
+    *
+    * @return
+    *       number of boundaries
+    */
+   public int getNumBoundaries()
+   {
+      return boundaryNames.length;
+   }
+
+   /**
+    * Get the number of reaches
+    *
+    * @return
+    *       number of reaches
+    */
+   public int getNumReaches()
+   {
+      return reachLastCells.length;
+   }
+
+   /**
+    * Get the number of the first cell in a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       cell number
+    */
+   public int getReachFirstCell(int reach)
+   {
+      return reach == 0 ? 1 : reachLastCells[reach - 1] + 1;
+   }
+
+   /**
+    * Get the number of the last cell in a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       cell number
+    */
+   public int getReachLastCell(int reach)
+   {
+      return reachLastCells[reach];
+   }
+
+   /**
+    * Get the index of the reach containing a cell
+    *
+    * @param cell
+    *       cell number
+    * @return
+    *       reach index
+    */
+   public int getCellReach(int cell)
+   {
+      int reach = Arrays.binarySearch(reachLastCells, cell);
+      return reach < 0 ? -(reach + 1) : reach;
+   }
+
+   /**
+    * Get the number of the receiving cell for the outlet of a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       cell number, NONE for the outlet of the network
+    */
+   public int getConfluenceCell(int reach)
+   {
+      return confluenceCells[reach];
+   }
+
+   /**
+    * Get the index of the confluence boundary on the receiving
+    * cell for the outlet of a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       boundary index, NONE for the outlet of the network
+    */
+   public int getConfluenceBoundaryIndex(int reach)
+   {
+      return confluenceBoundaries[reach];
+   }
+
+   /**
+    * Get the name of the confluence boundary on the receiving
+    * cell for the outlet of a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       boundary name, null for the outlet of the network
+    */
+   public String getConfluenceBoundaryName(int reach)
+   {
+      return confluenceBoundaries[reach] == NONE ? 
+            null : boundaryNames[confluenceBoundaries[reach]];
+   }
+
+   /**
+    * Get the name of a cell
+    *
+    * @param cell
+    *       cell number, starting at 1
+    * @return
+    *       cell name
+    */
+   public String getCellName(int cell)
+   {
+      return cellNames[cell - 1];
+   }
+
+   /**
+    * Get the name of a boundary
+    *
+    * @param boundary
+    *       boundary index
+    * @return
+    *       boundary name
+    */
+   public String getBoundaryName(int boundary)
+   {
+      return boundaryNames[boundary];
+   }
+
+   /**
+    * Get the name of the upstream boundary of a cell
+    *
+    * @param cell
+    *       cell number
+    * @return
+    *       boundary name
+    */
+   public String getUpstreamBoundaryName(int cell)
+   {
+      return boundaryNames[getUpstreamBoundaryIndex(cell)];
+   }
+
+   /**
+    * Get the name of the downstream boundary of a cell
+    *
+    * @param cell
+    *       cell number
+    * @return
+    *       boundary name
+    */
+   public String getDownstreamBoundaryName(int cell)
+   {
+      return boundaryNames[getDownstreamBoundaryIndex(cell)];
+   }
+
+   /**
+    * Get the index of the upstream boundary of a cell
+    *
+    * @param cell
+    *       cell number
+    * @return
+    *       boundary index
+    */
+   public int getUpstreamBoundaryIndex(int cell)
+   {
+      return 2 * (cell - 1);
+   }
+
+   /**
+    * Get the index of the downstream boundary of a cell
+    *
+    * @param cell
+    *       cell number
+    * @return
+    *       boundary index
+    */
+   public int getDownstreamBoundaryIndex(int cell)
+   {
+      return 2 * (cell - 1) + 1;
+   }
+
+   /**
+    * Get the number of the cell attached to a boundary
+    *
+    * @param boundary
+    *       boundary index
+    * @return
+    *       cell number
+    */
+   public int getBoundaryCell(int boundary)
+   {
+      if (boundary >= 2 * numCells)
+      {
+         return confluenceCells[confluenceReaches[boundary - 2 * numCells]];
+      }
+      return boundary / 2 + 1;
+   }
+
+   /**
+    * Get the index of the boundary adjacent to a boundary
+    *
+    * @param boundary
+    *       boundary index
+    * @return
+    *       index of the adjacent boundary, NONE for the
+    *       external boundaries at the ends of the reaches
+    */
+   public int getAdjacentBoundary(int boundary)
+   {
+      if (boundary >= 2 * numCells)
+      {
+         return getDownstreamBoundaryIndex(
+               reachLastCells[confluenceReaches[boundary - 2 * numCells]]
+               );
+      }
+      int cell = getBoundaryCell(boundary);
+      int reach = getCellReach(cell);
+      if (boundary % 2 == 0)
+      {
+         return cell == getReachFirstCell(reach) ? NONE : boundary - 1;
+      }
+      else
+      {
+         return cell == reachLastCells[reach] ? confluenceBoundaries[reach] : boundary + 1;
+      }
+   }
+
+   /**
+    * Get the number of a cell from its name
+    *
+    * @param cellName
+    *       cell name
+    * @return
+    *       cell number, NONE if the name is not in the table
+    */
+   public int getCellIndex(String cellName)
+   {
+      HashMap<String, Integer> map = cellIndexMap;
+      if (map == null)
+      {
+         map = new HashMap<String, Integer>(2 * numCells);
+         for (int cell = 1; cell <= numCells; cell++)
+         {
+            map.put(cellNames[cell - 1], cell);
+         }
+         cellIndexMap = map;
+      }
+      Integer cell = map.get(cellName);
+      return cell == null ? NONE : cell;
+   }
+
+   /**
+    * Get the index of a boundary from its name
+    *
+    * @param boundaryName
+    *       boundary name
+    * @return
+    *       boundary index, NONE if the name is not in the table
+    */
+   public int getBoundaryIndex(String boundaryName)
+   {
+      HashMap<String, Integer> map = boundaryIndexMap;
+      if (map == null)
+      {
+         map = new HashMap<String, Integer>(2 * boundaryNames.length);
+         for (int boundary = 0; boundary < boundaryNames.length; boundary++)
+         {
+            map.put(boundaryNames[boundary], boundary);
+         }
+         boundaryIndexMap = map;
+      }
+      Integer boundary = map.get(boundaryName);
+      return boundary == null ? NONE : boundary;
+   }
+
+}
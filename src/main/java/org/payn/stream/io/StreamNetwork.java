@@ -0,0 +1,655 @@
+package org.payn.stream.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Network of stream reaches joined at confluences, built from a table
+ * of reaches.  Each reach has its own length, number of cells, width,
+ * and bed slope, and names the reach it flows into.  Exactly one reach
+ * has no downstream reach and is the outlet of the network.
+ *
+ * Cells are numbered from 1 through the reaches in table order, so each
+ * reach is a contiguous range of cell numbers.  The outlet of a tributary
+ * joins a cell of the receiving reach, the first cell by default.
+ *
+ * Water enters the network at the upstream end of the headwater reaches.
+ * By default, the headwaters are the reaches with no tributaries, and the
+ * headwater column of the table marks a reach with tributaries that also
+ * has its own upstream inflow.
+ *
+ * @author robpayn
+ *
+ */
+public class StreamNetwork {
+
+   /**
+    * Value returned for a reach or cell that does not exist
+    */
+   public static final int NONE = -1;
+
+   /**
+    * Column name for the reach name
+    */
+   public static final String COLUMN_NAME = "name";
+
+   /**
+    * Column name for the name of the receiving reach
+    */
+   public static final String COLUMN_DOWNSTREAM = "downstream";
+
+   /**
+    * Column name for the number of the receiving cell in
+    * the receiving reach, starting at 1
+    */
+   public static final String COLUMN_CONFLUENCE_CELL = "confluenceCell";
+
+   /**
+    * Column name for the flag of a reach with an inflow at its
+    * upstream end, true or false
+    */
+   public static final String COLUMN_HEADWATER = "headwater";
+
+   /**
+    * Names of the reaches
+    */
+   private String[] reachNames;
+
+   /**
+    * Length of each reach
+    */
+   private double[] reachLength;
+
+   /**
+    * Width of each reach
+    */
+   private double[] reachWidth;
+
+   /**
+    * Bed slope of each reach
+    */
+   private double[] reachSlope;
+
+   /**
+    * Number of the last cell in each reach
+    */
+   private int[] reachLastCells;
+
+   /**
+    * Index of the receiving reach of each reach, NONE for the outlet
+    */
+   private int[] downstreamReaches;
+
+   /**
+    * Number of the receiving cell for the outlet of each reach,
+    * NONE for the outlet
+    */
+   private int[] confluenceCells;
+
+   /**
+    * Flag for each reach with an inflow at its upstream end
+    */
+   private boolean[] headwaters;
+
+   /**
+    * Index of the outlet reach
+    */
+   private int outletReach;
+
+   /**
+    * Construct a new network from the provided reaches
+    *
+    * @param reachNames
+    *       name of each reach
+    * @param reachLength
+    *       length of each reach
+    * @param reachCells
+    *       number of cells in each reach
+    * @param reachWidth
+    *       width of each reach
+    * @param reachSlope
+    *       bed slope of each reach
+    * @param downstreamNames
+    *       name of the receiving reach of each reach,
+    *       null or empty for the outlet
+    * @param confluenceCells
+    *       number of the receiving cell in the receiving reach
+    *       of each reach, starting at 1
+    * @param headwaters
+    *       flag for each reach with an inflow at its upstream end,
+    *       null for the array or a reach to make the reaches with
+    *       no tributaries the headwaters
+    * @throws Exception
+    *       if the reaches do not form a network with a single outlet,
+    *       or a reach has no inflow
+    */
+   public StreamNetwork(String[] reachNames, double[] reachLength, int[] reachCells,
+         double[] reachWidth, double[] reachSlope, String[] downstreamNames,
+         int[] confluenceCells, Boolean[] headwaters) throws Exception
+   {
+      int numReaches = reachNames.length;
+      this.reachNames = reachNames;
+      this.reachLength = reachLength;
+      this.reachWidth = reachWidth;
+      this.reachSlope = reachSlope;
+
+      HashMap<String, Integer> reachMap = new HashMap<String, Integer>();
+      reachLastCells = new int[numReaches];
+      int lastCell = 0;
+      for (int reach = 0; reach < numReaches; reach++)
+      {
+         if (reachMap.put(reachNames[reach], reach) != null)
+         {
+            throw new Exception(String.format(
+                  "Reach %s is defined more than once in the network",
+                  reachNames[reach]
+                  ));
+         }
+         lastCell += reachCells[reach];
+         reachLastCells[reach] = lastCell;
+      }
+
+      // Resolve the receiving reaches and cells
+      downstreamReaches = new int[numReaches];
+      this.confluenceCells = new int[numReaches];
+      outletReach = NONE;
+      for (int reach = 0; reach < numReaches; reach++)
+      {
+         String downstreamName = downstreamNames[reach];
+         if (downstreamName == null || downstreamName.equals(""))
+         {
+            if (outletReach != NONE)
+            {
+               throw new Exception(String.format(
+                     "Reaches %s and %s are both outlets of the network",
+                     reachNames[outletReach],
+                     reachNames[reach]
+                     ));
+            }
+            outletReach = reach;
+            downstreamReaches[reach] = NONE;
+            this.confluenceCells[reach] = NONE;
+         }
+         else
+         {
+            Integer downstreamReach = reachMap.get(downstreamName);
+            if (downstreamReach == null)
+            {
+               throw new Exception(String.format(
+                     "Reach %s flows into undefined reach %s",
+                     reachNames[reach],
+                     downstreamName
+                     ));
+            }
+            if (confluenceCells[reach] < 1 || confluenceCells[reach] > reachCells[downstreamReach])
+            {
+               throw new Exception(String.format(
+                     "Reach %s joins reach %s at cell %d, which is not in the reach",
+                     reachNames[reach],
+                     downstreamName,
+                     confluenceCells[reach]
+                     ));
+            }
+            downstreamReaches[reach] = downstreamReach;
+            this.confluenceCells[reach] =
+                  getFirstCell(downstreamReach) + confluenceCells[reach] - 1;
+         }
+      }
+      if (outletReach == NONE)
+      {
+         throw new Exception("The network has no outlet reach");
+      }
+
+      // Every reach must drain to the outlet
+      for (int reach = 0; reach < numReaches; reach++)
+      {
+         int downstreamReach = reach;
+         for (int step = 0; step < numReaches && downstreamReach != outletReach; step++)
+         {
+            downstreamReach = downstreamReaches[downstreamReach];
+         }
+         if (downstreamReach != outletReach)
+         {
+            throw new Exception(String.format(
+                  "Reach %s is part of a loop that does not drain to the outlet",
+                  reachNames[reach]
+                  ));
+         }
+      }
+
+      // Reaches without tributaries are headwaters unless the
+      // flag says otherwise, and every reach needs an inflow
+      this.headwaters = new boolean[numReaches];
+      Arrays.fill(this.headwaters, true);
+      for (int reach = 0; reach < numReaches; reach++)
+      {
+         if (downstreamReaches[reach] != NONE)
+         {
+            this.headwaters[downstreamReaches[reach]] = false;
+         }
+      }
+      for (int reach = 0; reach < numReaches; reach++)
+      {
+         boolean hasTributary = !this.headwaters[reach];
+         if (headwaters != null && headwaters[reach] != null)
+         {
+            this.headwaters[reach] = headwaters[reach];
+         }
+         if (!hasTributary && !this.headwaters[reach])
+         {
+            throw new Exception(String.format(
+                  "Reach %s has no tributaries and must be a headwater",
+                  reachNames[reach]
+                  ));
+         }
+      }
+   }
+
+   /**
+    * Read the network from a delimited reach table.  The first line
+    * holds the column names, and each following line describes a reach.
+    * The width and bed slope columns are optional if default values
+    * are provided, and the confluence cell and headwater columns are
+    * optional.
+    *
+    * @param file
+    *       table file
+    * @param delimiter
+    *       column delimiter
+    * @param defaultWidth
+    *       width of reaches if the table has no width column,
+    *       may be null
+    * @param defaultSlope
+    *       bed slope of reaches if the table has no bed slope column,
+    *       may be null
+    * @return
+    *       stream network
+    * @throws Exception
+    *       if error in reading the table, a required column is missing,
+    *       or the reaches do not form a network
+    */
+   public static StreamNetwork readTable(File file, String delimiter,
+         Double defaultWidth, Double defaultSlope) throws Exception
+   {
+      ArrayList<String[]> rows = StreamGeometry.readRows(file, delimiter);
+      if (rows.size() < 2)
+      {
+         throw new Exception(String.format(
+               "Network table %s has no reaches",
+               file.getPath()
+               ));
+      }
+
+      String[] header = rows.get(0);
+      int columnName = StreamGeometry.findColumn(header, COLUMN_NAME, file, true);
+      int columnLength = StreamGeometry.findColumn(
+            header, StreamGeometry.COLUMN_LENGTH, file, true);
+      int columnCells = StreamGeometry.findColumn(
+            header, StreamGeometry.COLUMN_NUM_CELLS, file, true);
+      int columnWidth = StreamGeometry.findColumn(
+            header, StreamGeometry.COLUMN_WIDTH, file, defaultWidth == null);
+      int columnSlope = StreamGeometry.findColumn(
+            header, StreamGeometry.COLUMN_BED_SLOPE, file, defaultSlope == null);
+      int columnDownstream = StreamGeometry.findColumn(header, COLUMN_DOWNSTREAM, file, true);
+      int columnConfluence = StreamGeometry.findColumn(
+            header, COLUMN_CONFLUENCE_CELL, file, false);
+      int columnHeadwater = StreamGeometry.findColumn(header, COLUMN_HEADWATER, file, false);
+
+      int numReaches = rows.size() - 1;
+      String[] reachNames = new String[numReaches];
+      double[] reachLength = new double[numReaches];
+      int[] reachCells = new int[numReaches];
+      double[] reachWidth = new double[numReaches];
+      double[] reachSlope = new double[numReaches];
+      String[] downstreamNames = new String[numReaches];
+      int[] confluenceCells = new int[numReaches];
+      Boolean[] headwaters = new Boolean[numReaches];
+      for (int reach = 0; reach < numReaches; reach++)
+      {
+         String[] row = rows.get(reach + 1);
+         try
+         {
+            reachNames[reach] = row[columnName].trim();
+            reachLength[reach] = Double.valueOf(row[columnLength].trim());
+            reachCells[reach] = Integer.valueOf(row[columnCells].trim());
+            reachWidth[reach] = columnWidth < 0 ?
+                  defaultWidth : Double.valueOf(row[columnWidth].trim());
+            reachSlope[reach] = columnSlope < 0 ?
+                  defaultSlope : Double.valueOf(row[columnSlope].trim());
+            downstreamNames[reach] = columnDownstream < row.length ?
+                  row[columnDownstream].trim() : "";
+            if (columnConfluence < 0 || columnConfluence >= row.length
+                  || row[columnConfluence].trim().equals(""))
+            {
+               confluenceCells[reach] = 1;
+            }
+            else
+            {
+               confluenceCells[reach] = Integer.valueOf(row[columnConfluence].trim());
+            }
+            if (columnHeadwater >= 0 && columnHeadwater < row.length
+                  && !row[columnHeadwater].trim().equals(""))
+            {
+               headwaters[reach] = parseFlag(row[columnHeadwater].trim());
+            }
+         }
+         catch (RuntimeException e)
+         {
+            throw new Exception(String.format(
+                  "Invalid reach %d in network table %s",
+                  reach + 1,
+                  file.getPath()
+                  ), e);
+         }
+         if (reachCells[reach] < 1 || !(reachLength[reach] > 0.0))
+         {
+            throw new Exception(String.format(
+                  "Reach %s in network table %s must have a positive length and cell count",
+                  reachNames[reach],
+                  file.getPath()
+                  ));
+         }
+      }
+      return new StreamNetwork(reachNames, reachLength, reachCells,
+            reachWidth, reachSlope, downstreamNames, confluenceCells, headwaters);
+   }
+
+   /**
+    * Parse a true or false flag from a table
+    *
+    * @param value
+    *       text of the flag
+    * @return
+    *       flag
+    * @throws IllegalArgumentException
+    *       if the text is not true or false
+    */
+   private static boolean parseFlag(String value)
+   {
+      if (value.equalsIgnoreCase("true"))
+      {
+         return true;
+      }
+      if (value.equalsIgnoreCase("false"))
+      {
+         return false;
+      }
+      throw new IllegalArgumentException(String.format(
+            "Flag %s must be true or false",
+            value
+            ));
+   }
+
+   /**
+    * Get the number of reaches
+    *
+    * @return
+    *       number of reaches
+    */
+   public int getNumReaches()
+   {
+      return reachNames.length;
+   }
+
+   /**
+    * Get the number of cells in the network
+    *
+    * @return
+    *       number of cells
+    */
+   public int getNumCells()
+   {
+      return reachLastCells[reachLastCells.length - 1];
+   }
+
+   /**
+    * Get the name of a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       reach name
+    */
+   public String getReachName(int reach)
+   {
+      return reachNames[reach];
+   }
+
+   /**
+    * Get the number of the first cell in a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       cell number
+    */
+   public int getFirstCell(int reach)
+   {
+      return reach == 0 ? 1 : reachLastCells[reach - 1] + 1;
+   }
+
+   /**
+    * Get the number of the last cell in a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       cell number
+    */
+   public int getLastCell(int reach)
+   {
+      return reachLastCells[reach];
+   }
+
+   /**
+    * Get the receiving reach of a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       index of the receiving reach, NONE for the outlet
+    */
+   public int getDownstreamReach(int reach)
+   {
+      return downstreamReaches[reach];
+   }
+
+   /**
+    * Get the number of the receiving cell for the outlet of a reach
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       cell number, NONE for the outlet
+    */
+   public int getConfluenceCell(int reach)
+   {
+      return confluenceCells[reach];
+   }
+
+   /**
+    * Determine if a reach has an inflow at its upstream end
+    *
+    * @param reach
+    *       reach index
+    * @return
+    *       true if the reach is a headwater, false otherwise
+    */
+   public boolean isHeadwater(int reach)
+   {
+      return headwaters[reach];
+   }
+
+   /**
+    * Get the outlet reach of the network
+    *
+    * @return
+    *       reach index
+    */
+   public int getOutletReach()
+   {
+      return outletReach;
+   }
+
+   /**
+    * Accumulate the flow down the network from the same inflow at the
+    * upstream end of each headwater.  The flow leaving a cell is the
+    * headwater inflow of its reach plus the flow from the outlet of each
+    * tributary joining the reach at or above the cell, so the flow is
+    * conserved at every boundary of a steady network.
+    *
+    * @param headwaterFlow
+    *       flow entering each headwater
+    * @return
+    *       flow leaving each cell, at the cell number minus 1
+    */
+   public double[] getCellFlow(double headwaterFlow)
+   {
+      double[] cellFlow = new double[getNumCells()];
+      boolean[] isResolved = new boolean[reachNames.length];
+      for (int reach = 0; reach < reachNames.length; reach++)
+      {
+         resolveFlow(reach, headwaterFlow, isResolved, cellFlow);
+      }
+      return cellFlow;
+   }
+
+   /**
+    * Calculate the flow leaving the cells of a reach, after the
+    * flow of its tributaries
+    *
+    * @param reach
+    *       reach index
+    * @param headwaterFlow
+    *       flow entering each headwater
+    * @param isResolved
+    *       flags for the reaches with calculated flow
+    * @param cellFlow
+    *       flow leaving each cell
+    */
+   private void resolveFlow(int reach, double headwaterFlow, boolean[] isResolved,
+         double[] cellFlow)
+   {
+      if (isResolved[reach])
+      {
+         return;
+      }
+      int firstCell = getFirstCell(reach);
+      int lastCell = reachLastCells[reach];
+
+      // Collect the inflows into each cell, then sum them downstream
+      if (headwaters[reach])
+      {
+         cellFlow[firstCell - 1] += headwaterFlow;
+      }
+      for (int tributary = 0; tributary < reachNames.length; tributary++)
+      {
+         if (downstreamReaches[tributary] == reach)
+         {
+            resolveFlow(tributary, headwaterFlow, isResolved, cellFlow);
+            cellFlow[confluenceCells[tributary] - 1] +=
+                  cellFlow[reachLastCells[tributary] - 1];
+         }
+      }
+      for (int cell = firstCell + 1; cell <= lastCell; cell++)
+      {
+         cellFlow[cell - 1] += cellFlow[cell - 2];
+      }
+      isResolved[reach] = true;
+   }
+
+   /**
+    * Create the table of cell and boundary names for the network
+    *
+    * @param cellNameRoot
+    *       root string for cell names
+    * @param boundaryNameRoot
+    *       root string for boundary names
+    * @return
+    *       name table
+    */
+   public StreamNameTable createNameTable(String cellNameRoot, String boundaryNameRoot)
+   {
+      return new StreamNameTable(
+            cellNameRoot,
+            boundaryNameRoot,
+            reachLastCells,
+            confluenceCells
+            );
+   }
+
+   /**
+    * Create the geometry of the cells in the network.  Distances are
+    * measured from the upstream end of the reach containing the cell,
+    * and bed heights are measured from the downstream end of the outlet
+    * reach, with the outlet of each tributary at the height of the bed
+    * in its receiving cell.
+    *
+    * @return
+    *       geometry of the cells
+    */
+   public StreamGeometry createGeometry()
+   {
+      int numCells = getNumCells();
+      double[] cellLength = new double[numCells];
+      double[] cellDistance = new double[numCells];
+      double[] cellWidth = new double[numCells];
+      double[] cellBedHeight = new double[numCells];
+      boolean[] isResolved = new boolean[reachNames.length];
+      double bedDrop = 0.0;
+      for (int reach = 0; reach < reachNames.length; reach++)
+      {
+         resolveReach(reach, isResolved, cellLength, cellDistance, cellWidth, cellBedHeight);
+         bedDrop += reachSlope[reach] * reachLength[reach];
+      }
+      return new StreamGeometry(cellLength, cellDistance, cellWidth, cellBedHeight, bedDrop);
+   }
+
+   /**
+    * Calculate the geometry of the cells in a reach, after the
+    * geometry of its receiving reach
+    *
+    * @param reach
+    *       reach index
+    * @param isResolved
+    *       flags for the reaches with calculated geometry
+    * @param cellLength
+    *       length of each cell
+    * @param cellDistance
+    *       distance to the center of each cell
+    * @param cellWidth
+    *       width of each cell
+    * @param cellBedHeight
+    *       bed height at the center of each cell
+    */
+   private void resolveReach(int reach, boolean[] isResolved, double[] cellLength,
+         double[] cellDistance, double[] cellWidth, double[] cellBedHeight)
+   {
+      if (isResolved[reach])
+      {
+         return;
+      }
+      double outletHeight = 0.0;
+      if (downstreamReaches[reach] != NONE)
+      {
+         resolveReach(downstreamReaches[reach], isResolved,
+               cellLength, cellDistance, cellWidth, cellBedHeight);
+         outletHeight = cellBedHeight[confluenceCells[reach] - 1];
+      }
+      int firstCell = getFirstCell(reach);
+      int lastCell = reachLastCells[reach];
+      double length = reachLength[reach] / (lastCell - firstCell + 1);
+      for (int cell = firstCell; cell <= lastCell; cell++)
+      {
+         cellLength[cell - 1] = length;
+         cellDistance[cell - 1] = length * (cell - firstCell) + length / 2;
+         cellWidth[cell - 1] = reachWidth[reach];
+         cellBedHeight[cell - 1] = outletHeight
+               + reachSlope[reach] * (reachLength[reach] - cellDistance[cell - 1]);
+      }
+      isResolved[reach] = true;
+   }
+
+}
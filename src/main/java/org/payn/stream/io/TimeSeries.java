@@ -0,0 +1,266 @@
+package org.payn.stream.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Series of values at increasing times, such as an observed or
+ * simulated breakthrough curve, read from two columns of a
+ * delimited table.  Values between times are linearly interpolated.
+ *
+ * @author robpayn
+ *
+ */
+public class TimeSeries {
+
+   /**
+    * Times, in increasing order
+    */
+   private double[] times;
+
+   /**
+    * Value at each time
+    */
+   private double[] values;
+
+   /**
+    * Construct a new series from the provided times and values
+    *
+    * @param times
+    *       times, in increasing order
+    * @param values
+    *       value at each time
+    * @throws Exception
+    *       if the arrays have different lengths, the series is empty,
+    *       or the times are not increasing
+    */
+   public TimeSeries(double[] times, double[] values) throws Exception
+   {
+      if (times.length != values.length || times.length == 0)
+      {
+         throw new Exception(String.format(
+               "A time series needs the same number of times and values, "
+               + "found %d times and %d values",
+               times.length,
+               values.length
+               ));
+      }
+      for (int index = 1; index < times.length; index++)
+      {
+         if (!(times[index] > times[index - 1]))
+         {
+            throw new Exception(String.format(
+                  "Times in a time series must increase, found %f after %f",
+                  times[index],
+                  times[index - 1]
+                  ));
+         }
+      }
+      this.times = times;
+      this.values = values;
+   }
+
+   /**
+    * Read a series from a delimited table.  The first line of the
+    * table holds the column names, and each following line holds
+    * a time and a value.
+    *
+    * @param file
+    *       table file
+    * @param delimiter
+    *       column delimiter
+    * @param timeColumn
+    *       name of the column with the times
+    * @param valueColumn
+    *       name of the column with the values
+    * @return
+    *       time series
+    * @throws Exception
+    *       if error in reading the table or a column is missing
+    */
+   public static TimeSeries readTable(File file, String delimiter,
+         String timeColumn, String valueColumn) throws Exception
+   {
+      ArrayList<String[]> rows = readRows(file, delimiter);
+      String[] header = rows.get(0);
+      return readTable(rows, file,
+            StreamGeometry.findColumn(header, timeColumn, file, true),
+            StreamGeometry.findColumn(header, valueColumn, file, true));
+   }
+
+   /**
+    * Read a series from a delimited table with the times in the
+    * first column, such as a boundary condition table
+    *
+    * @param file
+    *       table file
+    * @param delimiter
+    *       column delimiter
+    * @param valueColumn
+    *       name of the column with the values
+    * @return
+    *       time series
+    * @throws Exception
+    *       if error in reading the table or the column is missing
+    */
+   public static TimeSeries readTable(File file, String delimiter, String valueColumn)
+         throws Exception
+   {
+      ArrayList<String[]> rows = readRows(file, delimiter);
+      return readTable(rows, file, 0,
+            StreamGeometry.findColumn(rows.get(0), valueColumn, file, true));
+   }
+
+   /**
+    * Read the rows of a table with at least one value
+    *
+    * @param file
+    *       table file
+    * @param delimiter
+    *       column delimiter
+    * @return
+    *       rows, starting with the header
+    * @throws Exception
+    *       if error in reading the table or the table has no values
+    */
+   private static ArrayList<String[]> readRows(File file, String delimiter) throws Exception
+   {
+      ArrayList<String[]> rows = StreamGeometry.readRows(file, delimiter);
+      if (rows.size() < 2)
+      {
+         throw new Exception(String.format(
+               "Time series table %s has no values",
+               file.getPath()
+               ));
+      }
+      return rows;
+   }
+
+   /**
+    * Read a series from two columns of the rows of a table
+    *
+    * @param rows
+    *       rows, starting with the header
+    * @param file
+    *       table file, for messages
+    * @param columnTime
+    *       index of the column with the times
+    * @param columnValue
+    *       index of the column with the values
+    * @return
+    *       time series
+    * @throws Exception
+    *       if a value is not a number or the times are not increasing
+    */
+   private static TimeSeries readTable(ArrayList<String[]> rows, File file,
+         int columnTime, int columnValue) throws Exception
+   {
+      double[] times = new double[rows.size() - 1];
+      double[] values = new double[rows.size() - 1];
+      for (int index = 0; index < times.length; index++)
+      {
+         String[] row = rows.get(index + 1);
+         try
+         {
+            times[index] = Double.valueOf(row[columnTime].trim());
+            values[index] = Double.valueOf(row[columnValue].trim());
+         }
+         catch (RuntimeException e)
+         {
+            throw new Exception(String.format(
+                  "Invalid row %d in time series table %s",
+                  index + 1,
+                  file.getPath()
+                  ), e);
+         }
+      }
+      return new TimeSeries(times, values);
+   }
+
+   /**
+    * Get the number of values
+    *
+    * @return
+    *       number of values
+    */
+   public int size()
+   {
+      return times.length;
+   }
+
+   /**
+    * Get a time
+    *
+    * @param index
+    *       index of the value
+    * @return
+    *       time
+    */
+   public double getTime(int index)
+   {
+      return times[index];
+   }
+
+   /**
+    * Get a value
+    *
+    * @param index
+    *       index of the value
+    * @return
+    *       value
+    */
+   public double getValue(int index)
+   {
+      return values[index];
+   }
+
+   /**
+    * Get the first time in the series
+    *
+    * @return
+    *       first time
+    */
+   public double getStartTime()
+   {
+      return times[0];
+   }
+
+   /**
+    * Get the last time in the series
+    *
+    * @return
+    *       last time
+    */
+   public double getEndTime()
+   {
+      return times[times.length - 1];
+   }
+
+   /**
+    * Get the value at a time, linearly interpolated between the
+    * neighboring times
+    *
+    * @param time
+    *       time, between the start and end times of the series
+    * @return
+    *       interpolated value, NaN if the time is outside the series
+    */
+   public double interpolate(double time)
+   {
+      if (time < times[0] || time > times[times.length - 1])
+      {
+         return Double.NaN;
+      }
+      int upper = Arrays.binarySearch(times, time);
+      if (upper >= 0)
+      {
+         return values[upper];
+      }
+      upper = -upper - 1;
+      int lower = upper - 1;
+      double fraction = (time - times[lower]) / (times[upper] - times[lower]);
+      return values[lower] + fraction * (values[upper] - values[lower]);
+   }
+
+}
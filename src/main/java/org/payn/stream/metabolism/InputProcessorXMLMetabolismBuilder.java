@@ -1,25 +1,32 @@
 package org.payn.stream.metabolism;
 
 import java.io.File;
+import java.util.HashSet;
 
 import org.payn.chsm.io.inputters.InterpolatorSnapshotTable;
-import org.payn.chsm.io.xmltools.ElementBehavior;
-import org.payn.chsm.io.xmltools.ElementHolon;
 import org.payn.chsm.resources.Behavior;
-import org.payn.neoch.io.xmltools.ElementBoundary;
 import org.payn.resources.solute.ResourceSolute;
 import org.payn.resources.water.ResourceWater;
+import org.payn.simulation.metainputs.MetaInput;
 import org.payn.stream.InputProcessorXMLStreamBuilder;
+import org.payn.stream.MetaInputStream;
 import org.payn.stream.SimulatorStream;
+import org.payn.stream.StreamConfig;
+import org.payn.stream.StreamPreflight;
+import org.payn.stream.io.HolonMatrixTarget.BehaviorTarget;
+import org.payn.stream.io.HolonMatrixTarget.BoundaryTarget;
+import org.payn.stream.io.HolonMatrixTarget.HolonTarget;
 
 /**
  * An input processor for building stream metabolism models
  * 
  * @author robpayn
  *
+ * @param <MIT>
+ *      meta input type
  */
-public class InputProcessorXMLMetabolismBuilder 
-      extends InputProcessorXMLStreamBuilder<MetaInputXMLMetabolism> {
+public class InputProcessorXMLMetabolismBuilder<MIT extends MetaInput & MetaInputStream> 
+      extends InputProcessorXMLStreamBuilder<MIT> {
 
    /**
     * Entry point for stream simulations
@@ -123,7 +130,7 @@ public class InputProcessorXMLMetabolismBuilder
     * @param metaInput
     * @param sim
     */
-   public InputProcessorXMLMetabolismBuilder(MetaInputXMLMetabolism metaInput,
+   public InputProcessorXMLMetabolismBuilder(MIT metaInput,
          SimulatorStream sim) 
    {
       super(metaInput, sim);
@@ -134,7 +141,7 @@ public class InputProcessorXMLMetabolismBuilder
    {
       resourceWater = new ResourceWater();
       resourceWater.initialize("water");
-      isOxygenConfigured = metaInput.isSoluteConfigured("oxygen");
+      isOxygenConfigured = config.isSoluteConfigured("oxygen");
       if (isOxygenConfigured)
       {
          resourceOxygen = new ResourceSolute();
@@ -142,6 +149,75 @@ public class InputProcessorXMLMetabolismBuilder
       }
    }
 
+   @Override
+   protected boolean isDynamicWave()
+   {
+      return true;
+   }
+
+   @Override
+   protected HashSet<String> getPatchableAttributes()
+   {
+      HashSet<String> attributes = super.getPatchableAttributes();
+      attributes.add("awexchange/k600");
+      attributes.add("atmosphere/airPressure");
+      attributes.add("photosynthesis/pToPARRatio");
+      attributes.add("respiration/respiration");
+      attributes.add("friction/wieleInt");
+      attributes.add("friction/wieleSlope");
+      attributes.add("friction/chezey");
+      attributes.add("friction/chezeyExponentVelocity");
+      attributes.add("friction/chezeyExponentRadius");
+      return attributes;
+   }
+
+   @Override
+   protected void validateConfig(StreamPreflight preflight)
+   {
+      super.validateConfig(preflight);
+      if (!config.isInitialConditions())
+      {
+         preflight.require(config.getInitialDepth(), "flow initialDepth");
+         preflight.require(config.getInitialFlow(), "flow initialFlow");
+      }
+      if (!config.isWieleConfigured())
+      {
+         preflight.require(config.getChezey(), "friction chezey or wieleInt and wieleSlope");
+      }
+      preflight.requireFile(config.getUpstreamFlowPath(), "flow upstreambound upstreamPath");
+      preflight.require(config.getUpstreamFlowInterpType(), 
+            "flow upstreambound upstreamInterpType");
+      preflight.require(config.getUpstreamFlowDelimiter(), 
+            "flow upstreambound upstreamDelimiter");
+      if (config.isSoluteConfigured("oxygen"))
+      {
+         StreamConfig.Solute oxygen = config.getSolute("oxygen");
+         preflight.requireFile(config.getUpstreamTempPath(), "temperature upstreamPath");
+         preflight.requireFile(config.getDownstreamTempPath(), "temperature downstreamPath");
+         preflight.require(config.getUpstreamTempType(), "temperature interpType");
+         preflight.require(config.getUpstreamTempDelimiter(), "temperature delimiter");
+         preflight.require(config.getAirPressure(), "atmosphere airPressure");
+         preflight.require(oxygen.getK600(), "solute oxygen awexchange k600");
+         preflight.requireFile(oxygen.getPARPath(), "solute oxygen photosynthesis parPath");
+         preflight.require(oxygen.getPARType(), "solute oxygen photosynthesis parType");
+         preflight.require(oxygen.getPARDelimiter(), 
+               "solute oxygen photosynthesis parDelimiter");
+         preflight.require(oxygen.getPToPARRatio(), 
+               "solute oxygen photosynthesis pToPARRatio");
+         preflight.require(oxygen.getRespiration(), "solute oxygen respiration");
+         preflight.requireFile(oxygen.getUpstreamPath(), 
+               "solute oxygen upstreambound upstreamPath");
+         preflight.require(oxygen.getUpstreamInterpType(), 
+               "solute oxygen upstreambound upstreamInterpType");
+         preflight.require(oxygen.getUpstreamDelimiter(), 
+               "solute oxygen upstreambound upstreamDelimiter");
+         if (!config.isInitialConditions())
+         {
+            preflight.require(oxygen.getInitialConc(), "solute oxygen initialConc");
+         }
+      }
+   }
+
    @Override
    protected void configureStreamLoop() throws Exception 
    {
@@ -151,89 +227,78 @@ public class InputProcessorXMLMetabolismBuilder
          Behavior behaviorAvgTemp = resourceWater.getBehavior(
                ResourceWater.BEHAVIOR_REACH_AVG_TEMP_BOUND
                );
-         ElementBehavior elementBehavior = 
-               documentHolon.getRootHolonElement().createBehaviorElement(
+         BehaviorTarget elementBehavior = 
+               matrixTarget.getRootHolon().createBehavior(
                behaviorAvgTemp
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                "Temp" + InterpolatorSnapshotTable.NAME_TYPE, 
-               metaInput.getAttributeUpstreamTempType(), 
-               null
+               config.getUpstreamTempType()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                "Temp" + InterpolatorSnapshotTable.NAME_DELIMITER, 
-               metaInput.getAttributeUpstreamTempDelimiter(), 
-               null
+               config.getUpstreamTempDelimiter()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                "UpstreamTemp" + InterpolatorSnapshotTable.NAME_PATH, 
-               metaInput.getAttributeUpstreamTempPath(), 
-               null
+               config.getUpstreamTempPath()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                "DownstreamTemp" + InterpolatorSnapshotTable.NAME_PATH, 
-               metaInput.getAttributeDownstreamTempPath(), 
-               null
+               config.getDownstreamTempPath()
                );
          
          // Behavior for calculating gas exchange velocity
          Behavior behaviorAWExchangeBound = resourceOxygen.getBehavior(
                ResourceSolute.BEHAVIOR_DO_AW_EXCHANGE_BOUND
                );
-         elementBehavior = documentHolon.getRootHolonElement().createBehaviorElement(
+         elementBehavior = matrixTarget.getRootHolon().createBehavior(
                behaviorAWExchangeBound
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceSolute.DEFAULT_NAME_AIR_PRESSURE, 
-               metaInput.getAttributeAirPressure().toString(), 
-               null
+               config.getAirPressure()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behaviorAWExchangeBound.getAbstractStateName(
                      ResourceSolute.DEFAULT_NAME_K600
                      ), 
-               metaInput.getAttributeK600("oxygen").toString(), 
-               null
+               config.getSolute("oxygen").getK600()
                );
          
          // Behavior for photosynthesis over the reach
          Behavior behaviorPhotosynthesisReach = resourceOxygen.getBehavior(
                ResourceSolute.BEHAVIOR_DO_PHOTOSYNTHESIS_REACH
                );
-         elementBehavior = documentHolon.getRootHolonElement().createBehaviorElement(
+         elementBehavior = matrixTarget.getRootHolon().createBehavior(
                behaviorPhotosynthesisReach
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                "PAR" + InterpolatorSnapshotTable.NAME_TYPE, 
-               metaInput.getAttributePARType("oxygen"), 
-               null
+               config.getSolute("oxygen").getPARType()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                "PAR" + InterpolatorSnapshotTable.NAME_DELIMITER, 
-               metaInput.getAttributePARDelimiter("oxygen"), 
-               null
+               config.getSolute("oxygen").getPARDelimiter()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                "PAR" + InterpolatorSnapshotTable.NAME_PATH, 
-               metaInput.getAttributePARPath("oxygen"), 
-               null
+               config.getSolute("oxygen").getPARPath()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceSolute.DEFAULT_NAME_DO_PTOPAR_RATIO, 
-               metaInput.getAttributePToPARRatio("oxygen").toString(), 
-               null
+               config.getSolute("oxygen").getPToPARRatio()
                );
 
          Behavior behaviorRespirationReach = resourceOxygen.getBehavior(
                ResourceSolute.BEHAVIOR_DO_RESPIRATION_REACH
                );
-         elementBehavior = documentHolon.getRootHolonElement().createBehaviorElement(
+         elementBehavior = matrixTarget.getRootHolon().createBehavior(
                behaviorRespirationReach
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceSolute.DEFAULT_NAME_DO_RESPIRATION, 
-               metaInput.getAttributeRespiration("oxygen").toString(), 
-               null
+               config.getSolute("oxygen").getRespiration()
                );
       }
       
@@ -242,71 +307,63 @@ public class InputProcessorXMLMetabolismBuilder
             resourceWater.getBehavior(ResourceWater.BEHAVIOR_CHANNEL_STORAGE);
       behaviorDynamicWave =
             resourceWater.getBehavior(ResourceWater.BEHAVIOR_DYNAMIC_WAVE);
-      isWieleConfigured = metaInput.isWieleConfigured();
+      isWieleConfigured = config.isWieleConfigured();
 
       // Set up default cell states
-      ElementBehavior elementBehavior =
-            documentHolon.createDefaultBehaviorElement(behaviorChannelStorage);
+      BehaviorTarget elementBehavior =
+            matrixTarget.createDefaultBehavior(behaviorChannelStorage);
       if (isInitialConditions)
       {
          elementBehavior.setInitTable(
-               metaInput.getAttributeInitialConditionPathCell(),
-               metaInput.getAttributeInitialConditionDelimiterCell()
+               config.getInitialConditionPathCell(),
+               config.getInitialConditionDelimiterCell()
                ); 
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                "WaterHead", 
-               "",
-               null
+               ""
                );
       }
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceWater.DEFAULT_NAME_COORD_Y, 
-            Double.toString(0), 
-            null
+            0.0
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceWater.DEFAULT_NAME_LENGTH, 
-            Double.toString(cellLength), 
-            null
+            cellLength
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceWater.DEFAULT_NAME_ACTIVE_CHANNEL_WIDTH_AVG, 
-            Double.toString(averageWidth), 
-            null
+            averageWidth
             );
          
       // Set up default boundary states
       elementBehavior =
-            documentHolon.createDefaultBehaviorElement(behaviorDynamicWave);
+            matrixTarget.createDefaultBehavior(behaviorDynamicWave);
       if (isInitialConditions)
       {
          elementBehavior.setInitTable(
-               metaInput.getAttributeInitialConditionPathBound(),
-               metaInput.getAttributeInitialConditionDelimiterBound()
+               config.getInitialConditionPathBound(),
+               config.getInitialConditionDelimiterBound()
                ); 
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceWater.DEFAULT_NAME_FLOW, 
-               "",
-               null
+               ""
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceWater.DEFAULT_NAME_VELOCITY, 
-               "",
-               null
+               ""
                );
       }
       else 
       {
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceWater.DEFAULT_NAME_FLOW, 
-               Double.toString(initialFlow), 
-               null
+               initialFlow
                );
       }
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceWater.DEFAULT_NAME_ACTIVE_CHANNEL_WIDTH_AVG, 
-            Double.toString(averageWidth), 
-            null
+            averageWidth
             );
       
       if (isWieleConfigured)
@@ -314,36 +371,31 @@ public class InputProcessorXMLMetabolismBuilder
          behaviorWieleFriction =
                resourceWater.getBehavior(ResourceWater.BEHAVIOR_WIELE_FRICTION);
          elementBehavior =
-               documentHolon.createDefaultBehaviorElement(behaviorWieleFriction);
-         elementBehavior.createInitValueElement(
+               matrixTarget.createDefaultBehavior(behaviorWieleFriction);
+         elementBehavior.createInitValue(
                ResourceWater.DEFAULT_NAME_WIELE_MODEL_INTERCEPT, 
-               Double.toString(wieleInt), 
-               null
+               wieleInt
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceWater.DEFAULT_NAME_WIELE_MODEL_SLOPE, 
-               Double.toString(wieleSlope), 
-               null
+               wieleSlope
                );
       }
       else
       {
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceWater.DEFAULT_NAME_CHEZEY,
-               metaInput.getAttributeChezey().toString(),
-               null
+               config.getChezey()
                );
-         if (metaInput.isChezyExpConfigured())
+         if (config.isChezyExpConfigured())
          {
-            elementBehavior.createInitValueElement(
+            elementBehavior.createInitValue(
                   ResourceWater.DEFAULT_NAME_CHEZEY_EXP_VELOCITY,
-                  metaInput.getAttributeChezeyExpVel().toString(),
-                  null
+                  config.getChezeyExpVel()
                   );
-            elementBehavior.createInitValueElement(
+            elementBehavior.createInitValue(
                   ResourceWater.DEFAULT_NAME_CHEZEY_EXP_RADIUS,
-                  metaInput.getAttributeChezeyExpRad().toString(),
-                  null
+                  config.getChezeyExpRad()
                   );
          }
       }
@@ -353,29 +405,27 @@ public class InputProcessorXMLMetabolismBuilder
          behaviorOxygenStorage =
                resourceOxygen.getBehavior(ResourceSolute.BEHAVIOR_STORAGE);
          elementBehavior =
-               documentHolon.createDefaultBehaviorElement(behaviorOxygenStorage);
+               matrixTarget.createDefaultBehavior(behaviorOxygenStorage);
          if (isInitialConditions)
          {
             elementBehavior.setInitTable(
-                  metaInput.getAttributeInitialConditionPathCell(),
-                  metaInput.getAttributeInitialConditionDelimiterCell()
+                  config.getInitialConditionPathCell(),
+                  config.getInitialConditionDelimiterCell()
                   ); 
-            elementBehavior.createInitValueElement(
+            elementBehavior.createInitValue(
                   behaviorOxygenStorage.getAbstractStateName(
                         ResourceSolute.NAME_SOLUTE_CONC
                         ), 
-                  "",
-                  null
+                  ""
                   );
          }
          else
          {
-            elementBehavior.createInitValueElement(
+            elementBehavior.createInitValue(
                   behaviorOxygenStorage.getAbstractStateName(
                         ResourceSolute.NAME_SOLUTE_CONC
                         ),
-                  metaInput.getAttributeInitialConc("oxygen").toString(),
-                  null
+                  config.getSolute("oxygen").getInitialConc()
                   );
          }
          
@@ -395,137 +445,177 @@ public class InputProcessorXMLMetabolismBuilder
    }
 
    @Override
-   protected void configureStreamCell(ElementHolon elementCell, long index) throws Exception 
+   protected void configureStreamCell(HolonTarget elementCell, long index) throws Exception 
    {
-      ElementBehavior elementBehavior = 
-            elementCell.createBehaviorElement(behaviorChannelStorage);
-      double distance = (cellLength * index) - (cellLength / 2);
-      elementBehavior.createInitValueElement(
+      BehaviorTarget elementBehavior = 
+            elementCell.createBehavior(behaviorChannelStorage);
+      elementBehavior.createInitValue(
             ResourceWater.DEFAULT_NAME_COORD_X, 
-            Double.toString(distance), 
-            null
+            getCellDistance(index)
             );
-      double bedElevation = elevationDatum + bedSlope * (streamLength - distance);
-      elementBehavior.createInitValueElement(
+      double bedElevation = getBedElevation(index);
+      elementBehavior.createInitValue(
             ResourceWater.DEFAULT_NAME_BED_ELEV, 
-            Double.toString(bedElevation), 
-            null
+            bedElevation
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceWater.DEFAULT_NAME_BANK_ELEV, 
-            Double.toString(bedElevation + activeDepth), 
-            null
+            bedElevation + activeDepth
             );
       if (!isInitialConditions)
       {
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceWater.DEFAULT_NAME_HEAD, 
-               Double.toString(bedElevation + initialDepth), 
-               null
+               bedElevation + initialDepth
+               );
+      }
+      if (!isUniformGeometry())
+      {
+         elementBehavior.createInitValue(
+               ResourceWater.DEFAULT_NAME_LENGTH, 
+               getCellLength(index)
+               );
+         elementBehavior.createInitValue(
+               ResourceWater.DEFAULT_NAME_ACTIVE_CHANNEL_WIDTH_AVG, 
+               getCellWidth(index)
                );
       }
       if (isOxygenConfigured)
       {
-         elementCell.createBehaviorElement(behaviorOxygenStorage);
+         elementCell.createBehavior(behaviorOxygenStorage);
       
          // Add a boundary for nonconservative gas behavior
-         String boundaryName = String.format(
-               "%sext_%s", 
-               boundaryNameRoot,
-               elementCell.getName()
-               );
-         ElementBoundary elementBoundary = documentHolon.createBoundaryElement(
-               boundaryName, 
-               elementCell.getName()
-               );
-         elementBoundary.createBehaviorElement(behaviorGasAWExchange);
-         elementBoundary.createBehaviorElement(behaviorPhotosynthesis);
-         elementBoundary.createBehaviorElement(behaviorRespiration);
+         BoundaryTarget elementBoundary = elementCell.getMatrixTarget().createBoundary(
+               boundaryNameRoot + "ext_" + elementCell.getName(), 
+               elementCell
+               );
+         elementBoundary.createBehavior(behaviorGasAWExchange);
+         elementBoundary.createBehavior(behaviorPhotosynthesis);
+         elementBoundary.createBehavior(behaviorRespiration);
       }
 
    }
 
    @Override
-   protected void configureStreamBoundary(ElementBoundary elementBoundary,
-         ElementBoundary elementBoundaryAdj, int index) 
+   protected void configureStreamBoundary(BoundaryTarget elementBoundary,
+         BoundaryTarget elementBoundaryAdj, int index) 
+   {
+      configureFlowBoundary(
+            elementBoundary, 
+            (getCellWidth(index - 1) + getCellWidth(index)) / 2,
+            index - 1
+            );
+   }
+
+   @Override
+   protected void configureConfluenceBoundary(BoundaryTarget elementBoundary,
+         BoundaryTarget elementBoundaryAdj, int indexCell, int indexTributaryCell)
+   {
+      configureFlowBoundary(
+            elementBoundary, 
+            (getCellWidth(indexTributaryCell) + getCellWidth(indexCell)) / 2,
+            indexTributaryCell
+            );
+   }
+
+   /**
+    * Set up the flow behaviors of a boundary between two cells
+    * 
+    * @param elementBoundary
+    *       boundary element to configure
+    * @param width
+    *       average width of the active channel in the two cells
+    * @param indexUpstreamCell
+    *       index number of the upstream cell, which sets the initial
+    *       flow across the boundary of a stream network
+    */
+   private void configureFlowBoundary(BoundaryTarget elementBoundary, double width,
+         long indexUpstreamCell)
    {
-      elementBoundary.createBehaviorElement(behaviorDynamicWave);
+      BehaviorTarget elementBehavior = 
+            elementBoundary.createBehavior(behaviorDynamicWave);
+      if (network != null && !isInitialConditions)
+      {
+         elementBehavior.createInitValue(
+               ResourceWater.DEFAULT_NAME_FLOW, 
+               getCellFlow(indexUpstreamCell)
+               );
+      }
+      if (!isUniformGeometry())
+      {
+         elementBehavior.createInitValue(
+               ResourceWater.DEFAULT_NAME_ACTIVE_CHANNEL_WIDTH_AVG, 
+               width
+               );
+      }
       if (isWieleConfigured)
       {
-         elementBoundary.createBehaviorElement(behaviorWieleFriction);
+         elementBoundary.createBehavior(behaviorWieleFriction);
       }
       if (isOxygenConfigured)
       {
-         elementBoundary.createBehaviorElement(behaviorOxygenAdvect);
+         elementBoundary.createBehavior(behaviorOxygenAdvect);
       }
    }
 
    @Override
-   protected void configureUpstreamBoundary(ElementBoundary elementBoundary,
+   protected void configureUpstreamBoundary(BoundaryTarget elementBoundary,
          int indexFirstCell) throws Exception 
    {
-      ElementBehavior elementBehavior =
-            elementBoundary.createBehaviorElement(
+      BehaviorTarget elementBehavior =
+            elementBoundary.createBehavior(
                   resourceWater.getBehavior(ResourceWater.BEHAVIOR_FLOW_INTERPOLATE)
                   );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             InterpolatorSnapshotTable.NAME_PATH, 
-            metaInput.getAttributeUpstreamFlowPath(), 
-            null
+            config.getUpstreamFlowPath()
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             InterpolatorSnapshotTable.DEFAULT_NAME_HEADER, 
-            "WaterFlow", 
-            null
+            "WaterFlow"
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             InterpolatorSnapshotTable.NAME_TYPE, 
-            metaInput.getAttributeUpstreamFlowInterpType(), 
-            null
+            config.getUpstreamFlowInterpType()
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             InterpolatorSnapshotTable.NAME_DELIMITER, 
-            metaInput.getAttributeUpstreamFlowDelimiter(), 
-            null
+            config.getUpstreamFlowDelimiter()
             );
       if (isOxygenConfigured)
       {
-         elementBehavior = elementBoundary.createBehaviorElement(
+         elementBehavior = elementBoundary.createBehavior(
                resourceOxygen.getBehavior(ResourceSolute.BEHAVIOR_FLOWBOUND)
                );
          Behavior behaviorConcInterp = resourceOxygen.getBehavior(
                ResourceSolute.BEHAVIOR_CONC_INTERP
                );
-         elementBehavior = elementBoundary.createBehaviorElement(
+         elementBehavior = elementBoundary.createBehavior(
                behaviorConcInterp
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behaviorConcInterp.getAbstractStateName(
                      InterpolatorSnapshotTable.NAME_PATH
                      ), 
-               metaInput.getAttributeUpstreamConcPath("oxygen"), 
-               null
+               config.getSolute("oxygen").getUpstreamPath()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behaviorConcInterp.getAbstractStateName(
                      InterpolatorSnapshotTable.DEFAULT_NAME_HEADER
                      ),
-               "oxygenConc",
-               null
+               "oxygenConc"
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behaviorConcInterp.getAbstractStateName(
                      InterpolatorSnapshotTable.NAME_TYPE
                      ), 
-               metaInput.getAttributeUpstreamConcInterpType("oxygen"), 
-               null
+               config.getSolute("oxygen").getUpstreamInterpType()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behaviorConcInterp.getAbstractStateName(
                      InterpolatorSnapshotTable.NAME_DELIMITER
                      ), 
-               metaInput.getAttributeUpstreamConcDelimiter("oxygen"), 
-               null
+               config.getSolute("oxygen").getUpstreamDelimiter()
                );
          
 
@@ -534,35 +624,27 @@ public class InputProcessorXMLMetabolismBuilder
    }
 
    @Override
-   protected void configureDownstreamBoundary(ElementBoundary elementBoundary,
+   protected void configureDownstreamBoundary(BoundaryTarget elementBoundary,
          long indexLastCell) throws Exception 
    {
-      ElementBehavior elementBehavior =
-            elementBoundary.createBehaviorElement(
+      BehaviorTarget elementBehavior =
+            elementBoundary.createBehavior(
                   this.resourceWater.getBehavior(ResourceWater.BEHAVIOR_DYNAMIC_WAVE_DOWNSTREAM)
                   );
-      String boundaryName = String.format(
-            "%s%0" + numCellsDigits.toString() + "d_%0" + numCellsDigits.toString() + "d", 
-            boundaryNameRoot,
-            indexLastCell,
-            indexLastCell - 1
-            );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceWater.DEFAULT_NAME_UPSTREAM_BOUNDARY_NAME, 
-            boundaryName, 
-            null
+            nameTable.getUpstreamBoundaryName((int)indexLastCell)
             );
       if (isOxygenConfigured)
       {
          Behavior behaviorOxygenFlow = 
                resourceOxygen.getBehavior(ResourceSolute.BEHAVIOR_FLOWBOUND);
-         elementBehavior = elementBoundary.createBehaviorElement(
+         elementBehavior = elementBoundary.createBehavior(
                behaviorOxygenFlow
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behaviorOxygenFlow.getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC), 
-               "0.0", 
-               null
+               "0.0"
                );
       }
    }
@@ -0,0 +1,371 @@
+package org.payn.stream.sensitivity;
+
+import org.payn.stream.StreamConfig;
+
+/**
+ * A parameter of a stream configuration that is varied over a range
+ * by an analysis.  Each parameter sets one value on a builder for
+ * a variant of the base configuration.
+ *
+ * @author robpayn
+ *
+ */
+public abstract class ConfigParameter {
+
+   /**
+    * Name of the parameter
+    */
+   private String name;
+
+   /**
+    * Minimum value
+    */
+   private double minValue;
+
+   /**
+    * Maximum value
+    */
+   private double maxValue;
+
+   /**
+    * Construct a new parameter with the provided range
+    *
+    * @param name
+    *       parameter name
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    */
+   public ConfigParameter(String name, double minValue, double maxValue)
+   {
+      this.name = name;
+      this.minValue = minValue;
+      this.maxValue = maxValue;
+   }
+
+   /**
+    * Get the name of the parameter
+    *
+    * @return
+    *       parameter name
+    */
+   public String getName()
+   {
+      return name;
+   }
+
+   /**
+    * Get the minimum value
+    *
+    * @return
+    *       minimum value
+    */
+   public double getMinValue()
+   {
+      return minValue;
+   }
+
+   /**
+    * Get the maximum value
+    *
+    * @return
+    *       maximum value
+    */
+   public double getMaxValue()
+   {
+      return maxValue;
+   }
+
+   /**
+    * Get the value at a fraction of the range
+    *
+    * @param fraction
+    *       fraction of the range, between 0 and 1
+    * @return
+    *       parameter value
+    */
+   public double getValue(double fraction)
+   {
+      return minValue + fraction * (maxValue - minValue);
+   }
+
+   /**
+    * Set the value of the parameter on a configuration builder
+    *
+    * @param builder
+    *       builder of the variant
+    * @param value
+    *       parameter value
+    * @throws Exception
+    *       if the value cannot be set
+    */
+   public abstract void apply(StreamConfig.Builder builder, double value) throws Exception;
+
+   /**
+    * Create a parameter for the dispersion coefficient
+    *
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter dispersionCoefficient(double minValue, double maxValue)
+   {
+      return new ConfigParameter("dispersionCoefficient", minValue, maxValue) {
+         @Override
+         public void apply(StreamConfig.Builder builder, double value)
+         {
+            builder.setDispersionCoefficient(value);
+         }
+      };
+   }
+
+   /**
+    * Create a parameter for the average width of the active channel
+    *
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter averageWidth(double minValue, double maxValue)
+   {
+      return new ConfigParameter("averageWidth", minValue, maxValue) {
+         @Override
+         public void apply(StreamConfig.Builder builder, double value)
+         {
+            builder.setAverageWidth(value);
+         }
+      };
+   }
+
+   /**
+    * Create a parameter for the depth of the active channel
+    *
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter activeDepth(double minValue, double maxValue)
+   {
+      return new ConfigParameter("activeDepth", minValue, maxValue) {
+         @Override
+         public void apply(StreamConfig.Builder builder, double value)
+         {
+            builder.setActiveDepth(value);
+         }
+      };
+   }
+
+   /**
+    * Create a parameter for the initial depth of water
+    *
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter initialDepth(double minValue, double maxValue)
+   {
+      return new ConfigParameter("initialDepth", minValue, maxValue) {
+         @Override
+         public void apply(StreamConfig.Builder builder, double value)
+         {
+            builder.setInitialDepth(value);
+         }
+      };
+   }
+
+   /**
+    * Create a parameter for the gas exchange velocity of a solute
+    *
+    * @param soluteName
+    *       solute name
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter k600(String soluteName,
+         double minValue, double maxValue)
+   {
+      return new SoluteParameter(soluteName, "k600", minValue, maxValue) {
+         @Override
+         protected void apply(StreamConfig.Solute.Builder solute, double value)
+         {
+            solute.setK600(value);
+         }
+      };
+   }
+
+   /**
+    * Create a parameter for the respiration rate of a solute
+    *
+    * @param soluteName
+    *       solute name
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter respiration(String soluteName,
+         double minValue, double maxValue)
+   {
+      return new SoluteParameter(soluteName, "respiration", minValue, maxValue) {
+         @Override
+         protected void apply(StreamConfig.Solute.Builder solute, double value)
+         {
+            solute.setRespiration(value);
+         }
+      };
+   }
+
+   /**
+    * Create a parameter for the ratio of production to PAR of a solute
+    *
+    * @param soluteName
+    *       solute name
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter pToPARRatio(String soluteName,
+         double minValue, double maxValue)
+   {
+      return new SoluteParameter(soluteName, "pToPARRatio", minValue, maxValue) {
+         @Override
+         protected void apply(StreamConfig.Solute.Builder solute, double value)
+         {
+            solute.setPToPARRatio(value);
+         }
+      };
+   }
+
+   /**
+    * Create a parameter for the maximum uptake of a solute
+    *
+    * @param soluteName
+    *       solute name
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter uptakeMax(String soluteName,
+         double minValue, double maxValue)
+   {
+      return new SoluteParameter(soluteName, "uptakeMax", minValue, maxValue) {
+         @Override
+         protected void apply(StreamConfig.Solute.Builder solute, double value)
+         {
+            solute.setUptakeMax(value);
+         }
+      };
+   }
+
+   /**
+    * Create a parameter for the half saturation concentration of a solute
+    *
+    * @param soluteName
+    *       solute name
+    * @param minValue
+    *       minimum value
+    * @param maxValue
+    *       maximum value
+    * @return
+    *       parameter
+    */
+   public static ConfigParameter concHalfSat(String soluteName,
+         double minValue, double maxValue)
+   {
+      return new SoluteParameter(soluteName, "concHalfSat", minValue, maxValue) {
+         @Override
+         protected void apply(StreamConfig.Solute.Builder solute, double value)
+         {
+            solute.setConcHalfSat(value);
+         }
+      };
+   }
+
+   /**
+    * A parameter of a solute configuration
+    *
+    * @author robpayn
+    *
+    */
+   private static abstract class SoluteParameter extends ConfigParameter {
+
+      /**
+       * Name of the solute
+       */
+      private String soluteName;
+
+      /**
+       * Construct a new parameter of the provided solute, named
+       * with the solute name and the attribute name
+       *
+       * @param soluteName
+       *       solute name
+       * @param attributeName
+       *       attribute name
+       * @param minValue
+       *       minimum value
+       * @param maxValue
+       *       maximum value
+       */
+      private SoluteParameter(String soluteName, String attributeName,
+            double minValue, double maxValue)
+      {
+         super(soluteName + "." + attributeName, minValue, maxValue);
+         this.soluteName = soluteName;
+      }
+
+      @Override
+      public void apply(StreamConfig.Builder builder, double value) throws Exception
+      {
+         StreamConfig.Solute solute = builder.getSolute(soluteName);
+         if (!solute.isActive())
+         {
+            throw new Exception(String.format(
+                  "Solute %s is not active for parameter %s",
+                  soluteName,
+                  getName()
+                  ));
+         }
+         StreamConfig.Solute.Builder soluteBuilder = solute.toBuilder();
+         apply(soluteBuilder, value);
+         builder.setSolute(soluteBuilder.build());
+      }
+
+      /**
+       * Set the value of the parameter on a solute builder
+       *
+       * @param solute
+       *       builder of the solute variant
+       * @param value
+       *       parameter value
+       */
+      protected abstract void apply(StreamConfig.Solute.Builder solute, double value);
+
+   }
+
+}
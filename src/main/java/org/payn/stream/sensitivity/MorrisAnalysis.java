@@ -0,0 +1,235 @@
+package org.payn.stream.sensitivity;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+
+import org.payn.stream.StreamConfig;
+import org.payn.stream.calibration.CalibrationObjective;
+
+/**
+ * Screening of parameters with the elementary effects method of
+ * Morris.  Each sample group is a trajectory of one run more than
+ * the number of parameters, moving one parameter at a time by a
+ * fixed step on a grid of levels over the unit range.
+ *
+ * The estimates are the mean (mu), mean absolute value (mu*), and
+ * standard deviation (sigma) of the elementary effects of each
+ * parameter, in output units per unit fraction of the parameter
+ * range, written to {@link #FILE_INDICES}.
+ *
+ * @author robpayn
+ *
+ */
+public abstract class MorrisAnalysis extends SensitivityAnalysis {
+
+   /**
+    * Name of the file with the estimates
+    */
+   public static final String FILE_INDICES = "morris.txt";
+
+   /**
+    * Number of levels of the grid
+    */
+   private int numLevels;
+
+   /**
+    * Number of elementary effects of each parameter
+    */
+   private long[] counts;
+
+   /**
+    * Running mean of the elementary effects of each parameter
+    */
+   private double[] means;
+
+   /**
+    * Running mean of the absolute elementary effects of each parameter
+    */
+   private double[] absMeans;
+
+   /**
+    * Running sum of squared deviations of the elementary
+    * effects of each parameter
+    */
+   private double[] sumSquares;
+
+   /**
+    * Construct a new analysis
+    *
+    * @param analysisDir
+    *       directory for the working directories and output
+    *       of the analysis
+    * @param threads
+    *       number of simulations run at the same time
+    * @param output
+    *       scalar output of the model, calculated from the working
+    *       directory of a finished run
+    * @param config
+    *       base configuration of the variants
+    * @param numTrajectories
+    *       number of trajectories
+    */
+   public MorrisAnalysis(File analysisDir, int threads,
+         CalibrationObjective output, StreamConfig config, int numTrajectories)
+   {
+      super(analysisDir, threads, output, config, numTrajectories);
+      this.numLevels = 4;
+   }
+
+   /**
+    * Set the number of levels of the grid
+    *
+    * @param numLevels
+    *       number of levels, an even number of at least 2
+    */
+   public void setNumLevels(int numLevels)
+   {
+      this.numLevels = numLevels;
+   }
+
+   /**
+    * Get the step between the points of a trajectory
+    *
+    * @return
+    *       step, as a fraction of the parameter range
+    */
+   private double getDelta()
+   {
+      return numLevels / (2.0 * (numLevels - 1));
+   }
+
+   @Override
+   public void run() throws Exception
+   {
+      if (numLevels < 2 || numLevels % 2 != 0)
+      {
+         throw new Exception(String.format(
+               "Morris analysis needs an even number of levels, found %d",
+               numLevels
+               ));
+      }
+      int numParameters = parameters.size();
+      counts = new long[numParameters];
+      means = new double[numParameters];
+      absMeans = new double[numParameters];
+      sumSquares = new double[numParameters];
+      super.run();
+   }
+
+   @Override
+   protected double[][] createGroup()
+   {
+      int numParameters = parameters.size();
+      double delta = getDelta();
+      double[][] points = new double[numParameters + 1][];
+      points[0] = new double[numParameters];
+      for (int param = 0; param < numParameters; param++)
+      {
+         points[0][param] = random.nextInt(numLevels) / (double)(numLevels - 1);
+      }
+
+      // Move each parameter once, in a random order
+      int[] order = new int[numParameters];
+      for (int param = 0; param < numParameters; param++)
+      {
+         order[param] = param;
+      }
+      for (int index = numParameters - 1; index > 0; index--)
+      {
+         int swap = random.nextInt(index + 1);
+         int param = order[index];
+         order[index] = order[swap];
+         order[swap] = param;
+      }
+      for (int step = 0; step < numParameters; step++)
+      {
+         int param = order[step];
+         points[step + 1] = points[step].clone();
+         double value = points[step][param];
+         points[step + 1][param] = value + delta <= 1.0 + 1e-12 ? value + delta : value - delta;
+      }
+      return points;
+   }
+
+   @Override
+   protected void addGroup(double[][] points, double[] outputs)
+   {
+      for (int step = 1; step < points.length; step++)
+      {
+         int param = findMovedParameter(points[step - 1], points[step]);
+         double effect = (outputs[step] - outputs[step - 1])
+               / (points[step][param] - points[step - 1][param]);
+         counts[param]++;
+         double deviation = effect - means[param];
+         means[param] += deviation / counts[param];
+         sumSquares[param] += deviation * (effect - means[param]);
+         absMeans[param] += (Math.abs(effect) - absMeans[param]) / counts[param];
+      }
+   }
+
+   /**
+    * Find the parameter that changed between two points of a trajectory
+    *
+    * @param from
+    *       earlier point
+    * @param to
+    *       later point
+    * @return
+    *       index of the parameter
+    */
+   private static int findMovedParameter(double[] from, double[] to)
+   {
+      for (int param = 0; param < from.length; param++)
+      {
+         if (from[param] != to[param])
+         {
+            return param;
+         }
+      }
+      return 0;
+   }
+
+   @Override
+   protected void writeEstimates(File analysisDir) throws Exception
+   {
+      BufferedWriter writer = new BufferedWriter(new FileWriter(
+            new File(analysisDir, FILE_INDICES)));
+      try
+      {
+         writer.write("parameter effects mu muStar sigma");
+         writer.newLine();
+         for (int param = 0; param < parameters.size(); param++)
+         {
+            double sigma = counts[param] > 1 ?
+                  Math.sqrt(sumSquares[param] / (counts[param] - 1)) : Double.NaN;
+            writer.write(String.format("%s %d %s %s %s",
+                  parameters.get(param).getName(),
+                  counts[param],
+                  Double.toString(counts[param] > 0 ? means[param] : Double.NaN),
+                  Double.toString(counts[param] > 0 ? absMeans[param] : Double.NaN),
+                  Double.toString(sigma)
+                  ));
+            writer.newLine();
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   /**
+    * Get the mean absolute elementary effect of a parameter
+    *
+    * @param param
+    *       index of the parameter, in the order added
+    * @return
+    *       mu*, NaN if no effects have been calculated
+    */
+   public double getMuStar(int param)
+   {
+      return counts[param] > 0 ? absMeans[param] : Double.NaN;
+   }
+
+}
@@ -0,0 +1,508 @@
+package org.payn.stream.sensitivity;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.payn.stream.EnsembleRunner;
+import org.payn.stream.SimulatorStream;
+import org.payn.stream.StreamConfig;
+import org.payn.stream.StreamTopology;
+import org.payn.stream.calibration.CalibrationObjective;
+
+/**
+ * Global sensitivity analysis of a scalar output of a stream model
+ * to parameters of its configuration.
+ *
+ * Samples are generated in groups, such as a Morris trajectory or a
+ * Sobol block, and the runs of a batch of groups are executed as an
+ * ensemble on a bounded number of threads.  The estimates are updated
+ * and written to the analysis directory after every batch, so a
+ * partial analysis still gives usable indices.  A group with a run
+ * that fails or cannot be scored is left out of the estimates.
+ *
+ * Each run is a variant of a base configuration, built in the working
+ * directory of its position in the batch, which is reused by later
+ * batches.  Variants share the topology of the base configuration
+ * when the varied parameters do not change it.
+ *
+ * @author robpayn
+ *
+ */
+public abstract class SensitivityAnalysis {
+
+   /**
+    * Name of the log of all runs
+    */
+   public static final String FILE_SAMPLES = "samples.txt";
+
+   /**
+    * Directory for the working directories and output of the analysis
+    */
+   private File analysisDir;
+
+   /**
+    * Number of simulations run at the same time
+    */
+   private int threads;
+
+   /**
+    * Output of the model being analyzed
+    */
+   private CalibrationObjective output;
+
+   /**
+    * Base configuration of the variants
+    */
+   private StreamConfig config;
+
+   /**
+    * Parameters being varied
+    */
+   protected ArrayList<ConfigParameter> parameters;
+
+   /**
+    * Number of sample groups
+    */
+   private int numGroups;
+
+   /**
+    * Number of sample groups in a batch, 0 for one per thread
+    */
+   private int batchSize;
+
+   /**
+    * Random number generator, only used by the calling thread
+    */
+   protected Random random;
+
+   /**
+    * Number of groups included in the estimates
+    */
+   protected int numCompleteGroups;
+
+   /**
+    * Number of groups left out because a run failed
+    */
+   protected int numFailedGroups;
+
+   /**
+    * Construct a new analysis
+    *
+    * @param analysisDir
+    *       directory for the working directories and output
+    *       of the analysis
+    * @param threads
+    *       number of simulations run at the same time
+    * @param output
+    *       scalar output of the model, calculated from the working
+    *       directory of a finished run
+    * @param config
+    *       base configuration of the variants
+    * @param numGroups
+    *       number of sample groups
+    */
+   public SensitivityAnalysis(File analysisDir, int threads,
+         CalibrationObjective output, StreamConfig config, int numGroups)
+   {
+      this.analysisDir = analysisDir;
+      this.threads = threads;
+      this.output = output;
+      this.config = config;
+      this.numGroups = numGroups;
+      this.parameters = new ArrayList<ConfigParameter>();
+      this.batchSize = 0;
+      this.random = new Random();
+   }
+
+   /**
+    * Add a parameter to vary
+    *
+    * @param parameter
+    *       parameter with its range
+    * @throws Exception
+    *       if a parameter with the same name was already added
+    */
+   public void addParameter(ConfigParameter parameter) throws Exception
+   {
+      for (ConfigParameter existing: parameters)
+      {
+         if (existing.getName().equals(parameter.getName()))
+         {
+            throw new Exception(String.format(
+                  "Analysis already has a parameter named %s",
+                  parameter.getName()
+                  ));
+         }
+      }
+      parameters.add(parameter);
+   }
+
+   /**
+    * Set the number of sample groups run in each batch
+    *
+    * @param batchSize
+    *       number of groups, 0 for one per thread
+    */
+   public void setBatchSize(int batchSize)
+   {
+      this.batchSize = batchSize;
+   }
+
+   /**
+    * Seed the random number generator, so an analysis can be repeated
+    *
+    * @param seed
+    *       random seed
+    */
+   public void setSeed(long seed)
+   {
+      random = new Random(seed);
+   }
+
+   /**
+    * Get the number of groups included in the estimates
+    *
+    * @return
+    *       number of groups
+    */
+   public int getNumCompleteGroups()
+   {
+      return numCompleteGroups;
+   }
+
+   /**
+    * Get the directory of the analysis
+    *
+    * @return
+    *       analysis directory
+    */
+   public File getAnalysisDir()
+   {
+      return analysisDir;
+   }
+
+   /**
+    * Create the simulator for a variant, with its input processors
+    * added.  Called concurrently for different variants, so
+    * implementations must not change shared state.
+    *
+    * @param workingDir
+    *       working directory of the run, which exists
+    * @param variant
+    *       configuration of the variant, with the shared topology
+    *       if the variant can use it
+    * @return
+    *       simulator ready to execute
+    * @throws Exception
+    *       if error in creating the simulator
+    */
+   protected abstract SimulatorStream createSimulator(File workingDir, Variant variant)
+         throws Exception;
+
+   /**
+    * Create the points of a sample group
+    *
+    * @return
+    *       points, each with a fraction of the range of each parameter
+    */
+   protected abstract double[][] createGroup();
+
+   /**
+    * Update the estimates with the outputs of a complete group
+    *
+    * @param points
+    *       points of the group
+    * @param outputs
+    *       output of the run at each point
+    */
+   protected abstract void addGroup(double[][] points, double[] outputs);
+
+   /**
+    * Write the current estimates to the analysis directory
+    *
+    * @param analysisDir
+    *       directory of the analysis
+    * @throws Exception
+    *       if error in writing the estimates
+    */
+   protected abstract void writeEstimates(File analysisDir) throws Exception;
+
+   /**
+    * Run the analysis
+    *
+    * @throws Exception
+    *       if the analysis has no parameters, or error in creating
+    *       the directory or writing the output
+    */
+   public void run() throws Exception
+   {
+      if (parameters.isEmpty())
+      {
+         throw new Exception("Sensitivity analysis has no parameters");
+      }
+      if (!analysisDir.isDirectory() && !analysisDir.mkdirs())
+      {
+         throw new Exception(String.format(
+               "Unable to create the analysis directory %s",
+               analysisDir.getPath()
+               ));
+      }
+      StreamTopology topology = StreamTopology.create(config);
+      int groupsPerBatch = batchSize > 0 ? batchSize : Math.max(1, threads);
+      numCompleteGroups = 0;
+      numFailedGroups = 0;
+
+      BufferedWriter samples = new BufferedWriter(new FileWriter(
+            new File(analysisDir, FILE_SAMPLES)));
+      try
+      {
+         samples.write("batch run output");
+         for (ConfigParameter parameter: parameters)
+         {
+            samples.write(" " + parameter.getName());
+         }
+         samples.newLine();
+
+         int batch = 0;
+         for (int first = 0; first < numGroups; first += groupsPerBatch)
+         {
+            int size = Math.min(groupsPerBatch, numGroups - first);
+            ArrayList<double[][]> groups = new ArrayList<double[][]>();
+            ArrayList<Variant> variants = new ArrayList<Variant>();
+            for (int group = 0; group < size; group++)
+            {
+               double[][] points = createGroup();
+               groups.add(points);
+               for (double[] point: points)
+               {
+                  variants.add(createVariant(point, topology));
+               }
+            }
+
+            double[] outputs = evaluate(variants);
+            int run = 0;
+            for (double[][] points: groups)
+            {
+               double[] groupOutputs = new double[points.length];
+               boolean isComplete = true;
+               for (int point = 0; point < points.length; point++)
+               {
+                  groupOutputs[point] = outputs[run];
+                  isComplete = isComplete && !Double.isNaN(outputs[run]);
+                  writeSample(samples, batch, run, outputs[run], variants.get(run).values);
+                  run++;
+               }
+               if (isComplete)
+               {
+                  addGroup(points, groupOutputs);
+                  numCompleteGroups++;
+               }
+               else
+               {
+                  numFailedGroups++;
+               }
+            }
+            samples.flush();
+            writeEstimates(analysisDir);
+            System.out.println(String.format(
+                  "Sensitivity batch %d finished, %d of %d groups complete, %d failed",
+                  batch,
+                  numCompleteGroups,
+                  numGroups,
+                  numFailedGroups
+                  ));
+            batch++;
+         }
+      }
+      finally
+      {
+         samples.close();
+      }
+   }
+
+   /**
+    * Create the variant of the base configuration at a point
+    *
+    * @param point
+    *       fraction of the range of each parameter
+    * @param topology
+    *       topology of the base configuration
+    * @return
+    *       variant
+    * @throws Exception
+    *       if a parameter cannot be set or the variant is not valid
+    */
+   private Variant createVariant(double[] point, StreamTopology topology) throws Exception
+   {
+      double[] values = new double[point.length];
+      StreamConfig.Builder builder = config.toBuilder();
+      for (int param = 0; param < point.length; param++)
+      {
+         values[param] = parameters.get(param).getValue(point[param]);
+         parameters.get(param).apply(builder, values[param]);
+      }
+      StreamConfig variantConfig = builder.build();
+      return new Variant(
+            variantConfig,
+            topology.isCompatible(variantConfig) ? topology : null,
+            values
+            );
+   }
+
+   /**
+    * Run the variants of a batch as an ensemble and calculate
+    * their outputs
+    *
+    * @param variants
+    *       variants to run
+    * @return
+    *       output of each variant, NaN if the run failed
+    * @throws Exception
+    *       if the ensemble is interrupted
+    */
+   private double[] evaluate(ArrayList<Variant> variants) throws Exception
+   {
+      EnsembleRunner runner = new EnsembleRunner(analysisDir, threads);
+      for (int run = 0; run < variants.size(); run++)
+      {
+         final Variant variant = variants.get(run);
+         runner.addMember(new EnsembleRunner.Member(String.format("run_%05d", run)) {
+            @Override
+            protected SimulatorStream createSimulator(File workingDir) throws Exception
+            {
+               return SensitivityAnalysis.this.createSimulator(workingDir, variant);
+            }
+         });
+      }
+      ArrayList<EnsembleRunner.Result> results = runner.run();
+      double[] outputs = new double[variants.size()];
+      for (int run = 0; run < outputs.length; run++)
+      {
+         EnsembleRunner.Result result = results.get(run);
+         outputs[run] = Double.NaN;
+         if (result.isSuccess())
+         {
+            try
+            {
+               outputs[run] = output.score(result.getWorkingDir());
+            }
+            catch (Exception e)
+            {
+               System.out.println(String.format(
+                     "Unable to calculate the output of %s: %s",
+                     result.getName(),
+                     e.getMessage()
+                     ));
+            }
+         }
+      }
+      return outputs;
+   }
+
+   /**
+    * Write a run to the log
+    *
+    * @param samples
+    *       log of all runs
+    * @param batch
+    *       batch number
+    * @param run
+    *       run number in the batch
+    * @param output
+    *       output of the run, NaN if it failed
+    * @param values
+    *       parameter values
+    * @throws Exception
+    *       if error in writing the log
+    */
+   private static void writeSample(BufferedWriter samples, int batch, int run,
+         double output, double[] values) throws Exception
+   {
+      samples.write(String.format("%d %d %s", batch, run, Double.toString(output)));
+      for (double value: values)
+      {
+         samples.write(" " + Double.toString(value));
+      }
+      samples.newLine();
+   }
+
+   /**
+    * Variant of the base configuration at a sample point
+    *
+    * @author robpayn
+    *
+    */
+   public static class Variant {
+
+      /**
+       * Configuration of the variant
+       */
+      private StreamConfig config;
+
+      /**
+       * Topology of the base configuration, null if the variant
+       * cannot share it
+       */
+      private StreamTopology topology;
+
+      /**
+       * Parameter values of the variant
+       */
+      private double[] values;
+
+      /**
+       * Construct a new variant
+       *
+       * @param config
+       *       configuration of the variant
+       * @param topology
+       *       shared topology, null if not shared
+       * @param values
+       *       parameter values
+       */
+      private Variant(StreamConfig config, StreamTopology topology, double[] values)
+      {
+         this.config = config;
+         this.topology = topology;
+         this.values = values;
+      }
+
+      /**
+       * Get the configuration of the variant
+       *
+       * @return
+       *       configuration
+       */
+      public StreamConfig getConfig()
+      {
+         return config;
+      }
+
+      /**
+       * Get the topology shared with the base configuration
+       *
+       * @return
+       *       topology, null if the variant cannot share it
+       */
+      public StreamTopology getTopology()
+      {
+         return topology;
+      }
+
+      /**
+       * Get the parameter values of the variant
+       *
+       * @return
+       *       values, in the order the parameters were added
+       */
+      public double[] getValues()
+      {
+         return values.clone();
+      }
+
+   }
+
+}
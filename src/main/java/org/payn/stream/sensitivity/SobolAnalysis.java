@@ -0,0 +1,211 @@
+package org.payn.stream.sensitivity;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+
+import org.payn.stream.StreamConfig;
+import org.payn.stream.calibration.CalibrationObjective;
+
+/**
+ * Variance-based sensitivity analysis with the first-order and total
+ * Sobol indices.  Each sample group is a block of two independent
+ * random points A and B, plus one point for each parameter that
+ * takes that parameter from B and the others from A, so a group
+ * has two runs more than the number of parameters.
+ *
+ * The first-order indices use the estimator of Saltelli et al. (2010)
+ * and the total indices use the estimator of Jansen (1999), both
+ * normalized by the variance of the outputs at A and B.  The sums
+ * behind the estimators are updated as groups complete, and the
+ * indices are written to {@link #FILE_INDICES}.
+ *
+ * @author robpayn
+ *
+ */
+public abstract class SobolAnalysis extends SensitivityAnalysis {
+
+   /**
+    * Name of the file with the estimates
+    */
+   public static final String FILE_INDICES = "sobol.txt";
+
+   /**
+    * Number of outputs in the variance estimate
+    */
+   private long numOutputs;
+
+   /**
+    * Running mean of the outputs at A and B
+    */
+   private double mean;
+
+   /**
+    * Running sum of squared deviations of the outputs at A and B
+    */
+   private double sumSquares;
+
+   /**
+    * Sum of the first-order terms of each parameter
+    */
+   private double[] firstSums;
+
+   /**
+    * Sum of the total-effect terms of each parameter
+    */
+   private double[] totalSums;
+
+   /**
+    * Construct a new analysis
+    *
+    * @param analysisDir
+    *       directory for the working directories and output
+    *       of the analysis
+    * @param threads
+    *       number of simulations run at the same time
+    * @param output
+    *       scalar output of the model, calculated from the working
+    *       directory of a finished run
+    * @param config
+    *       base configuration of the variants
+    * @param numBlocks
+    *       number of sample blocks
+    */
+   public SobolAnalysis(File analysisDir, int threads,
+         CalibrationObjective output, StreamConfig config, int numBlocks)
+   {
+      super(analysisDir, threads, output, config, numBlocks);
+   }
+
+   @Override
+   public void run() throws Exception
+   {
+      numOutputs = 0;
+      mean = 0.0;
+      sumSquares = 0.0;
+      firstSums = new double[parameters.size()];
+      totalSums = new double[parameters.size()];
+      super.run();
+   }
+
+   @Override
+   protected double[][] createGroup()
+   {
+      int numParameters = parameters.size();
+      double[] pointA = new double[numParameters];
+      double[] pointB = new double[numParameters];
+      for (int param = 0; param < numParameters; param++)
+      {
+         pointA[param] = random.nextDouble();
+         pointB[param] = random.nextDouble();
+      }
+      double[][] points = new double[numParameters + 2][];
+      points[0] = pointA;
+      points[1] = pointB;
+      for (int param = 0; param < numParameters; param++)
+      {
+         points[param + 2] = pointA.clone();
+         points[param + 2][param] = pointB[param];
+      }
+      return points;
+   }
+
+   @Override
+   protected void addGroup(double[][] points, double[] outputs)
+   {
+      double outputA = outputs[0];
+      double outputB = outputs[1];
+      addOutput(outputA);
+      addOutput(outputB);
+      for (int param = 0; param < firstSums.length; param++)
+      {
+         double outputAB = outputs[param + 2];
+         firstSums[param] += outputB * (outputAB - outputA);
+         totalSums[param] += (outputA - outputAB) * (outputA - outputAB);
+      }
+   }
+
+   /**
+    * Add an output to the variance estimate
+    *
+    * @param output
+    *       output of a run at A or B
+    */
+   private void addOutput(double output)
+   {
+      numOutputs++;
+      double deviation = output - mean;
+      mean += deviation / numOutputs;
+      sumSquares += deviation * (output - mean);
+   }
+
+   /**
+    * Get the first-order index of a parameter
+    *
+    * @param param
+    *       index of the parameter, in the order added
+    * @return
+    *       first-order index, NaN if there are too few blocks
+    */
+   public double getFirstOrderIndex(int param)
+   {
+      double variance = getVariance();
+      return (firstSums[param] / numCompleteGroups) / variance;
+   }
+
+   /**
+    * Get the total index of a parameter
+    *
+    * @param param
+    *       index of the parameter, in the order added
+    * @return
+    *       total index, NaN if there are too few blocks
+    */
+   public double getTotalIndex(int param)
+   {
+      double variance = getVariance();
+      return (totalSums[param] / (2.0 * numCompleteGroups)) / variance;
+   }
+
+   /**
+    * Get the variance of the outputs at A and B
+    *
+    * @return
+    *       variance, NaN if there are too few blocks
+    */
+   private double getVariance()
+   {
+      if (numOutputs < 2 || sumSquares == 0.0)
+      {
+         return Double.NaN;
+      }
+      return sumSquares / (numOutputs - 1);
+   }
+
+   @Override
+   protected void writeEstimates(File analysisDir) throws Exception
+   {
+      BufferedWriter writer = new BufferedWriter(new FileWriter(
+            new File(analysisDir, FILE_INDICES)));
+      try
+      {
+         writer.write("parameter blocks firstOrder total");
+         writer.newLine();
+         for (int param = 0; param < parameters.size(); param++)
+         {
+            writer.write(String.format("%s %d %s %s",
+                  parameters.get(param).getName(),
+                  numCompleteGroups,
+                  Double.toString(getFirstOrderIndex(param)),
+                  Double.toString(getTotalIndex(param))
+                  ));
+            writer.newLine();
+         }
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+}
@@ -0,0 +1,282 @@
+package org.payn.stream.uptake;
+
+import java.io.File;
+import java.util.HashMap;
+
+import org.payn.stream.MetaInputMemoryStream;
+import org.payn.stream.SimulatorStream;
+import org.payn.stream.StreamConfig;
+import org.payn.stream.StreamTopology;
+import org.payn.stream.calibration.BreakthroughObjective;
+import org.payn.stream.calibration.CalibrationObjective;
+import org.payn.stream.calibration.DifferentialEvolution;
+import org.payn.stream.io.TimeSeries;
+
+/**
+ * Calibrates the hyperbolic uptake parameters of a solute in a
+ * stream uptake model against an observed breakthrough curve.
+ *
+ * Each candidate is a variant of a base configuration with new
+ * values of the maximum uptake and half saturation concentration,
+ * built in memory in the working directory of its population member.
+ * All candidates share the topology of the base configuration.
+ *
+ * @author robpayn
+ *
+ */
+public class HyperUptakeCalibration extends DifferentialEvolution {
+
+   /**
+    * Name of the maximum uptake parameter
+    */
+   public static final String PARAM_UPTAKE_MAX = "uptakeMax";
+
+   /**
+    * Name of the half saturation concentration parameter
+    */
+   public static final String PARAM_CONC_HALF_SAT = "concHalfSat";
+
+   /**
+    * Entry point for a calibration.  Arguments are the arguments of
+    * the stream simulator, plus:
+    * <ul>
+    * <li>observed: table with the observed breakthrough curve</li>
+    * <li>simulated: table written by each simulation, relative to its
+    *    working directory</li>
+    * <li>timeColumn, valueColumn: column names in both tables</li>
+    * <li>delimiter: column delimiter of both tables, default is a space</li>
+    * <li>solute: name of the solute, default is active</li>
+    * <li>uptakeMax, concHalfSat: range of each parameter as min,max</li>
+    * <li>threads, population, generations, seed: optional settings</li>
+    * </ul>
+    *
+    * @param args
+    *       command line arguments
+    */
+   public static void main(String[] args)
+   {
+      try
+      {
+         File workingDir = new File(System.getProperty("user.dir"));
+         HashMap<String, String> argMap = new HashMap<String, String>();
+         for (String arg: args)
+         {
+            int split = arg.indexOf('=');
+            if (split > 0)
+            {
+               argMap.put(arg.substring(0, split), arg.substring(split + 1));
+            }
+         }
+         for (String key: new String[] {"config", "observed", "simulated",
+               "timeColumn", "valueColumn", PARAM_UPTAKE_MAX, PARAM_CONC_HALF_SAT})
+         {
+            if (!argMap.containsKey(key))
+            {
+               throw new Exception(String.format(
+                     "Must provide an argument for %s (e.g. '%s=...')",
+                     key,
+                     key
+                     ));
+            }
+         }
+         String delimiter = argMap.containsKey("delimiter") ? argMap.get("delimiter") : " ";
+
+         MetaInputXMLHyperUptake metaInput =
+               new MetaInputXMLHyperUptake(workingDir, argMap.get("config"), "stream");
+         String holonPath = workingDir.getAbsoluteFile().toURI().relativize(
+               metaInput.getHolonFile().getAbsoluteFile().toURI()).getPath();
+
+         CalibrationObjective objective = new BreakthroughObjective(
+               TimeSeries.readTable(
+                     new File(workingDir, argMap.get("observed")),
+                     delimiter,
+                     argMap.get("timeColumn"),
+                     argMap.get("valueColumn")
+                     ),
+               argMap.get("simulated"),
+               delimiter,
+               argMap.get("timeColumn"),
+               argMap.get("valueColumn")
+               );
+         int threads = argMap.containsKey("threads") ?
+               Integer.valueOf(argMap.get("threads")) :
+               Runtime.getRuntime().availableProcessors();
+         HyperUptakeCalibration calibration = new HyperUptakeCalibration(
+               new File(workingDir, "calibration"),
+               threads,
+               objective,
+               workingDir,
+               metaInput.getConfig(),
+               argMap.containsKey("solute") ? argMap.get("solute") : "active",
+               holonPath,
+               args
+               );
+         calibration.addParameter(PARAM_UPTAKE_MAX, argMap.get(PARAM_UPTAKE_MAX));
+         calibration.addParameter(PARAM_CONC_HALF_SAT, argMap.get(PARAM_CONC_HALF_SAT));
+         if (argMap.containsKey("population"))
+         {
+            calibration.setPopulationSize(Integer.valueOf(argMap.get("population")));
+         }
+         if (argMap.containsKey("generations"))
+         {
+            calibration.setMaxGenerations(Integer.valueOf(argMap.get("generations")));
+         }
+         if (argMap.containsKey("seed"))
+         {
+            calibration.setSeed(Long.valueOf(argMap.get("seed")));
+         }
+         calibration.calibrate();
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Directory for resolving the paths of input files
+    */
+   private File inputDir;
+
+   /**
+    * Base configuration of the candidates
+    */
+   private StreamConfig config;
+
+   /**
+    * Name of the calibrated solute
+    */
+   private String soluteName;
+
+   /**
+    * Path of the holon file, relative to the working directory
+    * of each candidate
+    */
+   private String holonPath;
+
+   /**
+    * Command line arguments of the simulators
+    */
+   private String[] args;
+
+   /**
+    * Topology shared by all candidates
+    */
+   private StreamTopology topology;
+
+   /**
+    * Construct a new calibration of the provided solute
+    *
+    * @param calibrationDir
+    *       directory for the working directories and output
+    *       of the calibration
+    * @param threads
+    *       number of simulations run at the same time
+    * @param objective
+    *       objective used to score the simulations
+    * @param inputDir
+    *       directory for resolving the paths of input files
+    * @param config
+    *       base configuration of the candidates
+    * @param soluteName
+    *       name of the calibrated solute
+    * @param holonPath
+    *       path of the holon file, relative to the working directory
+    *       of each candidate
+    * @param args
+    *       command line arguments of the simulators
+    * @throws Exception
+    *       if the solute is not configured or error in reading
+    *       the geometry of the stream
+    */
+   public HyperUptakeCalibration(File calibrationDir, int threads,
+         CalibrationObjective objective, File inputDir, StreamConfig config,
+         String soluteName, String holonPath, String[] args) throws Exception
+   {
+      super(calibrationDir, threads, objective);
+      if (!config.isSoluteConfigured(soluteName))
+      {
+         throw new Exception(String.format(
+               "Solute %s is not configured for the calibration",
+               soluteName
+               ));
+      }
+      this.inputDir = inputDir;
+      this.config = config;
+      this.soluteName = soluteName;
+      this.holonPath = holonPath;
+      this.args = args;
+      this.topology = StreamTopology.create(config);
+   }
+
+   /**
+    * Add a parameter with a range given as min,max
+    *
+    * @param name
+    *       parameter name
+    * @param range
+    *       minimum and maximum values separated by a comma
+    * @throws Exception
+    *       if the range is not valid
+    */
+   private void addParameter(String name, String range) throws Exception
+   {
+      String[] values = range.split(",");
+      if (values.length != 2)
+      {
+         throw new Exception(String.format(
+               "Range of parameter %s must be given as min,max",
+               name
+               ));
+      }
+      addParameter(name, Double.valueOf(values[0].trim()), Double.valueOf(values[1].trim()));
+   }
+
+   @Override
+   public void addParameter(String name, double minValue, double maxValue) throws Exception
+   {
+      if (!name.equals(PARAM_UPTAKE_MAX) && !name.equals(PARAM_CONC_HALF_SAT))
+      {
+         throw new Exception(String.format(
+               "Hyperbolic uptake calibration has no parameter named %s",
+               name
+               ));
+      }
+      super.addParameter(name, minValue, maxValue);
+   }
+
+   @Override
+   protected SimulatorStream createSimulator(File workingDir, double[] parameters)
+         throws Exception
+   {
+      StreamConfig.Solute.Builder solute = config.getSolute(soluteName).toBuilder();
+      for (int param = 0; param < parameters.length; param++)
+      {
+         if (getParameterName(param).equals(PARAM_UPTAKE_MAX))
+         {
+            solute.setUptakeMax(parameters[param]);
+         }
+         else
+         {
+            solute.setConcHalfSat(parameters[param]);
+         }
+      }
+      StreamConfig.Builder builder = config.toBuilder();
+      builder.setSolute(solute.build());
+
+      MetaInputMemoryStream metaInput = new MetaInputMemoryStream(
+            inputDir,
+            new File(workingDir, holonPath),
+            builder.build()
+            );
+      metaInput.setTopology(topology);
+      SimulatorStream simulator = new SimulatorStream(
+            workingDir,
+            args,
+            new MatrixLoaderUptakeSimulator()
+            );
+      simulator.getInputProcessorFactory().addHyperUptakeBuilderInputProcessor(metaInput);
+      return simulator;
+   }
+
+}
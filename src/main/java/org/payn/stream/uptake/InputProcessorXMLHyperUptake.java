@@ -1,16 +1,21 @@
 package org.payn.stream.uptake;
 
 import java.io.File;
+import java.util.HashSet;
 
 import org.payn.chsm.io.inputters.InterpolatorSnapshotTable;
-import org.payn.chsm.io.xmltools.ElementBehavior;
-import org.payn.chsm.io.xmltools.ElementHolon;
 import org.payn.chsm.resources.Behavior;
-import org.payn.neoch.io.xmltools.ElementBoundary;
 import org.payn.resources.solute.ResourceSolute;
 import org.payn.resources.solute.concentration.ResourceSoluteConcentration;
+import org.payn.simulation.metainputs.MetaInput;
 import org.payn.stream.InputProcessorXMLStreamBuilder;
+import org.payn.stream.MetaInputStream;
 import org.payn.stream.SimulatorStream;
+import org.payn.stream.StreamConfig;
+import org.payn.stream.StreamPreflight;
+import org.payn.stream.io.HolonMatrixTarget.BehaviorTarget;
+import org.payn.stream.io.HolonMatrixTarget.BoundaryTarget;
+import org.payn.stream.io.HolonMatrixTarget.HolonTarget;
 
 /**
  * Input processer for building a stream model for one-dimensional transport
@@ -18,8 +23,11 @@ import org.payn.stream.SimulatorStream;
  * 
  * @author robpayn
  *
+ * @param <MIT>
+ *      meta input type
  */
-public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder<MetaInputXMLHyperUptake>{
+public class InputProcessorXMLHyperUptake<MIT extends MetaInput & MetaInputStream> 
+      extends InputProcessorXMLStreamBuilder<MIT>{
 
    /**
     * Entry point for stream simulations
@@ -47,6 +55,12 @@ public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder
                   );
          }
 
+         if (Boolean.valueOf(simulator.getArgMap().get(UptakeKernelRunner.ARG_KERNEL)))
+         {
+            new UptakeKernelRunner(workingDir, args).run();
+            return;
+         }
+
          simulator.getInputProcessorFactory().addHyperUptakeBuilderInputProcessor(
                workingDir, simulator.getArgMap().get("config")
                );
@@ -125,12 +139,58 @@ public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder
     * @param metaInput
     * @param simulator
     */
-   public InputProcessorXMLHyperUptake(MetaInputXMLHyperUptake metaInput,
+   public InputProcessorXMLHyperUptake(MIT metaInput,
          SimulatorStream simulator) 
    {
       super(metaInput, simulator);
    }
 
+   @Override
+   protected HashSet<String> getPatchableAttributes()
+   {
+      // Background concentrations are not patchable because they
+      // are also used for the boundary conditions
+      HashSet<String> attributes = super.getPatchableAttributes();
+      attributes.add("hyperbolic/uptakeMax");
+      attributes.add("hyperbolic/concHalfSat");
+      attributes.add("dispersion/coefficient");
+      return attributes;
+   }
+
+   @Override
+   protected void validateConfig(StreamPreflight preflight)
+   {
+      super.validateConfig(preflight);
+      preflight.require(config.getInitialDepth(), "flow initialDepth");
+      preflight.require(config.getInitialFlow(), "flow initialFlow");
+      preflight.require(config.getDispersionCoefficient(), "dispersion coefficient");
+      validateSolute(preflight, config.getSolute("conservative"));
+      if (config.isSoluteConfigured("active"))
+      {
+         StreamConfig.Solute active = config.getSolute("active");
+         validateSolute(preflight, active);
+         preflight.require(active.getUptakeMax(), "solute active hyperbolic uptakeMax");
+         preflight.require(active.getConcHalfSat(), "solute active hyperbolic concHalfSat");
+      }
+   }
+
+   /**
+    * Check the attributes and boundary file of a solute
+    * 
+    * @param preflight
+    *       collects the problems found
+    * @param solute
+    *       solute configuration
+    */
+   private void validateSolute(StreamPreflight preflight, StreamConfig.Solute solute)
+   {
+      String name = "solute " + solute.getName();
+      preflight.require(solute.getBkgConc(), name + " bkgConc");
+      preflight.requireFile(solute.getConcBoundFile(), name + " interpolate path");
+      preflight.require(solute.getInterpolationType(), name + " interpolate type");
+      preflight.require(solute.getDelimiter(), name + " interpolate delimiter");
+   }
+
    @Override
    protected void configureStreamLoop() throws Exception 
    {
@@ -142,33 +202,28 @@ public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder
       conserveBehaviorFlow = conserveResource.getBehavior(
             ResourceSolute.BEHAVIOR_FLOW
             );
-      conserveBkgConc = metaInput.getAttributeBkgConc("conservative");
-      ElementBehavior elementBehavior = 
-            documentHolon.createDefaultBehaviorElement(conserveBehaviorStorage);
-      elementBehavior.createInitValueElement(
+      conserveBkgConc = config.getSolute("conservative").getBkgConc();
+      BehaviorTarget elementBehavior = 
+            matrixTarget.createDefaultBehavior(conserveBehaviorStorage);
+      elementBehavior.createInitValue(
             conserveBehaviorStorage.getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC), 
-            conserveBkgConc.toString(), 
-            null
+            conserveBkgConc
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceSolute.NAME_WATER_FLOW, 
-            initialFlow.toString(), 
-            null
+            initialFlow
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceSolute.NAME_AREA_XSECT, 
-            xSectionalArea.toString(), 
-            null
+            xSectionalArea
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceSolute.NAME_LENGTH, 
-            cellLength.toString(), 
-            null
+            cellLength
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceSolute.NAME_DISPERSION_COEFF, 
-            dispersionCoeff.toString(), 
-            null
+            dispersionCoeff
             );
      
       if (isActiveConfigured)
@@ -179,80 +234,112 @@ public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder
          activeBehaviorStorageUptake = activeResource.getBehavior(
                ResourceSolute.BEHAVIOR_STORAGE_HYPER
                );
-         activeBkgConc = metaInput.getAttributeBkgConc("active");
-         uptakeMax = metaInput.getAttributeUptakeMax("active");
-         halfSat = metaInput.getAttributeConcHalfSat("active");
+         activeBkgConc = config.getSolute("active").getBkgConc();
+         uptakeMax = config.getSolute("active").getUptakeMax();
+         halfSat = config.getSolute("active").getConcHalfSat();
          elementBehavior = 
-               documentHolon.createDefaultBehaviorElement(activeBehaviorStorage);
-         elementBehavior.createInitValueElement(
+               matrixTarget.createDefaultBehavior(activeBehaviorStorage);
+         elementBehavior.createInitValue(
                activeBehaviorStorage.getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC), 
-               activeBkgConc.toString(), 
-               null
+               activeBkgConc
                );
          elementBehavior = 
-               documentHolon.createDefaultBehaviorElement(activeBehaviorStorageUptake);
-         elementBehavior.createInitValueElement(
+               matrixTarget.createDefaultBehavior(activeBehaviorStorageUptake);
+         elementBehavior.createInitValue(
                activeBehaviorStorage.getAbstractStateName(ResourceSolute.NAME_UPTAKE_MAX), 
-               uptakeMax.toString(), 
-               null
+               uptakeMax
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                activeBehaviorStorage.getAbstractStateName(ResourceSolute.NAME_CONC_HALF_SAT), 
-               halfSat.toString(), 
-               null
+               halfSat
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                activeBehaviorStorage.getAbstractStateName(ResourceSolute.NAME_BKG_CONC), 
-               activeBkgConc.toString(), 
-               null
+               activeBkgConc
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                ResourceSolute.NAME_DEPTH, 
-               initialDepth.toString(), 
-               null
+               initialDepth
                );
       }
    }
 
    @Override
-   protected void configureStreamCell(ElementHolon elementCell,
+   protected void configureStreamCell(HolonTarget elementCell,
          long index) 
    {
-      elementCell.createBehaviorElement(conserveBehaviorStorage);
+      BehaviorTarget elementBehavior = 
+            elementCell.createBehavior(conserveBehaviorStorage);
+      if (!isUniformGeometry())
+      {
+         elementBehavior.createInitValue(
+               ResourceSolute.NAME_LENGTH, 
+               getCellLength(index)
+               );
+         elementBehavior.createInitValue(
+               ResourceSolute.NAME_AREA_XSECT, 
+               getCellWidth(index) * initialDepth
+               );
+      }
+      if (network != null)
+      {
+         elementBehavior.createInitValue(
+               ResourceSolute.NAME_WATER_FLOW, 
+               getCellFlow(index)
+               );
+      }
       
       if (isActiveConfigured)
       {
-         elementCell.createBehaviorElement(activeBehaviorStorage);         
-         elementCell.createBehaviorElement(activeBehaviorStorageUptake);         
+         elementCell.createBehavior(activeBehaviorStorage);         
+         elementCell.createBehavior(activeBehaviorStorageUptake);         
       }
       
    }
 
    @Override
-   protected void configureStreamBoundary(ElementBoundary elementBoundary,
-         ElementBoundary elementBoundaryAdj, int index) 
+   protected void configureStreamBoundary(BoundaryTarget elementBoundary,
+         BoundaryTarget elementBoundaryAdj, int index) 
+   {
+      configureFlowBoundary(elementBoundary, getCellFlow(index - 1));
+   }
+
+   @Override
+   protected void configureConfluenceBoundary(BoundaryTarget elementBoundary,
+         BoundaryTarget elementBoundaryAdj, int indexCell, int indexTributaryCell)
+   {
+      configureFlowBoundary(elementBoundary, getCellFlow(indexTributaryCell));
+   }
+
+   /**
+    * Set up the flow behaviors of a boundary between two cells
+    * 
+    * @param elementBoundary
+    *       boundary element on the downstream cell
+    * @param flow
+    *       flow leaving the upstream cell
+    */
+   private void configureFlowBoundary(BoundaryTarget elementBoundary, double flow)
    {
-      ElementBehavior elementBehavior = 
-            elementBoundary.createBehaviorElement(conserveBehaviorFlow);
-      elementBehavior.createInitValueElement(
+      BehaviorTarget elementBehavior = 
+            elementBoundary.createBehavior(conserveBehaviorFlow);
+      elementBehavior.createInitValue(
             ResourceSolute.NAME_WATER_FLOW, 
-            initialFlow.toString(), 
-            null
+            flow
             );
       elementBehavior = 
-            elementBoundary.getAdjacentBoundElement().createBehaviorElement(conserveBehaviorFlow);
-      elementBehavior.createInitValueElement(
+            elementBoundary.getAdjacent().createBehavior(conserveBehaviorFlow);
+      elementBehavior.createInitValue(
             ResourceSolute.NAME_WATER_FLOW,
-            Double.toString(-initialFlow), 
-            null
+            -flow
             );
    }
 
    @Override
-   protected void configureUpstreamBoundary(ElementBoundary elementBoundary,
+   protected void configureUpstreamBoundary(BoundaryTarget elementBoundary,
          int indexFirstCell) throws Exception 
    {
-      boolean isInject = metaInput.isUpstreamInject("conservative");
+      boolean isInject = config.getSolute("conservative").isUpstreamInject();
       Behavior behavior = null;
       if (isInject)
       {
@@ -264,54 +351,45 @@ public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder
          behavior = conserveResource.getBehavior(
                ResourceSolute.BEHAVIOR_CONCBOUND);
       }
-      ElementBehavior elementBehavior = 
-            elementBoundary.createBehaviorElement(behavior);
-      elementBehavior.createInitValueElement(
+      BehaviorTarget elementBehavior = 
+            elementBoundary.createBehavior(behavior);
+      elementBehavior.createInitValue(
             behavior.getAbstractStateName(InterpolatorSnapshotTable.NAME_PATH), 
-            metaInput.getAttributeConcBoundFile("conservative"), 
-            null
+            config.getSolute("conservative").getConcBoundFile()
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             behavior.getAbstractStateName(InterpolatorSnapshotTable.NAME_TYPE), 
-            metaInput.getAttributeInterpolationType("conservative"), 
-            null
+            config.getSolute("conservative").getInterpolationType()
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             behavior.getAbstractStateName(InterpolatorSnapshotTable.NAME_DELIMITER),  
-            metaInput.getAttributeDelimiter("conservative"), 
-            null
+            config.getSolute("conservative").getDelimiter()
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             behavior.getAbstractStateName(InterpolatorSnapshotTable.DEFAULT_NAME_HEADER),  
-            "conservative", 
-            null
+            "conservative"
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             ResourceSolute.NAME_WATER_FLOW, 
-            initialFlow.toString(), 
-            null
+            initialFlow
             );
       if (isInject)
       {
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(ResourceSolute.NAME_INJECT_MASS), 
-               metaInput.getAttributeInjectMass("conservative").toString(), 
-               null
+               config.getSolute("conservative").getInjectMass()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(ResourceSolute.NAME_INJECT_DURATION), 
-               metaInput.getAttributeInjectDuration("conservative").toString(), 
-               null
+               config.getSolute("conservative").getInjectDuration().toString()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(ResourceSolute.NAME_INJECT_START), 
-               metaInput.getAttributeInjectStartInterval("conservative").toString(), 
-               null
+               config.getSolute("conservative").getInjectStartInterval().toString()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC),
-               conserveBkgConc.toString(), 
-               null
+               conserveBkgConc
                );
       }
       
@@ -328,70 +406,60 @@ public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder
                   ResourceSolute.BEHAVIOR_CONCBOUND);
          }
          elementBehavior = 
-               elementBoundary.createBehaviorElement(behavior);
-         elementBehavior.createInitValueElement(
+               elementBoundary.createBehavior(behavior);
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(InterpolatorSnapshotTable.NAME_PATH), 
-               metaInput.getAttributeConcBoundFile("active"), 
-               null
+               config.getSolute("active").getConcBoundFile()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(InterpolatorSnapshotTable.NAME_TYPE), 
-               metaInput.getAttributeInterpolationType("active"), 
-               null
+               config.getSolute("active").getInterpolationType()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(InterpolatorSnapshotTable.NAME_DELIMITER),  
-               metaInput.getAttributeDelimiter("active"), 
-               null
+               config.getSolute("active").getDelimiter()
                );
-         elementBehavior.createInitValueElement(
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(InterpolatorSnapshotTable.DEFAULT_NAME_HEADER),  
-               "active", 
-               null
+               "active"
                );
          if (isInject)
          {
-            elementBehavior.createInitValueElement(
+            elementBehavior.createInitValue(
                   behavior.getAbstractStateName(ResourceSolute.NAME_INJECT_MASS), 
-                  metaInput.getAttributeInjectMass("active").toString(), 
-                  null
+                  config.getSolute("active").getInjectMass()
                   );
-            elementBehavior.createInitValueElement(
+            elementBehavior.createInitValue(
                   behavior.getAbstractStateName(ResourceSolute.NAME_INJECT_DURATION), 
-                  metaInput.getAttributeInjectDuration("active").toString(), 
-                  null
+                  config.getSolute("active").getInjectDuration().toString()
                   );
-            elementBehavior.createInitValueElement(
+            elementBehavior.createInitValue(
                   behavior.getAbstractStateName(ResourceSolute.NAME_INJECT_START), 
-                  metaInput.getAttributeInjectStartInterval("active").toString(), 
-                  null
+                  config.getSolute("active").getInjectStartInterval().toString()
                   );
-            elementBehavior.createInitValueElement(
+            elementBehavior.createInitValue(
                   behavior.getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC),
-                  activeBkgConc.toString(), 
-                  null
+                  activeBkgConc
                   );
          }
       }
    }
 
    @Override
-   protected void configureDownstreamBoundary(ElementBoundary elementBoundary,
+   protected void configureDownstreamBoundary(BoundaryTarget elementBoundary,
          long indexLastCell) throws Exception 
    {
       Behavior behavior = conserveResource.getBehavior(
             ResourceSolute.BEHAVIOR_FLOWBOUND);
-      ElementBehavior elementBehavior = 
-            elementBoundary.createBehaviorElement(behavior);
-      elementBehavior.createInitValueElement(
+      BehaviorTarget elementBehavior = 
+            elementBoundary.createBehavior(behavior);
+      elementBehavior.createInitValue(
             ResourceSolute.NAME_WATER_FLOW, 
-            Double.toString(-initialFlow), 
-            null
+            -getCellFlow(indexLastCell)
             );
-      elementBehavior.createInitValueElement(
+      elementBehavior.createInitValue(
             behavior.getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC), 
-            conserveBkgConc.toString(), 
-            null
+            conserveBkgConc
             );
       
       if (isActiveConfigured)
@@ -399,11 +467,10 @@ public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder
          behavior = activeResource.getBehavior(
                ResourceSolute.BEHAVIOR_FLOWBOUND);
          elementBehavior = 
-               elementBoundary.createBehaviorElement(behavior);
-         elementBehavior.createInitValueElement(
+               elementBoundary.createBehavior(behavior);
+         elementBehavior.createInitValue(
                behavior.getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC), 
-               activeBkgConc.toString(), 
-               null
+               activeBkgConc
                );
       }
    }
@@ -414,7 +481,7 @@ public class InputProcessorXMLHyperUptake extends InputProcessorXMLStreamBuilder
       conserveResource = new ResourceSoluteConcentration();
       conserveResource.initialize("conserve");
       
-      isActiveConfigured = metaInput.isSoluteConfigured("active");
+      isActiveConfigured = config.isSoluteConfigured("active");
       if (isActiveConfigured)
       {
         activeResource = new ResourceSoluteConcentration();
@@ -0,0 +1,447 @@
+package org.payn.stream.uptake;
+
+/**
+ * Subdomain of a single reach stepped by one worker thread of the
+ * {@link TransportKernel}.  The reach is cut into runs of cells in the
+ * order the stream builder numbers them, from the upstream end, and
+ * each subdomain holds its own copy of the concentrations, work arrays,
+ * and geometry of its cells, allocated by the thread that steps it.
+ *
+ * The arrays of the cells are padded with a halo cell at each end,
+ * holding the concentrations of the last cell of the upstream neighbor
+ * and the first cell of the downstream neighbor.  At the start of each
+ * stage, a subdomain sends its end cells to its neighbors and waits
+ * for theirs, so neighbors only wait on each other and never on the
+ * whole reach.  The boundaries between subdomains are calculated by
+ * both neighbors from the same values, so the results are the same
+ * as those of the kernel stepped as a whole.
+ *
+ * @author robpayn
+ *
+ */
+public class TransportDomain {
+
+   /**
+    * Message of the failure of a subdomain released by the
+    * failure of another
+    */
+   public static final String MESSAGE_ABORTED =
+         "Transport domain run aborted by the failure of another domain";
+
+   /**
+    * Concentrations of the end cell of a subdomain sent to a neighbor
+    *
+    * @author robpayn
+    *
+    */
+   public static class Halo {
+
+      /**
+       * Concentration of each solute, in two buffers so a subdomain
+       * can send the next stage before its neighbor has read the last
+       */
+      private double[][] values;
+
+      /**
+       * Number of the last exchange that was sent
+       */
+      private volatile long sent;
+
+      /**
+       * Flag for an aborted run, releasing a waiting neighbor
+       */
+      private volatile boolean isAborted;
+
+      /**
+       * Construct a new halo for the provided number of solutes
+       *
+       * @param numSolutes
+       *       number of solutes
+       */
+      public Halo(int numSolutes)
+      {
+         values = new double[2][numSolutes];
+      }
+
+      /**
+       * Send the concentrations of a cell
+       *
+       * @param conc
+       *       concentrations
+       * @param cell
+       *       position of the cell in the arrays
+       * @param exchange
+       *       number of the exchange
+       */
+      private void send(double[][] conc, int cell, long exchange)
+      {
+         double[] buffer = values[(int)(exchange & 1)];
+         for (int solute = 0; solute < buffer.length; solute++)
+         {
+            buffer[solute] = conc[solute][cell];
+         }
+         synchronized (this)
+         {
+            sent = exchange;
+            notifyAll();
+         }
+      }
+
+      /**
+       * Wait for the concentrations of a cell and copy them
+       *
+       * @param conc
+       *       concentrations
+       * @param cell
+       *       position of the halo cell in the arrays
+       * @param exchange
+       *       number of the exchange
+       * @throws Exception
+       *       if the run was aborted
+       */
+      private void receive(double[][] conc, int cell, long exchange) throws Exception
+      {
+         if (sent < exchange)
+         {
+            synchronized (this)
+            {
+               while (sent < exchange && !isAborted)
+               {
+                  wait();
+               }
+            }
+         }
+         if (isAborted)
+         {
+            throw new Exception(MESSAGE_ABORTED);
+         }
+         double[] buffer = values[(int)(exchange & 1)];
+         for (int solute = 0; solute < buffer.length; solute++)
+         {
+            conc[solute][cell] = buffer[solute];
+         }
+      }
+
+      /**
+       * Release a neighbor waiting on this halo after a failure
+       */
+      public synchronized void abort()
+      {
+         isAborted = true;
+         notifyAll();
+      }
+
+   }
+
+   /**
+    * Kernel that owns the subdomain
+    */
+   private TransportKernel kernel;
+
+   /**
+    * Index of the first cell in the kernel
+    */
+   private int firstCell;
+
+   /**
+    * Number of cells
+    */
+   private int numCells;
+
+   /**
+    * Halo from the upstream neighbor, null for the first subdomain
+    */
+   private Halo upstreamIn;
+
+   /**
+    * Halo to the upstream neighbor, null for the first subdomain
+    */
+   private Halo upstreamOut;
+
+   /**
+    * Halo from the downstream neighbor, null for the last subdomain
+    */
+   private Halo downstreamIn;
+
+   /**
+    * Halo to the downstream neighbor, null for the last subdomain
+    */
+   private Halo downstreamOut;
+
+   /**
+    * Number of the last exchange with the neighbors
+    */
+   private long exchange;
+
+   /**
+    * Concentration of each solute in each cell, with the halo cells
+    * at each end
+    */
+   private double[][] conc;
+
+   /**
+    * Concentrations at the end of the first stage, with halo cells
+    */
+   private double[][] stage;
+
+   /**
+    * Rates of change at the start of the step
+    */
+   private double[][] rateStart;
+
+   /**
+    * Rates of change at the end of the step
+    */
+   private double[][] rateEnd;
+
+   /**
+    * Mass flux into each cell, with the flux out of the last cell
+    * at the end
+    */
+   private double[][] flux;
+
+   /**
+    * Volume of each cell
+    */
+   private double[] volume;
+
+   /**
+    * Flow across the boundary draining each cell, starting with
+    * the upstream halo cell
+    */
+   private double[] flow;
+
+   /**
+    * Dispersion conductance of the boundary draining each cell,
+    * starting with the upstream halo cell
+    */
+   private double[] conductance;
+
+   /**
+    * Construct a new subdomain of a kernel
+    *
+    * @param kernel
+    *       kernel of a single reach
+    * @param firstCell
+    *       index of the first cell in the kernel
+    * @param numCells
+    *       number of cells
+    */
+   public TransportDomain(TransportKernel kernel, int firstCell, int numCells)
+   {
+      this.kernel = kernel;
+      this.firstCell = firstCell;
+      this.numCells = numCells;
+   }
+
+   /**
+    * Connect two neighboring subdomains with a halo in each direction
+    *
+    * @param upstream
+    *       upstream subdomain
+    * @param downstream
+    *       downstream subdomain, starting at the cell after the
+    *       last cell of the upstream subdomain
+    */
+   public static void connect(TransportDomain upstream, TransportDomain downstream)
+   {
+      int numSolutes = upstream.kernel.getNumSolutes();
+      upstream.downstreamOut = new Halo(numSolutes);
+      downstream.upstreamIn = upstream.downstreamOut;
+      downstream.upstreamOut = new Halo(numSolutes);
+      upstream.downstreamIn = downstream.upstreamOut;
+   }
+
+   /**
+    * Allocate the arrays of the subdomain and copy in the geometry,
+    * called by the thread that steps the subdomain so the arrays are
+    * placed in memory near it
+    */
+   private void allocate()
+   {
+      int numSolutes = kernel.getNumSolutes();
+      conc = new double[numSolutes][numCells + 2];
+      stage = new double[numSolutes][numCells + 2];
+      rateStart = new double[numSolutes][numCells + 2];
+      rateEnd = new double[numSolutes][numCells + 2];
+      flux = new double[numSolutes][numCells + 2];
+      volume = new double[numCells + 2];
+      flow = new double[numCells + 1];
+      conductance = new double[numCells + 1];
+      double[] kernelVolume = kernel.getVolume();
+      double[] kernelFlow = kernel.getFaceFlow();
+      double[] kernelConductance = kernel.getFaceConductance();
+      System.arraycopy(kernelVolume, firstCell, volume, 1, numCells);
+
+      // Boundary i of the kernel drains cell i, which is at
+      // i - firstCell + 1 in the arrays of the subdomain
+      for (int cell = 0; cell <= numCells; cell++)
+      {
+         int face = firstCell + cell - 1;
+         if (face >= 0 && face < kernelFlow.length)
+         {
+            flow[cell] = kernelFlow[face];
+            conductance[cell] = kernelConductance[face];
+         }
+      }
+   }
+
+   /**
+    * Copy the concentrations of the subdomain from the kernel,
+    * step the subdomain, and copy the concentrations back
+    *
+    * @param stepIteration
+    *       iteration at the start of the first step
+    * @param stepTime
+    *       time at the start of the first step
+    * @param numSteps
+    *       number of steps
+    * @throws Exception
+    *       if the run was aborted by a failure in another subdomain
+    */
+   public void run(long stepIteration, double stepTime, long numSteps) throws Exception
+   {
+      if (conc == null)
+      {
+         allocate();
+      }
+      for (int solute = 0; solute < conc.length; solute++)
+      {
+         System.arraycopy(kernel.getConc(solute), firstCell, conc[solute], 1, numCells);
+      }
+      TransportOps ops = kernel.getOps();
+      double timeStep = kernel.getTimeStep();
+      double halfStep = 0.5 * timeStep;
+      for (long step = 0; step < numSteps; step++)
+      {
+         exchange(conc);
+         calculateRates(conc, rateStart, stepIteration, stepTime);
+         for (int solute = 0; solute < conc.length; solute++)
+         {
+            ops.stage(conc[solute], rateStart[solute], timeStep, stage[solute],
+                  1, numCells + 1);
+         }
+         exchange(stage);
+         calculateRates(stage, rateEnd, stepIteration, stepTime + timeStep);
+         for (int solute = 0; solute < conc.length; solute++)
+         {
+            ops.combine(conc[solute], rateStart[solute], rateEnd[solute], halfStep,
+                  1, numCells + 1);
+         }
+         stepIteration++;
+         stepTime += timeStep;
+      }
+      for (int solute = 0; solute < conc.length; solute++)
+      {
+         System.arraycopy(conc[solute], 1, kernel.getConc(solute), firstCell, numCells);
+      }
+   }
+
+   /**
+    * Send the end cells to the neighbors and receive their end
+    * cells into the halo cells
+    *
+    * @param values
+    *       concentrations
+    * @throws Exception
+    *       if the run was aborted
+    */
+   private void exchange(double[][] values) throws Exception
+   {
+      exchange++;
+      if (upstreamOut != null)
+      {
+         upstreamOut.send(values, 1, exchange);
+      }
+      if (downstreamOut != null)
+      {
+         downstreamOut.send(values, numCells, exchange);
+      }
+      if (upstreamIn != null)
+      {
+         upstreamIn.receive(values, 0, exchange);
+      }
+      if (downstreamIn != null)
+      {
+         downstreamIn.receive(values, numCells + 1, exchange);
+      }
+   }
+
+   /**
+    * Calculate the rates of change of the concentrations in the cells
+    *
+    * @param values
+    *       concentrations, with the halo cells
+    * @param rate
+    *       rates of change, replaced
+    * @param stepIteration
+    *       iteration at the start of the step, so an injection
+    *       is held through the step
+    * @param stageTime
+    *       time of the stage
+    */
+   private void calculateRates(double[][] values, double[][] rate, long stepIteration,
+         double stageTime)
+   {
+      TransportOps ops = kernel.getOps();
+      int fromFace = upstreamIn == null ? 1 : 0;
+      int toFace = downstreamIn == null ? numCells : numCells + 1;
+      for (int solute = 0; solute < values.length; solute++)
+      {
+         double[] c = values[solute];
+         double[] f = flux[solute];
+         if (upstreamIn == null)
+         {
+            f[1] = kernel.getInflowFlow()
+                  * kernel.getInflowConc(solute, stepIteration, stageTime);
+         }
+         ops.reachFluxes(c, flow, conductance, f, fromFace, toFace);
+         if (downstreamIn == null)
+         {
+            f[numCells + 1] = kernel.getOutflowFlow() * c[numCells];
+         }
+         ops.reachRates(c, f, volume, rate[solute], 1, numCells + 1,
+               kernel.getUptakeMax(solute),
+               kernel.getConcHalfSat(solute),
+               kernel.getBkgConc(solute));
+      }
+   }
+
+   /**
+    * Release the neighbors of the subdomain after a failure.  The
+    * subdomains cannot be run again after they are aborted.
+    */
+   public void abort()
+   {
+      for (Halo halo: new Halo[] {upstreamOut, downstreamOut, upstreamIn, downstreamIn})
+      {
+         if (halo != null)
+         {
+            halo.abort();
+         }
+      }
+   }
+
+   /**
+    * Get the index of the first cell in the kernel
+    *
+    * @return
+    *       index
+    */
+   public int getFirstCell()
+   {
+      return firstCell;
+   }
+
+   /**
+    * Get the number of cells
+    *
+    * @return
+    *       number of cells
+    */
+   public int getNumCells()
+   {
+      return numCells;
+   }
+
+}
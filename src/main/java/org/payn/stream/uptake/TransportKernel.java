@@ -0,0 +1,1475 @@
+package org.payn.stream.uptake;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+
+import org.payn.stream.StreamConfig;
+import org.payn.stream.StreamTopology;
+import org.payn.stream.io.StreamGeometry;
+import org.payn.stream.io.StreamNetwork;
+import org.payn.stream.io.TimeSeries;
+
+/**
+ * Fused kernel for the advection, dispersion, and hyperbolic uptake
+ * of the solutes of an uptake model, as an alternative to running the
+ * holon matrix built by {@link InputProcessorXMLHyperUptake}.
+ *
+ * The model is laid out as contiguous arrays: the concentration of
+ * each solute and the volume of each cell, and the flow and the
+ * dispersion conductance, which holds the area, of each boundary
+ * between cells.  The whole network is stepped in loops over these
+ * arrays with the same second order Runge-Kutta (Heun) scheme as the
+ * default controller, using work arrays allocated once.  Runs of cells
+ * in a single reach are processed by {@link TransportOps}, with vector
+ * instructions where the Vector API is available.
+ *
+ * Each stage of a step runs in two phases: the mass flux across each
+ * boundary from the concentrations, then the rate and new concentration
+ * of each cell from the fluxes across its boundaries.  The boundaries
+ * and cells are split into contiguous chunks, and with more than one
+ * thread (see {@link #setThreads(int)}) the chunks of a phase run on a
+ * fork-join pool, with the threads meeting only at the end of each
+ * phase.  A cell adds the fluxes across its boundaries in the same
+ * order for any number of threads, so the results do not depend on
+ * the number of threads.
+ *
+ * A single reach can instead be decomposed into subdomains (see
+ * {@link #setDomains(int)}), each stepped by its own thread on its
+ * own copy of the state, exchanging only the concentrations of the
+ * cells at their ends with their neighbors at each stage
+ * (see {@link TransportDomain}).  The model is
+ * laid out with the same geometry and initial values as the builder:
+ * <ul>
+ * <li>advection carries the concentration of the upstream cell across
+ *    each boundary, with the flow of the configuration accumulated down
+ *    a network from the upstream boundary of each headwater reach</li>
+ * <li>dispersion across a boundary is the dispersion coefficient times
+ *    the mean area of the two cells times the concentration difference,
+ *    over the distance between the cell centers</li>
+ * <li>the upstream boundary of each headwater reach brings in water at
+ *    the concentration of the solute boundary table or injection, and
+ *    the downstream boundary of the outlet reach carries out water at
+ *    the concentration of the last cell</li>
+ * <li>hyperbolic uptake removes uptakeMax * (C - bkg) / (concHalfSat
+ *    + C - bkg) per unit area of bed, spread over the depth</li>
+ * </ul>
+ * The holon behaviors remain the reference implementation, and
+ * {@link UptakeKernelRunner} can step the kernel alongside the holon
+ * matrix to check that the results match.
+ *
+ * @author robpayn
+ *
+ */
+public class TransportKernel {
+
+   /**
+    * Concentration of a solute at the upstream boundaries
+    *
+    * @author robpayn
+    *
+    */
+   private static class Inflow {
+
+      /**
+       * Boundary table, null for an injection
+       */
+      private TimeSeries table;
+
+      /**
+       * Background concentration
+       */
+      private double bkgConc;
+
+      /**
+       * Concentration added during an injection
+       */
+      private double injectConc;
+
+      /**
+       * First iteration of an injection
+       */
+      private long injectStart;
+
+      /**
+       * First iteration after an injection
+       */
+      private long injectEnd;
+
+      /**
+       * Get the concentration of the inflow
+       *
+       * @param iteration
+       *       iteration
+       * @param time
+       *       time
+       * @return
+       *       concentration
+       */
+      private double getConc(long iteration, double time)
+      {
+         if (table == null)
+         {
+            return iteration >= injectStart && iteration < injectEnd ?
+                  bkgConc + injectConc : bkgConc;
+         }
+         if (time <= table.getStartTime())
+         {
+            return table.getValue(0);
+         }
+         if (time >= table.getEndTime())
+         {
+            return table.getValue(table.size() - 1);
+         }
+         return table.interpolate(time);
+      }
+
+   }
+
+   /**
+    * Number of cells
+    */
+   private int numCells;
+
+   /**
+    * Names of the solutes, in the order of the concentration arrays
+    */
+   private String[] soluteNames;
+
+   /**
+    * Concentration of each solute in each cell
+    */
+   private double[][] conc;
+
+   /**
+    * Volume of water in each cell
+    */
+   private double[] volume;
+
+   /**
+    * Upstream cell of each boundary between cells
+    */
+   private int[] faceUp;
+
+   /**
+    * Downstream cell of each boundary between cells
+    */
+   private int[] faceDown;
+
+   /**
+    * Flow across each boundary between cells, positive downstream
+    */
+   private double[] faceFlow;
+
+   /**
+    * Dispersion coefficient times area over distance at each boundary
+    * between cells
+    */
+   private double[] faceConductance;
+
+   /**
+    * Cell at the upstream boundary of each headwater
+    */
+   private int[] inflowCell;
+
+   /**
+    * Flow into the cell at each upstream boundary
+    */
+   private double[] inflowFlow;
+
+   /**
+    * Cell at each downstream boundary
+    */
+   private int[] outflowCell;
+
+   /**
+    * Flow out of the cell at each downstream boundary
+    */
+   private double[] outflowFlow;
+
+   /**
+    * Concentration of each solute at the upstream boundaries
+    */
+   private Inflow[] inflows;
+
+   /**
+    * Flag for solutes with hyperbolic uptake
+    */
+   private boolean[] isUptake;
+
+   /**
+    * Maximum uptake of each solute, per unit area over the depth
+    */
+   private double[] uptakeMax;
+
+   /**
+    * Concentration at half the maximum uptake of each solute
+    */
+   private double[] concHalfSat;
+
+   /**
+    * Background concentration of each solute
+    */
+   private double[] bkgConc;
+
+   /**
+    * Time step
+    */
+   private double timeStep;
+
+   /**
+    * Current iteration
+    */
+   private long iteration;
+
+   /**
+    * Current time
+    */
+   private double time;
+
+   /**
+    * Rates of change at the start of a step
+    */
+   private double[][] rateStart;
+
+   /**
+    * Rates of change at the end of a step
+    */
+   private double[][] rateEnd;
+
+   /**
+    * Concentrations at the end of the first stage of a step
+    */
+   private double[][] stage;
+
+   /**
+    * Flag for a single reach, where boundary i drains cell i into
+    * cell i + 1, so the fluxes can be calculated in runs of cells
+    */
+   private boolean isReach;
+
+   /**
+    * Mass flux of each solute.  For a single reach, the flux into
+    * each cell with the flux out of the last cell at the end,
+    * otherwise the flux across each boundary between cells, then
+    * across each upstream boundary, then across the downstream
+    * boundary.
+    */
+   private double[][] flux;
+
+   /**
+    * Concentration of each solute at the upstream boundaries
+    * in the current stage
+    */
+   private double[] inflowConc;
+
+   /**
+    * Start of the boundaries of each cell in {@link #cellFace},
+    * with the end of the last cell at the end
+    */
+   private int[] cellFaceStart;
+
+   /**
+    * Boundaries of each cell in order, as indices into the fluxes
+    */
+   private int[] cellFace;
+
+   /**
+    * Sign of the flux across each boundary in {@link #cellFace},
+    * 1 into the cell and -1 out of the cell
+    */
+   private double[] cellFaceSign;
+
+   /**
+    * First cell of each chunk, with the number of cells at the end
+    */
+   private int[] chunkCell;
+
+   /**
+    * First boundary of each chunk, with the number of boundaries
+    * at the end
+    */
+   private int[] chunkFace;
+
+   /**
+    * Pool running the chunks, null for a single thread
+    */
+   private ForkJoinPool pool;
+
+   /**
+    * Subdomains of a single reach, null if the kernel is not
+    * decomposed
+    */
+   private TransportDomain[] domains;
+
+   /**
+    * Threads stepping the subdomains, one for each subdomain
+    */
+   private ExecutorService domainPool;
+
+   /**
+    * Array operations on runs of cells
+    */
+   private TransportOps ops;
+
+   /**
+    * Smallest number of cells in a chunk
+    */
+   private static final int MIN_CHUNK = 4096;
+
+   /**
+    * Multiple of the first cell of each chunk, keeping the chunks
+    * apart on cache lines and aligned for vector operations
+    */
+   private static final int CHUNK_ALIGN = 64;
+
+   /**
+    * First phase of a stage, calculating the fluxes
+    */
+   private static final int PHASE_FLUX_START = 0;
+
+   /**
+    * Second phase of the first stage, calculating the rates and the
+    * concentrations at the end of the stage
+    */
+   private static final int PHASE_STAGE = 1;
+
+   /**
+    * First phase of the second stage, calculating the fluxes from
+    * the concentrations at the end of the first stage
+    */
+   private static final int PHASE_FLUX_END = 2;
+
+   /**
+    * Second phase of the second stage, calculating the rates and
+    * the concentrations at the end of the step
+    */
+   private static final int PHASE_COMBINE = 3;
+
+   /**
+    * Phase of a step, running each chunk as a separate task and
+    * finishing when all of them finish
+    *
+    * @author robpayn
+    *
+    */
+   private class PhaseAction extends RecursiveAction {
+
+      /**
+       * Serial version
+       */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Phase to run
+       */
+      private int phase;
+
+      /**
+       * Chunk to run, -1 to split into all chunks
+       */
+      private int chunk;
+
+      /**
+       * Construct a new action for a phase
+       *
+       * @param phase
+       *       phase to run
+       * @param chunk
+       *       chunk to run, -1 for all chunks
+       */
+      private PhaseAction(int phase, int chunk)
+      {
+         this.phase = phase;
+         this.chunk = chunk;
+      }
+
+      @Override
+      protected void compute()
+      {
+         if (chunk >= 0)
+         {
+            runChunk(phase, chunk);
+            return;
+         }
+         PhaseAction[] actions = new PhaseAction[chunkCell.length - 1];
+         for (int index = 0; index < actions.length; index++)
+         {
+            actions[index] = new PhaseAction(phase, index);
+         }
+         invokeAll(actions);
+      }
+
+   }
+
+   /**
+    * Lay out the kernel for an uptake model
+    *
+    * @param config
+    *       configuration of the model
+    * @param topology
+    *       topology of the stream
+    * @param inputDir
+    *       directory for resolving the paths of the boundary tables
+    * @return
+    *       kernel at the first iteration, with the background
+    *       concentrations
+    * @throws Exception
+    *       if the configuration uses initial condition files, or error
+    *       in reading a boundary table
+    */
+   public static TransportKernel create(StreamConfig config, StreamTopology topology,
+         File inputDir) throws Exception
+   {
+      if (config.isInitialConditions())
+      {
+         throw new Exception(
+               "The transport kernel does not support initial condition files"
+               );
+      }
+      TransportKernel kernel = new TransportKernel();
+      kernel.timeStep = config.getTimeInterval();
+      kernel.iteration = 1;
+      kernel.time = 0.0;
+      kernel.layoutCells(config, topology);
+      kernel.layoutBoundaries(config, topology);
+      kernel.layoutIncidence();
+      kernel.ops = TransportOps.create(true);
+      kernel.layoutChunks(1);
+
+      ArrayList<StreamConfig.Solute> solutes = new ArrayList<StreamConfig.Solute>();
+      solutes.add(config.getSolute("conservative"));
+      if (config.isSoluteConfigured("active"))
+      {
+         solutes.add(config.getSolute("active"));
+      }
+      int numSolutes = solutes.size();
+      kernel.soluteNames = new String[numSolutes];
+      kernel.conc = new double[numSolutes][kernel.numCells];
+      kernel.inflows = new Inflow[numSolutes];
+      kernel.isUptake = new boolean[numSolutes];
+      kernel.uptakeMax = new double[numSolutes];
+      kernel.concHalfSat = new double[numSolutes];
+      kernel.bkgConc = new double[numSolutes];
+      kernel.rateStart = new double[numSolutes][kernel.numCells];
+      kernel.rateEnd = new double[numSolutes][kernel.numCells];
+      kernel.stage = new double[numSolutes][kernel.numCells];
+      kernel.flux = new double[numSolutes][kernel.isReach ?
+            kernel.numCells + 1 : kernel.cellFace.length - kernel.faceUp.length];
+      kernel.inflowConc = new double[numSolutes];
+      double depth = config.getInitialDepth();
+      for (int solute = 0; solute < numSolutes; solute++)
+      {
+         StreamConfig.Solute soluteConfig = solutes.get(solute);
+         kernel.soluteNames[solute] = soluteConfig.getName();
+         kernel.bkgConc[solute] = soluteConfig.getBkgConc();
+         for (int cell = 0; cell < kernel.numCells; cell++)
+         {
+            kernel.conc[solute][cell] = soluteConfig.getBkgConc();
+         }
+         kernel.inflows[solute] = createInflow(config, soluteConfig, inputDir);
+         if (soluteConfig.getName().equals("active"))
+         {
+            kernel.isUptake[solute] = true;
+            kernel.uptakeMax[solute] = soluteConfig.getUptakeMax() / depth;
+            kernel.concHalfSat[solute] = soluteConfig.getConcHalfSat();
+         }
+      }
+      return kernel;
+   }
+
+   /**
+    * Construct a kernel to be laid out by {@link #create}
+    */
+   private TransportKernel()
+   {
+   }
+
+   /**
+    * Lay out the volume of each cell
+    *
+    * @param config
+    *       configuration of the model
+    * @param topology
+    *       topology of the stream
+    */
+   private void layoutCells(StreamConfig config, StreamTopology topology)
+   {
+      numCells = topology.getNumCells();
+      volume = new double[numCells];
+      StreamGeometry geometry = topology.getGeometry();
+      double depth = config.getInitialDepth();
+      for (int cell = 0; cell < numCells; cell++)
+      {
+         volume[cell] = getCellArea(config, geometry, cell, depth)
+               * getCellLength(config, geometry, cell);
+      }
+   }
+
+   /**
+    * Lay out the boundaries between cells and the upstream and
+    * downstream boundaries, in the same order as the builder
+    *
+    * @param config
+    *       configuration of the model
+    * @param topology
+    *       topology of the stream
+    */
+   private void layoutBoundaries(StreamConfig config, StreamTopology topology)
+   {
+      StreamGeometry geometry = topology.getGeometry();
+      StreamNetwork network = topology.getNetwork();
+      double flow = config.getInitialFlow();
+      double dispersion = config.getDispersionCoefficient();
+      double depth = config.getInitialDepth();
+
+      // The flow leaving each cell, accumulated down a network
+      // from the same flow at each headwater
+      int numReaches = 1;
+      int numHeadwaters = 1;
+      double[] cellFlow = new double[numCells];
+      if (network == null)
+      {
+         Arrays.fill(cellFlow, flow);
+      }
+      else
+      {
+         numReaches = network.getNumReaches();
+         numHeadwaters = 0;
+         for (int reach = 0; reach < numReaches; reach++)
+         {
+            numHeadwaters += network.isHeadwater(reach) ? 1 : 0;
+         }
+         cellFlow = network.getCellFlow(flow);
+      }
+
+      // Each cell but the last of the outlet reach drains through
+      // a boundary to another cell
+      int numFaces = numCells - 1;
+      faceUp = new int[numFaces];
+      faceDown = new int[numFaces];
+      faceFlow = new double[numFaces];
+      faceConductance = new double[numFaces];
+      inflowCell = new int[numHeadwaters];
+      inflowFlow = new double[numHeadwaters];
+      outflowCell = new int[1];
+      outflowFlow = new double[1];
+
+      int face = 0;
+      int inflow = 0;
+      for (int reach = 0; reach < numReaches; reach++)
+      {
+         int firstCell = network == null ? 1 : network.getFirstCell(reach);
+         int lastCell = network == null ? numCells : network.getLastCell(reach);
+         for (int cell = firstCell + 1; cell <= lastCell; cell++)
+         {
+            face = layoutFace(config, geometry, face, cell - 2, cell - 1,
+                  cellFlow[cell - 2], dispersion, depth);
+         }
+         if (network == null || network.isHeadwater(reach))
+         {
+            inflowCell[inflow] = firstCell - 1;
+            inflowFlow[inflow++] = flow;
+         }
+         int confluenceCell = network == null ?
+               StreamNetwork.NONE : network.getConfluenceCell(reach);
+         if (confluenceCell == StreamNetwork.NONE)
+         {
+            outflowCell[0] = lastCell - 1;
+            outflowFlow[0] = cellFlow[lastCell - 1];
+         }
+         else
+         {
+            face = layoutFace(config, geometry, face, lastCell - 1, confluenceCell - 1,
+                  cellFlow[lastCell - 1], dispersion, depth);
+         }
+      }
+      isReach = network == null && flow >= 0.0;
+   }
+
+   /**
+    * Lay out the boundaries of each cell, so each cell can gather the
+    * fluxes across its boundaries in boundary order
+    */
+   private void layoutIncidence()
+   {
+      int numFaces = faceUp.length;
+      int numEntries = 2 * numFaces + inflowCell.length + outflowCell.length;
+      cellFaceStart = new int[numCells + 1];
+      cellFace = new int[numEntries];
+      cellFaceSign = new double[numEntries];
+      int[] entryCell = new int[numEntries];
+      double[] entrySign = new double[numEntries];
+      int entry = 0;
+      for (int face = 0; face < numFaces; face++)
+      {
+         entryCell[entry] = faceUp[face];
+         entrySign[entry++] = -1.0;
+         entryCell[entry] = faceDown[face];
+         entrySign[entry++] = 1.0;
+      }
+      for (int inflow = 0; inflow < inflowCell.length; inflow++)
+      {
+         entryCell[entry] = inflowCell[inflow];
+         entrySign[entry++] = 1.0;
+      }
+      for (int outflow = 0; outflow < outflowCell.length; outflow++)
+      {
+         entryCell[entry] = outflowCell[outflow];
+         entrySign[entry++] = -1.0;
+      }
+
+      // Sort the entries by cell, keeping the order of the fluxes
+      for (entry = 0; entry < numEntries; entry++)
+      {
+         cellFaceStart[entryCell[entry] + 1]++;
+      }
+      for (int cell = 0; cell < numCells; cell++)
+      {
+         cellFaceStart[cell + 1] += cellFaceStart[cell];
+      }
+      int[] next = new int[numCells];
+      for (entry = 0; entry < numEntries; entry++)
+      {
+         int cell = entryCell[entry];
+         int index = cellFaceStart[cell] + next[cell]++;
+         cellFace[index] = entry < 2 * numFaces ? entry / 2 : entry - numFaces;
+         cellFaceSign[index] = entrySign[entry];
+      }
+   }
+
+   /**
+    * Split the cells and boundaries into contiguous chunks
+    *
+    * @param numChunks
+    *       number of chunks wanted, fewer are used if the chunks
+    *       would be smaller than {@link #MIN_CHUNK}
+    */
+   private void layoutChunks(int numChunks)
+   {
+      numChunks = Math.max(1, Math.min(numChunks, numCells / MIN_CHUNK));
+      chunkCell = split(numCells, numChunks);
+      chunkFace = isReach ? chunkCell : split(faceUp.length, numChunks);
+   }
+
+   /**
+    * Split a range of items into aligned contiguous chunks
+    *
+    * @param numItems
+    *       number of items
+    * @param numChunks
+    *       number of chunks
+    * @return
+    *       first item of each chunk, with the number of items at the end
+    */
+   private static int[] split(int numItems, int numChunks)
+   {
+      int[] start = new int[numChunks + 1];
+      for (int chunk = 1; chunk < numChunks; chunk++)
+      {
+         int item = (int)((long)numItems * chunk / numChunks);
+         start[chunk] = Math.max(start[chunk - 1], item - item % CHUNK_ALIGN);
+      }
+      start[numChunks] = numItems;
+      return start;
+   }
+
+   /**
+    * Lay out a boundary between two cells
+    *
+    * @param config
+    *       configuration of the model
+    * @param geometry
+    *       geometry of the cells, null if uniform
+    * @param face
+    *       index of the boundary
+    * @param up
+    *       index of the upstream cell
+    * @param down
+    *       index of the downstream cell
+    * @param flow
+    *       flow across the boundary
+    * @param dispersion
+    *       dispersion coefficient
+    * @param depth
+    *       depth of the water
+    * @return
+    *       index of the next boundary
+    */
+   private int layoutFace(StreamConfig config, StreamGeometry geometry, int face,
+         int up, int down, double flow, double dispersion, double depth)
+   {
+      faceUp[face] = up;
+      faceDown[face] = down;
+      faceFlow[face] = flow;
+      double area = 0.5 * (getCellArea(config, geometry, up, depth)
+            + getCellArea(config, geometry, down, depth));
+      double distance = 0.5 * (getCellLength(config, geometry, up)
+            + getCellLength(config, geometry, down));
+      faceConductance[face] = dispersion * area / distance;
+      return face + 1;
+   }
+
+   /**
+    * Get the length of a cell, as set up by the builder
+    *
+    * @param config
+    *       configuration of the model
+    * @param geometry
+    *       geometry of the cells, null if uniform
+    * @param cell
+    *       index of the cell, from zero
+    * @return
+    *       length
+    */
+   private double getCellLength(StreamConfig config, StreamGeometry geometry, int cell)
+   {
+      if (geometry == null)
+      {
+         return config.getStreamLength() / numCells;
+      }
+      return geometry.getCellLength(cell + 1);
+   }
+
+   /**
+    * Get the cross-sectional area of a cell, as set up by the builder
+    *
+    * @param config
+    *       configuration of the model
+    * @param geometry
+    *       geometry of the cells, null if uniform
+    * @param cell
+    *       index of the cell, from zero
+    * @param depth
+    *       depth of the water
+    * @return
+    *       area
+    */
+   private static double getCellArea(StreamConfig config, StreamGeometry geometry,
+         int cell, double depth)
+   {
+      if (geometry == null)
+      {
+         return config.getAverageWidth() * depth;
+      }
+      return geometry.getCellWidth(cell + 1) * depth;
+   }
+
+   /**
+    * Create the upstream boundary condition of a solute
+    *
+    * @param config
+    *       configuration of the model
+    * @param solute
+    *       configuration of the solute
+    * @param inputDir
+    *       directory for resolving the path of the boundary table
+    * @return
+    *       boundary condition
+    * @throws Exception
+    *       if error in reading the boundary table
+    */
+   private static Inflow createInflow(StreamConfig config, StreamConfig.Solute solute,
+         File inputDir) throws Exception
+   {
+      Inflow inflow = new Inflow();
+      inflow.bkgConc = solute.getBkgConc();
+      if (solute.isUpstreamInject())
+      {
+         inflow.injectStart = solute.getInjectStartInterval();
+         inflow.injectEnd = inflow.injectStart + solute.getInjectDuration();
+         inflow.injectConc = solute.getInjectMass() / (config.getInitialFlow()
+               * solute.getInjectDuration() * config.getTimeInterval());
+      }
+      else
+      {
+         File file = new File(solute.getConcBoundFile());
+         if (!file.isAbsolute())
+         {
+            file = new File(inputDir, solute.getConcBoundFile());
+         }
+         inflow.table = TimeSeries.readTable(file, solute.getDelimiter(), solute.getName());
+      }
+      return inflow;
+   }
+
+   /**
+    * Calculate the concentrations of the solutes at the upstream
+    * boundaries for a stage
+    *
+    * @param stepIteration
+    *       iteration at the start of the step, so an injection
+    *       is held through the step
+    * @param stageTime
+    *       time of the stage
+    */
+   private void calculateInflows(long stepIteration, double stageTime)
+   {
+      for (int solute = 0; solute < inflowConc.length; solute++)
+      {
+         inflowConc[solute] = inflows[solute].getConc(stepIteration, stageTime);
+      }
+   }
+
+   /**
+    * Calculate the mass fluxes across the boundaries of a chunk
+    *
+    * @param conc
+    *       concentrations
+    * @param chunk
+    *       index of the chunk
+    */
+   private void calculateFluxes(double[][] conc, int chunk)
+   {
+      int fromFace = chunkFace[chunk];
+      int toFace = chunkFace[chunk + 1];
+      for (int solute = 0; solute < conc.length; solute++)
+      {
+         double[] c = conc[solute];
+         double[] f = flux[solute];
+         if (isReach)
+         {
+            // The boundary after the last cell of the chunk is the
+            // last boundary of the chunk, except at the outlet
+            int lastFace = Math.min(toFace, faceUp.length);
+            if (chunk == 0)
+            {
+               f[0] = inflowFlow[0] * inflowConc[solute];
+            }
+            ops.reachFluxes(c, faceFlow, faceConductance, f, fromFace, lastFace);
+            if (toFace == numCells)
+            {
+               f[numCells] = outflowFlow[0] * c[numCells - 1];
+            }
+            continue;
+         }
+         for (int face = fromFace; face < toFace; face++)
+         {
+            int up = faceUp[face];
+            int down = faceDown[face];
+            double flow = faceFlow[face];
+            f[face] = flow * (flow >= 0.0 ? c[up] : c[down])
+                  + faceConductance[face] * (c[up] - c[down]);
+         }
+         if (chunk == 0)
+         {
+            int face = faceUp.length;
+            for (int inflow = 0; inflow < inflowCell.length; inflow++)
+            {
+               f[face++] = inflowFlow[inflow] * inflowConc[solute];
+            }
+            for (int outflow = 0; outflow < outflowCell.length; outflow++)
+            {
+               f[face++] = outflowFlow[outflow] * c[outflowCell[outflow]];
+            }
+         }
+      }
+   }
+
+   /**
+    * Calculate the rates of change of the concentrations in the cells
+    * of a chunk, from the fluxes
+    *
+    * @param conc
+    *       concentrations
+    * @param rate
+    *       rates of change, replaced
+    * @param chunk
+    *       index of the chunk
+    */
+   private void calculateRates(double[][] conc, double[][] rate, int chunk)
+   {
+      int fromCell = chunkCell[chunk];
+      int toCell = chunkCell[chunk + 1];
+      for (int solute = 0; solute < conc.length; solute++)
+      {
+         double[] c = conc[solute];
+         double[] r = rate[solute];
+         double[] f = flux[solute];
+         if (isReach)
+         {
+            ops.reachRates(c, f, volume, r, fromCell, toCell,
+                  isUptake[solute] ? uptakeMax[solute] : 0.0,
+                  concHalfSat[solute], bkgConc[solute]);
+            continue;
+         }
+
+         // Net mass flux into each cell, scattered from the boundaries
+         // on a single chunk, where no other thread shares the cells,
+         // otherwise gathered by each cell, in the same order
+         if (chunkCell.length == 2)
+         {
+            for (int cell = 0; cell < numCells; cell++)
+            {
+               r[cell] = 0.0;
+            }
+            int numFaces = faceUp.length;
+            for (int face = 0; face < numFaces; face++)
+            {
+               r[faceUp[face]] -= f[face];
+               r[faceDown[face]] += f[face];
+            }
+            int face = numFaces;
+            for (int inflow = 0; inflow < inflowCell.length; inflow++)
+            {
+               r[inflowCell[inflow]] += f[face++];
+            }
+            for (int outflow = 0; outflow < outflowCell.length; outflow++)
+            {
+               r[outflowCell[outflow]] -= f[face++];
+            }
+         }
+         else
+         {
+            for (int cell = fromCell; cell < toCell; cell++)
+            {
+               double net = 0.0;
+               for (int index = cellFaceStart[cell]; index < cellFaceStart[cell + 1]; index++)
+               {
+                  net += cellFaceSign[index] * f[cellFace[index]];
+               }
+               r[cell] = net;
+            }
+         }
+
+         // Concentration rates, with uptake
+         if (isUptake[solute])
+         {
+            double max = uptakeMax[solute];
+            double halfSat = concHalfSat[solute];
+            double bkg = bkgConc[solute];
+            for (int cell = fromCell; cell < toCell; cell++)
+            {
+               double excess = c[cell] - bkg;
+               r[cell] = r[cell] / volume[cell] - max * excess / (halfSat + excess);
+            }
+         }
+         else
+         {
+            for (int cell = fromCell; cell < toCell; cell++)
+            {
+               r[cell] /= volume[cell];
+            }
+         }
+      }
+   }
+
+   /**
+    * Run a phase of a step for one chunk
+    *
+    * @param phase
+    *       phase
+    * @param chunk
+    *       index of the chunk
+    */
+   private void runChunk(int phase, int chunk)
+   {
+      int fromCell = chunkCell[chunk];
+      int toCell = chunkCell[chunk + 1];
+      switch (phase)
+      {
+         case PHASE_FLUX_START:
+            calculateFluxes(conc, chunk);
+            break;
+         case PHASE_STAGE:
+            calculateRates(conc, rateStart, chunk);
+            for (int solute = 0; solute < conc.length; solute++)
+            {
+               ops.stage(conc[solute], rateStart[solute], timeStep, stage[solute],
+                     fromCell, toCell);
+            }
+            break;
+         case PHASE_FLUX_END:
+            calculateFluxes(stage, chunk);
+            break;
+         case PHASE_COMBINE:
+            calculateRates(stage, rateEnd, chunk);
+            double halfStep = 0.5 * timeStep;
+            for (int solute = 0; solute < conc.length; solute++)
+            {
+               ops.combine(conc[solute], rateStart[solute], rateEnd[solute], halfStep,
+                     fromCell, toCell);
+            }
+            break;
+      }
+   }
+
+   /**
+    * Run a phase of a step for all chunks, returning when all
+    * of them are finished
+    *
+    * @param phase
+    *       phase
+    */
+   private void runPhase(int phase)
+   {
+      if (pool == null || chunkCell.length == 2)
+      {
+         for (int chunk = 0; chunk < chunkCell.length - 1; chunk++)
+         {
+            runChunk(phase, chunk);
+         }
+      }
+      else
+      {
+         pool.invoke(new PhaseAction(phase, -1));
+      }
+   }
+
+   /**
+    * Advance the kernel by one time step
+    *
+    * @throws Exception
+    *       if a subdomain fails
+    */
+   public void step() throws Exception
+   {
+      if (domains != null)
+      {
+         runDomains(1);
+         return;
+      }
+      calculateInflows(iteration, time);
+      runPhase(PHASE_FLUX_START);
+      runPhase(PHASE_STAGE);
+      calculateInflows(iteration, time + timeStep);
+      runPhase(PHASE_FLUX_END);
+      runPhase(PHASE_COMBINE);
+      iteration++;
+      time += timeStep;
+   }
+
+   /**
+    * Advance the kernel to an iteration
+    *
+    * @param lastIteration
+    *       iteration to stop at
+    * @throws Exception
+    *       if a subdomain fails
+    */
+   public void advanceTo(long lastIteration) throws Exception
+   {
+      if (domains != null)
+      {
+         if (iteration < lastIteration)
+         {
+            runDomains(lastIteration - iteration);
+         }
+         return;
+      }
+      while (iteration < lastIteration)
+      {
+         step();
+      }
+   }
+
+   /**
+    * Step each subdomain on its own thread for a number of steps
+    *
+    * @param numSteps
+    *       number of steps
+    * @throws Exception
+    *       if a subdomain fails, after which the kernel is no
+    *       longer decomposed
+    */
+   private void runDomains(final long numSteps) throws Exception
+   {
+      final long stepIteration = iteration;
+      final double stepTime = time;
+      ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (final TransportDomain domain: domains)
+      {
+         futures.add(domainPool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception
+            {
+               try
+               {
+                  domain.run(stepIteration, stepTime, numSteps);
+                  return null;
+               }
+               catch (Exception | Error e)
+               {
+                  domain.abort();
+                  throw e;
+               }
+            }
+         }));
+      }
+      Throwable failure = null;
+      for (Future<Void> future: futures)
+      {
+         try
+         {
+            future.get();
+         }
+         catch (ExecutionException e)
+         {
+            // Report the failure rather than the aborts it caused
+            if (failure == null
+                  || TransportDomain.MESSAGE_ABORTED.equals(failure.getMessage()))
+            {
+               failure = e.getCause();
+            }
+         }
+      }
+      if (failure != null)
+      {
+         shutdown();
+         throw new Exception(String.format(
+               "Transport kernel subdomain failed: %s",
+               failure.toString()
+               ), failure);
+      }
+      iteration += numSteps;
+      time = stepTime + numSteps * timeStep;
+   }
+
+   /**
+    * Set the current iteration and time, to align the kernel
+    * with another model
+    *
+    * @param iteration
+    *       iteration
+    * @param time
+    *       time
+    */
+   public void setClock(long iteration, double time)
+   {
+      this.iteration = iteration;
+      this.time = time;
+   }
+
+   /**
+    * Set the number of threads stepping the kernel, replacing any
+    * pool of threads that was set before.  Models too small to split
+    * into chunks of at least {@link #MIN_CHUNK} cells run on a
+    * single thread.
+    *
+    * @param threads
+    *       number of threads, 1 for the calling thread only
+    */
+   public void setThreads(int threads)
+   {
+      shutdown();
+      layoutChunks(threads);
+      if (chunkCell.length > 2)
+      {
+         pool = new ForkJoinPool(threads);
+      }
+   }
+
+   /**
+    * Get the number of chunks each phase is split into
+    *
+    * @return
+    *       number of chunks
+    */
+   public int getNumChunks()
+   {
+      return chunkCell.length - 1;
+   }
+
+   /**
+    * Decompose a single reach into subdomains of contiguous cells in
+    * the order of the stream builder, each stepped by its own thread,
+    * replacing any threads that were set before.  Reaches too short
+    * to split into subdomains of at least {@link #MIN_CHUNK} cells
+    * run on a single thread.
+    *
+    * @param numDomains
+    *       number of subdomains, 1 for the calling thread only
+    * @throws Exception
+    *       if the kernel is not a single reach with downstream flow
+    */
+   public void setDomains(int numDomains) throws Exception
+   {
+      if (!isReach)
+      {
+         throw new Exception(
+               "Domain decomposition requires a single reach with downstream flow"
+               );
+      }
+      shutdown();
+      int[] start = split(numCells, Math.max(1, Math.min(numDomains, numCells / MIN_CHUNK)));
+      if (start.length <= 2)
+      {
+         return;
+      }
+      domains = new TransportDomain[start.length - 1];
+      for (int domain = 0; domain < domains.length; domain++)
+      {
+         domains[domain] = new TransportDomain(this, start[domain],
+               start[domain + 1] - start[domain]);
+         if (domain > 0)
+         {
+            TransportDomain.connect(domains[domain - 1], domains[domain]);
+         }
+      }
+      domainPool = Executors.newFixedThreadPool(domains.length, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, "transport-domain");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   /**
+    * Get the number of subdomains of a decomposed reach
+    *
+    * @return
+    *       number of subdomains, 1 if the kernel is not decomposed
+    */
+   public int getNumDomains()
+   {
+      return domains == null ? 1 : domains.length;
+   }
+
+   /**
+    * Stop the threads of the pool or the subdomains, leaving the
+    * kernel to run on the calling thread
+    */
+   public void shutdown()
+   {
+      if (pool != null)
+      {
+         pool.shutdown();
+         pool = null;
+      }
+      if (domainPool != null)
+      {
+         domainPool.shutdown();
+         domainPool = null;
+         domains = null;
+      }
+      layoutChunks(1);
+   }
+
+   /**
+    * Set the array operations, such as scalar operations where
+    * the vector operations would be chosen
+    *
+    * @param ops
+    *       array operations
+    */
+   public void setOps(TransportOps ops)
+   {
+      this.ops = ops;
+   }
+
+   /**
+    * Get the array operations
+    *
+    * @return
+    *       array operations
+    */
+   public TransportOps getOps()
+   {
+      return ops;
+   }
+
+   /**
+    * Get the time step
+    *
+    * @return
+    *       time step
+    */
+   public double getTimeStep()
+   {
+      return timeStep;
+   }
+
+   /**
+    * Get the volume of each cell
+    *
+    * @return
+    *       volume of each cell, in cell order
+    */
+   double[] getVolume()
+   {
+      return volume;
+   }
+
+   /**
+    * Get the flow across each boundary between cells
+    *
+    * @return
+    *       flow of each boundary, in boundary order
+    */
+   double[] getFaceFlow()
+   {
+      return faceFlow;
+   }
+
+   /**
+    * Get the dispersion conductance of each boundary between cells
+    *
+    * @return
+    *       conductance of each boundary, in boundary order
+    */
+   double[] getFaceConductance()
+   {
+      return faceConductance;
+   }
+
+   /**
+    * Get the flow into the first cell of a single reach
+    *
+    * @return
+    *       flow
+    */
+   double getInflowFlow()
+   {
+      return inflowFlow[0];
+   }
+
+   /**
+    * Get the flow out of the last cell of the outlet reach
+    *
+    * @return
+    *       flow
+    */
+   double getOutflowFlow()
+   {
+      return outflowFlow[0];
+   }
+
+   /**
+    * Get the concentration of a solute at the upstream boundaries
+    *
+    * @param solute
+    *       index of the solute
+    * @param stepIteration
+    *       iteration at the start of the step
+    * @param stageTime
+    *       time of the stage
+    * @return
+    *       concentration
+    */
+   double getInflowConc(int solute, long stepIteration, double stageTime)
+   {
+      return inflows[solute].getConc(stepIteration, stageTime);
+   }
+
+   /**
+    * Get the maximum uptake of a solute over the depth
+    *
+    * @param solute
+    *       index of the solute
+    * @return
+    *       maximum uptake, zero for a solute without uptake
+    */
+   double getUptakeMax(int solute)
+   {
+      return isUptake[solute] ? uptakeMax[solute] : 0.0;
+   }
+
+   /**
+    * Get the concentration of a solute at half the maximum uptake
+    *
+    * @param solute
+    *       index of the solute
+    * @return
+    *       concentration
+    */
+   double getConcHalfSat(int solute)
+   {
+      return concHalfSat[solute];
+   }
+
+   /**
+    * Get the background concentration of a solute
+    *
+    * @param solute
+    *       index of the solute
+    * @return
+    *       concentration
+    */
+   double getBkgConc(int solute)
+   {
+      return bkgConc[solute];
+   }
+
+   /**
+    * Get the current iteration
+    *
+    * @return
+    *       iteration
+    */
+   public long getIteration()
+   {
+      return iteration;
+   }
+
+   /**
+    * Get the current time
+    *
+    * @return
+    *       time
+    */
+   public double getTime()
+   {
+      return time;
+   }
+
+   /**
+    * Get the number of cells
+    *
+    * @return
+    *       number of cells
+    */
+   public int getNumCells()
+   {
+      return numCells;
+   }
+
+   /**
+    * Get the number of solutes
+    *
+    * @return
+    *       number of solutes
+    */
+   public int getNumSolutes()
+   {
+      return soluteNames.length;
+   }
+
+   /**
+    * Get the name of a solute in the configuration
+    *
+    * @param solute
+    *       index of the solute
+    * @return
+    *       name
+    */
+   public String getSoluteName(int solute)
+   {
+      return soluteNames[solute];
+   }
+
+   /**
+    * Get the concentrations of a solute, which can be changed
+    * to set the state of the kernel
+    *
+    * @param solute
+    *       index of the solute
+    * @return
+    *       concentration in each cell, in cell order
+    */
+   public double[] getConc(int solute)
+   {
+      return conc[solute];
+   }
+
+}
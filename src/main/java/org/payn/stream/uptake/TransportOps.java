@@ -0,0 +1,188 @@
+package org.payn.stream.uptake;
+
+/**
+ * Array operations of the {@link TransportKernel} that work on runs of
+ * cells, written as scalar loops.  Each operation works on a range of
+ * cells, so the kernel can give separate ranges to separate threads.  A subclass in the vector source tree
+ * implements the same operations with the incubating Vector API, and
+ * {@link #create(boolean)} uses it when the module is present, falling
+ * back to these loops otherwise.
+ *
+ * Each operation gives the same result for each cell as the scalar
+ * loop, since the vector lanes apply the same operations in the
+ * same order.
+ *
+ * @author robpayn
+ *
+ */
+public class TransportOps {
+
+   /**
+    * Name of the vector implementation
+    */
+   private static final String CLASS_VECTOR = "org.payn.stream.uptake.TransportOpsVector";
+
+   /**
+    * Create the operations for this JVM
+    *
+    * @param isVector
+    *       true if the vector implementation should be used
+    *       when it is available
+    * @return
+    *       vector operations if requested and available,
+    *       scalar operations otherwise
+    */
+   public static TransportOps create(boolean isVector)
+   {
+      if (isVector)
+      {
+         try
+         {
+            return (TransportOps)Class.forName(CLASS_VECTOR).getConstructor().newInstance();
+         }
+         catch (Exception | LinkageError e)
+         {
+            // The vector module or the vector classes are not present
+         }
+      }
+      return new TransportOps();
+   }
+
+   /**
+    * Get a description of the operations for messages
+    *
+    * @return
+    *       description
+    */
+   public String getDescription()
+   {
+      return "scalar";
+   }
+
+   /**
+    * Calculate the mass flux across each boundary between the cells of
+    * a reach, where boundary i drains cell i into cell i + 1 and the
+    * flow is not negative
+    *
+    * @param conc
+    *       concentration in each cell
+    * @param flow
+    *       flow across each boundary
+    * @param conductance
+    *       dispersion conductance of each boundary
+    * @param flux
+    *       mass flux into each cell, where the flux across boundary i
+    *       is written at i + 1
+    * @param fromFace
+    *       first boundary
+    * @param toFace
+    *       boundary after the last
+    */
+   public void reachFluxes(double[] conc, double[] flow, double[] conductance,
+         double[] flux, int fromFace, int toFace)
+   {
+      for (int face = fromFace; face < toFace; face++)
+      {
+         double up = conc[face];
+         flux[face + 1] = flow[face] * up + conductance[face] * (up - conc[face + 1]);
+      }
+   }
+
+   /**
+    * Calculate the rate of change of the concentration in each cell of
+    * a reach from the mass flux into and out of it, less hyperbolic
+    * uptake
+    *
+    * @param conc
+    *       concentration in each cell
+    * @param flux
+    *       mass flux into each cell, where the flux out of cell i
+    *       is the flux into cell i + 1
+    * @param volume
+    *       volume of each cell
+    * @param rate
+    *       rate of change of each cell, replaced
+    * @param fromCell
+    *       first cell
+    * @param toCell
+    *       cell after the last
+    * @param uptakeMax
+    *       maximum uptake over the depth, zero for no uptake
+    * @param concHalfSat
+    *       concentration at half the maximum uptake
+    * @param bkgConc
+    *       background concentration
+    */
+   public void reachRates(double[] conc, double[] flux, double[] volume, double[] rate,
+         int fromCell, int toCell, double uptakeMax, double concHalfSat, double bkgConc)
+   {
+      if (uptakeMax == 0.0)
+      {
+         for (int cell = fromCell; cell < toCell; cell++)
+         {
+            rate[cell] = (flux[cell] - flux[cell + 1]) / volume[cell];
+         }
+      }
+      else
+      {
+         for (int cell = fromCell; cell < toCell; cell++)
+         {
+            double excess = conc[cell] - bkgConc;
+            rate[cell] = (flux[cell] - flux[cell + 1]) / volume[cell]
+                  - uptakeMax * excess / (concHalfSat + excess);
+         }
+      }
+   }
+
+   /**
+    * Calculate the concentrations at the end of the first stage of a step
+    *
+    * @param conc
+    *       concentration in each cell
+    * @param rate
+    *       rate of change of each cell
+    * @param timeStep
+    *       time step
+    * @param stage
+    *       concentration at the end of the stage, replaced
+    * @param fromCell
+    *       first cell
+    * @param toCell
+    *       cell after the last
+    */
+   public void stage(double[] conc, double[] rate, double timeStep, double[] stage,
+         int fromCell, int toCell)
+   {
+      for (int cell = fromCell; cell < toCell; cell++)
+      {
+         stage[cell] = conc[cell] + timeStep * rate[cell];
+      }
+   }
+
+   /**
+    * Advance the concentrations by the mean of the rates at the
+    * start and end of a step
+    *
+    * @param conc
+    *       concentration in each cell, updated
+    * @param rateStart
+    *       rate of change at the start of the step
+    * @param rateEnd
+    *       rate of change at the end of the step
+    * @param halfStep
+    *       half the time step
+    * @param fromCell
+    *       first cell
+    * @param toCell
+    *       cell after the last
+    */
+   public void combine(double[] conc, double[] rateStart, double[] rateEnd,
+         double halfStep, int fromCell, int toCell)
+   {
+      for (int cell = fromCell; cell < toCell; cell++)
+      {
+         conc[cell] += halfStep * (rateStart[cell] + rateEnd[cell]);
+      }
+   }
+
+}
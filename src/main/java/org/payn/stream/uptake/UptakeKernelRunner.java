@@ -0,0 +1,353 @@
+package org.payn.stream.uptake;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+
+import org.payn.neoch.HolonMatrix;
+import org.payn.resources.solute.ResourceSolute;
+import org.payn.resources.solute.concentration.ResourceSoluteConcentration;
+import org.payn.stream.SimulatorStream;
+import org.payn.stream.StreamConfig;
+import org.payn.stream.StreamTimeStep;
+import org.payn.stream.StreamTopology;
+import org.payn.stream.assimilation.StateVector;
+import org.payn.stream.io.StreamNameTable;
+
+/**
+ * Runs an uptake model with the fused {@link TransportKernel} rather
+ * than the holon matrix, selected by the argument {@link #ARG_KERNEL}
+ * of the uptake simulator.
+ *
+ * The kernel writes the concentrations of each solute in each cell
+ * to a table in the output directory every {@link #ARG_INTERVAL}
+ * iterations.  With the argument {@link #ARG_CHECK}, the holon matrix
+ * is also built and the two are stepped side by side, comparing the
+ * concentrations at the check interval, and the run fails if the
+ * largest difference relative to the largest concentration exceeds
+ * {@link #ARG_TOLERANCE}.  With the argument {@link #ARG_THREADS},
+ * each step of the kernel is split over a pool of threads, and with
+ * the argument {@link #ARG_DOMAINS}, a single reach is decomposed into
+ * subdomains stepped by their own threads.
+ *
+ * @author robpayn
+ *
+ */
+public class UptakeKernelRunner {
+
+   /**
+    * Argument that selects the kernel
+    */
+   public static final String ARG_KERNEL = "kernel";
+
+   /**
+    * Argument for the number of iterations between reported
+    * concentrations, default is 1
+    */
+   public static final String ARG_INTERVAL = "kernelInterval";
+
+   /**
+    * Argument for the number of iterations between checks against
+    * the holon matrix, no check by default
+    */
+   public static final String ARG_CHECK = "kernelCheck";
+
+   /**
+    * Argument for the relative tolerance of the check, default is 1e-6
+    */
+   public static final String ARG_TOLERANCE = "kernelTolerance";
+
+   /**
+    * Argument for using the Vector API where it is available,
+    * default is true
+    */
+   public static final String ARG_VECTOR = "kernelVector";
+
+   /**
+    * Argument for the number of threads stepping the kernel,
+    * default is 1
+    */
+   public static final String ARG_THREADS = "kernelThreads";
+
+   /**
+    * Argument for the number of subdomains of a single reach, each
+    * stepped by its own thread, no decomposition by default
+    */
+   public static final String ARG_DOMAINS = "kernelDomains";
+
+   /**
+    * Directory of the concentration tables, relative to the
+    * working directory
+    */
+   public static final String OUTPUT_DIR = "output";
+
+   /**
+    * Working directory of the simulation
+    */
+   private File workingDir;
+
+   /**
+    * Command line arguments of the simulation
+    */
+   private String[] args;
+
+   /**
+    * Command line arguments by name
+    */
+   private HashMap<String, String> argMap;
+
+   /**
+    * Construct a new runner for the provided simulation
+    *
+    * @param workingDir
+    *       working directory of the simulation
+    * @param args
+    *       command line arguments of the simulation
+    */
+   public UptakeKernelRunner(File workingDir, String[] args)
+   {
+      this.workingDir = workingDir;
+      this.args = args;
+      this.argMap = new HashMap<String, String>();
+      for (String arg: args)
+      {
+         int split = arg.indexOf('=');
+         if (split > 0)
+         {
+            argMap.put(arg.substring(0, split), arg.substring(split + 1));
+         }
+      }
+   }
+
+   /**
+    * Run the kernel to the last iteration of the configuration
+    *
+    * @throws Exception
+    *       if the kernel cannot be laid out, error in writing the
+    *       output, or the kernel does not match the holon matrix
+    */
+   public void run() throws Exception
+   {
+      MetaInputXMLHyperUptake metaInput =
+            new MetaInputXMLHyperUptake(workingDir, argMap.get("config"), "stream");
+      StreamTopology topology = StreamTopology.create(metaInput.getConfig());
+      StreamConfig config = StreamTimeStep.select(metaInput.getConfig(), topology, false);
+      TransportKernel kernel = TransportKernel.create(config, topology, metaInput.getInputDir());
+      kernel.setOps(TransportOps.create(!"false".equals(argMap.get(ARG_VECTOR))));
+      if (argMap.containsKey(ARG_THREADS))
+      {
+         kernel.setThreads(Integer.valueOf(argMap.get(ARG_THREADS)));
+      }
+      if (argMap.containsKey(ARG_DOMAINS))
+      {
+         kernel.setDomains(Integer.valueOf(argMap.get(ARG_DOMAINS)));
+      }
+      try
+      {
+         run(kernel, topology, metaInput, config.getLastIteration());
+      }
+      finally
+      {
+         kernel.shutdown();
+      }
+   }
+
+   /**
+    * Run the kernel and write its output, or check it against the
+    * holon matrix
+    *
+    * @param kernel
+    *       kernel
+    * @param topology
+    *       topology of the stream
+    * @param metaInput
+    *       meta input of the model
+    * @param lastIteration
+    *       last iteration, after the selection of the time step
+    * @throws Exception
+    *       if error in writing the output, or the kernel does
+    *       not match the holon matrix
+    */
+   private void run(TransportKernel kernel, StreamTopology topology,
+         MetaInputXMLHyperUptake metaInput, long lastIteration) throws Exception
+   {
+      if (argMap.containsKey(ARG_CHECK))
+      {
+         check(kernel, metaInput, Long.valueOf(argMap.get(ARG_CHECK)), lastIteration);
+         return;
+      }
+
+      long interval = argMap.containsKey(ARG_INTERVAL) ?
+            Long.valueOf(argMap.get(ARG_INTERVAL)) : 1;
+      System.out.println(String.format(
+            "Running the transport kernel for %d cells and %d solutes with %s operations in %d chunks and %d subdomains...",
+            kernel.getNumCells(),
+            kernel.getNumSolutes(),
+            kernel.getOps().getDescription(),
+            kernel.getNumChunks(),
+            kernel.getNumDomains()
+            ));
+      long start = System.currentTimeMillis();
+      File outputDir = new File(workingDir, OUTPUT_DIR);
+      outputDir.mkdirs();
+      BufferedWriter[] writers = new BufferedWriter[kernel.getNumSolutes()];
+      try
+      {
+         for (int solute = 0; solute < writers.length; solute++)
+         {
+            writers[solute] = new BufferedWriter(new FileWriter(new File(outputDir,
+                  String.format("kernel_%s.txt", kernel.getSoluteName(solute)))));
+            writers[solute].write("time");
+            StreamNameTable nameTable = topology.getNameTable();
+            for (int cell = 1; cell <= kernel.getNumCells(); cell++)
+            {
+               writers[solute].write(" " + nameTable.getCellName(cell));
+            }
+            writers[solute].newLine();
+         }
+         write(writers, kernel);
+         while (kernel.getIteration() < lastIteration)
+         {
+            kernel.advanceTo(Math.min(kernel.getIteration() + interval, lastIteration));
+            write(writers, kernel);
+         }
+      }
+      finally
+      {
+         for (BufferedWriter writer: writers)
+         {
+            if (writer != null)
+            {
+               writer.close();
+            }
+         }
+      }
+      System.out.println(String.format(
+            "Transport kernel finished in %.1f s",
+            (System.currentTimeMillis() - start) / 1000.0
+            ));
+   }
+
+   /**
+    * Write the current concentrations of the kernel
+    *
+    * @param writers
+    *       table of each solute
+    * @param kernel
+    *       kernel
+    * @throws Exception
+    *       if error in writing
+    */
+   private static void write(BufferedWriter[] writers, TransportKernel kernel)
+         throws Exception
+   {
+      for (int solute = 0; solute < writers.length; solute++)
+      {
+         BufferedWriter writer = writers[solute];
+         writer.write(Double.toString(kernel.getTime()));
+         for (double conc: kernel.getConc(solute))
+         {
+            writer.write(" ");
+            writer.write(Double.toString(conc));
+         }
+         writer.newLine();
+      }
+   }
+
+   /**
+    * Step the kernel alongside the holon matrix and compare the
+    * concentrations at an interval
+    *
+    * @param kernel
+    *       kernel
+    * @param metaInput
+    *       meta input of the model
+    * @param interval
+    *       number of iterations between checks
+    * @param lastIteration
+    *       last iteration
+    * @throws Exception
+    *       if the holon matrix cannot be built or the kernel
+    *       does not match it
+    */
+   private void check(TransportKernel kernel, MetaInputXMLHyperUptake metaInput,
+         long interval, long lastIteration) throws Exception
+   {
+      double tolerance = argMap.containsKey(ARG_TOLERANCE) ?
+            Double.valueOf(argMap.get(ARG_TOLERANCE)) : 1e-6;
+      SimulatorStream simulator = new SimulatorStream(
+            workingDir,
+            args,
+            new MatrixLoaderUptakeSimulator()
+            );
+      simulator.getInputProcessorFactory().addHyperUptakeBuilderInputProcessor(
+            workingDir, argMap.get("config")
+            );
+      simulator.setStepped(true);
+      simulator.execute();
+      kernel.setClock(simulator.getIteration(), simulator.getTime());
+
+      // Bind the concentrations of the holons in the order of the kernel
+      HolonMatrix matrix = simulator.getMatrix();
+      StreamNameTable nameTable = simulator.getNameTable();
+      StateVector[] vectors = new StateVector[kernel.getNumSolutes()];
+      double[][] reference = new double[vectors.length][kernel.getNumCells()];
+      for (int solute = 0; solute < vectors.length; solute++)
+      {
+         String soluteName = kernel.getSoluteName(solute);
+         ResourceSoluteConcentration resource = new ResourceSoluteConcentration();
+         resource.initialize(soluteName.equals("conservative") ? "conserve" : soluteName);
+         String stateName = resource.getBehavior(ResourceSolute.BEHAVIOR_STORAGE)
+               .getAbstractStateName(ResourceSolute.NAME_SOLUTE_CONC);
+         vectors[solute] = new StateVector();
+         for (int cell = 1; cell <= kernel.getNumCells(); cell++)
+         {
+            vectors[solute].add(matrix.getCell(nameTable.getCellName(cell)), stateName);
+         }
+      }
+
+      System.out.println(String.format(
+            "Checking the transport kernel against the holon matrix every %d iterations...",
+            interval
+            ));
+      double worst = 0.0;
+      while (kernel.getIteration() < lastIteration)
+      {
+         long iteration = Math.min(kernel.getIteration() + interval, lastIteration);
+         simulator.advanceTo(iteration);
+         kernel.advanceTo(iteration);
+         for (int solute = 0; solute < vectors.length; solute++)
+         {
+            vectors[solute].read(reference[solute]);
+            double[] conc = kernel.getConc(solute);
+            double maxDiff = 0.0;
+            double maxConc = 0.0;
+            for (int cell = 0; cell < conc.length; cell++)
+            {
+               maxDiff = Math.max(maxDiff, Math.abs(conc[cell] - reference[solute][cell]));
+               maxConc = Math.max(maxConc, Math.abs(reference[solute][cell]));
+            }
+            double relative = maxConc > 0.0 ? maxDiff / maxConc : maxDiff;
+            worst = Math.max(worst, relative);
+            System.out.println(String.format(
+                  "Iteration %d, %s: largest difference %s, relative %s",
+                  iteration,
+                  kernel.getSoluteName(solute),
+                  Double.toString(maxDiff),
+                  Double.toString(relative)
+                  ));
+         }
+      }
+      if (worst > tolerance)
+      {
+         throw new Exception(String.format(
+               "Transport kernel differs from the holon matrix by %s, more than the tolerance %s",
+               Double.toString(worst),
+               Double.toString(tolerance)
+               ));
+      }
+      System.out.println("Transport kernel matches the holon matrix");
+   }
+
+}
@@ -0,0 +1,267 @@
+package org.payn.stream.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the binary snapshot of a matrix definition
+ *
+ * @author robpayn
+ *
+ */
+public class MatrixDefinitionTest {
+
+   /**
+    * Directory for the snapshot files
+    */
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   /**
+    * A definition read from its snapshot has the same holons,
+    * behavior assignments, initial values, and string table
+    *
+    * @throws Exception
+    *       if error in writing or reading the snapshot
+    */
+   @Test
+   public void testSnapshotRoundTrip() throws Exception
+   {
+      MatrixDefinition definition = createDefinition();
+      File file = new File(folder.getRoot(), "model.snapshot");
+      definition.writeSnapshot(file);
+      MatrixDefinition snapshot = MatrixDefinition.readSnapshot(file);
+      assertSameStrings(definition, snapshot);
+      assertSameDefinition(definition, snapshot);
+      assertEquals("Non-ASCII string", "\u00e9t\u00e9",
+            snapshot.getValueString(snapshot.getFirstValue(1)));
+   }
+
+   /**
+    * A snapshot of another version is refused rather than read
+    *
+    * @throws Exception
+    *       if error in writing the snapshot
+    */
+   @Test
+   public void testSnapshotVersion() throws Exception
+   {
+      File file = new File(folder.getRoot(), "model.snapshot");
+      createDefinition().writeSnapshot(file);
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      ByteBuffer.wrap(bytes).putInt(4, MatrixDefinition.SNAPSHOT_VERSION + 1);
+      Files.write(file.toPath(), bytes);
+      try
+      {
+         MatrixDefinition.readSnapshot(file);
+         fail("Snapshot of another version was read");
+      }
+      catch (Exception e)
+      {
+         assertTrue(e.getMessage(), e.getMessage().contains(
+               "version " + MatrixDefinition.SNAPSHOT_VERSION + " is required"));
+      }
+
+      ByteBuffer.wrap(bytes).putInt(0, 0);
+      Files.write(file.toPath(), bytes);
+      try
+      {
+         MatrixDefinition.readSnapshot(file);
+         fail("File without the snapshot identifier was read");
+      }
+      catch (Exception e)
+      {
+         assertTrue(e.getMessage(), e.getMessage().contains("is not a matrix snapshot"));
+      }
+   }
+
+   /**
+    * A segment appended to a definition read from a snapshot resolves
+    * its halo holons by name, reuses the strings already in the table,
+    * and gives the same holons, behavior assignments, and initial values
+    * as the segment appended before the snapshot
+    *
+    * @throws Exception
+    *       if error in writing or reading the snapshot
+    */
+   @Test
+   public void testAppendAfterSnapshot() throws Exception
+   {
+      File file = new File(folder.getRoot(), "model.snapshot");
+      createDefinition().writeSnapshot(file);
+      MatrixDefinition snapshot = MatrixDefinition.readSnapshot(file);
+      int stringCount = snapshot.getStringCount();
+      snapshot.append(createSegment(), 3);
+
+      MatrixDefinition expected = createDefinition();
+      expected.append(createSegment(), 3);
+      assertSameDefinition(expected, snapshot);
+
+      int cell = snapshot.getHolonIndex("cell3");
+      int boundary = snapshot.getHolonIndex("cell3up");
+      int halo = snapshot.getHolonIndex("cell2down");
+      assertEquals("Holons", 8, snapshot.getHolonCount());
+      assertEquals("Attached cell", cell, snapshot.getHolonCell(boundary));
+      assertEquals("Adjacent boundary", halo, snapshot.getHolonAdjacent(boundary));
+      assertEquals("Adjacent halo boundary", boundary, snapshot.getHolonAdjacent(halo));
+      assertEquals("Strings", stringCount + 2, snapshot.getStringCount());
+
+      // The snapshot of the appended definition reads back the same
+      File appendedFile = new File(folder.getRoot(), "appended.snapshot");
+      snapshot.writeSnapshot(appendedFile);
+      MatrixDefinition appended = MatrixDefinition.readSnapshot(appendedFile);
+      assertSameStrings(snapshot, appended);
+      assertSameDefinition(snapshot, appended);
+   }
+
+   /**
+    * Create a definition of two cells joined by a pair of boundaries,
+    * with default and holon behaviors, numeric and string values,
+    * and an initial value table
+    *
+    * @return
+    *       definition
+    */
+   private static MatrixDefinition createDefinition()
+   {
+      MatrixDefinition definition = new MatrixDefinition("root");
+      int cell1 = definition.addCell("cell1");
+      int cell2 = definition.addCell("cell2");
+      int down = definition.addBoundary("cell1down", cell1);
+      int up = definition.addBoundary("cell2up", cell2);
+      definition.setAdjacent(down, up);
+      definition.addBoundary("cell2down", cell2);
+
+      int behavior = definition.addBehavior(MatrixDefinition.HOLON_DEFAULT, "water");
+      definition.addInitValue(behavior, "depth", 0.5);
+      definition.addInitValue(behavior, "flow", 0.1);
+      behavior = definition.addBehavior(cell1, "solute");
+      definition.addInitValue(behavior, "name", "\u00e9t\u00e9");
+      definition.addInitValue(behavior, "conc", 1.0e-3);
+      behavior = definition.addBehavior(cell2, "solute");
+      definition.setInitTable(behavior, "init/solute.csv", ",");
+      definition.addInitValue(behavior, "conc", 2.0e-3);
+      return definition;
+   }
+
+   /**
+    * Create a segment built separately from the definition, with the
+    * last cell and boundary of the definition as halo holons
+    *
+    * @return
+    *       segment, with the first holon to append at index 3
+    */
+   private static MatrixDefinition createSegment()
+   {
+      MatrixDefinition segment = new MatrixDefinition("root");
+      int haloCell = segment.addCell("cell2");
+      int haloBoundary = segment.addBoundary("cell2down", haloCell);
+      int cell = segment.addCell("cell3");
+      int up = segment.addBoundary("cell3up", cell);
+      segment.setAdjacent(haloBoundary, up);
+
+      int behavior = segment.addBehavior(cell, "solute");
+      segment.addInitValue(behavior, "conc", 3.0e-3);
+      segment.addInitValue(behavior, "name", "\u00e9t\u00e9");
+      return segment;
+   }
+
+   /**
+    * Assert that two definitions have the same string table
+    *
+    * @param expected
+    *       expected definition
+    * @param actual
+    *       actual definition
+    */
+   private static void assertSameStrings(MatrixDefinition expected, MatrixDefinition actual)
+   {
+      assertEquals("Strings", expected.getStringCount(), actual.getStringCount());
+      for (int string = 0; string < expected.getStringCount(); string++)
+      {
+         assertEquals("String " + string, expected.getString(string),
+               actual.getString(string));
+      }
+   }
+
+   /**
+    * Assert that two definitions have the same holons, behavior
+    * assignments, and initial values.  Strings are compared by value,
+    * since a string can be at another index of the string table.
+    *
+    * @param expected
+    *       expected definition
+    * @param actual
+    *       actual definition
+    */
+   private static void assertSameDefinition(MatrixDefinition expected,
+         MatrixDefinition actual)
+   {
+      assertEquals("Holons", expected.getHolonCount(), actual.getHolonCount());
+      for (int holon = 0; holon < expected.getHolonCount(); holon++)
+      {
+         assertEquals("Holon type", expected.getHolonType(holon),
+               actual.getHolonType(holon));
+         assertEquals("Holon name", expected.getHolonName(holon),
+               actual.getHolonName(holon));
+         assertEquals("Holon cell", expected.getHolonCell(holon),
+               actual.getHolonCell(holon));
+         assertEquals("Holon adjacent", expected.getHolonAdjacent(holon),
+               actual.getHolonAdjacent(holon));
+      }
+      assertEquals("Behaviors", expected.getBehaviorCount(), actual.getBehaviorCount());
+      for (int behavior = 0; behavior < expected.getBehaviorCount(); behavior++)
+      {
+         assertEquals("Behavior holon", expected.getBehaviorHolon(behavior),
+               actual.getBehaviorHolon(behavior));
+         assertEquals("Behavior name", expected.getBehaviorName(behavior),
+               actual.getBehaviorName(behavior));
+         assertEquals("Table path", getString(expected, expected.getTablePath(behavior)),
+               getString(actual, actual.getTablePath(behavior)));
+         assertEquals("Table delimiter",
+               getString(expected, expected.getTableDelimiter(behavior)),
+               getString(actual, actual.getTableDelimiter(behavior)));
+         int expectedValue = expected.getFirstValue(behavior);
+         int actualValue = actual.getFirstValue(behavior);
+         while (expectedValue != MatrixDefinition.NONE)
+         {
+            assertEquals("Value", expectedValue, actualValue);
+            assertEquals("Value name", expected.getValueName(expectedValue),
+                  actual.getValueName(actualValue));
+            assertEquals("Value numeric", expected.isValueNumeric(expectedValue),
+                  actual.isValueNumeric(actualValue));
+            assertEquals("Value string", expected.getValueString(expectedValue),
+                  actual.getValueString(actualValue));
+            expectedValue = expected.getNextValue(expectedValue);
+            actualValue = actual.getNextValue(actualValue);
+         }
+         assertEquals("Last value", MatrixDefinition.NONE, actualValue);
+      }
+      assertEquals("Values", expected.getValueCount(), actual.getValueCount());
+   }
+
+   /**
+    * Get a string from the string table of a definition
+    *
+    * @param definition
+    *       definition
+    * @param index
+    *       index in the string table, or NONE
+    * @return
+    *       string, null for NONE
+    */
+   private static String getString(MatrixDefinition definition, int index)
+   {
+      return index == MatrixDefinition.NONE ? null : definition.getString(index);
+   }
+
+}
@@ -0,0 +1,167 @@
+package org.payn.stream.uptake;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.payn.stream.StreamConfig;
+import org.payn.stream.StreamTopology;
+
+/**
+ * Tests of the transport kernel on a network of two tributaries
+ * joining a receiving reach that has no inflow of its own
+ *
+ * @author robpayn
+ *
+ */
+public class TransportKernelTest {
+
+   /**
+    * Flow entering each headwater
+    */
+   private static final double FLOW = 0.1;
+
+   /**
+    * Depth of the water
+    */
+   private static final double DEPTH = 0.5;
+
+   /**
+    * Mass of the conservative solute injected at each headwater
+    */
+   private static final double INJECT_MASS = 10.0;
+
+   /**
+    * Directory for the network table
+    */
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   /**
+    * Mass injected at the headwaters is either stored in the cells or
+    * has left through the outlet, which carries the flow of both
+    * headwaters
+    *
+    * @throws Exception
+    *       if error in building or stepping the kernel
+    */
+   @Test
+   public void testNetworkConservesMass() throws Exception
+   {
+      TransportKernel kernel = createKernel(0.0, INJECT_MASS);
+      double[] conc = kernel.getConc(0);
+      double[] volume = kernel.getVolume();
+      int outletCell = kernel.getNumCells() - 1;
+      double outflow = 2 * FLOW;
+      double outflowMass = 0.0;
+      try
+      {
+         // Outflow integrated with the trapezoid rule
+         for (int step = 0; step < 3000; step++)
+         {
+            double concStart = conc[outletCell];
+            kernel.step();
+            outflowMass += 0.5 * kernel.getTimeStep() * outflow
+                  * (concStart + conc[outletCell]);
+         }
+      }
+      finally
+      {
+         kernel.shutdown();
+      }
+      double storedMass = 0.0;
+      for (int cell = 0; cell < conc.length; cell++)
+      {
+         storedMass += conc[cell] * volume[cell];
+      }
+      assertEquals("Injected mass", 2 * INJECT_MASS, storedMass + outflowMass,
+            1e-3 * INJECT_MASS);
+   }
+
+   /**
+    * Inflow at the background concentration keeps every cell at the
+    * background concentration, which requires the flow into each cell
+    * to equal the flow out of it
+    *
+    * @throws Exception
+    *       if error in building or stepping the kernel
+    */
+   @Test
+   public void testNetworkConservesFlow() throws Exception
+   {
+      TransportKernel kernel = createKernel(1.0, 0.0);
+      try
+      {
+         kernel.advanceTo(200);
+      }
+      finally
+      {
+         kernel.shutdown();
+      }
+      double[] conc = kernel.getConc(0);
+      for (int cell = 0; cell < conc.length; cell++)
+      {
+         assertEquals("Concentration of cell " + (cell + 1), 1.0, conc[cell], 1e-12);
+      }
+   }
+
+   /**
+    * Create a kernel for a network with two tributaries of 20 and
+    * 15 cells joining cells 5 and 20 of a receiving reach of 30 cells
+    *
+    * @param bkgConc
+    *       background concentration of the conservative solute
+    * @param injectMass
+    *       mass injected at each headwater
+    * @return
+    *       kernel
+    * @throws Exception
+    *       if error in building the kernel
+    */
+   private TransportKernel createKernel(double bkgConc, double injectMass) throws Exception
+   {
+      File networkFile = new File(folder.getRoot(), "network.csv");
+      FileWriter writer = new FileWriter(networkFile);
+      try
+      {
+         writer.write("name,length,numCells,downstream,confluenceCell\n");
+         writer.write("trib1,20,20,main,5\n");
+         writer.write("trib2,15,15,main,20\n");
+         writer.write("main,30,30,,\n");
+      }
+      finally
+      {
+         writer.close();
+      }
+
+      StreamConfig.Builder builder = new StreamConfig.Builder();
+      builder.setCellName("cell");
+      builder.setBoundaryName("bound");
+      builder.setNetworkFile(networkFile);
+      builder.setNetworkDelimiter(",");
+      builder.setAverageWidth(1.0);
+      builder.setBedSlope(0.01);
+      builder.setElevationDatum(0.0);
+      builder.setActiveDepth(DEPTH);
+      builder.setTimeInterval(1.0);
+      builder.setLastIteration(3000L);
+      builder.setInitialDepth(DEPTH);
+      builder.setInitialFlow(FLOW);
+      builder.setDispersionCoefficient(0.05);
+      StreamConfig.Solute.Builder solute = new StreamConfig.Solute.Builder("conservative");
+      solute.setActive(true);
+      solute.setBkgConc(bkgConc);
+      solute.setUpstreamInject(true);
+      solute.setInjectMass(injectMass);
+      solute.setInjectDuration(10L);
+      solute.setInjectStartInterval(1L);
+      builder.setSolute(solute.build());
+      StreamConfig config = builder.build();
+      return TransportKernel.create(config, StreamTopology.create(config), folder.getRoot());
+   }
+
+}
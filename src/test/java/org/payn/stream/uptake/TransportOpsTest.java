@@ -0,0 +1,173 @@
+package org.payn.stream.uptake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the vector operations of the transport kernel give the
+ * same results as the scalar loops, bit for bit, on ranges that do
+ * not fill a whole number of vectors
+ *
+ * @author robpayn
+ *
+ */
+public class TransportOpsTest {
+
+   /**
+    * Lengths of the ranges tested, each leaving cells after the
+    * last full vector for any vector length
+    */
+   private static final int[] LENGTHS = {1, 3, 5, 7, 13, 37, 101};
+
+   /**
+    * First cell of the ranges tested, so the vectors do not start
+    * at the start of the arrays
+    */
+   private static final int FIRST_CELL = 1;
+
+   /**
+    * Scalar operations
+    */
+   private TransportOps scalar = new TransportOps();
+
+   /**
+    * Reach fluxes of the vector operations match the scalar loop
+    */
+   @Test
+   public void testReachFluxes()
+   {
+      TransportOps vector = createVector();
+      Random random = new Random(42);
+      for (int length: LENGTHS)
+      {
+         double[] conc = randomArray(random, length);
+         double[] flow = randomArray(random, length);
+         double[] conductance = randomArray(random, length);
+         double[] fluxScalar = new double[length + 3];
+         double[] fluxVector = new double[length + 3];
+         scalar.reachFluxes(conc, flow, conductance, fluxScalar,
+               FIRST_CELL, FIRST_CELL + length);
+         vector.reachFluxes(conc, flow, conductance, fluxVector,
+               FIRST_CELL, FIRST_CELL + length);
+         assertSameBits("Fluxes of " + length + " cells", fluxScalar, fluxVector);
+      }
+   }
+
+   /**
+    * Rates of the vector operations match the scalar loop, with
+    * and without uptake
+    */
+   @Test
+   public void testReachRates()
+   {
+      TransportOps vector = createVector();
+      Random random = new Random(43);
+      for (int length: LENGTHS)
+      {
+         double[] conc = randomArray(random, length);
+         double[] flux = randomArray(random, length);
+         double[] volume = randomArray(random, length);
+         for (double uptakeMax: new double[] {0.0, 0.3})
+         {
+            double[] rateScalar = new double[length + 3];
+            double[] rateVector = new double[length + 3];
+            scalar.reachRates(conc, flux, volume, rateScalar,
+                  FIRST_CELL, FIRST_CELL + length, uptakeMax, 0.7, 0.1);
+            vector.reachRates(conc, flux, volume, rateVector,
+                  FIRST_CELL, FIRST_CELL + length, uptakeMax, 0.7, 0.1);
+            assertSameBits("Rates of " + length + " cells with uptake " + uptakeMax,
+                  rateScalar, rateVector);
+         }
+      }
+   }
+
+   /**
+    * Both stages of a step of the vector operations match the
+    * scalar loops
+    */
+   @Test
+   public void testStageAndCombine()
+   {
+      TransportOps vector = createVector();
+      Random random = new Random(44);
+      for (int length: LENGTHS)
+      {
+         double[] conc = randomArray(random, length);
+         double[] rateStart = randomArray(random, length);
+         double[] rateEnd = randomArray(random, length);
+         double[] stageScalar = new double[length + 3];
+         double[] stageVector = new double[length + 3];
+         scalar.stage(conc, rateStart, 0.37, stageScalar, FIRST_CELL, FIRST_CELL + length);
+         vector.stage(conc, rateStart, 0.37, stageVector, FIRST_CELL, FIRST_CELL + length);
+         assertSameBits("Stage of " + length + " cells", stageScalar, stageVector);
+
+         double[] concScalar = conc.clone();
+         double[] concVector = conc.clone();
+         scalar.combine(concScalar, rateStart, rateEnd, 0.185,
+               FIRST_CELL, FIRST_CELL + length);
+         vector.combine(concVector, rateStart, rateEnd, 0.185,
+               FIRST_CELL, FIRST_CELL + length);
+         assertSameBits("Combine of " + length + " cells", concScalar, concVector);
+      }
+   }
+
+   /**
+    * Create the vector operations, skipping the test if the vector
+    * module or classes are not present
+    *
+    * @return
+    *       vector operations
+    */
+   private static TransportOps createVector()
+   {
+      TransportOps ops = TransportOps.create(true);
+      assumeTrue("Vector operations are not available",
+            ops.getClass() != TransportOps.class);
+      return ops;
+   }
+
+   /**
+    * Create an array for a range of cells with a halo cell at each end
+    *
+    * @param random
+    *       random number generator
+    * @param length
+    *       number of cells in the range
+    * @return
+    *       array of positive values
+    */
+   private static double[] randomArray(Random random, int length)
+   {
+      double[] array = new double[length + 3];
+      for (int i = 0; i < array.length; i++)
+      {
+         array[i] = 0.01 + random.nextDouble();
+      }
+      return array;
+   }
+
+   /**
+    * Assert that two arrays hold the same bits
+    *
+    * @param message
+    *       message for a failure
+    * @param expected
+    *       expected array
+    * @param actual
+    *       actual array
+    */
+   private static void assertSameBits(String message, double[] expected, double[] actual)
+   {
+      for (int i = 0; i < expected.length; i++)
+      {
+         assertEquals(message + ", index " + i,
+               Double.doubleToRawLongBits(expected[i]),
+               Double.doubleToRawLongBits(actual[i]));
+      }
+   }
+
+}
@@ -0,0 +1,138 @@
+package org.payn.stream.uptake;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Array operations of the {@link TransportKernel} written with the
+ * incubating Vector API, processing as many cells per instruction as
+ * the preferred vector shape of the processor holds, such as four
+ * with AVX2 or eight with AVX-512.  The cells left over after the
+ * last full vector are processed by scalar loops.
+ *
+ * This class needs JDK 16 or later with the option
+ * --add-modules jdk.incubator.vector, both to compile and to run.
+ * It is kept in its own source tree so the rest of the code builds
+ * without the module, and {@link TransportOps#create(boolean)} falls
+ * back to the scalar operations when it cannot be loaded.
+ *
+ * @author robpayn
+ *
+ */
+public class TransportOpsVector extends TransportOps {
+
+   /**
+    * Preferred vector shape of the processor
+    */
+   private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+   @Override
+   public String getDescription()
+   {
+      return String.format("vector, %d lanes", SPECIES.length());
+   }
+
+   @Override
+   public void reachFluxes(double[] conc, double[] flow, double[] conductance,
+         double[] flux, int fromFace, int toFace)
+   {
+      int face = fromFace;
+      int bound = fromFace + SPECIES.loopBound(toFace - fromFace);
+      for (; face < bound; face += SPECIES.length())
+      {
+         DoubleVector up = DoubleVector.fromArray(SPECIES, conc, face);
+         DoubleVector down = DoubleVector.fromArray(SPECIES, conc, face + 1);
+         DoubleVector advection = DoubleVector.fromArray(SPECIES, flow, face).mul(up);
+         DoubleVector dispersion = DoubleVector.fromArray(SPECIES, conductance, face)
+               .mul(up.sub(down));
+         advection.add(dispersion).intoArray(flux, face + 1);
+      }
+      for (; face < toFace; face++)
+      {
+         double up = conc[face];
+         flux[face + 1] = flow[face] * up + conductance[face] * (up - conc[face + 1]);
+      }
+   }
+
+   @Override
+   public void reachRates(double[] conc, double[] flux, double[] volume, double[] rate,
+         int fromCell, int toCell, double uptakeMax, double concHalfSat, double bkgConc)
+   {
+      if (uptakeMax == 0.0)
+      {
+         int cell = fromCell;
+         int bound = fromCell + SPECIES.loopBound(toCell - fromCell);
+         for (; cell < bound; cell += SPECIES.length())
+         {
+            DoubleVector fluxIn = DoubleVector.fromArray(SPECIES, flux, cell);
+            DoubleVector fluxOut = DoubleVector.fromArray(SPECIES, flux, cell + 1);
+            fluxIn.sub(fluxOut).div(DoubleVector.fromArray(SPECIES, volume, cell))
+                  .intoArray(rate, cell);
+         }
+         for (; cell < toCell; cell++)
+         {
+            rate[cell] = (flux[cell] - flux[cell + 1]) / volume[cell];
+         }
+      }
+      else
+      {
+         int cell = fromCell;
+         int bound = fromCell + SPECIES.loopBound(toCell - fromCell);
+         for (; cell < bound; cell += SPECIES.length())
+         {
+            DoubleVector fluxIn = DoubleVector.fromArray(SPECIES, flux, cell);
+            DoubleVector fluxOut = DoubleVector.fromArray(SPECIES, flux, cell + 1);
+            DoubleVector excess = DoubleVector.fromArray(SPECIES, conc, cell).sub(bkgConc);
+            DoubleVector uptake = excess.mul(uptakeMax).div(excess.add(concHalfSat));
+            fluxIn.sub(fluxOut).div(DoubleVector.fromArray(SPECIES, volume, cell))
+                  .sub(uptake)
+                  .intoArray(rate, cell);
+         }
+         for (; cell < toCell; cell++)
+         {
+            double excess = conc[cell] - bkgConc;
+            rate[cell] = (flux[cell] - flux[cell + 1]) / volume[cell]
+                  - uptakeMax * excess / (concHalfSat + excess);
+         }
+      }
+   }
+
+   @Override
+   public void stage(double[] conc, double[] rate, double timeStep, double[] stage,
+         int fromCell, int toCell)
+   {
+      int cell = fromCell;
+      int bound = fromCell + SPECIES.loopBound(toCell - fromCell);
+      for (; cell < bound; cell += SPECIES.length())
+      {
+         DoubleVector.fromArray(SPECIES, rate, cell).mul(timeStep)
+               .add(DoubleVector.fromArray(SPECIES, conc, cell))
+               .intoArray(stage, cell);
+      }
+      for (; cell < toCell; cell++)
+      {
+         stage[cell] = conc[cell] + timeStep * rate[cell];
+      }
+   }
+
+   @Override
+   public void combine(double[] conc, double[] rateStart, double[] rateEnd,
+         double halfStep, int fromCell, int toCell)
+   {
+      int cell = fromCell;
+      int bound = fromCell + SPECIES.loopBound(toCell - fromCell);
+      for (; cell < bound; cell += SPECIES.length())
+      {
+         DoubleVector.fromArray(SPECIES, rateStart, cell)
+               .add(DoubleVector.fromArray(SPECIES, rateEnd, cell))
+               .mul(halfStep)
+               .add(DoubleVector.fromArray(SPECIES, conc, cell))
+               .intoArray(conc, cell);
+      }
+      for (; cell < toCell; cell++)
+      {
+         conc[cell] += halfStep * (rateStart[cell] + rateEnd[cell]);
+      }
+   }
+
+}